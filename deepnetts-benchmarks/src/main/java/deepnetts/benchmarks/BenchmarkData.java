@@ -0,0 +1,105 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.benchmarks;
+
+import deepnetts.data.TabularDataSet;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.InputLayer;
+import deepnetts.net.train.opt.OptimizerType;
+import deepnetts.util.Tensor;
+import deepnetts.util.Tensors;
+import java.util.Random;
+
+/**
+ * Synthetic data and network setup shared by benchmarks.
+ *
+ * @author Zoran Sevarac
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() { }
+
+    /**
+     * Creates classification data set with one cluster of points per class,
+     * and one-hot encoded targets.
+     *
+     * @param size number of items
+     * @param inputs number of input features
+     * @param classes number of classes
+     * @param seed random seed
+     * @return synthetic classification data set
+     */
+    static TabularDataSet<TabularDataSet.Item> classificationSet(int size, int inputs, int classes, long seed) {
+        final Random rnd = new Random(seed);
+        final TabularDataSet<TabularDataSet.Item> dataSet = new TabularDataSet<>(inputs, classes);
+
+        for (int i = 0; i < size; i++) {
+            final int cls = rnd.nextInt(classes);
+            final float[] in = new float[inputs];
+            for (int j = 0; j < inputs; j++) {
+                in[j] = rnd.nextFloat() * 0.5f + (j % classes == cls ? 0.5f : 0);
+            }
+            final float[] target = new float[classes];
+            target[cls] = 1;
+            dataSet.add(new TabularDataSet.Item(in, target));
+        }
+
+        final String[] columnNames = new String[inputs + classes];
+        for (int i = 0; i < inputs; i++) {
+            columnNames[i] = "in" + i;
+        }
+        for (int i = 0; i < classes; i++) {
+            columnNames[inputs + i] = "class" + i;
+        }
+        dataSet.setColumnNames(columnNames);
+
+        return dataSet;
+    }
+
+    /**
+     * Sets SGD optimizer in all layers, and performs single forward and
+     * backward pass with random input and output error, so outputs and deltas
+     * of all layers are available to layer benchmarks.
+     *
+     * @param neuralNet network to prepare
+     */
+    static void prepare(NeuralNetwork<?> neuralNet) {
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            layer.setLearningRate(0.01f);
+            layer.setOptimizerType(OptimizerType.SGD);
+        }
+
+        final InputLayer inputLayer = neuralNet.getInputLayer();
+        final Tensor input = Tensors.random(inputLayer.getHeight(), inputLayer.getWidth(), inputLayer.getDepth());
+        neuralNet.setInput(input);
+
+        final float[] outputError = new float[neuralNet.getOutput().length];
+        for (int i = 0; i < outputError.length; i++) {
+            outputError[i] = neuralNet.getOutput()[i] - (i == 0 ? 1 : 0);
+        }
+        neuralNet.setOutputError(outputError);
+        neuralNet.backward();
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.benchmarks;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.data.DataSets;
+import deepnetts.data.ImageSet;
+import deepnetts.data.TabularDataSet;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading of data sets from files: CSV file with 20000 rows and 20 columns,
+ * and 1000 RGB images 32x32 in two categories, with image and label index files.
+ * Files are generated in a temporary directory before benchmark.
+ *
+ * @author Zoran Sevarac
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataLoadingBenchmark {
+
+    private static final int CSV_ROWS = 20000, CSV_INPUTS = 16, CSV_OUTPUTS = 4;
+
+    private static final int IMAGES = 1000, IMAGE_SIZE = 32;
+
+    private static final String[] LABELS = {"cat", "dog"};
+
+    private File dir, csvFile, imageIndexFile, labelsFile;
+
+    @Setup
+    public void setup() throws IOException {
+        Configurator.setLevel(DeepNetts.class.getName(), Level.WARN);
+
+        final Random rnd = new Random(123);
+        dir = Files.createTempDirectory("deepnetts-benchmarks").toFile();
+
+        csvFile = new File(dir, "data.csv");
+        try (PrintWriter out = new PrintWriter(csvFile)) {
+            for (int c = 0; c < CSV_INPUTS + CSV_OUTPUTS; c++) {
+                out.print(c == 0 ? "" : ",");
+                out.print(c < CSV_INPUTS ? "in" + c : "out" + (c - CSV_INPUTS));
+            }
+            out.println();
+            for (int r = 0; r < CSV_ROWS; r++) {
+                final int cls = rnd.nextInt(CSV_OUTPUTS);
+                for (int c = 0; c < CSV_INPUTS; c++) {
+                    out.print(rnd.nextFloat());
+                    out.print(',');
+                }
+                for (int c = 0; c < CSV_OUTPUTS; c++) {
+                    out.print(c == cls ? "1" : "0");
+                    out.print(c == CSV_OUTPUTS - 1 ? "" : ",");
+                }
+                out.println();
+            }
+        }
+
+        labelsFile = new File(dir, "labels.txt");
+        try (PrintWriter out = new PrintWriter(labelsFile)) {
+            for (String label : LABELS) {
+                out.println(label);
+                new File(dir, label).mkdir();
+            }
+        }
+
+        imageIndexFile = new File(dir, "index.txt");
+        try (PrintWriter out = new PrintWriter(imageIndexFile)) {
+            for (int i = 0; i < IMAGES; i++) {
+                final String imageFile = LABELS[i % LABELS.length] + File.separator + "image" + i + ".png";
+                final BufferedImage image = new BufferedImage(IMAGE_SIZE, IMAGE_SIZE, BufferedImage.TYPE_INT_RGB);
+                for (int y = 0; y < IMAGE_SIZE; y++) {
+                    for (int x = 0; x < IMAGE_SIZE; x++) {
+                        image.setRGB(x, y, rnd.nextInt(0xFFFFFF));
+                    }
+                }
+                ImageIO.write(image, "png", new File(dir, imageFile));
+                out.println(imageFile);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public TabularDataSet readCsv() throws IOException {
+        return DataSets.readCsv(csvFile, CSV_INPUTS, CSV_OUTPUTS, true, ",");
+    }
+
+    @Benchmark
+    public ImageSet loadImages() throws IOException {
+        final ImageSet imageSet = new ImageSet(IMAGE_SIZE, IMAGE_SIZE);
+        imageSet.loadLabels(labelsFile);
+        imageSet.loadImages(imageIndexFile);
+        return imageSet;
+    }
+
+}
@@ -0,0 +1,91 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.benchmarks;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.data.TabularDataSet;
+import deepnetts.eval.ClassifierEvaluator;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import java.util.concurrent.TimeUnit;
+import javax.visrec.ml.eval.EvaluationMetrics;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Evaluation of multi class classifier on synthetic test set with 64 inputs.
+ *
+ * @author Zoran Sevarac
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluationBenchmark {
+
+    /**
+     * Number of classes.
+     */
+    @Param({"4", "16"})
+    public int classes;
+
+    private TabularDataSet<TabularDataSet.Item> testSet;
+
+    private FeedForwardNetwork neuralNet;
+
+    private final ClassifierEvaluator evaluator = new ClassifierEvaluator();
+
+    @Setup
+    public void setup() {
+        Configurator.setLevel(DeepNetts.class.getName(), Level.WARN);
+
+        testSet = BenchmarkData.classificationSet(10000, 64, classes, 123);
+        neuralNet = FeedForwardNetwork.builder()
+                .addInputLayer(64)
+                .addFullyConnectedLayer(32, ActivationType.RELU)
+                .addOutputLayer(classes, ActivationType.SOFTMAX)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .randomSeed(123)
+                .build();
+    }
+
+    @Benchmark
+    public EvaluationMetrics evaluate() {
+        return evaluator.evaluate(neuralNet, testSet);
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.benchmarks;
+
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.layers.SoftmaxOutputLayer;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import deepnetts.util.Tensor;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forward and backward pass of softmax output layer with 512 inputs.
+ *
+ * @author Zoran Sevarac
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoftmaxOutputLayerBenchmark {
+
+    /**
+     * Number of outputs (classes).
+     */
+    @Param({"10", "100"})
+    public int classes;
+
+    private SoftmaxOutputLayer layer;
+
+    @Setup
+    public void setup() {
+        final FeedForwardNetwork neuralNet = FeedForwardNetwork.builder()
+                .addInputLayer(256)
+                .addFullyConnectedLayer(512, ActivationType.RELU)
+                .addOutputLayer(classes, ActivationType.SOFTMAX)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .randomSeed(123)
+                .build();
+
+        BenchmarkData.prepare(neuralNet);
+        layer = (SoftmaxOutputLayer) neuralNet.getLayers().get(2);
+    }
+
+    @Benchmark
+    public Tensor forward() {
+        layer.forward();
+        return layer.getOutputs();
+    }
+
+    @Benchmark
+    public Tensor backward() {
+        layer.backward();
+        return layer.getDeltas();
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.benchmarks;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.data.TabularDataSet;
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import deepnetts.net.train.BackpropagationTrainer;
+import deepnetts.net.train.opt.OptimizerType;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single training epoch of backpropagation trainer on synthetic classification
+ * data set with 5000 items, 64 inputs and 4 classes.
+ *
+ * @author Zoran Sevarac
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark {
+
+    /**
+     * Type of the trained network: feed forward with one hidden layer, or
+     * convolutional network which treats inputs as 8x8 images.
+     */
+    @Param({"feedforward", "convolutional"})
+    public String network;
+
+    /**
+     * Apply weight changes after each mini batch of 32 items, instead of after each item.
+     */
+    @Param({"false", "true"})
+    public boolean batchMode;
+
+    private TabularDataSet<TabularDataSet.Item> trainingSet;
+
+    private NeuralNetwork<BackpropagationTrainer> neuralNet;
+
+    @Setup
+    public void setup() {
+        Configurator.setLevel(DeepNetts.class.getName(), Level.WARN); // do not log each epoch and mini batch
+
+        trainingSet = BenchmarkData.classificationSet(5000, 64, 4, 123);
+
+        if (network.equals("convolutional")) {
+            neuralNet = ConvolutionalNetwork.builder()
+                    .addInputLayer(8, 8, 1)
+                    .addConvolutionalLayer(3, 3, 8, ActivationType.RELU)
+                    .addMaxPoolingLayer(2, 2)
+                    .addFullyConnectedLayer(32, ActivationType.RELU)
+                    .addOutputLayer(4, ActivationType.SOFTMAX)
+                    .lossFunction(LossType.CROSS_ENTROPY)
+                    .randomSeed(123)
+                    .build();
+        } else {
+            neuralNet = FeedForwardNetwork.builder()
+                    .addInputLayer(64)
+                    .addFullyConnectedLayer(128, ActivationType.RELU)
+                    .addOutputLayer(4, ActivationType.SOFTMAX)
+                    .lossFunction(LossType.CROSS_ENTROPY)
+                    .randomSeed(123)
+                    .build();
+        }
+
+        neuralNet.getTrainer()
+                 .setMaxEpochs(1)
+                 .setMaxError(0)
+                 .setLearningRate(0.01f)
+                 .setOptimizer(OptimizerType.SGD)
+                 .setBatchMode(batchMode)
+                 .setBatchSize(32);
+    }
+
+    @Benchmark
+    public float epoch() {
+        neuralNet.train(trainingSet);
+        return neuralNet.getTrainer().getTrainingLoss();
+    }
+
+}
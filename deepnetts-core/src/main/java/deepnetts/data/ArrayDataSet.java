@@ -0,0 +1,182 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import javax.visrec.ml.data.DataSet;
+
+/**
+ * Tabular data set which keeps inputs of all rows in a single array, and
+ * target outputs of all rows in another array, instead of two tensors for each row.
+ *
+ * Items of this data set are light views of rows, which are created when
+ * requested. Input and target output of an item are copied from arrays into
+ * tensors which are reused by subsequent calls in the same thread, so they
+ * should be used before requesting input or target of another item, and their
+ * changes are not saved. Values can be changed directly in arrays returned by
+ * {@link #getInputs()} and {@link #getTargets()}.
+ *
+ * Shuffle permutes an index of rows, and split returns views which share
+ * arrays with this data set, so neither copies any values.
+ *
+ * @see TabularDataSet
+ * @author Zoran Sevarac
+ */
+public class ArrayDataSet extends IndexedDataSet {
+
+    /**
+     * Inputs and target outputs of all rows, one row after another.
+     */
+    private final float[] inputs, targets;
+
+    /**
+     * Creates a new data set with specified inputs and target outputs of all rows.
+     *
+     * @param numInputs number of inputs in a row
+     * @param numOutputs number of target outputs in a row
+     * @param inputs inputs of all rows, one row after another
+     * @param targets target outputs of all rows, one row after another
+     */
+    public ArrayDataSet(int numInputs, int numOutputs, float[] inputs, float[] targets) {
+        super(numInputs, numOutputs, checkRows(numInputs, numOutputs, inputs, targets));
+        this.inputs = inputs;
+        this.targets = targets;
+    }
+
+    /**
+     * Creates a view of the specified data set with specified rows.
+     */
+    private ArrayDataSet(ArrayDataSet parent, int[] rows) {
+        super(parent, rows);
+        this.inputs = parent.inputs;
+        this.targets = parent.targets;
+    }
+
+    private static int checkRows(int numInputs, int numOutputs, float[] inputs, float[] targets) {
+        if (numInputs <= 0) {
+            throw new IllegalArgumentException("Number of inputs should be greater then zero : " + numInputs);
+        }
+        if (numOutputs < 0) {
+            throw new IllegalArgumentException("Number of outputs cannot be negative : " + numOutputs);
+        }
+        if (inputs.length % numInputs != 0 || (long) inputs.length / numInputs * numOutputs != targets.length) {
+            throw new IllegalArgumentException("Number of values does not match number of rows, inputs: " + inputs.length + ", targets: " + targets.length);
+        }
+        return inputs.length / numInputs;
+    }
+
+    /**
+     * Creates data set which contains inputs and target outputs of all items
+     * in specified data set, copied to arrays.
+     *
+     * @param dataSet data set to copy
+     * @return data set with copied values
+     * @throws DeepNettsException if data set is empty, or items have different sizes
+     */
+    public static ArrayDataSet of(DataSet<? extends MLDataItem> dataSet) {
+        if (dataSet.isEmpty()) {
+            throw new DeepNettsException("Cannot create array data set from empty data set");
+        }
+
+        final MLDataItem first = dataSet.get(0);
+        final int numInputs = first.getInput().size();
+        final int numOutputs = first.getTargetOutput().size();
+        if ((long) dataSet.size() * Math.max(numInputs, numOutputs) > Integer.MAX_VALUE - 8) {
+            throw new DeepNettsException("Too many values for array data set: " + dataSet.size() + " rows");
+        }
+
+        final float[] inputs = new float[dataSet.size() * numInputs];
+        final float[] targets = new float[dataSet.size() * numOutputs];
+        int row = 0;
+        for (MLDataItem item : dataSet) {
+            if (item.getInput().size() != numInputs || item.getTargetOutput().size() != numOutputs) {
+                throw new DeepNettsException("All items should have the same number of inputs and outputs, different item at " + row);
+            }
+            System.arraycopy(item.getInput().getValues(), 0, inputs, row * numInputs, numInputs);
+            System.arraycopy(item.getTargetOutput().getValues(), 0, targets, row * numOutputs, numOutputs);
+            row++;
+        }
+
+        final ArrayDataSet arrayDataSet = new ArrayDataSet(numInputs, numOutputs, inputs, targets);
+        arrayDataSet.setColumnNames(dataSet.getColumnNames());
+        return arrayDataSet;
+    }
+
+    @Override
+    protected ArrayDataSet view(int[] rows) {
+        return new ArrayDataSet(this, rows);
+    }
+
+    @Override
+    public ArrayDataSet subSet(int... positions) {
+        return (ArrayDataSet) super.subSet(positions);
+    }
+
+    /**
+     * Shuffles and splits data set into parts of specified sizes, which share
+     * arrays with this data set.
+     *
+     * @param parts sizes of the parts in percents, with sum not larger than 1
+     * @return parts of the data set of specified size
+     */
+    @Override
+    public ArrayDataSet[] split(double... parts) {
+        final int[][] partRows = splitRows(parts);
+        final ArrayDataSet[] subSets = new ArrayDataSet[partRows.length];
+        for (int p = 0; p < partRows.length; p++) {
+            subSets[p] = view(partRows[p]);
+        }
+        return subSets;
+    }
+
+    @Override
+    protected void readInput(int row, float[] values) {
+        System.arraycopy(inputs, row * numInputs, values, 0, numInputs);
+    }
+
+    @Override
+    protected void readTarget(int row, float[] values) {
+        System.arraycopy(targets, row * numOutputs, values, 0, numOutputs);
+    }
+
+    /**
+     * Returns inputs of all rows, including rows which are not in this view,
+     * in the original order.
+     *
+     * @return inputs of all rows, one row after another
+     */
+    public float[] getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Returns target outputs of all rows, including rows which are not in
+     * this view, in the original order.
+     *
+     * @return target outputs of all rows, one row after another
+     */
+    public float[] getTargets() {
+        return targets;
+    }
+
+}
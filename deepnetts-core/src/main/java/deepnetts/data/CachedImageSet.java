@@ -0,0 +1,551 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.Tensor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.visrec.ml.data.DataSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Image data set read from binary cache file, which contains preprocessed
+ * network inputs and labels of all images.
+ *
+ * Loading images requires decoding, scaling and converting each image to
+ * network input, which is repeated each time the same image set is used.
+ * Cache file is written once from loaded images, and later memory mapped,
+ * so opening the cache does not read images at all, and inputs are copied
+ * from mapped file with a single bulk copy when item is used.
+ * Inputs can be stored as floats, or as bytes (one byte per pixel channel)
+ * which uses four times less space, but supports only values in range [0, 1].
+ *
+ * <p>Cache file format (all values are little endian):</p>
+ * <pre>
+ * int    magic number 0x43494E44 ("DNIC")
+ * int    format version
+ * int    input format: 0 for float32, 1 for uint8
+ * int    image width, image height, number of channels
+ * int    number of labels, followed by each label as int length and UTF-8 bytes
+ * int    number of images
+ * int[]  label index of each image (-1 for negative images)
+ *        padding to 64 bytes
+ * data   inputs of all images, in the same order as tensor values
+ * </pre>
+ *
+ * @see ImageSet
+ * @author Zoran Sevarac
+ */
+public final class CachedImageSet implements DataSet<MLDataItem>, ItemOrder {
+
+    /**
+     * Type of values in cache file.
+     */
+    public enum Format {
+        FLOAT32, UINT8
+    }
+
+    private static final int MAGIC = 0x43494E44;
+    private static final int VERSION = 1;
+    private static final int ALIGNMENT = 64;
+
+    private final Format format;
+    private final int width, height, channels;
+
+    /**
+     * Number of bytes used by input of a single image.
+     */
+    private final int itemBytes;
+
+    /**
+     * Mapped parts of inputs data, each part contains whole images.
+     */
+    private final ByteBuffer[] chunks;
+    private final FloatBuffer[] floatChunks;
+    private final int itemsPerChunk;
+
+    private final int[] labelIdxs;
+
+    /**
+     * Positions of images in cache file, in the order of this data set.
+     */
+    private int[] order;
+
+    private String[] columnNames;
+
+    /**
+     * Target outputs for each label, shared by all images with the same label.
+     */
+    private final Tensor[] targets;
+    private final Tensor negativeTarget;
+
+    /**
+     * Input tensors for items, one per thread.
+     */
+    private final ThreadLocal<Tensor> inputView;
+
+    private static final Logger LOGGER = LogManager.getLogger(DeepNetts.class.getName());
+
+    private CachedImageSet(Format format, int width, int height, int channels, String[] columnNames, int[] labelIdxs, ByteBuffer[] chunks, int itemsPerChunk) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.columnNames = columnNames;
+        this.labelIdxs = labelIdxs;
+        this.chunks = chunks;
+        this.itemsPerChunk = itemsPerChunk;
+        this.itemBytes = width * height * channels * (format == Format.FLOAT32 ? Float.BYTES : 1);
+
+        floatChunks = new FloatBuffer[chunks.length];
+        if (format == Format.FLOAT32) {
+            for (int c = 0; c < chunks.length; c++) {
+                floatChunks[c] = chunks[c].asFloatBuffer();
+            }
+        }
+
+        order = new int[labelIdxs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        targets = new Tensor[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            final float[] target = new float[columnNames.length];
+            target[i] = 1;
+            targets[i] = new Tensor(target);
+        }
+        negativeTarget = new Tensor(new float[columnNames.length]);
+        inputView = ThreadLocal.withInitial(() -> new Tensor(height, width, channels));
+    }
+
+    /**
+     * Creates a view of the specified data set with images in specified order.
+     */
+    private CachedImageSet(CachedImageSet parent, int[] order) {
+        this.format = parent.format;
+        this.width = parent.width;
+        this.height = parent.height;
+        this.channels = parent.channels;
+        this.columnNames = parent.columnNames;
+        this.labelIdxs = parent.labelIdxs;
+        this.chunks = parent.chunks;
+        this.floatChunks = parent.floatChunks;
+        this.itemsPerChunk = parent.itemsPerChunk;
+        this.itemBytes = parent.itemBytes;
+        this.targets = parent.targets;
+        this.negativeTarget = parent.negativeTarget;
+        this.inputView = parent.inputView;
+        this.order = order;
+    }
+
+    /**
+     * Writes inputs and labels of all images in the specified image set to
+     * cache file. Image set is read only once, so images of streaming image
+     * set are decoded once: inputs are written after space reserved for the
+     * header, and header with label indexes is written at the end.
+     *
+     * @param imageSet loaded images
+     * @param file cache file to write
+     * @param format type of values to store in cache file
+     * @throws IOException if file cannot be written
+     * @throws DeepNettsException if images have different dimensions, or values out of range for uint8 format
+     */
+    public static void write(DataSet<? extends ExampleImage> imageSet, File file, Format format) throws IOException {
+        if (imageSet.isEmpty()) {
+            throw new DeepNettsException("Cannot write cache for empty image set");
+        }
+
+        final String[] labels = imageSet.getTargetNames();
+        final int count = imageSet.size();
+        final int[] labelIdxs = new int[count];
+
+        long headerSize = 7 * Integer.BYTES;
+        for (String label : labels) {
+            headerSize += Integer.BYTES + label.getBytes(StandardCharsets.UTF_8).length;
+        }
+        headerSize += Integer.BYTES + (long) count * Integer.BYTES;
+        final long dataPosition = (headerSize + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(dataPosition);
+
+            int width = 0, height = 0, channels = 0, inputSize = 0, idx = 0;
+            for (ExampleImage image : imageSet) {
+                if (idx == count) {
+                    throw new DeepNettsException("Image set has more images than its size " + count);
+                }
+
+                final Tensor input = image.getInput();
+                if (idx == 0) {
+                    width = input.getCols();
+                    height = input.getRows();
+                    channels = input.getDepth();
+                    inputSize = width * height * channels;
+                }
+                final float[] values = input.getValues();
+                if (values.length != inputSize) {
+                    throw new DeepNettsException("All images in cache should have the same dimensions, expected " + width + "x" + height + "x" + channels);
+                }
+                labelIdxs[idx++] = labelIndex(image.getTargetOutput());
+
+                for (int i = 0; i < inputSize; i++) {
+                    if (buffer.remaining() < Float.BYTES) flush(channel, buffer);
+
+                    if (format == Format.FLOAT32) {
+                        buffer.putFloat(values[i]);
+                    } else {
+                        if (values[i] < 0 || values[i] > 1) {
+                            throw new DeepNettsException("UINT8 cache format supports only input values in range [0, 1], found " + values[i]);
+                        }
+                        buffer.put((byte) Math.round(values[i] * 255));
+                    }
+                }
+            }
+            flush(channel, buffer);
+            if (idx != count) {
+                throw new DeepNettsException("Image set has less images than its size " + count);
+            }
+
+            channel.position(0);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(format.ordinal());
+            buffer.putInt(width).putInt(height).putInt(channels);
+            buffer.putInt(labels.length);
+            for (String label : labels) {
+                final byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < Integer.BYTES + bytes.length) flush(channel, buffer);
+                buffer.putInt(bytes.length).put(bytes);
+            }
+            if (buffer.remaining() < Integer.BYTES) flush(channel, buffer);
+            buffer.putInt(count);
+            for (int labelIdx : labelIdxs) {
+                if (buffer.remaining() < Integer.BYTES) flush(channel, buffer);
+                buffer.putInt(labelIdx);
+            }
+            flush(channel, buffer);
+        }
+
+        LOGGER.info("Written cache of " + count + " images to " + file);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+
+    private static int labelIndex(Tensor target) {
+        for (int i = 0; i < target.size(); i++) {
+            if (target.get(i) == 1) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Opens cache file written by {@link #write(DataSet, File, Format)}, by
+     * memory mapping its data.
+     *
+     * @param file cache file
+     * @return image set with all images from cache file
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file is not a valid cache file
+     */
+    public static CachedImageSet open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < 32) {
+                throw new DeepNettsException("Not a Deep Netts image cache file: " + file);
+            }
+            final ByteBuffer header = read(channel, 0, 7 * Integer.BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new DeepNettsException("Not a Deep Netts image cache file: " + file);
+            }
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new DeepNettsException("Unsupported image cache version " + version + " in file " + file);
+            }
+            final int formatIdx = header.getInt();
+            final int width = header.getInt(), height = header.getInt(), channels = header.getInt();
+            final int labelCount = header.getInt();
+            if (formatIdx < 0 || formatIdx >= Format.values().length || labelCount < 0) {
+                throw new DeepNettsException("Image cache file has bad header: " + file);
+            }
+            final Format format = Format.values()[formatIdx];
+
+            // labels are read one by one, so header size is not limited
+            final String[] labels = new String[labelCount];
+            long position = 7 * Integer.BYTES;
+            for (int i = 0; i < labels.length; i++) {
+                final int length = read(channel, position, Integer.BYTES).getInt();
+                if (length < 0 || position + Integer.BYTES + length > channel.size()) {
+                    throw new DeepNettsException("Image cache file has bad header: " + file);
+                }
+                final byte[] bytes = new byte[length];
+                read(channel, position + Integer.BYTES, length).get(bytes);
+                labels[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += Integer.BYTES + length;
+            }
+            final int count = read(channel, position, Integer.BYTES).getInt();
+            position += Integer.BYTES;
+            if (count < 0 || position + (long) count * Integer.BYTES > channel.size()) {
+                throw new DeepNettsException("Image cache file has bad header: " + file);
+            }
+
+            // label indexes can be larger than a read buffer, map them
+            final int[] labelIdxs = new int[count];
+            channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Integer.BYTES)
+                   .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(labelIdxs);
+
+            long dataPosition = position + (long) count * Integer.BYTES;
+            dataPosition = (dataPosition + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+            final int itemBytes = width * height * channels * (format == Format.FLOAT32 ? Float.BYTES : 1);
+            if (dataPosition + (long) count * itemBytes > channel.size()) {
+                throw new DeepNettsException("Image cache file is truncated: " + file);
+            }
+
+            final int itemsPerChunk = Math.max(1, Integer.MAX_VALUE / itemBytes);
+            final ByteBuffer[] chunks = new ByteBuffer[(count + itemsPerChunk - 1) / itemsPerChunk];
+            for (int c = 0; c < chunks.length; c++) {
+                final int items = Math.min(itemsPerChunk, count - c * itemsPerChunk);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, dataPosition + (long) c * itemsPerChunk * itemBytes, (long) items * itemBytes)
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            LOGGER.info("Opened cache of " + count + " images from " + file);
+            return new CachedImageSet(format, width, height, channels, labels, labelIdxs, chunks, itemsPerChunk);
+        }
+    }
+
+    /**
+     * Reads specified number of bytes at specified position in file.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new DeepNettsException("Image cache file is truncated");
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    /**
+     * Copies input of the image at specified position in cache file into specified array.
+     */
+    private void readInput(int pos, float[] values) {
+        final int chunk = pos / itemsPerChunk;
+        final int offset = (pos % itemsPerChunk) * itemBytes;
+
+        if (format == Format.FLOAT32) {
+            final FloatBuffer floats = floatChunks[chunk].duplicate();
+            ((Buffer) floats).position(offset / Float.BYTES);
+            floats.get(values);
+        } else {
+            final ByteBuffer bytes = chunks[chunk];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (bytes.get(offset + i) & 0xFF) / 255.0f;
+            }
+        }
+    }
+
+    @Override
+    public MLDataItem get(int index) {
+        return new Item(order[index]);
+    }
+
+    /**
+     * Returns list view of this data set. Items read their inputs from cache
+     * file when input is requested.
+     *
+     * @return list of items
+     */
+    @Override
+    public List<MLDataItem> getItems() {
+        return new AbstractList<MLDataItem>() {
+            @Override
+            public MLDataItem get(int index) {
+                return CachedImageSet.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return order.length;
+            }
+        };
+    }
+
+    @Override
+    public DataSet<MLDataItem> add(MLDataItem item) {
+        throw new UnsupportedOperationException("Cached image set is read only");
+    }
+
+    @Override
+    public void clear() {
+        order = new int[0];
+    }
+
+    @Override
+    public int size() {
+        return order.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return order.length == 0;
+    }
+
+    /**
+     * Shuffles images using the default random generator.
+     */
+    @Override
+    public void shuffle() {
+        shuffle(RandomGenerator.getDefault().getRandom());
+    }
+
+    @Override
+    public void shuffle(Random rnd) {
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = rnd.nextInt(i + 1);
+            final int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    @Override
+    public int[] getOrder() {
+        return order.clone();
+    }
+
+    @Override
+    public void setOrder(int[] order) {
+        DataSets.checkOrder(this.order, order);
+        this.order = order.clone();
+    }
+
+    /**
+     * Splits data set into parts of specified sizes, which share mapped cache file.
+     *
+     * @param partSizes sizes of the parts in percents, with sum not larger than 1
+     * @return parts of this data set
+     */
+    @Override
+    public CachedImageSet[] split(double... partSizes) {
+        if (partSizes.length < 2) {
+            throw new IllegalArgumentException("Must specify at least two parts");
+        }
+        double partsSum = 0;
+        for (int i = 0; i < partSizes.length; i++) {
+            if (partSizes[i] <= 0) {
+                throw new IllegalArgumentException("Value of the part cannot be zero or negative!");
+            }
+            partsSum += partSizes[i];
+        }
+        if (partsSum > 1) {
+            throw new IllegalArgumentException("Sum of parts/percents cannot be larger than 1!");
+        }
+
+        final CachedImageSet[] subSets = new CachedImageSet[partSizes.length];
+        int from = 0;
+        for (int p = 0; p < partSizes.length; p++) {
+            final int to = from + (int) (order.length * partSizes[p]);
+            subSets[p] = new CachedImageSet(this, Arrays.copyOfRange(order, from, to));
+            from = to;
+        }
+
+        return subSets;
+    }
+
+    @Override
+    public String[] getTargetNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public void setColumnNames(String[] columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getImageWidth() {
+        return width;
+    }
+
+    public int getImageHeight() {
+        return height;
+    }
+
+    /**
+     * Image from cache file, which reads its input from mapped file each time
+     * input is requested. Input tensor is reused by all items on the same
+     * thread, so it is valid until the next call to getInput on that thread.
+     */
+    private final class Item implements MLDataItem {
+
+        private final int pos;
+
+        Item(int pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public Tensor getInput() {
+            final Tensor input = inputView.get();
+            readInput(pos, input.getValues());
+            return input;
+        }
+
+        @Override
+        public Tensor getTargetOutput() {
+            return labelIdxs[pos] < 0 ? negativeTarget : targets[labelIdxs[pos]];
+        }
+    }
+
+}
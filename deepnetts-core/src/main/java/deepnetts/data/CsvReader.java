@@ -0,0 +1,586 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.MappedBuffers;
+import deepnetts.util.Parallel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Pattern;
+
+/**
+ * Reads numeric CSV files into primitive float arrays.
+ *
+ * File is memory mapped and split into chunks at line boundaries, and chunks
+ * are parsed in parallel on the shared pool from {@link Parallel}. Rows are
+ * first counted in all chunks, so values can be written directly into their
+ * final position in row-major or column-major arrays.
+ * Numbers are parsed directly from file bytes, and only unusual numbers (with
+ * many digits, large exponent, NaN or Infinity) are parsed using
+ * {@link Float#parseFloat(String)}, which gives the same results.
+ *
+ * Values are separated with a single character delimiter, and empty lines are
+ * skipped. Empty values at the end of a row (trailing delimiters) are ignored.
+ * Quoted values are not supported. Mapped chunks are unmapped as soon as they
+ * are parsed.
+ *
+ * @see DataSets#readCsv(File, int, int, boolean, String)
+ * @author Zoran Sevarac
+ */
+public final class CsvReader {
+
+    /**
+     * Approximate size of the part of file which is parsed by single task.
+     */
+    private static final int CHUNK_SIZE = 1 << 24;
+
+    private static final float[] FLOAT_POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+    private static final double[] DOUBLE_POW10 = new double[23];
+
+    static {
+        for (int i = 0; i < DOUBLE_POW10.length; i++) {
+            DOUBLE_POW10[i] = Double.parseDouble("1e" + i);
+        }
+    }
+
+    private final File file;
+    private final int numColumns;
+    private char delimiter = ',';
+    private boolean hasColumnNames = false;
+
+    private String[] columnNames;
+
+    /**
+     * Creates a new reader for specified file, with specified number of values in each row.
+     *
+     * @param file CSV file
+     * @param numColumns number of values in each row
+     */
+    public CsvReader(File file, int numColumns) {
+        if (file == null) {
+            throw new IllegalArgumentException("File cannot be null!");
+        }
+        if (numColumns <= 0) {
+            throw new IllegalArgumentException("Number of columns should be greater then zero : " + numColumns);
+        }
+        this.file = file;
+        this.numColumns = numColumns;
+    }
+
+    public int getNumColumns() {
+        return numColumns;
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * Sets character which separates values in a row. Default is comma.
+     * Delimiter must be an ASCII character, since values are compared byte by byte.
+     *
+     * @param delimiter value delimiter
+     * @return this reader
+     */
+    public CsvReader setDelimiter(char delimiter) {
+        if (delimiter > 0x7F || delimiter == '\n' || delimiter == '\r' || delimiter == '-' || delimiter == '+' || delimiter == '.' || Character.isLetterOrDigit(delimiter)) {
+            throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+        }
+        this.delimiter = delimiter;
+        return this;
+    }
+
+    public boolean getHasColumnNames() {
+        return hasColumnNames;
+    }
+
+    /**
+     * Sets flag which indicates that the first row contains column names.
+     *
+     * @param hasColumnNames true if first row contains column names
+     * @return this reader
+     */
+    public CsvReader setHasColumnNames(boolean hasColumnNames) {
+        this.hasColumnNames = hasColumnNames;
+        return this;
+    }
+
+    /**
+     * Returns column names read from the first row, or null if file does not
+     * contain column names or it has not been read yet.
+     *
+     * @return column names
+     */
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * Reads all rows into a single array, with values of each row one after another.
+     *
+     * @return all values in row-major order
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file contains invalid row, or too many values for a single array
+     */
+    public float[] readRows() throws IOException {
+        try (Chunks chunks = map()) {
+            final long count = (long) chunks.rowCount * numColumns;
+            if (count > Integer.MAX_VALUE - 8) {
+                throw new DeepNettsException("Too many values for a single array: " + count + ", read columns instead");
+            }
+
+            final float[] values = new float[(int) count];
+            read(chunks, (row, rowValues) -> System.arraycopy(rowValues, 0, values, row * numColumns, numColumns));
+            return values;
+        }
+    }
+
+    /**
+     * Reads all rows into separate array for each column.
+     *
+     * @return array of values for each column
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file contains invalid row
+     */
+    public float[][] readColumns() throws IOException {
+        try (Chunks chunks = map()) {
+            final float[][] columns = new float[numColumns][chunks.rowCount];
+            read(chunks, (row, rowValues) -> {
+                for (int c = 0; c < numColumns; c++) {
+                    columns[c][row] = rowValues[c];
+                }
+            });
+            return columns;
+        }
+    }
+
+    /**
+     * Reads all rows into array data set, with specified number of inputs
+     * followed by target outputs in each row.
+     *
+     * @param numInputs number of inputs in each row
+     * @return data set with values of all rows
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file contains invalid row, or too many values for a single array
+     */
+    public ArrayDataSet readDataSet(int numInputs) throws IOException {
+        if (numInputs <= 0 || numInputs > numColumns) {
+            throw new IllegalArgumentException("Number of inputs should be between 1 and " + numColumns + " : " + numInputs);
+        }
+        final int numOutputs = numColumns - numInputs;
+
+        final float[] inputs, targets;
+        try (Chunks chunks = map()) {
+            if ((long) chunks.rowCount * Math.max(numInputs, numOutputs) > Integer.MAX_VALUE - 8) {
+                throw new DeepNettsException("Too many values for a single array: " + chunks.rowCount + " rows");
+            }
+
+            inputs = new float[chunks.rowCount * numInputs];
+            targets = new float[chunks.rowCount * numOutputs];
+            read(chunks, (row, rowValues) -> {
+                System.arraycopy(rowValues, 0, inputs, row * numInputs, numInputs);
+                System.arraycopy(rowValues, numInputs, targets, row * numOutputs, numOutputs);
+            });
+        }
+
+        final ArrayDataSet dataSet = new ArrayDataSet(numInputs, numOutputs, inputs, targets);
+        dataSet.setColumnNames(columnNames != null ? columnNames : DataSets.defaultColumnNames(numInputs, numOutputs));
+        return dataSet;
+    }
+
+    /**
+     * Reads all rows, and maps each row to an object using specified mapper.
+     * Mapper is called from multiple threads, but only once for each row.
+     *
+     * @param mapper creates row object from row values, which are overwritten by next row
+     * @return row objects in the same order as rows in file
+     */
+    @SuppressWarnings("unchecked")
+    <T> List<T> read(RowMapper<T> mapper) throws IOException {
+        try (Chunks chunks = map()) {
+            final Object[] rows = new Object[chunks.rowCount];
+            read(chunks, (row, rowValues) -> rows[row] = mapper.map(rowValues));
+            return (List<T>) Arrays.asList(rows);
+        }
+    }
+
+    /**
+     * Creates object from values of a single row.
+     */
+    @FunctionalInterface
+    interface RowMapper<T> {
+        T map(float[] values);
+    }
+
+    /**
+     * Reads all rows, and passes each row to consumer which is created when
+     * the number of rows is known. Consumer is called from multiple threads,
+     * but only once for each row.
+     *
+     * @param factory creates consumer for specified number of rows
+     */
+    void parse(RowConsumerFactory factory) throws IOException {
+        try (Chunks chunks = map()) {
+            read(chunks, factory.create(chunks.rowCount));
+        }
+    }
+
+    /**
+     * Consumer of parsed rows, which accepts row index and row values.
+     */
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(int row, float[] values);
+    }
+
+    /**
+     * Creates row consumer for specified number of rows.
+     */
+    @FunctionalInterface
+    interface RowConsumerFactory {
+        RowConsumer create(int rowCount) throws IOException;
+    }
+
+    /**
+     * Parses all chunks in parallel, and unmaps each chunk once it is parsed.
+     */
+    private void read(Chunks chunks, RowConsumer consumer) {
+        Parallel.forEach(chunks.buffers.size(), CHUNK_SIZE, c -> {
+            final MappedByteBuffer buffer = chunks.acquire(c);
+            if (buffer == null) return; // reading failed in another chunk and chunks are closed
+            try {
+                new ChunkParser(buffer).parse(chunks.firstRows[c], consumer);
+            } finally {
+                chunks.release(c);
+            }
+        });
+    }
+
+    /**
+     * Memory maps file in chunks which end at line ends, reads column names
+     * and counts rows in each chunk.
+     */
+    private Chunks map() throws IOException {
+        final Chunks chunks = new Chunks();
+        try {
+            mapChunks(chunks);
+        } catch (IOException | RuntimeException ex) {
+            chunks.close();
+            throw ex;
+        }
+        return chunks;
+    }
+
+    private void mapChunks(Chunks chunks) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long position = 0;
+
+            if (hasColumnNames) {
+                final long lineEnd = nextLine(channel, 0, size);
+                final ByteBuffer header = ByteBuffer.allocate((int) lineEnd);
+                while (header.hasRemaining() && channel.read(header, header.position()) >= 0) { }
+                final String line = new String(header.array(), StandardCharsets.UTF_8).trim();
+                columnNames = line.split(Pattern.quote(String.valueOf(delimiter)));
+                for (int i = 0; i < columnNames.length; i++) {
+                    columnNames[i] = columnNames[i].trim();
+                }
+                position = lineEnd;
+            }
+
+            while (position < size) {
+                final long end = Math.min(size, nextLine(channel, Math.min(size, position + CHUNK_SIZE), size));
+                chunks.buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, position, end - position));
+                position = end;
+            }
+        }
+        chunks.states = new AtomicIntegerArray(chunks.buffers.size());
+
+        final int[] rowCounts = new int[chunks.buffers.size()];
+        Parallel.forEach(rowCounts.length, CHUNK_SIZE, c -> rowCounts[c] = new ChunkParser(chunks.buffers.get(c)).countRows());
+
+        chunks.firstRows = new int[rowCounts.length];
+        long rows = 0;
+        for (int c = 0; c < rowCounts.length; c++) {
+            chunks.firstRows[c] = (int) rows;
+            rows += rowCounts[c];
+        }
+        if (rows > Integer.MAX_VALUE - 8) {
+            throw new DeepNettsException("Too many rows in file: " + rows);
+        }
+        chunks.rowCount = (int) rows;
+    }
+
+    /**
+     * Returns position after the first line end at or after specified position.
+     */
+    private static long nextLine(FileChannel channel, long position, long size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            final int count = channel.read(buffer, position);
+            if (count <= 0) break;
+            for (int i = 0; i < count; i++) {
+                if (buffer.get(i) == '\n') return position + i + 1;
+            }
+            position += count;
+        }
+        return size;
+    }
+
+    /**
+     * Mapped chunks of file, which are unmapped when they are parsed, or when
+     * reading is finished. Since parsing tasks can still run when reading
+     * fails in another task, chunk which is being parsed is unmapped only by
+     * its own task.
+     */
+    private static final class Chunks implements AutoCloseable {
+        private static final int MAPPED = 0, PARSING = 1, RELEASED = 2;
+
+        final List<MappedByteBuffer> buffers = new ArrayList<>();
+        int[] firstRows;
+        int rowCount;
+
+        /**
+         * State of each chunk, created when all chunks are mapped.
+         */
+        AtomicIntegerArray states;
+
+        /**
+         * Marks chunk as being parsed, and returns it, or null if it is already released.
+         */
+        MappedByteBuffer acquire(int c) {
+            return states.compareAndSet(c, MAPPED, PARSING) ? buffers.get(c) : null;
+        }
+
+        /**
+         * Unmaps chunk after it is parsed.
+         */
+        void release(int c) {
+            states.set(c, RELEASED);
+            MappedBuffers.unmap(buffers.set(c, null));
+        }
+
+        @Override
+        public void close() {
+            for (int c = 0; c < buffers.size(); c++) {
+                if (states == null || states.compareAndSet(c, MAPPED, RELEASED)) {
+                    MappedBuffers.unmap(buffers.set(c, null));
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses rows from single chunk of file.
+     */
+    private final class ChunkParser {
+
+        private final ByteBuffer buf;
+        private final int limit;
+        private int pos;
+
+        ChunkParser(ByteBuffer buf) {
+            this.buf = buf;
+            this.limit = buf.limit();
+        }
+
+        /**
+         * Counts lines which are not empty.
+         */
+        int countRows() {
+            int rows = 0;
+            boolean empty = true;
+            for (int i = 0; i < limit; i++) {
+                final byte b = buf.get(i);
+                if (b == '\n') {
+                    if (!empty) rows++;
+                    empty = true;
+                } else if (!isWhitespace(b)) {
+                    empty = false;
+                }
+            }
+            return empty ? rows : rows + 1;
+        }
+
+        void parse(int firstRow, RowConsumer consumer) {
+            final float[] values = new float[numColumns];
+            int row = firstRow;
+
+            pos = 0;
+            while (pos < limit) {
+                skipWhitespace();
+                if (pos >= limit) break;
+                if (buf.get(pos) == '\n') { // skip empty lines
+                    pos++;
+                    continue;
+                }
+
+                final int lineStart = pos;
+                for (int c = 0; c < numColumns; c++) {
+                    if (c > 0) {
+                        if (pos >= limit || buf.get(pos) != delimiter) {
+                            throw wrongNumberOfValues(row, lineStart);
+                        }
+                        pos++;
+                        skipWhitespace();
+                    }
+                    values[c] = parseFloat(row);
+                    skipWhitespace();
+                }
+                while (pos < limit && buf.get(pos) == delimiter) { // trailing empty values are ignored, as in String.split
+                    pos++;
+                    skipWhitespace();
+                }
+                if (pos < limit && buf.get(pos) != '\n') {
+                    throw wrongNumberOfValues(row, lineStart);
+                }
+                pos++;
+
+                consumer.accept(row, values);
+                row++;
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < limit) {
+                final byte b = buf.get(pos);
+                if (b == delimiter || !isWhitespace(b)) return;
+                pos++;
+            }
+        }
+
+        private boolean isWhitespace(byte b) {
+            return (b == ' ' || b == '\t' || b == '\r') && b != delimiter;
+        }
+
+        /**
+         * Parses number which starts at current position, and moves position after it.
+         */
+        private float parseFloat(int row) {
+            final int start = pos;
+            int end = start;
+            while (end < limit) {
+                final byte b = buf.get(end);
+                if (b == delimiter || b == '\n' || isWhitespace(b)) break;
+                end++;
+            }
+            pos = end;
+
+            int p = start;
+            boolean negative = false;
+            if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+                negative = buf.get(p) == '-';
+                p++;
+            }
+
+            long mantissa = 0;
+            int digits = 0, exponent = 0;
+            boolean anyDigits = false, point = false;
+            for (; p < end; p++) {
+                final byte b = buf.get(p);
+                if (b >= '0' && b <= '9') {
+                    anyDigits = true;
+                    if (mantissa == 0 && b == '0') {
+                        if (point) exponent--;
+                        continue;
+                    }
+                    if (++digits > 18) break; // too many digits for fast path
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (point) exponent--;
+                } else if (b == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+
+            if (anyDigits && p < end && (buf.get(p) == 'e' || buf.get(p) == 'E')) {
+                p++;
+                boolean negativeExp = false;
+                if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+                    negativeExp = buf.get(p) == '-';
+                    p++;
+                }
+                int exp = 0;
+                final int expStart = p;
+                for (; p < end && buf.get(p) >= '0' && buf.get(p) <= '9' && exp < 1000; p++) {
+                    exp = exp * 10 + (buf.get(p) - '0');
+                }
+                if (p == expStart) anyDigits = false;
+                exponent += negativeExp ? -exp : exp;
+            }
+
+            if (p == end && anyDigits) {
+                if (mantissa == 0) {
+                    return negative ? -0.0f : 0.0f;
+                }
+
+                // exact float operation
+                if (mantissa < (1L << 24) && exponent >= -10 && exponent <= 10) {
+                    final float value = exponent < 0 ? mantissa / FLOAT_POW10[-exponent] : mantissa * FLOAT_POW10[exponent];
+                    return negative ? -value : value;
+                }
+
+                // exact double operation, unless rounding to float could round again a halfway value
+                if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+                    final double value = exponent < 0 ? mantissa / DOUBLE_POW10[-exponent] : mantissa * DOUBLE_POW10[exponent];
+                    if ((Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) != 0x10000000L) {
+                        return negative ? (float) -value : (float) value;
+                    }
+                }
+            }
+
+            final byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(start + i);
+            }
+            final String field = new String(bytes, StandardCharsets.US_ASCII);
+            try {
+                if (field.isEmpty()) throw new NumberFormatException("empty String");
+                return Float.parseFloat(field);
+            } catch (NumberFormatException nex) {
+                throw new DeepNettsException("Error parsing csv, number expected in row " + (row + 1) + ": " + nex.getMessage(), nex);
+            }
+        }
+
+        private DeepNettsException wrongNumberOfValues(int row, int lineStart) {
+            int found = 1;
+            for (int i = lineStart; i < limit && buf.get(i) != '\n'; i++) {
+                if (buf.get(i) == delimiter) found++;
+            }
+            return new DeepNettsException("Wrong number of values in the row " + (row + 1) + ": found " + found + " expected " + numColumns);
+        }
+    }
+
+}
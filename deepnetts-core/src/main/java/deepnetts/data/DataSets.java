@@ -31,6 +31,8 @@ import deepnetts.util.DeepNettsException;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Pattern;
 import javax.visrec.ml.data.DataSet;
 import javax.visrec.ml.data.Normalizer;
@@ -72,7 +74,64 @@ public class DataSets {
      *
      */
     public static TabularDataSet readCsv(File csvFile, int numInputs, int numOutputs, boolean hasColumnNames, String delimiter) throws FileNotFoundException, IOException {
-        TabularDataSet dataSet = new TabularDataSet(numInputs, numOutputs);
+        if (delimiter.length() != 1 || delimiter.charAt(0) > 0x7F) {
+            return readCsvLines(csvFile, numInputs, numOutputs, hasColumnNames, delimiter);
+        }
+        if (!csvFile.isFile()) {
+            throw new FileNotFoundException("Could not find CSV file: " + csvFile);
+        }
+
+        final CsvReader reader = new CsvReader(csvFile, numInputs + numOutputs)
+                                        .setDelimiter(delimiter.charAt(0))
+                                        .setHasColumnNames(hasColumnNames);
+        final List<TabularDataSet.Item> rows = reader.read(values -> new TabularDataSet.Item(Arrays.copyOfRange(values, 0, numInputs),
+                                                                                           Arrays.copyOfRange(values, numInputs, numInputs + numOutputs)));
+
+        TabularDataSet<TabularDataSet.Item> dataSet = new TabularDataSet<>(numInputs, numOutputs);
+        dataSet.setColumnNames(hasColumnNames ? reader.getColumnNames() : defaultColumnNames(numInputs, numOutputs));
+        rows.forEach(dataSet::add);
+
+        return dataSet;
+    }
+
+    /**
+     * Checks that new order of data set items is a permutation of the current
+     * order, so that it contains the same positions of items, each once.
+     *
+     * @param current current order
+     * @param order new order
+     * @throws IllegalArgumentException if order is not a permutation of current order
+     */
+    static void checkOrder(int[] current, int[] order) {
+        if (order.length != current.length) {
+            throw new IllegalArgumentException("Order should have " + current.length + " items : " + order.length);
+        }
+        final int[] sortedCurrent = current.clone();
+        final int[] sortedOrder = order.clone();
+        Arrays.sort(sortedCurrent);
+        Arrays.sort(sortedOrder);
+        if (!Arrays.equals(sortedCurrent, sortedOrder)) {
+            throw new IllegalArgumentException("Order should be a permutation of the current order of items");
+        }
+    }
+
+    static String[] defaultColumnNames(int numInputs, int numOutputs) {
+        String[] colNames = new String[numInputs+numOutputs];
+        for(int i=0; i<numInputs;i++)
+            colNames[i] = "in"+(i+1);
+
+        for(int j=0; j<numOutputs;j++)
+            colNames[numInputs+j] = "out"+(j+1);
+
+        return colNames;
+    }
+
+    /**
+     * Reads CSV file line by line, used for delimiters with more then one character
+     * and for non ASCII delimiters.
+     */
+    private static TabularDataSet<TabularDataSet.Item> readCsvLines(File csvFile, int numInputs, int numOutputs, boolean hasColumnNames, String delimiter) throws FileNotFoundException, IOException {
+        TabularDataSet<TabularDataSet.Item> dataSet = new TabularDataSet<>(numInputs, numOutputs);
         BufferedReader br = new BufferedReader(new FileReader(csvFile));
         String line=null;
         // auto detect column names - ako sadrzi slova onda ima imena. Sta ako su atributi nominalni? U ovoj fazi se pretpostavlja d anisu...
@@ -83,14 +142,7 @@ public class DataSets {
             // todo checsk number of col names
             dataSet.setColumnNames(colNames);
         } else {
-            String[] colNames = new String[numInputs+numOutputs];
-            for(int i=0; i<numInputs;i++)
-                colNames[i] = "in"+(i+1);
-
-            for(int j=0; j<numOutputs;j++)
-                colNames[numInputs+j] = "out"+(j+1);
-
-            dataSet.setColumnNames(colNames);
+            dataSet.setColumnNames(defaultColumnNames(numInputs, numOutputs));
         }
 
         while ((line = br.readLine()) != null) {
@@ -24,7 +24,13 @@ package deepnetts.data;
 import deepnetts.util.ImageUtils;
 import deepnetts.util.Tensor;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import javax.imageio.ImageIO;
@@ -58,8 +64,34 @@ public class ExampleImage implements MLDataItem {
 
     private Tensor rgbTensor;
 
+    /**
+     * Pixel values in compact mode, one byte per color channel, in the same
+     * order as rgbVector. Float input is created only when input is requested.
+     */
+    private byte[] pixels;
+
+    /**
+     * Index of image label in data set labels, or -1 for negative image or if not set.
+     */
+    private int labelIdx = -1;
+
     private File file;
 
+    /**
+     * Reusable input tensors for compact images, one per thread.
+     */
+    private static final ThreadLocal<Tensor> COMPACT_INPUT = new ThreadLocal<>();
+
+    /**
+     * Float values for all byte pixel values.
+     */
+    private static final float[] BYTE_TO_FLOAT = new float[256];
+
+    static {
+        for (int i = 0; i < BYTE_TO_FLOAT.length; i++) {
+            BYTE_TO_FLOAT[i] = i / 255.0f;
+        }
+    }
 
     
     /**
@@ -91,6 +123,32 @@ public class ExampleImage implements MLDataItem {
     public ExampleImage(BufferedImage image) {
         this(image, null);
     }    
+
+    /**
+     * Creates an instance of new example image with specified image and label,
+     * which optionally keeps pixels in compact form, using one byte instead of
+     * float for each color channel.
+     *
+     * Input of compact image is created from pixels each time it is requested,
+     * in a tensor which is reused by subsequent calls in the same thread, so it
+     * should be copied or used before requesting input of another image, and
+     * changes of the input tensor are not saved to image.
+     *
+     * @param image image
+     * @param label image label
+     * @param compact true to keep pixels as bytes
+     */
+    public ExampleImage(BufferedImage image, String label, boolean compact) {
+        this.label = label;
+        width = image.getWidth();
+        height = image.getHeight();
+
+        if (compact) {
+            createPixels(image);
+        } else {
+            createInputFromPixels(image);
+        }
+    }
     
     public ExampleImage(BufferedImage image, String label, int targetWidth, int targetHeight) throws IOException {
         this.label = label;
@@ -108,13 +166,12 @@ public class ExampleImage implements MLDataItem {
     private void createInputFromPixels(BufferedImage image) {
         rgbVector = new float[width * height * 3];
 
-        // ako image nije sRGB
-        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
-            BufferedImage imageCopy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-            imageCopy.getGraphics().drawImage(image, 0, 0, null);
-            image = imageCopy;
+        if (readPixels(image, rgbVector, null)) {
+            rgbTensor = new Tensor(height, width, 3, rgbVector);
+            return;
         }
-        Raster raster = image.getRaster();
+
+        Raster raster = toArgb(image).getRaster();
         float[] pixel = null;
 
         for (int y = 0; y < height; y++) {
@@ -132,8 +189,117 @@ public class ExampleImage implements MLDataItem {
 
         rgbTensor = new Tensor(height, width, 3, rgbVector);
     }
-    
+
+    private void createPixels(BufferedImage image) {
+        pixels = new byte[width * height * 3];
+
+        if (readPixels(image, null, pixels)) return;
+
+        Raster raster = toArgb(image).getRaster();
+        int[] pixel = null;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixel = raster.getPixel(x, y, pixel);
+
+                pixels[y * width + x] = (byte) pixel[0];
+                pixels[width * height + y * width + x] = (byte) pixel[1];
+                pixels[2 * width * height + y * width + x] = (byte) pixel[2];
+            }
+        }
+    }
+
+    /**
+     * Reads pixels of the most common image types (3BYTE_BGR, INT_RGB,
+     * INT_ARGB and BYTE_GRAY) directly from image data buffer, and writes
+     * them as planar RGB values to either float or byte array, in a single pass.
+     *
+     * @param image image to read
+     * @param rgb float values scaled to [0, 1], or null
+     * @param bytes byte values, or null
+     * @return false if image type or its data layout is not supported, and pixels were not read
+     */
+    private boolean readPixels(BufferedImage image, float[] rgb, byte[] bytes) {
+        final WritableRaster raster = image.getRaster();
+        final DataBuffer buffer = raster.getDataBuffer();
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+            return false;
+        }
+
+        final int plane = width * height;
+
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB: {
+                final int[] data = ((DataBufferInt) buffer).getData();
+                final int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+
+                for (int y = 0; y < height; y++) {
+                    int pos = y * stride;
+                    for (int x = 0; x < width; x++) {
+                        final int argb = data[pos++];
+                        setPixel(rgb, bytes, y * width + x, plane, (argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
+                    }
+                }
+                return true;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                final byte[] data = ((DataBufferByte) buffer).getData();
+                final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                final int stride = sampleModel.getScanlineStride();
+                final int pixelStride = sampleModel.getPixelStride();
+                final int[] offsets = sampleModel.getBandOffsets();
+                // gray images have a single band, used for all three channels
+                final int rOff = offsets[0];
+                final int gOff = offsets.length == 3 ? offsets[1] : offsets[0];
+                final int bOff = offsets.length == 3 ? offsets[2] : offsets[0];
+
+                for (int y = 0; y < height; y++) {
+                    int pos = y * stride;
+                    for (int x = 0; x < width; x++) {
+                        setPixel(rgb, bytes, y * width + x, plane, data[pos + rOff] & 0xFF, data[pos + gOff] & 0xFF, data[pos + bOff] & 0xFF);
+                        pos += pixelStride;
+                    }
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private static void setPixel(float[] rgb, byte[] bytes, int idx, int plane, int r, int g, int b) {
+        if (rgb != null) {
+            rgb[idx] = BYTE_TO_FLOAT[r];
+            rgb[plane + idx] = BYTE_TO_FLOAT[g];
+            rgb[2 * plane + idx] = BYTE_TO_FLOAT[b];
+        } else {
+            bytes[idx] = (byte) r;
+            bytes[plane + idx] = (byte) g;
+            bytes[2 * plane + idx] = (byte) b;
+        }
+    }
+
+    private static BufferedImage toArgb(BufferedImage image) {
+        // ako image nije sRGB
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            BufferedImage imageCopy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            imageCopy.getGraphics().drawImage(image, 0, 0, null);
+            image = imageCopy;
+        }
+        return image;
+    }
+
     public void invert() {
+        if (pixels != null) {
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (byte) (255 - (pixels[i] & 0xFF));
+            }
+            return;
+        }
+
         for (int i = 0; i < rgbVector.length; i++) {
             rgbVector[i] = 1 - rgbVector[i];
         }
@@ -144,7 +310,18 @@ public class ExampleImage implements MLDataItem {
         return targetOutput;
     }
 
+    /**
+     * Returns RGB values of image pixels. For compact image returns new array
+     * with values converted from pixels.
+     *
+     * @return RGB values of image pixels
+     */
     public float[] getRgbVector() {
+        if (pixels != null) {
+            final float[] values = new float[pixels.length];
+            toFloats(values);
+            return values;
+        }
         return rgbVector;
     }
 
@@ -153,6 +330,31 @@ public class ExampleImage implements MLDataItem {
         this.targetOutput = targetOutput;
     }
 
+    /**
+     * Sets index of image label and target output. Images with the same label
+     * can share the same target output tensor.
+     *
+     * @param labelIdx index of label in data set labels, or -1 for negative image
+     * @param targetOutput target output for this image
+     */
+    public final void setTargetOutput(int labelIdx, Tensor targetOutput) {
+        this.labelIdx = labelIdx;
+        this.targetOutput = targetOutput;
+    }
+
+    public int getLabelIndex() {
+        return labelIdx;
+    }
+
+    /**
+     * Returns true if this image keeps pixels in compact form.
+     *
+     * @return true for compact image
+     */
+    public boolean isCompact() {
+        return pixels != null;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -167,7 +369,21 @@ public class ExampleImage implements MLDataItem {
 
     @Override
     public Tensor getInput() {
-        return rgbTensor;
+        if (pixels == null) return rgbTensor;
+
+        Tensor input = COMPACT_INPUT.get();
+        if (input == null || input.getCols() != width || input.getRows() != height) {
+            input = new Tensor(height, width, 3);
+            COMPACT_INPUT.set(input);
+        }
+        toFloats(input.getValues());
+        return input;
+    }
+
+    private void toFloats(float[] values) {
+        for (int i = 0; i < pixels.length; i++) {
+            values[i] = BYTE_TO_FLOAT[pixels[i] & 0xFF];
+        }
     }
 
     public File getFile() {
@@ -0,0 +1,170 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+
+/**
+ * Loads images in parallel, in a pipeline with four stages:
+ * <ol>
+ * <li>reader thread, which reads image paths and labels from index</li>
+ * <li>decode workers, which read and decode image files</li>
+ * <li>process workers, which scale images and convert them to example images</li>
+ * <li>collector (calling thread), which receives example images in the same order as in index</li>
+ * </ol>
+ * Number of images which are read from index but not yet collected is limited,
+ * so reader waits when workers or collector cannot keep up, and memory used by
+ * decoded images is bounded.
+ *
+ * @author Zoran Sevarac
+ */
+final class ImageLoadingPipeline {
+
+    private final int decodeThreads, processThreads, maxImagesInFlight;
+
+    /**
+     * Single line of image index: path to image file and image label.
+     */
+    static final class Entry {
+
+        final String imagePath;
+        final String label;
+
+        Entry(String imagePath, String label) {
+            this.imagePath = imagePath;
+            this.label = label;
+        }
+    }
+
+    /**
+     * Source of index entries, used by reader stage.
+     */
+    @FunctionalInterface
+    interface EntrySource {
+
+        /**
+         * Returns next index entry, or null at the end of index.
+         */
+        Entry next() throws IOException;
+    }
+
+    ImageLoadingPipeline(int decodeThreads, int processThreads, int maxImagesInFlight) {
+        this.decodeThreads = decodeThreads;
+        this.processThreads = processThreads;
+        this.maxImagesInFlight = maxImagesInFlight;
+    }
+
+    /**
+     * Loads all images from specified source, and passes them to consumer in
+     * index order. Stops at the first error, which is thrown from this method.
+     *
+     * @param source index entries
+     * @param processor converts decoded image and its label into example image
+     * @param consumer receives example images, called from calling thread
+     * @throws DeepNettsException if index cannot be read or image cannot be loaded
+     */
+    void load(EntrySource source, BiFunction<BufferedImage, String, ExampleImage> processor, Consumer<ExampleImage> consumer) {
+        final ExecutorService decodePool = Executors.newFixedThreadPool(decodeThreads, daemonThreads("DeepNetts-ImageDecoder"));
+        final ExecutorService processPool = Executors.newFixedThreadPool(processThreads, daemonThreads("DeepNetts-ImageProcessor"));
+
+        final Semaphore inFlight = new Semaphore(maxImagesInFlight);
+        final BlockingQueue<CompletableFuture<ExampleImage>> results = new LinkedBlockingQueue<>();
+        final CompletableFuture<ExampleImage> endOfIndex = CompletableFuture.completedFuture(null);
+
+        final Thread reader = new Thread(() -> {
+            try {
+                Entry entry;
+                while ((entry = source.next()) != null) {
+                    inFlight.acquire();
+                    final Entry current = entry;
+                    results.add(CompletableFuture.supplyAsync(() -> decode(current.imagePath), decodePool)
+                                                 .thenApplyAsync(image -> processor.apply(image, current.label), processPool));
+                }
+                results.add(endOfIndex);
+            } catch (IOException | RuntimeException ex) {
+                final CompletableFuture<ExampleImage> error = new CompletableFuture<>();
+                error.completeExceptionally(ex instanceof DeepNettsException ? ex : new DeepNettsException("Error reading image index", ex));
+                results.add(error);
+            } catch (InterruptedException ex) {
+                // collector stopped loading
+            }
+        }, "DeepNetts-ImageIndexReader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            CompletableFuture<ExampleImage> result;
+            while ((result = results.take()) != endOfIndex) {
+                consumer.accept(result.join());
+                inFlight.release();
+            }
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof DeepNettsException ? (DeepNettsException) ex.getCause() : new DeepNettsException("Error loading images", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DeepNettsException("Interrupted while loading images", ex);
+        } finally {
+            reader.interrupt();
+            decodePool.shutdownNow();
+            processPool.shutdownNow();
+        }
+    }
+
+    private static BufferedImage decode(String imagePath) {
+        final BufferedImage image;
+        try {
+            image = ImageIO.read(new File(imagePath));
+        } catch (IOException ex) {
+            throw new DeepNettsException("Error loading image file: " + imagePath, ex);
+        }
+        if (image == null) {
+            throw new DeepNettsException("Error loading image file, unsupported format: " + imagePath);
+        }
+        return image;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -34,8 +34,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -44,7 +42,6 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
-import javax.imageio.ImageIO;
 import javax.visrec.ml.data.DataSet;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -63,11 +60,32 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
     private Tensor mean;
     private String delimiter = " ";
 
+    /**
+     * Number of threads which decode image files, and number of threads which
+     * scale and convert decoded images, while loading images.
+     */
+    private int decodeThreads = Runtime.getRuntime().availableProcessors();
+    private int processThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of images which are read from index, but not yet added to
+     * this image set, while loading images.
+     */
+    private int maxImagesInFlight = 256;
+
+    /**
+     * Keep pixels of loaded images as bytes, and share target outputs between
+     * images with the same label.
+     */
+    private boolean compactImages = false;
+    private transient Tensor[] classTargets;
+    private transient Tensor negativeTarget;
+
     // TODO: method load which takes path to folder with images. May constructor
     // create image and laels index if they are not present
     // mozda ImageDataSetBuilder
     // ukljuci broj slika , index fajlove i sve ostalo
-    private static String NEGATIVE_LABEL = "negative";
+    static final String NEGATIVE_LABEL = "negative";
 
     private static final Logger LOGGER = LogManager.getLogger(DeepNetts.class.getName());
 
@@ -103,7 +121,7 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
             throw new DeepNettsException("Example image cannot be null!");
         }
         synchronized (LOCK) {
-            items.add(exImage);
+            super.add(exImage);
         }
 
 //        if ((exImage.getWidth() == imageWidth) && (exImage.getHeight() == imageHeight)) {
@@ -120,82 +138,15 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
 
     /**
      * Loads example images with corresponding labels from the specified file.
-     *
+     * Images are decoded and preprocessed in parallel, using specified number
+     * of decode and process threads.
      *
      * @param imageIdxFile Plain text file that contains space delimited image
      * paths and labels
      * @throws java.io.FileNotFoundException if imageIdxFile was not found
      */
     public void loadImages(File imageIdxFile) throws FileNotFoundException {
-        // TODO: First load entire image index, then load and preprocess image in
-        // multithreaded way TODO2: load images in batches  verovtano neki iterator nextBatch()
-
-        Objects.requireNonNull(imageIdxFile, "Index file cannot be null!");
-        if (columnNames == null) {
-            throw new DeepNettsException("Error: Labels are not loaded. In order to load images correctly you have to load labels first using ImageSet.loadLabels method.");
-        }
-
-        // use paths of the image index file as root path for image categories
-        final String rootPath = imageIdxFile.getPath().substring(0, imageIdxFile.getPath().lastIndexOf(File.separator));
-
-        String imgFileName = null;
-        String label = null;
-
-        List<BufferedImage> images = new LinkedList<>();
-        List<String> labels = new LinkedList<>();
-
-        // TODO: da radi u batch-u. Da ima interni brojac dokle je stigao. Ili da drzi otvoren stream da iam metodu loadNextBatch() mozda to najbolje u posebnoj metodi ako je mod za trening batch.
-        // TODO: napravi ovo asinhrono da ucitava i preprocesira u posebnim threadovima, u perspektivi u batchovima, ne sve odjendnom
-        // ucitaj prvo indeks slika a onda ucitavanje i preprocrsiranje slika parelelizuj da jedan thread radi ucitavanje a drugi preprocsiranje onoga sto je ucitano
-        try ( BufferedReader br = new BufferedReader(new FileReader(imageIdxFile))) {
-            String line = null;
-            int lineCount = 0;
-            //  List<Future<?>> results = new LinkedList<>();
-            // we can also catch and log FileNotFoundException, IOException in this loop
-            while ((line = br.readLine()) != null) {
-                lineCount++;
-                if (line.isEmpty()) { // skip empty lines
-                    continue;
-                }
-                String[] parts = line.split(delimiter); // parse file and class label from current line - sta ako naziv fajla sadrzi space? - to ne sme ili detektuj nekako sa lastIndex
-                if (parts.length > 2) {
-                    throw new DeepNettsException("Bad file format: image paths and labels should not contain spaces! At line " + lineCount);
-                }
-
-                imgFileName = parts[0];
-
-                if (parts.length == 2) { // use specified label if it is available
-                    label = parts[1];
-                } else if (parts.length == 1) {  // otherwise use name of parent folder as label
-                    final int labelEndIdx = imgFileName.lastIndexOf(File.separator); // assumes one top directory which corresponds to category label
-                    label = imgFileName.substring(0, labelEndIdx);
-                }
-                //  String shortFileName = parts[0].substring(parts[0].indexOf(File.separator)+1);
-                imgFileName = rootPath + File.separator + imgFileName;
-
-                BufferedImage image = ImageIO.read(new File(imgFileName));
-                images.add(image);
-                labels.add(label);
-            }
-
-            processImages(images, labels);
-
-            if (isEmpty()) {
-                throw new DeepNettsException("Zero images loaded!");
-            }
-
-            LOGGER.info("Loaded " + size() + " images");
-
-        } catch (FileNotFoundException ex) {
-            LOGGER.error(ex);
-            throw new DeepNettsException("Could not find image file: " + imgFileName, ex);
-        } catch (IOException ex) {
-            LOGGER.error(ex);
-            throw new DeepNettsException("Error loading image file: " + imgFileName, ex);
-        } catch (NullPointerException ex) {
-            LOGGER.error(ex);
-            throw new DeepNettsException("Error loading image file: " + imgFileName, ex);
-        }
+        loadImages(imageIdxFile, Integer.MAX_VALUE);
     }
 
     /**
@@ -213,109 +164,80 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
             throw new DeepNettsException("Error: Labels are not loaded. In order to load images correctly you have to load labels first using ImageSet.loadLabels method.");
         }
 
-        final String rootPath = imageIdxFile.getPath().substring(0, imageIdxFile.getPath().lastIndexOf(File.separator));
-
-        String imgFileName = null;
-        String label = null;
-
-        List<BufferedImage> images = new LinkedList<>();
-        List<String> labels = new LinkedList<>();
-
-        // ako je numOfImages manji od broja slika u fajlu logovati
-        try ( BufferedReader br = new BufferedReader(new FileReader(imageIdxFile))) {
-            String line = null;
-
-            for (int i = 0; i < numOfImages; i++) {
-                line = br.readLine();
-                if (line.isEmpty()) {
-                    continue;
-                }
-                String[] parts = line.split(delimiter); // parse file and class label from line
-
-                if (parts.length > 2) {
-                    throw new DeepNettsException("Bad file format: image paths and labels should not contain spaces! At line " + i);
-                }
-
-                imgFileName = parts[0];
+        if (compactImages) createClassTargets();
 
-                if (parts.length == 2) { // use specified label if it is available
-                    label = parts[1];
-                } else if (parts.length == 1) {  // otherwise use name of parent folder as label
-                    final int labelEndIdx = imgFileName.lastIndexOf(File.separator); // assumes one top directory which corresponds to category label
-                    label = imgFileName.substring(0, labelEndIdx);
+        // use paths of the image index file as root path for image categories
+        final String rootPath = indexRootPath(imageIdxFile);
+
+        try (BufferedReader br = new BufferedReader(new FileReader(imageIdxFile))) {
+            final int[] counts = new int[2]; // lines, images
+
+            final ImageLoadingPipeline.EntrySource index = () -> {
+                String line;
+                while (counts[1] < numOfImages && (line = br.readLine()) != null) {
+                    counts[0]++;
+                    final ImageLoadingPipeline.Entry entry = parseIndexLine(line, delimiter, rootPath, counts[0]);
+                    if (entry == null) { // skip empty lines
+                        continue;
+                    }
+
+                    counts[1]++;
+                    return entry;
                 }
+                return null;
+            };
 
-                imgFileName = rootPath + File.separator + imgFileName;
-                final BufferedImage image = ImageIO.read(new File(imgFileName));
-                images.add(image);
-                labels.add(label);
-            }
-            
-            processImages(images, labels);            
+            new ImageLoadingPipeline(decodeThreads, processThreads, maxImagesInFlight).load(index, this::processImage, this::add);
         } catch (FileNotFoundException ex) {
             LOGGER.error(ex);
-            throw new DeepNettsException("Could not find image file: " + imgFileName, ex);
+            throw new DeepNettsException("Could not find image index file: " + imageIdxFile, ex);
         } catch (IOException ex) {
             LOGGER.error(ex);
-            throw new DeepNettsException("Error loading image file: " + imgFileName, ex);
+            throw new DeepNettsException("Error reading image index file: " + imageIdxFile, ex);
         }
 
-
-
-        // sacekaj da pool zavrsi
         if (isEmpty()) {
             throw new DeepNettsException("Zero images loaded!");
         }
         LOGGER.info("Loaded " + size() + " images");
     }
 
-    private void processImages(List<BufferedImage> images, List<String> labels) throws IOException {
-            for (int i = 0; i < images.size(); i++) {
-                BufferedImage img = images.get(i);
-                final  String lbl = labels.get(i);
-                if (scaleImages) img = ImageUtils.scaleImage(img, imageWidth, imageHeight);
-                
-                final ExampleImage exImg = new ExampleImage(img, lbl);
-                exImg.setTargetOutput(new Tensor(oneHotEncode(lbl, columnNames)));
-                if (invertImages) exImg.invert();
-                add(exImg);
-            }
-    }
+    /**
+     * Scales decoded image and converts it to example image with target output.
+     * Called from image loading threads.
+     */
+    private ExampleImage processImage(BufferedImage img, String lbl) {
+        if (scaleImages) img = ImageUtils.scaleImage(img, imageWidth, imageHeight);
+
+        if (compactImages) {
+            final int labelIdx = Arrays.asList(columnNames).indexOf(lbl);
+            final ExampleImage exImg = new ExampleImage(img, labelIdx < 0 ? lbl : columnNames[labelIdx], true);
+            exImg.setTargetOutput(labelIdx, labelIdx < 0 ? negativeTarget : classTargets[labelIdx]);
+            if (invertImages) exImg.invert();
+            return exImg;
+        }
 
-    public void invert() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        final ExampleImage exImg = new ExampleImage(img, lbl);
+        exImg.setTargetOutput(new Tensor(oneHotEncode(lbl, columnNames)));
+        if (invertImages) exImg.invert();
+        return exImg;
     }
 
-    private class ImageProcessor implements Callable<Boolean> {
-
-        private final List<BufferedImage> images;
-        private final List<String> labels;
-        private final int start;
-        private final int end;
+    /**
+     * Creates target outputs shared by compact images, one for each label.
+     */
+    private void createClassTargets() {
+        if (classTargets != null && classTargets.length == columnNames.length) return;
 
-        public ImageProcessor(List<BufferedImage> images, List<String> labels, int start, int end) {
-            this.images = images;
-            this.labels = labels;
-            this.start = start;
-            this.end = end;
+        classTargets = new Tensor[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            classTargets[i] = new Tensor(oneHotEncode(columnNames[i], columnNames));
         }
+        negativeTarget = new Tensor(new float[columnNames.length]);
+    }
 
-        @Override
-        public Boolean call() throws IOException {
-            Iterator<String> li = labels.iterator();
-            for (int i = start; i < end; i++) {
-                BufferedImage img = images.get(i);
-                String lbl = li.next();
-                if (scaleImages) img = ImageUtils.scaleImage(img, imageWidth, imageHeight);
-                
-                final ExampleImage exImg = new ExampleImage(img, lbl);
-                exImg.setTargetOutput(new Tensor(oneHotEncode(lbl, columnNames)));
-                if (invertImages) exImg.invert();
-                add(exImg); // vratiti kao batch rezultata
-            }
-
-            return Boolean.TRUE;
-        }
+    public void invert() {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
     /**
@@ -378,19 +300,12 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
         LOGGER.info("Splitting data set: " + Arrays.toString(partSizes));
 
         ImageSet[] subSets = new ImageSet[partSizes.length];
-        int itemIdx = 0;
+        int from = 0;
 
         for (int p = 0; p < partSizes.length; p++) {
-            ImageSet subSet = new ImageSet(imageWidth, imageHeight);
-            int itemsCount = (int) (size() * partSizes[p]);
-
-            for (int j = 0; j < itemsCount; j++) {
-                subSet.add(items.get(itemIdx));
-                itemIdx++;
-            }
-
-            subSets[p] = subSet;
-            subSets[p].columnNames = columnNames;
+            final int to = from + (int) (size() * partSizes[p]);
+            subSets[p] = view(new ImageSet(imageWidth, imageHeight), from, to);
+            from = to;
             // anything else? image dimensions?
         }
 
@@ -418,6 +333,18 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
      * @throws DeepNettsException
      */
     public String[] loadLabels(File file) throws DeepNettsException {
+        this.columnNames = readLabels(file);
+        return columnNames;
+    }
+
+    /**
+     * Reads image labels from the specified file, one label per line.
+     *
+     * @param file file to read labels from
+     * @return labels from file
+     * @throws DeepNettsException if file cannot be read or labels contain spaces
+     */
+    static String[] readLabels(File file) throws DeepNettsException {
         try ( BufferedReader br = new BufferedReader(new FileReader(file))) {
             String line = null;
             List<String> labelsList = new ArrayList<>(); // temporary labels list
@@ -430,9 +357,8 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
                 }
                 labelsList.add(line);
             }
-            this.columnNames = labelsList.toArray(new String[labelsList.size()]);
             LOGGER.info("Loaded " + labelsList.size() + " labels");
-            return columnNames;
+            return labelsList.toArray(new String[labelsList.size()]);
         } catch (FileNotFoundException ex) {
             LOGGER.error("Could not find labels file: " + file.getAbsolutePath(), ex);
             throw new DeepNettsException("Could not find labels file: " + file.getAbsolutePath(), ex);
@@ -442,6 +368,50 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
         }
     }
 
+    /**
+     * Returns folder of the specified image index file, which is the root path
+     * for image paths in index file.
+     */
+    static String indexRootPath(File imageIdxFile) {
+        final File parent = imageIdxFile.getAbsoluteFile().getParentFile();
+        return parent != null ? parent.getPath() : "";
+    }
+
+    /**
+     * Parses image path and label from a line of image index file. Line
+     * contains image path relative to index file, optionally followed by image
+     * label. If label is not specified, parent folder of the image is used as label.
+     *
+     * @param line line from index file
+     * @param delimiter delimiter between image path and label
+     * @param rootPath folder of the index file
+     * @param lineNumber number of the line, used in error messages
+     * @return image path and label, or null for empty line
+     * @throws DeepNettsException if line has bad format
+     */
+    static ImageLoadingPipeline.Entry parseIndexLine(String line, String delimiter, String rootPath, int lineNumber) throws DeepNettsException {
+        if (line.isEmpty()) return null;
+
+        final String[] parts = line.split(delimiter); // parse file and class label from current line
+        if (parts.length > 2) {
+            throw new DeepNettsException("Bad file format: image paths and labels should not contain spaces! At line " + lineNumber);
+        }
+
+        final String imgFileName = parts[0];
+        final String label;
+        if (parts.length == 2) { // use specified label if it is available
+            label = parts[1];
+        } else {  // otherwise use name of parent folder as label
+            final int separatorIdx = imgFileName.lastIndexOf(File.separator);
+            if (separatorIdx <= 0) {
+                throw new DeepNettsException("Bad file format: image without label should be in a folder named as its label! At line " + lineNumber);
+            }
+            label = imgFileName.substring(0, separatorIdx);
+        }
+
+        return new ImageLoadingPipeline.Entry(rootPath + File.separator + imgFileName, label);
+    }
+
     /**
      * Applies zero mean normalization to entire dataset, and returns mean
      * tensor.
@@ -449,19 +419,23 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
      * @return mean Tensor for the entire dataset
      */
     public Tensor zeroMean() {
+        if (!isEmpty() && get(0).isCompact()) {
+            throw new DeepNettsException("Zero mean normalization is not supported for compact images");
+        }
+
         mean = new Tensor(imageHeight, imageWidth, 3);
 
         // sum all matrices
-        items.forEach((img) ->  mean.add(img.getInput()));
+        forEach((img) ->  mean.add(img.getInput()));
 
         // divide by number of images
-        mean.div(items.size());
+        mean.div(size());
 
         
         //List<Callable<Boolean>> workers = new ArrayList<>();
                 
         // subtract mean from each image
-        for (ExampleImage image : items) {
+        for (ExampleImage image : this) {
             image.getInput().sub(mean);
         }
         
@@ -520,7 +494,7 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
     public Map<String, Integer> countByClasses() {
         HashMap<String, Integer> map = new HashMap<>();
 
-        for (ExampleImage item : items) {
+        for (ExampleImage item : this) {
             if (map.containsKey(item.getLabel())) {
                 final String key = item.getLabel();
                 map.put(key, map.get(key) + 1);
@@ -537,6 +511,74 @@ public class ImageSet extends TabularDataSet<ExampleImage> {
         return map;
     }
 
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    /**
+     * Sets number of threads which read and decode image files while loading images.
+     *
+     * @param decodeThreads number of decode threads
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        if (decodeThreads <= 0) {
+            throw new IllegalArgumentException("Number of decode threads should be greater then zero : " + decodeThreads);
+        }
+        this.decodeThreads = decodeThreads;
+    }
+
+    public int getProcessThreads() {
+        return processThreads;
+    }
+
+    /**
+     * Sets number of threads which scale decoded images and convert them to
+     * network inputs while loading images.
+     *
+     * @param processThreads number of process threads
+     */
+    public void setProcessThreads(int processThreads) {
+        if (processThreads <= 0) {
+            throw new IllegalArgumentException("Number of process threads should be greater then zero : " + processThreads);
+        }
+        this.processThreads = processThreads;
+    }
+
+    public int getMaxImagesInFlight() {
+        return maxImagesInFlight;
+    }
+
+    /**
+     * Sets maximum number of images which are being loaded at the same time.
+     * Index reading waits when this limit is reached, which limits memory used
+     * by decoded images.
+     *
+     * @param maxImagesInFlight maximum number of images being loaded
+     */
+    public void setMaxImagesInFlight(int maxImagesInFlight) {
+        if (maxImagesInFlight <= 0) {
+            throw new IllegalArgumentException("Max images in flight should be greater then zero : " + maxImagesInFlight);
+        }
+        this.maxImagesInFlight = maxImagesInFlight;
+    }
+
+    public boolean getCompactImages() {
+        return compactImages;
+    }
+
+    /**
+     * Sets flag which indicates whether images should be loaded in compact
+     * form, which keeps one byte instead of float for each pixel color channel,
+     * and uses four times less memory. Inputs of compact images are converted
+     * to floats when used, and cannot be normalized in place.
+     *
+     * @param compactImages true to load compact images
+     * @see ExampleImage#ExampleImage(BufferedImage, String, boolean)
+     */
+    public void setCompactImages(boolean compactImages) {
+        this.compactImages = compactImages;
+    }
+
     public String getDelimiter() {
         return delimiter;
     }
@@ -0,0 +1,356 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.Tensor;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.visrec.ml.data.DataSet;
+
+/**
+ * Base class for tabular data sets which keep values of all rows in shared
+ * storage, and access them through an index of rows.
+ *
+ * Items of this data set are light views of rows, which are created when
+ * requested. Input and target output of an item are read from storage into
+ * tensors which are reused by subsequent calls in the same thread, so they
+ * should be used before requesting input or target of another item.
+ *
+ * Shuffle permutes the index, and split and {@link #subSet(int...)} return
+ * views which share storage with this data set, so neither copies any values.
+ *
+ * @see ArrayDataSet
+ * @see MappedDataSet
+ * @author Zoran Sevarac
+ */
+public abstract class IndexedDataSet implements DataSet<MLDataItem>, ItemOrder {
+
+    protected final int numInputs, numOutputs;
+
+    /**
+     * Indexes of rows in storage, in the order of this data set.
+     */
+    private int[] rows;
+
+    private String[] columnNames;
+
+    /**
+     * Data set which owns the storage, shared by all its views.
+     */
+    private final IndexedDataSet source;
+
+    /**
+     * Input and target tensors for items, one per thread.
+     */
+    private final ThreadLocal<Tensor> inputView, targetView;
+
+    /**
+     * Creates a new data set with all rows in storage order.
+     *
+     * @param numInputs number of inputs in a row
+     * @param numOutputs number of target outputs in a row
+     * @param rowCount number of rows in storage
+     */
+    protected IndexedDataSet(int numInputs, int numOutputs, int rowCount) {
+        this.numInputs = numInputs;
+        this.numOutputs = numOutputs;
+        this.source = this;
+
+        rows = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            rows[i] = i;
+        }
+
+        inputView = ThreadLocal.withInitial(() -> new Tensor(numInputs));
+        targetView = ThreadLocal.withInitial(() -> new Tensor(numOutputs));
+    }
+
+    /**
+     * Creates a view of the specified data set with specified rows.
+     *
+     * @param parent data set which shares storage with this view
+     * @param rows indexes of rows in storage
+     */
+    protected IndexedDataSet(IndexedDataSet parent, int[] rows) {
+        this.numInputs = parent.numInputs;
+        this.numOutputs = parent.numOutputs;
+        this.columnNames = parent.columnNames;
+        this.source = parent.source;
+        this.inputView = parent.inputView;
+        this.targetView = parent.targetView;
+        this.rows = rows;
+    }
+
+    /**
+     * Creates a view of this data set with specified rows.
+     *
+     * @param rows indexes of rows in storage
+     * @return view which shares storage with this data set
+     */
+    protected abstract IndexedDataSet view(int[] rows);
+
+    /**
+     * Reads inputs of specified row from storage.
+     *
+     * @param row index of the row in storage
+     * @param values array for {@link #getNumInputs()} values
+     */
+    protected abstract void readInput(int row, float[] values);
+
+    /**
+     * Reads target outputs of specified row from storage.
+     *
+     * @param row index of the row in storage
+     * @param values array for {@link #getNumOutputs()} values
+     */
+    protected abstract void readTarget(int row, float[] values);
+
+    @Override
+    public MLDataItem get(int index) {
+        return new Row(rows[index]);
+    }
+
+    /**
+     * Returns read only list view of this data set, with items which are views of rows.
+     *
+     * @return list of items
+     */
+    @Override
+    public List<MLDataItem> getItems() {
+        return new AbstractList<MLDataItem>() {
+            @Override
+            public MLDataItem get(int index) {
+                return IndexedDataSet.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return rows.length;
+            }
+        };
+    }
+
+    /**
+     * Rows cannot be added item by item, since items are views of rows in storage.
+     */
+    @Override
+    public DataSet<MLDataItem> add(MLDataItem item) {
+        throw new UnsupportedOperationException("Data set does not support adding items, it is a view of rows in storage");
+    }
+
+    /**
+     * Adds rows of specified data set, which should share storage with this
+     * data set, to the index of this data set.
+     *
+     * @param dataSet view of the same storage
+     * @return this data set
+     * @throws UnsupportedOperationException if data set does not share storage with this data set
+     */
+    @Override
+    public DataSet<MLDataItem> addAll(DataSet<MLDataItem> dataSet) {
+        if (!(dataSet instanceof IndexedDataSet) || ((IndexedDataSet) dataSet).source != source) {
+            throw new UnsupportedOperationException("Only rows of data sets which share storage with this data set can be added");
+        }
+
+        final int[] other = ((IndexedDataSet) dataSet).rows;
+        final int[] all = Arrays.copyOf(rows, rows.length + other.length);
+        System.arraycopy(other, 0, all, rows.length, other.length);
+        rows = all;
+        return this;
+    }
+
+    /**
+     * Returns data set with rows at specified positions in this data set,
+     * which shares storage with this data set.
+     *
+     * @param positions positions of items in this data set
+     * @return data set with specified items
+     */
+    public IndexedDataSet subSet(int... positions) {
+        final int[] subRows = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] < 0 || positions[i] >= rows.length) {
+                throw new IndexOutOfBoundsException("Position: " + positions[i] + ", size: " + rows.length);
+            }
+            subRows[i] = rows[positions[i]];
+        }
+        return view(subRows);
+    }
+
+    /**
+     * Removes all rows from this data set, storage is not changed.
+     */
+    @Override
+    public void clear() {
+        rows = new int[0];
+    }
+
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return rows.length == 0;
+    }
+
+    /**
+     * Shuffles rows using the default random generator.
+     */
+    @Override
+    public void shuffle() {
+        shuffle(RandomGenerator.getDefault().getRandom());
+    }
+
+    @Override
+    public void shuffle(Random rnd) {
+        for (int i = rows.length - 1; i > 0; i--) {
+            final int j = rnd.nextInt(i + 1);
+            final int tmp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = tmp;
+        }
+    }
+
+    @Override
+    public int[] getOrder() {
+        return rows.clone();
+    }
+
+    @Override
+    public void setOrder(int[] order) {
+        DataSets.checkOrder(rows, order);
+        rows = order.clone();
+    }
+
+    /**
+     * Shuffles rows and splits them into parts of specified sizes, used by
+     * split methods of subclasses to create views.
+     *
+     * @param parts sizes of the parts in percents, with sum not larger than 1
+     * @return rows of each part
+     */
+    protected int[][] splitRows(double... parts) {
+        if (parts.length < 1) {
+            throw new IllegalArgumentException("Must specify at least one part");
+        } else if (parts.length == 1) {
+            parts = new double[] {parts[0], 1 - parts[0]};
+        }
+
+        double partsSum = 0;
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] <= 0) {
+                throw new IllegalArgumentException("Value of the part cannot be zero or negative!");
+            }
+            partsSum += parts[i];
+        }
+        if (partsSum > 1) {
+            throw new IllegalArgumentException("Sum of parts cannot be larger than 1!");
+        }
+
+        shuffle(); // shuffle before splting, using global random seed
+
+        final int[][] partRows = new int[parts.length][];
+        int from = 0;
+        for (int p = 0; p < parts.length; p++) {
+            final int to = from + (int) (rows.length * parts[p]);
+            partRows[p] = Arrays.copyOfRange(rows, from, to);
+            from = to;
+        }
+        return partRows;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public void setColumnNames(String[] columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    /**
+     * Returns names of target columns, or default names (out1, out2...) if
+     * column names are not set.
+     *
+     * @return names of target columns
+     */
+    @Override
+    public String[] getTargetNames() {
+        if (columnNames == null) {
+            return Arrays.copyOfRange(DataSets.defaultColumnNames(numInputs, numOutputs), numInputs, numInputs + numOutputs);
+        }
+        return Arrays.copyOfRange(columnNames, numInputs, numInputs + numOutputs);
+    }
+
+    public int getNumInputs() {
+        return numInputs;
+    }
+
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    /**
+     * Returns index of the row in storage, for the item at specified position
+     * in this view.
+     *
+     * @param index position of the item in this data set
+     * @return index of the row in storage
+     */
+    public int getRow(int index) {
+        return rows[index];
+    }
+
+    /**
+     * View of a single row in storage.
+     */
+    private final class Row implements MLDataItem {
+
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Tensor getInput() {
+            final Tensor input = inputView.get();
+            readInput(row, input.getValues());
+            return input;
+        }
+
+        @Override
+        public Tensor getTargetOutput() {
+            final Tensor target = targetView.get();
+            readTarget(row, target.getValues());
+            return target;
+        }
+    }
+
+}
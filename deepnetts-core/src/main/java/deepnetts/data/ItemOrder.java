@@ -0,0 +1,51 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+/**
+ * Data set which keeps order of its items as an index, which can be saved
+ * and restored. Used to resume training with the same shuffle order.
+ *
+ * @see deepnetts.net.train.BackpropagationTrainer#resume(java.io.File)
+ * @author Zoran Sevarac
+ */
+public interface ItemOrder {
+
+    /**
+     * Returns copy of the current order of items, as positions of items in
+     * underlying storage.
+     *
+     * @return positions of items in data set order
+     */
+    int[] getOrder();
+
+    /**
+     * Sets order of items, which should be a permutation of the order
+     * returned by {@link #getOrder()}.
+     *
+     * @param order positions of items in data set order
+     * @throws IllegalArgumentException if order is not a permutation of the current order
+     */
+    void setOrder(int[] order);
+
+}
@@ -0,0 +1,410 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.MappedBuffers;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.visrec.ml.data.DataSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Tabular data set with rows stored in a binary file, which is memory mapped,
+ * so data set can be larger than available heap and memory.
+ *
+ * Binary file is written once, from CSV file or from another data set, and
+ * opened each time data set is used. Items of this data set are light views
+ * of rows, which copy values from mapped file into tensors which are reused
+ * by subsequent calls in the same thread, so they should be used before
+ * requesting input or target of another item. Rows are read in file order
+ * unless data set is shuffled, which gives sequential reads that operating
+ * system can prefetch, and keep in page cache if there is enough memory.
+ *
+ * Closing data set unmaps the file, which makes this data set and all its
+ * views unusable. Close waits for reads which are in progress in other
+ * threads, and reads after close throw IllegalStateException.
+ *
+ * <p>Binary file format (all values are little endian):</p>
+ * <pre>
+ * int    magic number 0x44544E44 ("DNTD")
+ * int    format version
+ * int    number of inputs, number of outputs, number of rows
+ * int    number of column names, followed by each name as int length and UTF-8 bytes
+ *        padding to 64 bytes
+ * float  inputs followed by target outputs of each row, one row after another
+ * </pre>
+ *
+ * @see ArrayDataSet
+ * @author Zoran Sevarac
+ */
+public final class MappedDataSet extends IndexedDataSet implements AutoCloseable {
+
+    private static final int MAGIC = 0x44544E44;
+    private static final int VERSION = 1;
+    private static final int ALIGNMENT = 64;
+
+    /**
+     * Mapped parts of the file, each part contains whole rows.
+     */
+    private final MappedByteBuffer[] mapped;
+    private final FloatBuffer[] chunks;
+    private final int rowsPerChunk;
+
+    /**
+     * Buffers used to read rows, one per thread.
+     */
+    private final ThreadLocal<FloatBuffer[]> readers;
+
+    /**
+     * Set when file is unmapped, shared with all views.
+     */
+    private final AtomicBoolean closed;
+
+    /**
+     * Read lock is held while values are copied from the file, so the file is
+     * not unmapped during a read, shared with all views.
+     */
+    private final ReadWriteLock lock;
+
+    private static final Logger LOGGER = LogManager.getLogger(DeepNetts.class.getName());
+
+    private MappedDataSet(int numInputs, int numOutputs, String[] columnNames, MappedByteBuffer[] mapped, int rowsPerChunk, int rowCount) {
+        super(numInputs, numOutputs, rowCount);
+        setColumnNames(columnNames);
+        this.mapped = mapped;
+        this.rowsPerChunk = rowsPerChunk;
+        this.closed = new AtomicBoolean();
+        this.lock = new ReentrantReadWriteLock();
+
+        chunks = new FloatBuffer[mapped.length];
+        for (int c = 0; c < mapped.length; c++) {
+            chunks[c] = mapped[c].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+
+        readers = ThreadLocal.withInitial(() -> {
+            final FloatBuffer[] duplicates = new FloatBuffer[chunks.length];
+            for (int c = 0; c < chunks.length; c++) {
+                duplicates[c] = chunks[c].duplicate();
+            }
+            return duplicates;
+        });
+    }
+
+    /**
+     * Creates a view of the specified data set with specified rows.
+     */
+    private MappedDataSet(MappedDataSet parent, int[] rows) {
+        super(parent, rows);
+        this.mapped = parent.mapped;
+        this.chunks = parent.chunks;
+        this.rowsPerChunk = parent.rowsPerChunk;
+        this.readers = parent.readers;
+        this.closed = parent.closed;
+        this.lock = parent.lock;
+    }
+
+    /**
+     * Writes all rows from CSV file to binary file. CSV file is parsed in
+     * parallel, and rows are written directly to mapped binary file, so CSV
+     * file can be larger than available heap.
+     *
+     * @param csv reader of CSV file
+     * @param numInputs number of inputs in each row, followed by target outputs
+     * @param file binary file to write
+     * @throws IOException if CSV file cannot be read or binary file cannot be written
+     * @throws DeepNettsException if CSV file contains invalid row
+     */
+    public static void write(CsvReader csv, int numInputs, File file) throws IOException {
+        final int numColumns = csv.getNumColumns();
+        if (numInputs <= 0 || numInputs > numColumns) {
+            throw new IllegalArgumentException("Number of inputs should be between 1 and " + numColumns + " : " + numInputs);
+        }
+        final int numOutputs = numColumns - numInputs;
+        final int[] count = new int[1];
+        final MappedByteBuffer[][] written = new MappedByteBuffer[1][];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final FileChannel channel = raf.getChannel();
+
+            csv.parse(rowCount -> {
+                count[0] = rowCount;
+                final String[] names = csv.getColumnNames() != null ? csv.getColumnNames() : DataSets.defaultColumnNames(numInputs, numOutputs);
+                final ByteBuffer header = header(numInputs, numOutputs, rowCount, names);
+                final long dataPosition = header.remaining();
+                final long rowBytes = (long) numColumns * Float.BYTES;
+
+                raf.setLength(0);
+                raf.setLength(dataPosition + rowCount * rowBytes);
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+
+                final int rowsPerChunk = Math.max(1, (int) (Integer.MAX_VALUE / rowBytes));
+                final MappedByteBuffer[] mapped = new MappedByteBuffer[(rowCount + rowsPerChunk - 1) / rowsPerChunk];
+                final FloatBuffer[] chunks = new FloatBuffer[mapped.length];
+                for (int c = 0; c < mapped.length; c++) {
+                    final int chunkRows = Math.min(rowsPerChunk, rowCount - c * rowsPerChunk);
+                    mapped[c] = channel.map(FileChannel.MapMode.READ_WRITE, dataPosition + c * rowsPerChunk * rowBytes, chunkRows * rowBytes);
+                    chunks[c] = mapped[c].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                }
+
+                written[0] = mapped;
+
+                return (row, values) -> {
+                    final FloatBuffer chunk = chunks[row / rowsPerChunk];
+                    final int offset = (row % rowsPerChunk) * numColumns;
+                    for (int i = 0; i < numColumns; i++) {
+                        chunk.put(offset + i, values[i]);
+                    }
+                };
+            });
+
+            for (MappedByteBuffer chunk : written[0]) {
+                chunk.force();
+                MappedBuffers.unmap(chunk);
+            }
+        }
+
+        LOGGER.info("Written " + count[0] + " rows to " + file);
+    }
+
+    /**
+     * Writes inputs and target outputs of all items in specified data set to binary file.
+     *
+     * @param dataSet data set to write
+     * @param file binary file to write
+     * @throws IOException if file cannot be written
+     * @throws DeepNettsException if data set is empty, or items have different sizes
+     */
+    public static void write(DataSet<? extends MLDataItem> dataSet, File file) throws IOException {
+        if (dataSet.isEmpty()) {
+            throw new DeepNettsException("Cannot write empty data set");
+        }
+
+        final MLDataItem first = dataSet.get(0);
+        final int numInputs = first.getInput().size();
+        final int numOutputs = first.getTargetOutput().size();
+        final String[] names = dataSet.getColumnNames() != null ? dataSet.getColumnNames() : DataSets.defaultColumnNames(numInputs, numOutputs);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = header(numInputs, numOutputs, dataSet.size(), names);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            int row = 0;
+            for (MLDataItem item : dataSet) {
+                final float[] in = item.getInput().getValues(), out = item.getTargetOutput().getValues();
+                if (in.length != numInputs || out.length != numOutputs) {
+                    throw new DeepNettsException("All items should have the same number of inputs and outputs, different item at " + row);
+                }
+                for (int i = 0; i < in.length + out.length; i++) {
+                    if (!buffer.hasRemaining()) flush(channel, buffer);
+                    buffer.putFloat(i < in.length ? in[i] : out[i - in.length]);
+                }
+                row++;
+            }
+            flush(channel, buffer);
+        }
+
+        LOGGER.info("Written " + dataSet.size() + " rows to " + file);
+    }
+
+    private static ByteBuffer header(int numInputs, int numOutputs, int rowCount, String[] names) {
+        int size = 6 * Integer.BYTES;
+        final byte[][] nameBytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + nameBytes[i].length;
+        }
+        size = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        final ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(numInputs).putInt(numOutputs).putInt(rowCount);
+        header.putInt(names.length);
+        for (byte[] bytes : nameBytes) {
+            header.putInt(bytes.length).put(bytes);
+        }
+        ((Buffer) header).clear();
+        return header;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+    }
+
+    /**
+     * Opens binary file written by one of write methods, by memory mapping its rows.
+     *
+     * @param file binary file
+     * @return data set with all rows from file
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file is not a valid data set file
+     */
+    public static MappedDataSet open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer fixed = ByteBuffer.allocate(6 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (fixed.hasRemaining() && channel.read(fixed, fixed.position()) > 0) { }
+            ((Buffer) fixed).flip();
+
+            if (fixed.remaining() < 6 * Integer.BYTES || fixed.getInt() != MAGIC) {
+                throw new DeepNettsException("Not a Deep Netts data set file: " + file);
+            }
+            final int version = fixed.getInt();
+            if (version != VERSION) {
+                throw new DeepNettsException("Unsupported data set file version " + version + " in file " + file);
+            }
+            final int numInputs = fixed.getInt(), numOutputs = fixed.getInt(), rowCount = fixed.getInt();
+            final String[] names = new String[fixed.getInt()];
+
+            long position = fixed.limit();
+            for (int i = 0; i < names.length; i++) {
+                final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(length, position);
+                final ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+                while (bytes.hasRemaining() && channel.read(bytes, position + Integer.BYTES + bytes.position()) > 0) { }
+                names[i] = new String(bytes.array(), StandardCharsets.UTF_8);
+                position += Integer.BYTES + bytes.capacity();
+            }
+            final long dataPosition = (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+            final long rowBytes = (long) (numInputs + numOutputs) * Float.BYTES;
+            if (dataPosition + rowCount * rowBytes > channel.size()) {
+                throw new DeepNettsException("Data set file is truncated: " + file);
+            }
+
+            final int rowsPerChunk = Math.max(1, (int) (Integer.MAX_VALUE / rowBytes));
+            final MappedByteBuffer[] mapped = new MappedByteBuffer[(rowCount + rowsPerChunk - 1) / rowsPerChunk];
+            try {
+                for (int c = 0; c < mapped.length; c++) {
+                    final int chunkRows = Math.min(rowsPerChunk, rowCount - c * rowsPerChunk);
+                    mapped[c] = channel.map(FileChannel.MapMode.READ_ONLY, dataPosition + c * rowsPerChunk * rowBytes, chunkRows * rowBytes);
+                }
+            } catch (IOException | RuntimeException ex) {
+                for (MappedByteBuffer chunk : mapped) {
+                    MappedBuffers.unmap(chunk);
+                }
+                throw ex;
+            }
+
+            LOGGER.info("Opened " + rowCount + " rows from " + file);
+            return new MappedDataSet(numInputs, numOutputs, names, mapped, rowsPerChunk, rowCount);
+        }
+    }
+
+    @Override
+    protected MappedDataSet view(int[] rows) {
+        return new MappedDataSet(this, rows);
+    }
+
+    @Override
+    public MappedDataSet subSet(int... positions) {
+        return (MappedDataSet) super.subSet(positions);
+    }
+
+    /**
+     * Shuffles and splits data set into parts of specified sizes, which share
+     * mapped file with this data set.
+     *
+     * @param parts sizes of the parts in percents, with sum not larger than 1
+     * @return parts of the data set of specified size
+     */
+    @Override
+    public MappedDataSet[] split(double... parts) {
+        final int[][] partRows = splitRows(parts);
+        final MappedDataSet[] subSets = new MappedDataSet[partRows.length];
+        for (int p = 0; p < partRows.length; p++) {
+            Arrays.sort(partRows[p]); // keep sequential reads within each part
+            subSets[p] = view(partRows[p]);
+        }
+        return subSets;
+    }
+
+    @Override
+    protected void readInput(int row, float[] values) {
+        read(row, 0, values, numInputs);
+    }
+
+    @Override
+    protected void readTarget(int row, float[] values) {
+        read(row, numInputs, values, numOutputs);
+    }
+
+    private void read(int row, int column, float[] values, int count) {
+        final Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            if (closed.get()) {
+                throw new IllegalStateException("Mapped data set is closed");
+            }
+            final FloatBuffer chunk = readers.get()[row / rowsPerChunk];
+            ((Buffer) chunk).position((row % rowsPerChunk) * (numInputs + numOutputs) + column);
+            chunk.get(values, 0, count);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Unmaps the file, shared by this data set and all its views, after reads
+     * in progress are completed. Data sets which share the file cannot be used
+     * after this call.
+     */
+    @Override
+    public void close() {
+        final Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (closed.compareAndSet(false, true)) {
+                for (MappedByteBuffer chunk : mapped) {
+                    MappedBuffers.unmap(chunk);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+}
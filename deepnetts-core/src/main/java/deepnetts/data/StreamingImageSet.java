@@ -0,0 +1,570 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.ImageUtils;
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.Tensor;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.visrec.ml.data.DataSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Image data set which keeps only image paths and labels in memory, and loads
+ * images on demand, so it can be used for image sets which do not fit in memory.
+ *
+ * Images are loaded from the same index and labels files as in {@link ImageSet}.
+ * While iterating, images are loaded and preprocessed by a background thread
+ * in mini batches, and handed over through a bounded queue, which holds at most
+ * the specified number of prefetched batches. Only the current and prefetched
+ * batches are in memory at any time, and each pass through the data set
+ * (training epoch) loads and decodes images again. Note that
+ * {@link deepnetts.net.train.BackpropagationTrainer} also calculates accuracy
+ * on the training set after each epoch, which is a second pass that decodes
+ * all images again, so each epoch reads the images twice. When decoding is
+ * the bottleneck, {@link CachedImageSet} can be used instead, which decodes
+ * images once.
+ * Data set should not be shuffled or changed while it is being iterated.
+ *
+ * @see ImageSet
+ * @author Zoran Sevarac
+ */
+public class StreamingImageSet implements DataSet<ExampleImage> {
+
+    private final int imageWidth, imageHeight;
+
+    /**
+     * Image labels (classes).
+     */
+    private String[] columnNames;
+
+    /**
+     * Target outputs for each label, shared by all images with the same label.
+     */
+    private Tensor[] targets;
+
+    /**
+     * Target output for negative images, with all zeros.
+     */
+    private Tensor negativeTarget;
+
+    /**
+     * Paths of image files, and indexes of their labels (-1 for negative images).
+     */
+    private String[] imagePaths;
+    private int[] labelIdxs;
+    private int size;
+
+    private boolean scaleImages = true;
+    private boolean invertImages = false;
+    private String delimiter = " ";
+
+    /**
+     * Number of images loaded at once by background thread.
+     */
+    private int batchSize = 32;
+
+    /**
+     * Maximum number of loaded batches waiting to be used.
+     */
+    private int prefetchBatches = 2;
+
+    private static final Logger LOGGER = LogManager.getLogger(DeepNetts.class.getName());
+
+    public StreamingImageSet(int imageWidth, int imageHeight) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.imagePaths = new String[0];
+        this.labelIdxs = new int[0];
+    }
+
+    /**
+     * Creates a streaming image set which is a part of another streaming
+     * image set, with the same labels and settings.
+     */
+    private StreamingImageSet(StreamingImageSet parent, int from, int to) {
+        this(parent.imageWidth, parent.imageHeight);
+        columnNames = parent.columnNames;
+        targets = parent.targets;
+        negativeTarget = parent.negativeTarget;
+        imagePaths = Arrays.copyOfRange(parent.imagePaths, from, to);
+        labelIdxs = Arrays.copyOfRange(parent.labelIdxs, from, to);
+        size = to - from;
+        scaleImages = parent.scaleImages;
+        invertImages = parent.invertImages;
+        delimiter = parent.delimiter;
+        batchSize = parent.batchSize;
+        prefetchBatches = parent.prefetchBatches;
+    }
+
+    /**
+     * Loads image labels from the specified file, one label per line. Labels
+     * have to be loaded before images.
+     *
+     * @param file file to load labels from
+     * @return loaded labels
+     * @throws DeepNettsException if file cannot be read
+     */
+    public String[] loadLabels(File file) throws DeepNettsException {
+        setColumnNames(ImageSet.readLabels(file));
+        return columnNames;
+    }
+
+    public String[] loadLabels(String filePath) throws DeepNettsException {
+        return loadLabels(new File(filePath));
+    }
+
+    /**
+     * Reads image paths and labels from the specified index file, without
+     * loading images. Each line contains image path relative to the index
+     * file, optionally followed by image label. If label is not specified,
+     * name of the image parent folder is used as label.
+     *
+     * @param imageIdxFile image index file
+     * @throws DeepNettsException if index file cannot be read, or contains unknown labels
+     */
+    public void loadImages(File imageIdxFile) throws DeepNettsException {
+        Objects.requireNonNull(imageIdxFile, "Index file cannot be null!");
+        if (columnNames == null) {
+            throw new DeepNettsException("Error: Labels are not loaded. In order to load images correctly you have to load labels first using StreamingImageSet.loadLabels method.");
+        }
+
+        final String rootPath = ImageSet.indexRootPath(imageIdxFile);
+
+        try (BufferedReader br = new BufferedReader(new FileReader(imageIdxFile))) {
+            String line;
+            int lineCount = 0;
+            while ((line = br.readLine()) != null) {
+                lineCount++;
+                final ImageLoadingPipeline.Entry entry = ImageSet.parseIndexLine(line, delimiter, rootPath, lineCount);
+                if (entry != null) {
+                    add(entry.imagePath, entry.label);
+                }
+            }
+        } catch (IOException ex) {
+            throw new DeepNettsException("Error reading image index file: " + imageIdxFile, ex);
+        }
+
+        if (isEmpty()) {
+            throw new DeepNettsException("Zero images loaded!");
+        }
+
+        LOGGER.info("Loaded index of " + size + " images");
+    }
+
+    public void loadImages(String imageIdxFile) throws DeepNettsException {
+        loadImages(new File(imageIdxFile));
+    }
+
+    /**
+     * Adds image with specified path and label to this data set.
+     *
+     * @param imagePath path to image file
+     * @param label image label, should be one of the loaded labels
+     */
+    public void add(String imagePath, String label) {
+        if (size == imagePaths.length) {
+            final int capacity = Math.max(16, size + (size >> 1));
+            imagePaths = Arrays.copyOf(imagePaths, capacity);
+            labelIdxs = Arrays.copyOf(labelIdxs, capacity);
+        }
+
+        imagePaths[size] = imagePath;
+        labelIdxs[size] = labelIndex(label);
+        size++;
+    }
+
+    private int labelIndex(String label) {
+        if (label.equalsIgnoreCase(ImageSet.NEGATIVE_LABEL)) {
+            return -1;
+        }
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(label)) {
+                return i;
+            }
+        }
+        throw new DeepNettsException("Unknown image label: " + label);
+    }
+
+    /**
+     * Loads and preprocesses image at the specified position.
+     *
+     * @param idx position of the image in data set
+     * @return loaded image
+     */
+    @Override
+    public ExampleImage get(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IndexOutOfBoundsException("Index: " + idx + ", size: " + size);
+        }
+
+        final String imagePath = imagePaths[idx];
+        final int labelIdx = labelIdxs[idx];
+
+        try {
+            BufferedImage image = ImageIO.read(new File(imagePath));
+            if (image == null) {
+                throw new DeepNettsException("Unsupported image format: " + imagePath);
+            }
+            if (scaleImages) image = ImageUtils.scaleImage(image, imageWidth, imageHeight);
+
+            final ExampleImage exImg = new ExampleImage(image, labelIdx < 0 ? ImageSet.NEGATIVE_LABEL : columnNames[labelIdx]);
+            exImg.setTargetOutput(labelIdx < 0 ? negativeTarget : targets[labelIdx]);
+            if (invertImages) exImg.invert();
+
+            return exImg;
+        } catch (IOException ex) {
+            throw new DeepNettsException("Error loading image file: " + imagePath, ex);
+        }
+    }
+
+    /**
+     * Returns iterator which loads images in background thread, one mini batch
+     * at a time.
+     *
+     * @return iterator over images in this data set
+     */
+    @Override
+    public Iterator<ExampleImage> iterator() {
+        return new PrefetchIterator();
+    }
+
+    /**
+     * Returns list view of this data set, which loads each image on access.
+     *
+     * @return list of images
+     */
+    @Override
+    public List<ExampleImage> getItems() {
+        return new AbstractList<ExampleImage>() {
+            @Override
+            public ExampleImage get(int index) {
+                return StreamingImageSet.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public DataSet<ExampleImage> add(ExampleImage item) {
+        throw new UnsupportedOperationException("Streaming image set does not keep loaded images, use add(imagePath, label) instead");
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        imagePaths = new String[0];
+        labelIdxs = new int[0];
+        size = 0;
+    }
+
+    /**
+     * Shuffles images using the default random generator.
+     */
+    @Override
+    public void shuffle() {
+        shuffle(RandomGenerator.getDefault().getRandom());
+    }
+
+    @Override
+    public void shuffle(Random rnd) {
+        for (int i = size - 1; i > 0; i--) {
+            final int j = rnd.nextInt(i + 1);
+
+            final String path = imagePaths[i];
+            imagePaths[i] = imagePaths[j];
+            imagePaths[j] = path;
+
+            final int labelIdx = labelIdxs[i];
+            labelIdxs[i] = labelIdxs[j];
+            labelIdxs[j] = labelIdx;
+        }
+    }
+
+    /**
+     * Splits data set into parts of specified sizes, which share labels and
+     * settings with this data set. Parts only contain image paths.
+     *
+     * @param partSizes sizes of the parts in percents, with sum not larger than 1
+     * @return parts of this data set
+     */
+    @Override
+    public StreamingImageSet[] split(double... partSizes) {
+        if (partSizes.length < 2) {
+            throw new IllegalArgumentException("Must specify at least two parts");
+        }
+        double partsSum = 0;
+        for (int i = 0; i < partSizes.length; i++) {
+            if (partSizes[i] <= 0) {
+                throw new IllegalArgumentException("Value of the part cannot be zero or negative!");
+            }
+            partsSum += partSizes[i];
+        }
+        if (partsSum > 1) {
+            throw new IllegalArgumentException("Sum of parts/percents cannot be larger than 1!");
+        }
+
+        final StreamingImageSet[] subSets = new StreamingImageSet[partSizes.length];
+        int from = 0;
+        for (int p = 0; p < partSizes.length; p++) {
+            final int to = from + (int) (size * partSizes[p]);
+            subSets[p] = new StreamingImageSet(this, from, to);
+            from = to;
+        }
+
+        return subSets;
+    }
+
+    @Override
+    public String[] getTargetNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public void setColumnNames(String[] columnNames) {
+        if (size > 0) {
+            throw new IllegalStateException("Labels cannot be changed after images are added");
+        }
+        this.columnNames = columnNames;
+
+        targets = new Tensor[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++) {
+            final float[] target = new float[columnNames.length];
+            target[i] = 1;
+            targets[i] = new Tensor(target);
+        }
+        negativeTarget = new Tensor(new float[columnNames.length]);
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public boolean getScaleImages() {
+        return scaleImages;
+    }
+
+    public void setScaleImages(boolean scaleImages) {
+        this.scaleImages = scaleImages;
+    }
+
+    public boolean getInvertImages() {
+        return invertImages;
+    }
+
+    public void setInvertImages(boolean invertImages) {
+        this.invertImages = invertImages;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public void setDelimiter(String delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets number of images which are loaded at once by background thread.
+     *
+     * @param batchSize number of images in loaded batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size should be greater then zero : " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getPrefetchBatches() {
+        return prefetchBatches;
+    }
+
+    /**
+     * Sets maximum number of loaded batches which wait to be used, which
+     * limits memory used by loaded images to (prefetchBatches + 2) * batchSize images.
+     *
+     * @param prefetchBatches maximum number of prefetched batches
+     */
+    public void setPrefetchBatches(int prefetchBatches) {
+        if (prefetchBatches <= 0) {
+            throw new IllegalArgumentException("Number of prefetched batches should be greater then zero : " + prefetchBatches);
+        }
+        this.prefetchBatches = prefetchBatches;
+    }
+
+    /**
+     * Iterator which takes batches of images loaded by background thread.
+     */
+    private final class PrefetchIterator implements Iterator<ExampleImage> {
+
+        private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(prefetchBatches);
+        private final int count = size;
+        private List<ExampleImage> current = new ArrayList<>();
+        private int position, returned;
+
+        PrefetchIterator() {
+            if (count > 0) {
+                final Thread loader = new Thread(new Loader(this, queue, count), "DeepNetts-StreamingImageSet");
+                loader.setDaemon(true);
+                loader.start();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return returned < count;
+        }
+
+        @Override
+        public ExampleImage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            if (position == current.size()) {
+                final Batch batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new DeepNettsException("Interrupted while waiting for images", ex);
+                }
+                if (batch.error != null) {
+                    throw batch.error;
+                }
+                current = batch.images;
+                position = 0;
+            }
+
+            returned++;
+            return current.get(position++);
+        }
+    }
+
+    /**
+     * Loaded batch of images, or error which stopped loading.
+     */
+    private static final class Batch {
+
+        private final List<ExampleImage> images;
+        private final RuntimeException error;
+
+        Batch(List<ExampleImage> images, RuntimeException error) {
+            this.images = images;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Loads batches of images for iterator. Loader keeps only weak reference to
+     * its iterator, and stops if iterator is no longer used before reaching the
+     * end of data set.
+     */
+    private final class Loader implements Runnable {
+
+        private final WeakReference<PrefetchIterator> iterator;
+        private final BlockingQueue<Batch> queue;
+        private final int count;
+
+        Loader(PrefetchIterator iterator, BlockingQueue<Batch> queue, int count) {
+            this.iterator = new WeakReference<>(iterator);
+            this.queue = queue;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int from = 0; from < count; from += batchSize) {
+                    final int to = Math.min(count, from + batchSize);
+                    final List<ExampleImage> images = new ArrayList<>(to - from);
+
+                    Batch batch;
+                    try {
+                        for (int i = from; i < to; i++) {
+                            images.add(get(i));
+                        }
+                        batch = new Batch(images, null);
+                    } catch (RuntimeException ex) {
+                        batch = new Batch(null, ex);
+                    }
+
+                    while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                        if (iterator.get() == null) return; // iterator was abandoned
+                    }
+                    if (batch.error != null) return;
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -24,7 +24,10 @@ package deepnetts.data;
 import deepnetts.util.RandomGenerator;
 import deepnetts.util.Tensor;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import javax.visrec.ml.data.DataSet;
 
@@ -32,16 +35,27 @@ import javax.visrec.ml.data.DataSet;
  * Basic data set used for training neural networks in deep netts.
  * 
  * Note: implements DataSet from visrec api, and specify data set elements. Extends BasicDataSet from visrec.ml layer
+ *
+ * Shuffle permutes an index of items, and parts created by split are views
+ * which share items with this data set, so neither moves or copies items.
  * 
  * @author Zoran Sevarac <zoran.sevarac@deepnetts.com>
  * @param <E> Type of elements in this data set.
  */
-public class TabularDataSet<E extends MLDataItem> extends javax.visrec.ml.data.BasicDataSet<E> {
+public class TabularDataSet<E extends MLDataItem> extends javax.visrec.ml.data.BasicDataSet<E> implements ItemOrder {
 
     private int numInputs, numOutputs; // number of inputs and outputs / target values
 
     protected String[] columnNames; // column names
 
+    /**
+     * Positions of items of this data set in items list, or null if data set
+     * contains all items in list order. Data sets which share items list
+     * always have an index.
+     */
+    private int[] index;
+    private int indexSize;
+
     // TODO: do we need constructor with vector dimensions annd capacity?
     
     protected TabularDataSet() {
@@ -120,23 +134,189 @@ public class TabularDataSet<E extends MLDataItem> extends javax.visrec.ml.data.B
         }
 
         DataSet[] subSets = new TabularDataSet[parts.length];
-        int itemIdx = 0;
+        int from = 0;
 
         this.shuffle(); // shuffle before splting, using global random seed
         for (int p = 0; p < parts.length; p++) {
-            TabularDataSet subSet = new TabularDataSet(this.numInputs, this.numOutputs);
-            subSet.setColumnNames(this.columnNames);
-            int itemsCount = (int) (size() * parts[p]);
+            final int to = from + (int) (size() * parts[p]);
+            subSets[p] = view(new TabularDataSet<>(this.numInputs, this.numOutputs), from, to);
+            from = to;
+        }
+
+        return subSets;
+    }
 
-            for (int j = 0; j < itemsCount; j++) {
-                subSet.add(items.get(itemIdx));
-                itemIdx++;
+    /**
+     * Returns data set with items at specified positions in this data set,
+     * which shares items with this data set.
+     *
+     * @param positions positions of items in this data set
+     * @return data set with specified items
+     */
+    public TabularDataSet<E> subSet(int... positions) {
+        final int[] subIndex = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] < 0 || positions[i] >= size()) {
+                throw new IndexOutOfBoundsException("Position: " + positions[i] + ", size: " + size());
             }
+            subIndex[i] = index == null ? positions[i] : index[positions[i]];
+        }
+
+        return share(new TabularDataSet<>(this.numInputs, this.numOutputs), subIndex);
+    }
+
+    /**
+     * Makes specified data set a view of items in range [from, to) of this data set.
+     *
+     * @param subSet empty data set
+     * @param from position of the first item in view
+     * @param to position after the last item in view
+     * @return specified data set
+     */
+    protected <D extends TabularDataSet<E>> D view(D subSet, int from, int to) {
+        createIndex();
+        return share(subSet, Arrays.copyOfRange(index, from, to));
+    }
+
+    private <D extends TabularDataSet<E>> D share(D subSet, int[] subIndex) {
+        createIndex();
+        final TabularDataSet<E> view = subSet;
+        view.items = items;
+        view.index = subIndex;
+        view.indexSize = subIndex.length;
+        view.setColumnNames(columnNames);
+        return subSet;
+    }
+
+    /**
+     * Creates index with all items in list order.
+     */
+    private void createIndex() {
+        if (index != null) return;
 
-            subSets[p] = subSet;
+        indexSize = items.size();
+        index = new int[Math.max(indexSize, 16)];
+        for (int i = 0; i < indexSize; i++) {
+            index[i] = i;
         }
+    }
 
-        return subSets;
+    /**
+     * Returns mutable list of items of this data set. If data set has an
+     * index (it was shuffled or split) items are first copied to a new list
+     * in index order and index is dropped, so changes of the list do not
+     * affect data sets which shared items with this data set.
+     *
+     * @return items of this data set
+     */
+    @Override
+    public List<E> getItems() {
+        if (index != null) {
+            final List<E> ordered = new ArrayList<>(indexSize);
+            for (int i = 0; i < indexSize; i++) {
+                ordered.add(items.get(index[i]));
+            }
+            items = ordered;
+            index = null;
+            indexSize = 0;
+        }
+        return items;
+    }
+
+    /**
+     * Iterates items in index order, without copying the items list.
+     *
+     * @return iterator of items of this data set
+     */
+    @Override
+    public Iterator<E> iterator() {
+        if (index == null) return items.iterator();
+
+        return new Iterator<E>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < indexSize;
+            }
+
+            @Override
+            public E next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return items.get(index[next++]);
+            }
+        };
+    }
+
+    @Override
+    public E get(int i) {
+        if (index == null) return items.get(i);
+
+        if (i >= indexSize) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + indexSize);
+        }
+        return items.get(index[i]);
+    }
+
+    @Override
+    public int size() {
+        return index == null ? items.size() : indexSize;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public DataSet<E> add(E item) {
+        items.add(item);
+        if (index != null) {
+            if (indexSize == index.length) {
+                index = Arrays.copyOf(index, Math.max(16, indexSize * 2));
+            }
+            index[indexSize++] = items.size() - 1;
+        }
+        return this;
+    }
+
+    /**
+     * Adds all items from specified data set. Items of data sets which share
+     * items with this data set are added to index only.
+     *
+     * @param dataSet data set with items to add
+     * @return this data set
+     */
+    @Override
+    public DataSet<E> addAll(DataSet<E> dataSet) {
+        if (dataSet instanceof TabularDataSet && ((TabularDataSet<?>) dataSet).items == items && index != null) {
+            final TabularDataSet<E> other = (TabularDataSet<E>) dataSet;
+            other.createIndex();
+            index = Arrays.copyOf(index, Math.max(index.length, indexSize + other.indexSize));
+            System.arraycopy(other.index, 0, index, indexSize, other.indexSize);
+            indexSize += other.indexSize;
+            return this;
+        }
+
+        for (E item : dataSet) {
+            add(item);
+        }
+        return this;
+    }
+
+    /**
+     * Removes all items from this data set. Items which are shared with
+     * other data sets are only removed from index.
+     */
+    @Override
+    public void clear() {
+        if (index == null) {
+            items.clear();
+        } else {
+            indexSize = 0;
+        }
     }
 
     /**
@@ -146,7 +326,24 @@ public class TabularDataSet<E extends MLDataItem> extends javax.visrec.ml.data.B
     @Override
     public void shuffle() {
         Random rnd = RandomGenerator.getDefault().getRandom();
-        Collections.shuffle(items, rnd);
+        shuffle(rnd);
+    }
+
+    /**
+     * Shuffles index of data set items using specified random generator.
+     * Items are permuted in the same way as with Collections.shuffle.
+     *
+     * @param rnd random generator
+     */
+    @Override
+    public void shuffle(Random rnd) {
+        createIndex();
+        for (int i = indexSize; i > 1; i--) {
+            final int j = rnd.nextInt(i);
+            final int tmp = index[i - 1];
+            index[i - 1] = index[j];
+            index[j] = tmp;
+        }
     }
 
     /**
@@ -158,7 +355,31 @@ public class TabularDataSet<E extends MLDataItem> extends javax.visrec.ml.data.B
      */
     public void shuffle(int seed) {
         Random rnd = new Random(seed);
-        Collections.shuffle(items, rnd);
+        shuffle(rnd);
+    }
+
+    /**
+     * Returns positions of items of this data set in items list, in data set order.
+     *
+     * @return positions of items in data set order
+     */
+    @Override
+    public int[] getOrder() {
+        if (index == null) { // items are in list order
+            final int[] order = new int[items.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+        return Arrays.copyOf(index, indexSize);
+    }
+
+    @Override
+    public void setOrder(int[] order) {
+        DataSets.checkOrder(getOrder(), order);
+        createIndex();
+        System.arraycopy(order, 0, index, 0, indexSize);
     }
 
     @Override
@@ -23,7 +23,6 @@
 package deepnetts.data.norm;
 
 import deepnetts.util.Tensor;
-import deepnetts.util.Tensors;
 import java.io.Serializable;
 import javax.visrec.ml.data.DataSet;
 import javax.visrec.ml.data.Normalizer;
@@ -33,6 +32,7 @@ import deepnetts.data.MLDataItem;
  * Performs max normalization, rescales data to corresponding max value in each column.
  * Effectively scales all values to interval [0, 1]
  * Performs normalization on both inputs and outputs.
+ * Max values are found in a single parallel pass over the data set.
  * 
  * @author Zoran Sevarac
  */
@@ -46,29 +46,24 @@ public final class MaxNormalizer implements Normalizer<DataSet<MLDataItem>>, Ser
      * @param dataSet 
      */
     public MaxNormalizer(DataSet<MLDataItem> dataSet) {
-        // find max values for each component of input and output tensor/vector
+        // find max absolute values for all components of input and output vectors
+        final Statistics[] stats = Statistics.of(dataSet);
         maxInputs = dataSet.get(0).getInput().copy();
+        maxInputs.copyFrom(stats[0].getAbsMax());
         maxOutputs = dataSet.get(0).getTargetOutput().copy();
-        
-        // find max values for all components of input and output vectors
-        for(MLDataItem item : dataSet) {
-            maxInputs = Tensors.absMax(item.getInput(), maxInputs); 
-            maxOutputs = Tensors.absMax(item.getTargetOutput(), maxOutputs);
-        }        
+        maxOutputs.copyFrom(stats[1].getAbsMax());
     }
         
     /**
      * Performs normalization on the given inputs.
+     * Columns with max value zero are left unchanged.
      * 
      * @param dataSet data set to normalize
      */
     @Override
     public void normalize(DataSet<MLDataItem> dataSet) {
-        // todo: prevent/catch division by zero
-        for(MLDataItem item : dataSet) {
-            item.getInput().div(maxInputs);   // kad je absMaxInput postao 1 1 1 1 posle pre iteracije!!!
-            item.getTargetOutput().div(maxOutputs); 
-        }    
+        Rescaling.apply(dataSet, new float[maxInputs.size()], Rescaling.nonZero(maxInputs.getValues().clone()),
+                                 new float[maxOutputs.size()], Rescaling.nonZero(maxOutputs.getValues().clone()));
     }
 
     public Tensor getMaxInputs() {
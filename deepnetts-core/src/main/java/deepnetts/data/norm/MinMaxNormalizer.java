@@ -23,7 +23,6 @@
 package deepnetts.data.norm;
 
 import deepnetts.util.Tensor;
-import deepnetts.util.Tensors;
 import java.io.Serializable;
 import javax.visrec.ml.data.DataSet;
 import javax.visrec.ml.data.Normalizer;
@@ -31,13 +30,16 @@ import deepnetts.data.MLDataItem;
 
 /**
  * Performs Min Max normalization on the given data set.
+ * Scales all values to interval [0, 1], using min and max values in each
+ * column which are found in a single parallel pass over the data set.
+ * Performs normalization on both inputs and outputs.
  * 
  * @author Zoran Sevarac
  */
 public class MinMaxNormalizer implements Normalizer<DataSet<MLDataItem>>, Serializable {
     private Tensor minInput;
     private Tensor maxInput;
-    private Tensor minOutput;   // ovo ne bi trebalo na outputs da se primenjuje???
+    private Tensor minOutput;
     private Tensor maxOutput;   
     
     /**
@@ -47,38 +49,51 @@ public class MinMaxNormalizer implements Normalizer<DataSet<MLDataItem>>, Serial
      */
     public MinMaxNormalizer(DataSet<MLDataItem> dataSet) {
         // find min and max values for each component of input and output tensor/vector
+        final Statistics[] stats = Statistics.of(dataSet);
         minInput = dataSet.get(0).getInput().copy();
+        minInput.copyFrom(stats[0].getMin());
         maxInput = dataSet.get(0).getInput().copy();
+        maxInput.copyFrom(stats[0].getMax());
         minOutput = dataSet.get(0).getTargetOutput().copy();
+        minOutput.copyFrom(stats[1].getMin());
         maxOutput = dataSet.get(0).getTargetOutput().copy();
-        
-        for(MLDataItem item : dataSet) {
-            minInput = Tensors.absMin(item.getInput(), minInput);
-            maxInput = Tensors.absMax(item.getInput(), maxInput);
-            minOutput = Tensors.absMin(item.getTargetOutput(), minOutput);
-            maxOutput = Tensors.absMax(item.getTargetOutput(), maxOutput);
-        }        
+        maxOutput.copyFrom(stats[1].getMax());
     }
         
     /**
      * Performs normalization on the given inputs.
      * x = (x-min) / (max-min)
+     * Columns with the same min and max value are only shifted by min.
      * 
      * @param dataSet data set to normalize
      */
     @Override
     public void normalize(DataSet<MLDataItem> dataSet) {
-        Tensor inDivider = maxInput.copy();
-        maxInput.sub(minInput);
-
-        Tensor outDivider = maxOutput.copy();
-        maxOutput.sub(minOutput);
+        Rescaling.apply(dataSet, minInput.getValues(), range(minInput, maxInput),
+                                 minOutput.getValues(), range(minOutput, maxOutput));
+    }
 
-        for (MLDataItem item : dataSet) {
-            item.getInput().sub(minInput);
-            item.getInput().div(inDivider);
-            item.getTargetOutput().sub(minInput);
-            item.getTargetOutput().sub(outDivider);
+    private static float[] range(Tensor min, Tensor max) {
+        final float[] range = new float[min.size()];
+        for (int i = 0; i < range.length; i++) {
+            range[i] = max.get(i) - min.get(i);
         }
+        return Rescaling.nonZero(range);
+    }
+
+    public Tensor getMinInput() {
+        return minInput;
+    }
+
+    public Tensor getMaxInput() {
+        return maxInput;
+    }
+
+    public Tensor getMinOutput() {
+        return minOutput;
+    }
+
+    public Tensor getMaxOutput() {
+        return maxOutput;
     }
 }
@@ -0,0 +1,114 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data.norm;
+
+import deepnetts.data.ArrayDataSet;
+import deepnetts.data.CachedImageSet;
+import deepnetts.data.ExampleImage;
+import deepnetts.data.IndexedDataSet;
+import deepnetts.data.MLDataItem;
+import deepnetts.data.StreamingImageSet;
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.Parallel;
+import javax.visrec.ml.data.DataSet;
+
+/**
+ * Applies linear rescaling x = (x - shift) / scale to all items of a data
+ * set in parallel, which is used by normalizers.
+ *
+ * @author Zoran Sevarac
+ */
+final class Rescaling {
+
+    private Rescaling() { }
+
+    /**
+     * Rescales inputs, and target outputs if their parameters are not null,
+     * of all items in specified data set, in-place.
+     *
+     * Data sets with items which are views of values stored elsewhere (mapped
+     * and cached files, streamed images and compact images) are rejected,
+     * since changes of their inputs would be lost.
+     *
+     * @param dataSet data set to rescale
+     * @param inputShift values subtracted from inputs
+     * @param inputScale values inputs are divided by
+     * @param targetShift values subtracted from target outputs, or null
+     * @param targetScale values target outputs are divided by, or null
+     * @throws DeepNettsException if values of data set items cannot be changed
+     */
+    static void apply(DataSet<? extends MLDataItem> dataSet, float[] inputShift, float[] inputScale, float[] targetShift, float[] targetScale) {
+        if ((dataSet instanceof IndexedDataSet && !(dataSet instanceof ArrayDataSet)) || dataSet instanceof CachedImageSet) {
+            throw new DeepNettsException("Values of " + dataSet.getClass().getSimpleName() + " cannot be changed, normalize data before writing it to file");
+        }
+        if (dataSet instanceof StreamingImageSet) {
+            throw new DeepNettsException("Images of StreamingImageSet are loaded on each request and cannot be changed");
+        }
+        if (!dataSet.isEmpty() && dataSet.get(0) instanceof ExampleImage) {
+            for (MLDataItem item : dataSet) {
+                if (item instanceof ExampleImage && ((ExampleImage) item).isCompact()) {
+                    throw new DeepNettsException("Inputs of compact images are created from pixels on each request and cannot be changed");
+                }
+            }
+        }
+
+        final boolean targets = targetShift != null;
+        final long work = inputShift.length + (targets ? targetShift.length : 0);
+
+        if (dataSet instanceof ArrayDataSet) {
+            final ArrayDataSet arrays = (ArrayDataSet) dataSet;
+            Parallel.forEach(dataSet.size(), work, i -> {
+                final int row = arrays.getRow(i);
+                rescale(arrays.getInputs(), row * inputShift.length, inputShift, inputScale);
+                if (targets) rescale(arrays.getTargets(), row * targetShift.length, targetShift, targetScale);
+            });
+        } else {
+            Parallel.forEach(dataSet.size(), work, i -> {
+                final MLDataItem item = dataSet.get(i);
+                rescale(item.getInput().getValues(), 0, inputShift, inputScale);
+                if (targets) rescale(item.getTargetOutput().getValues(), 0, targetShift, targetScale);
+            });
+        }
+    }
+
+    private static void rescale(final float[] values, final int offset, final float[] shift, final float[] scale) {
+        for (int i = 0; i < shift.length; i++) {
+            values[offset + i] = (values[offset + i] - shift[i]) / scale[i];
+        }
+    }
+
+    /**
+     * Replaces zero scales with one, so that constant components are only
+     * shifted instead of divided by zero.
+     *
+     * @param scale scales to check
+     * @return the same array, with zeros replaced
+     */
+    static float[] nonZero(float[] scale) {
+        for (int i = 0; i < scale.length; i++) {
+            if (scale[i] == 0) scale[i] = 1;
+        }
+        return scale;
+    }
+
+}
@@ -34,6 +34,9 @@ import deepnetts.data.MLDataItem;
  * 
  * X = (X - MEAN) / STD
  * 
+ * Mean and standard deviation are calculated in a single parallel pass over
+ * the data set, and columns with zero standard deviation are only shifted by mean.
+ * 
  * @author Zoran Sevarac
  */
 public class Standardizer implements Normalizer<DataSet<MLDataItem>>, Serializable {
@@ -43,35 +46,15 @@ public class Standardizer implements Normalizer<DataSet<MLDataItem>>, Serializab
     
     
     public Standardizer(DataSet<MLDataItem> dataSet) {
-        Tensor t = dataSet.get(0).getInput();
-        // int dims = t.getDimensions();
-        mean = new Tensor(t.getCols());
-        std = new Tensor(t.getCols());
-        
-        for(MLDataItem item : dataSet) {
-            mean.add(item.getInput());
-        }         
-        mean.div((float)dataSet.size());
-        
-        
-        //std = sqrt(sum((x-m)^2)/n);
-        
-        for(MLDataItem item : dataSet) {
-            Tensor diff = item.getInput().copy();
-            diff.sub(mean);
-            diff.multiplyElementWise(diff);  // ^2
-            std.add(diff);            
-        }        
-        std.div(dataSet.size()-1);
-        std.sqrt();           
+        //std = sqrt(sum((x-m)^2)/(n-1));
+        final Statistics stats = Statistics.of(dataSet)[0];
+        mean = new Tensor(stats.getMean());
+        std = new Tensor(stats.getStd());
     }
         
     @Override
     public void normalize(DataSet<MLDataItem> dataSet) {
-        for (MLDataItem item : dataSet) {
-            item.getInput().sub(mean);
-            item.getInput().div(std);
-        }
+        Rescaling.apply(dataSet, mean.getValues(), Rescaling.nonZero(std.getValues().clone()), null, null);
     }
     
 }
@@ -0,0 +1,239 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data.norm;
+
+import deepnetts.data.ArrayDataSet;
+import deepnetts.data.MLDataItem;
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.Parallel;
+import java.util.Arrays;
+import javax.visrec.ml.data.DataSet;
+
+/**
+ * Mean, variance, min and max of each component of vectors, which are
+ * calculated in a single pass over the data.
+ *
+ * Mean and variance are updated incrementally using Welford's algorithm,
+ * which is numerically stable, and statistics of separate parts of the data
+ * can be merged, so that parts are processed in parallel.
+ *
+ * @author Zoran Sevarac
+ */
+public final class Statistics {
+
+    /**
+     * Number of blocks per pool thread, when data set is processed in parallel.
+     */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private long count;
+    private final double[] mean;
+
+    /**
+     * Sum of squared differences from the mean.
+     */
+    private final double[] m2;
+    private final float[] min, max;
+
+    /**
+     * Creates empty statistics for vectors of specified size.
+     *
+     * @param size number of components in vector
+     */
+    public Statistics(int size) {
+        if (size < 0) throw new IllegalArgumentException("Size cannot be negative: " + size);
+
+        mean = new double[size];
+        m2 = new double[size];
+        min = new float[size];
+        max = new float[size];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Calculates statistics of inputs and target outputs of all items in the
+     * specified data set, in a single parallel pass.
+     *
+     * @param dataSet data set
+     * @return array with statistics of inputs at index 0 and statistics of target outputs at index 1
+     * @throws DeepNettsException if data set is empty or items have different sizes
+     */
+    public static Statistics[] of(DataSet<? extends MLDataItem> dataSet) {
+        if (dataSet.isEmpty()) {
+            throw new DeepNettsException("Cannot calculate statistics of empty data set");
+        }
+
+        final MLDataItem first = dataSet.get(0);
+        final int numInputs = first.getInput().size();
+        final int numOutputs = first.getTargetOutput().size();
+        final int size = dataSet.size();
+
+        final int blocks = Math.min(size, Parallel.getPool().getParallelism() * BLOCKS_PER_THREAD);
+        final int blockSize = (size + blocks - 1) / blocks;
+        final Statistics[] inputs = new Statistics[blocks];
+        final Statistics[] targets = new Statistics[blocks];
+
+        Parallel.forEach(blocks, (long) blockSize * (numInputs + numOutputs), b -> {
+            final Statistics in = new Statistics(numInputs);
+            final Statistics out = new Statistics(numOutputs);
+            final int to = Math.min(size, (b + 1) * blockSize);
+
+            if (dataSet instanceof ArrayDataSet) {
+                final ArrayDataSet arrays = (ArrayDataSet) dataSet;
+                for (int i = b * blockSize; i < to; i++) {
+                    final int row = arrays.getRow(i);
+                    in.add(arrays.getInputs(), row * numInputs);
+                    out.add(arrays.getTargets(), row * numOutputs);
+                }
+            } else {
+                for (int i = b * blockSize; i < to; i++) {
+                    final MLDataItem item = dataSet.get(i);
+                    if (item.getInput().size() != numInputs || item.getTargetOutput().size() != numOutputs) {
+                        throw new DeepNettsException("All items should have the same number of inputs and outputs, different item at " + i);
+                    }
+                    in.add(item.getInput().getValues(), 0);
+                    out.add(item.getTargetOutput().getValues(), 0);
+                }
+            }
+
+            inputs[b] = in;
+            targets[b] = out;
+        });
+
+        for (int b = 1; b < blocks; b++) {
+            inputs[0].merge(inputs[b]);
+            targets[0].merge(targets[b]);
+        }
+
+        return new Statistics[] {inputs[0], targets[0]};
+    }
+
+    /**
+     * Adds vector to these statistics.
+     *
+     * @param values array which contains vector
+     * @param offset index of the first component of the vector in array
+     */
+    public void add(final float[] values, final int offset) {
+        count++;
+        final double inv = 1.0 / count;
+
+        for (int i = 0; i < mean.length; i++) {
+            final float x = values[offset + i];
+            final double delta = x - mean[i];
+            mean[i] += delta * inv;
+            m2[i] += delta * (x - mean[i]);
+            if (x < min[i]) min[i] = x;
+            if (x > max[i]) max[i] = x;
+        }
+    }
+
+    /**
+     * Merges statistics of another part of the data into these statistics.
+     *
+     * @param other statistics of vectors of the same size
+     */
+    public void merge(final Statistics other) {
+        if (other.mean.length != mean.length) {
+            throw new IllegalArgumentException("Statistics have different sizes: " + mean.length + " and " + other.mean.length);
+        }
+        if (other.count == 0) return;
+
+        final double n = count + other.count;
+        for (int i = 0; i < mean.length; i++) {
+            final double delta = other.mean[i] - mean[i];
+            mean[i] += delta * other.count / n;
+            m2[i] += other.m2[i] + delta * delta * count * other.count / n;
+            min[i] = Math.min(min[i], other.min[i]);
+            max[i] = Math.max(max[i], other.max[i]);
+        }
+        count += other.count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int size() {
+        return mean.length;
+    }
+
+    public float[] getMean() {
+        final float[] result = new float[mean.length];
+        for (int i = 0; i < mean.length; i++) {
+            result[i] = (float) mean[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns sample variance, sum of squared differences from the mean divided by count - 1.
+     *
+     * @return sample variance of each component
+     */
+    public float[] getVariance() {
+        final float[] result = new float[m2.length];
+        if (count < 2) return result;
+
+        for (int i = 0; i < m2.length; i++) {
+            result[i] = (float) (m2[i] / (count - 1));
+        }
+        return result;
+    }
+
+    /**
+     * Returns sample standard deviation, square root of the sample variance.
+     *
+     * @return sample standard deviation of each component
+     */
+    public float[] getStd() {
+        final float[] result = getVariance();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float) Math.sqrt(result[i]);
+        }
+        return result;
+    }
+
+    public float[] getMin() {
+        return min.clone();
+    }
+
+    public float[] getMax() {
+        return max.clone();
+    }
+
+    /**
+     * Returns max absolute value of each component.
+     *
+     * @return max absolute values
+     */
+    public float[] getAbsMax() {
+        final float[] result = new float[max.length];
+        for (int i = 0; i < max.length; i++) {
+            result[i] = Math.max(Math.abs(min[i]), Math.abs(max[i]));
+        }
+        return result;
+    }
+
+}
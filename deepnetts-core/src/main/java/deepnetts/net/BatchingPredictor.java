@@ -0,0 +1,258 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+
+package deepnetts.net;
+
+import deepnetts.net.layers.InputLayer;
+import deepnetts.util.Tensor;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * Predictor which merges concurrent single sample prediction requests into
+ * mini batches, and calculates them with a single batch forward pass.
+ *
+ * Requests are queued, and a worker thread collects them into a batch until
+ * the maximum batch size is reached, or until the maximum wait time after the
+ * first request in a batch has passed. Batch forward pass multiplies each
+ * weight matrix with all inputs at once, so weights are read once per batch
+ * instead of once per request, which increases throughput per core under
+ * load. Results are returned through futures, as slices of a single array
+ * with outputs of the whole batch.
+ *
+ * <pre>
+ * BatchingPredictor predictor = new BatchingPredictor(convNet, 32, 500);
+ * FloatBuffer output = predictor.predict(image).get();
+ * </pre>
+ *
+ * @see InferenceModel
+ * @author Zoran Sevarac <zoran.sevarac@deepnetts.com>
+ */
+public final class BatchingPredictor implements AutoCloseable {
+
+    /**
+     * Private frozen copy of the network, used only by the worker thread.
+     */
+    private final NeuralNetwork<?> neuralNet;
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final int inputSize, outputSize;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Request queued by close, which wakes up the worker and stops it after
+     * all requests queued before it.
+     */
+    private static final Request CLOSE = new Request(null);
+
+    private final Thread worker;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Input tensor for the maximum batch size, smaller batches use its first samples.
+     */
+    private final Tensor inputBatch;
+
+    /**
+     * Creates a new batching predictor with a copy of the current weights of
+     * the specified network, and starts its worker thread. Batch tensors are
+     * created once for the maximum batch size, and the copy is frozen so it
+     * has no deltas.
+     *
+     * @param neuralNet trained neural network
+     * @param maxBatchSize maximum number of requests in a single batch
+     * @param maxWaitMicros maximum time in microseconds to wait for more requests after the first request in a batch
+     */
+    public BatchingPredictor(NeuralNetwork<?> neuralNet, int maxBatchSize, long maxWaitMicros) {
+        if (neuralNet == null) {
+            throw new IllegalArgumentException("Argument neuralNet cannot be null!");
+        }
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Max batch size should be greater then zero : " + maxBatchSize);
+        }
+        if (maxWaitMicros < 0) {
+            throw new IllegalArgumentException("Max wait time cannot be negative : " + maxWaitMicros);
+        }
+
+        this.neuralNet = SerializationUtils.clone(neuralNet);
+        this.neuralNet.freeze();
+        this.neuralNet.getLayers().forEach(layer -> layer.prepareBatch(maxBatchSize));
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.inputSize = this.neuralNet.getInputLayer().getOutputs().size();
+        this.outputSize = this.neuralNet.getOutputLayer().getOutputs().size();
+
+        final InputLayer inputLayer = this.neuralNet.getInputLayer();
+        this.inputBatch = new Tensor(inputLayer.getHeight(), inputLayer.getWidth(), inputLayer.getDepth(), maxBatchSize);
+
+        worker = new Thread(this::run, "DeepNetts-BatchingPredictor");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues prediction request for the specified input. Input tensor should
+     * not be changed until returned future is completed.
+     *
+     * @param input network input, with the same size as input layer
+     * @return future which is completed with network output, as a slice of outputs of the whole batch
+     */
+    public CompletableFuture<FloatBuffer> predict(Tensor input) {
+        if (input.size() != inputSize) {
+            throw new IllegalArgumentException("Input size does not match input layer size: " + input.size() + ", expected " + inputSize);
+        }
+        if (closed) {
+            throw new IllegalStateException("Predictor is closed!");
+        }
+
+        final Request request = new Request(input);
+        queue.add(request);
+
+        // worker could have stopped after the check above
+        if (closed && queue.remove(request)) {
+            request.result.completeExceptionally(new IllegalStateException("Predictor is closed!"));
+        }
+
+        return request.result;
+    }
+
+    /**
+     * Stops the worker thread after all queued requests are completed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            worker.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos);
+    }
+
+    /**
+     * Worker loop, which collects and calculates batches until predictor is
+     * closed. Waits for requests without waking up while the queue is empty.
+     */
+    private void run() {
+        final List<Request> batch = new ArrayList<>(maxBatchSize);
+
+        try {
+            boolean stop = false;
+            while (!stop) {
+                final Request first = queue.take();
+                if (first == CLOSE) break;
+
+                batch.add(first);
+                final long deadline = System.nanoTime() + maxWaitNanos;
+
+                while (batch.size() < maxBatchSize && batch.get(batch.size() - 1) != CLOSE) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) continue;
+
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+
+                    final Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                stop = batch.remove(CLOSE);
+                predictBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Request request : batch) {
+            request.result.completeExceptionally(new IllegalStateException("Predictor is closed!"));
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("Predictor is closed!"));
+        }
+    }
+
+    /**
+     * Calculates outputs for all requests in a batch with a single batch
+     * forward pass, and completes their futures. Outputs of the batch are
+     * copied once, since batch tensors are reused by the next batch, and
+     * each request gets its slice of the copy.
+     */
+    private void predictBatch(List<Request> batch) {
+        final int size = batch.size();
+
+        try {
+            final float[] inputValues = inputBatch.getValues();
+            for (int b = 0; b < size; b++) {
+                System.arraycopy(batch.get(b).input.getValues(), 0, inputValues, b * inputSize, inputSize);
+            }
+
+            neuralNet.setInputBatch(inputBatch, size);
+
+            final float[] outputValues = Arrays.copyOf(neuralNet.getOutputBatch().getValues(), size * outputSize);
+            for (int b = 0; b < size; b++) {
+                batch.get(b).result.complete(FloatBuffer.wrap(outputValues, b * outputSize, outputSize).slice());
+            }
+        } catch (RuntimeException ex) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /**
+     * Queued prediction request.
+     */
+    private static final class Request {
+
+        private final Tensor input;
+        private final CompletableFuture<FloatBuffer> result = new CompletableFuture<>();
+
+        Request(Tensor input) {
+            this.input = input;
+        }
+    }
+
+}
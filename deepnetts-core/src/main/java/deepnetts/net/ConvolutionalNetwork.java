@@ -76,6 +76,8 @@ public class ConvolutionalNetwork extends NeuralNetwork<BackpropagationTrainer>
         private ActivationType defaultActivationType = ActivationType.RELU;
         private Class<CrossEntropyLoss> defaultLossFunction = CrossEntropyLoss.class;
         private boolean setDefaultActivation = false;
+        private boolean randomWeights = true;
+        private boolean frozen = false;
 
         /**
          * Input layer with specified width and height, and 3 channels by
@@ -250,6 +252,32 @@ public class ConvolutionalNetwork extends NeuralNetwork<BackpropagationTrainer>
             return this;
         }
 
+        /**
+         * Sets whether weights of created network are initialized with random
+         * values, which is the default. Network without random weights is
+         * used when weights are set after build, for example read from file.
+         *
+         * @param randomWeights false to create weights with zeros
+         * @return builder instance
+         */
+        public Builder randomWeights(boolean randomWeights) {
+            this.randomWeights = randomWeights;
+            return this;
+        }
+
+        /**
+         * Sets whether created network is frozen, so that its layers are
+         * created with only the buffers needed for prediction.
+         *
+         * @param frozen true to create frozen network
+         * @return builder instance
+         * @see NeuralNetwork#freeze()
+         */
+        public Builder frozen(boolean frozen) {
+            this.frozen = frozen;
+            return this;
+        }
+
         public ConvolutionalNetwork build() {
             // connect and init layers, weights matrices etc.
             AbstractLayer prevLayer = null;
@@ -268,6 +296,8 @@ public class ConvolutionalNetwork extends NeuralNetwork<BackpropagationTrainer>
 
             // init all layers
             neuralNet.getLayers().forEach((layer) -> {
+                layer.setRandomInit(randomWeights);
+                if (frozen) layer.freeze();
                 layer.init();
             });
 
@@ -276,6 +306,8 @@ public class ConvolutionalNetwork extends NeuralNetwork<BackpropagationTrainer>
                 Builder.this.lossFunction(defaultLossFunction);
             }
 
+            if (frozen) neuralNet.freeze();
+
             return neuralNet;
         }
     }
@@ -89,6 +89,8 @@ public final class FeedForwardNetwork extends NeuralNetwork<BackpropagationTrain
         private final FeedForwardNetwork network = new FeedForwardNetwork();
         private ActivationType defaultActivationType = ActivationType.TANH;
         private boolean setDefaultActivation = false;
+        private boolean randomWeights = true;
+        private boolean frozen = false;
 
         /**
          * Adds input addLayer with specified width to the network.
@@ -213,6 +215,32 @@ public final class FeedForwardNetwork extends NeuralNetwork<BackpropagationTrain
             return this;
         }
 
+        /**
+         * Sets whether weights of created network are initialized with random
+         * values, which is the default. Network without random weights is
+         * used when weights are set after build, for example read from file.
+         *
+         * @param randomWeights false to create weights with zeros
+         * @return builder instance
+         */
+        public Builder randomWeights(boolean randomWeights) {
+            this.randomWeights = randomWeights;
+            return this;
+        }
+
+        /**
+         * Sets whether created network is frozen, so that its layers are
+         * created with only the buffers needed for prediction.
+         *
+         * @param frozen true to create frozen network
+         * @return builder instance
+         * @see NeuralNetwork#freeze()
+         */
+        public Builder frozen(boolean frozen) {
+            this.frozen = frozen;
+            return this;
+        }
+
         public FeedForwardNetwork build() {
 
             // prodji kroz celu mrezu i inicijalizuj matrice tezina / konekcije
@@ -234,9 +262,13 @@ public final class FeedForwardNetwork extends NeuralNetwork<BackpropagationTrain
 
             // init internal layer structures (weights, outputs, deltas etc. for each layer)
             for (AbstractLayer layer : network.getLayers()) {
+                layer.setRandomInit(randomWeights);
+                if (frozen) layer.freeze();
                 layer.init();
             }
 
+            if (frozen) network.freeze();
+
             // throw excption if loss is null - ili generalno nesto nije setovano kako treba
             return network;
         }
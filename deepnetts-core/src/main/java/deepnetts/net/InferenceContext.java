@@ -0,0 +1,75 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+
+package deepnetts.net;
+
+import deepnetts.util.Tensor;
+
+/**
+ * Activation buffers of a single thread that uses {@link InferenceModel}.
+ *
+ * Context holds a replica of the network which shares weights with the model,
+ * but has its own layer outputs. Input values are copied into the input
+ * layer buffer and output values are copied to the given output tensor, so
+ * the caller's tensors are never referenced by the network and prediction
+ * does not allocate memory.
+ * Context is not thread safe, and it should be used by one thread at a time.
+ *
+ * @see InferenceModel
+ * @author Zoran Sevarac <zoran.sevarac@deepnetts.com>
+ */
+public final class InferenceContext {
+
+    private final NeuralNetwork<?> neuralNet;
+
+    /**
+     * Values of the input layer and the output layer buffers.
+     */
+    private final float[] inputValues, outputValues;
+
+    InferenceContext(NeuralNetwork<?> neuralNet) {
+        this.neuralNet = neuralNet;
+        this.inputValues = neuralNet.getInputLayer().getOutputs().getValues();
+        this.outputValues = neuralNet.getOutputLayer().getOutputs().getValues();
+    }
+
+    /**
+     * Calculates network output for the specified input.
+     *
+     * @param input network input, with the same size as input layer
+     * @param output tensor to write network output to, with the same size as output layer
+     */
+    public void predict(Tensor input, Tensor output) {
+        if (input.size() != inputValues.length) {
+            throw new IllegalArgumentException("Input size does not match input layer size: " + input.size() + ", expected " + inputValues.length);
+        }
+        if (output.size() != outputValues.length) {
+            throw new IllegalArgumentException("Output size does not match output layer size: " + output.size() + ", expected " + outputValues.length);
+        }
+
+        System.arraycopy(input.getValues(), 0, inputValues, 0, inputValues.length);
+        neuralNet.forward();
+        System.arraycopy(outputValues, 0, output.getValues(), 0, outputValues.length);
+    }
+
+}
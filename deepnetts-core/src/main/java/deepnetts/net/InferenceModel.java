@@ -0,0 +1,137 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net;
+
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.util.Tensor;
+import org.apache.commons.lang3.SerializationUtils;
+
+/**
+ * Read only view of a trained neural network, which can be used for
+ * prediction from many threads at the same time.
+ *
+ * Layers of a neural network keep their outputs, so a single network instance
+ * can process only one input at a time. Inference model keeps its own copy of
+ * the network weights, which is never changed, and each thread gets its own
+ * {@link InferenceContext} with activation buffers, which shares these weights.
+ * Contexts are created once per thread and reused, so prediction does not
+ * allocate memory.
+ *
+ * <pre>
+ * InferenceModel model = InferenceModel.of(convNet);
+ * Tensor out = new Tensor(model.getOutputSize()); // one per request thread
+ * model.predict(image, out);
+ * </pre>
+ *
+ * @see InferenceContext
+ * @author Zoran Sevarac <zoran.sevarac@deepnetts.com>
+ */
+public final class InferenceModel {
+
+    /**
+     * Private copy of the network, with weights shared by all contexts.
+     */
+    private final NeuralNetwork<?> neuralNet;
+
+    /**
+     * Context of each thread which uses this model.
+     */
+    private final ThreadLocal<InferenceContext> contexts = ThreadLocal.withInitial(this::newContext);
+
+    private InferenceModel(NeuralNetwork<?> neuralNet) {
+        this.neuralNet = neuralNet;
+    }
+
+    /**
+     * Creates inference model with a copy of the current weights of the
+     * specified network. Further training of the network does not affect
+     * created model.
+     *
+     * @param neuralNet trained neural network
+     * @return inference model for specified network
+     */
+    public static InferenceModel of(NeuralNetwork<?> neuralNet) {
+        if (neuralNet == null) {
+            throw new IllegalArgumentException("Argument neuralNet cannot be null!");
+        }
+
+        final NeuralNetwork<?> copy = SerializationUtils.clone(neuralNet);
+        copy.freeze(); // contexts need only weights and activation buffers
+        return new InferenceModel(copy);
+    }
+
+    /**
+     * Creates a new inference context, with its own activation buffers and
+     * weights shared with this model. Context can be used by only one thread
+     * at a time, and it can be used to manage contexts explicitly, for
+     * example in a pool, instead of using the context of current thread.
+     *
+     * @return new inference context
+     */
+    public InferenceContext newContext() {
+        final NeuralNetwork<?> contextNet = SerializationUtils.clone(neuralNet);
+
+        for (int l = 0; l < contextNet.getLayers().size(); l++) {
+            final AbstractLayer layer = contextNet.getLayers().get(l);
+            layer.shareParameters(neuralNet.getLayers().get(l));
+            layer.setParallel(false); // requests are already processed in parallel
+        }
+
+        return new InferenceContext(contextNet);
+    }
+
+    /**
+     * Calculates network output for the specified input, using the context of
+     * the current thread. This method can be called from many threads at the
+     * same time.
+     *
+     * @param input network input, with the same size as input layer
+     * @param output tensor to write network output to, with the same size as output layer
+     */
+    public void predict(Tensor input, Tensor output) {
+        contexts.get().predict(input, output);
+    }
+
+    /**
+     * Returns the number of input values.
+     *
+     * @return size of the input layer
+     */
+    public int getInputSize() {
+        return neuralNet.getInputLayer().getOutputs().size();
+    }
+
+    /**
+     * Returns the number of output values.
+     *
+     * @return size of the output layer
+     */
+    public int getOutputSize() {
+        return neuralNet.getOutputLayer().getOutputs().size();
+    }
+
+    public String[] getOutputLabels() {
+        return neuralNet.getOutputLabels() == null ? null : neuralNet.getOutputLabels().clone();
+    }
+
+}
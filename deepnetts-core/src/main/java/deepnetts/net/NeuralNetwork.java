@@ -32,6 +32,7 @@ import deepnetts.net.loss.LossType;
 import deepnetts.net.loss.MeanSquaredErrorLoss;
 import deepnetts.net.train.Trainer;
 import deepnetts.net.train.TrainerProvider;
+import deepnetts.util.DeepNettsException;
 import deepnetts.util.Tensor;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -95,6 +96,11 @@ public class NeuralNetwork<T extends Trainer> implements TrainerProvider<T>, Ser
     private String label;
     private float regularizationSum=0;
 
+    /**
+     * Frozen network can be used only for prediction.
+     */
+    private boolean frozen = false;
+
 
     protected NeuralNetwork() {
        layers = new ArrayList();
@@ -126,10 +132,12 @@ public class NeuralNetwork<T extends Trainer> implements TrainerProvider<T>, Ser
     }
 
     public void setOutputError(float[] outputErrors) {
+        checkNotFrozen();
         outputLayer.setOutputErrors(outputErrors);
     }
 
     public void train(DataSet<? extends MLDataItem> trainingSet) {
+        checkNotFrozen();
         trainer.train(trainingSet);
     }
 
@@ -142,10 +150,52 @@ public class NeuralNetwork<T extends Trainer> implements TrainerProvider<T>, Ser
         return Evaluators.evaluateRegressor(this, testSet);
     }
 
+    /**
+     * Sets inputs for a mini batch of samples and triggers batch forward pass.
+     *
+     * @param inputs input tensor, with index of the sample in the fourth dimension
+     */
+    public void setInputBatch(Tensor inputs) {
+        setInputBatch(inputs, inputs.getFourthDim());
+    }
+
+    /**
+     * Sets inputs for the first samples of a mini batch and triggers batch
+     * forward pass, so the same input tensor can be used for the last,
+     * smaller batch.
+     *
+     * @param inputs input tensor, with index of the sample in the fourth dimension
+     * @param size number of samples in the batch
+     */
+    public void setInputBatch(Tensor inputs, int size) {
+        if (size <= 0 || size > inputs.getFourthDim()) {
+            throw new IllegalArgumentException("Batch size should be between 1 and " + inputs.getFourthDim() + " : " + size);
+        }
+        layers.forEach(layer -> layer.prepareBatch(size));
+
+        inputLayer.setInputBatch(inputs);
+        forwardBatch();
+    }
+
+    /**
+     * Returns network's outputs for all samples in a mini batch.
+     *
+     * @return output tensor, with index of the sample in the fourth dimension
+     */
+    public Tensor getOutputBatch() {
+        return outputLayer.getBatchOutputs();
+    }
+
+    public void setOutputErrorBatch(Tensor outputErrors) {
+        checkNotFrozen();
+        outputLayer.setBatchOutputErrors(outputErrors);
+    }
+
     /**
      * Apply calculated weight changes to all layers.
      */
     public void applyWeightChanges() {
+        checkNotFrozen();
         layers.forEach((layer) -> layer.applyWeightChanges()); // this can be parellelized since all layers are allraedy calculated - each layer cann apply changes in its own thread
     }
 
@@ -156,12 +206,67 @@ public class NeuralNetwork<T extends Trainer> implements TrainerProvider<T>, Ser
     }
 
     public void backward() {
+        checkNotFrozen();
         // perfrom backward pass on all layers starting from last
         for (int i = layers.size() - 1; i > 0; i--) {
             layers.get(i).backward();
         }
     }
 
+    /**
+     * Enables or disables parallel execution of layer calculations in all layers.
+     *
+     * @param parallel true to run layers in parallel on shared pool
+     * @see deepnetts.util.Parallel
+     */
+    public void setParallel(boolean parallel) {
+        layers.forEach(layer -> layer.setParallel(parallel));
+    }
+
+    /**
+     * Performs forward pass for a mini batch on all layers.
+     */
+    public void forwardBatch() {
+        for (int i = 1; i < layers.size(); i++) {
+            layers.get(i).forwardBatch();
+        }
+    }
+
+    /**
+     * Performs backward pass for a mini batch on all layers.
+     */
+    public void backwardBatch() {
+        checkNotFrozen();
+        for (int i = layers.size() - 1; i > 0; i--) {
+            layers.get(i).backwardBatch();
+        }
+    }
+
+    /**
+     * Makes this network usable only for prediction, by releasing all buffers
+     * which are used only for training (weight changes, gradients, deltas and
+     * optimizer state) in all layers, and the trainer.
+     * Frozen network keeps only weights, biases and activation functions, and
+     * it refuses backward pass, weight changes and training.
+     *
+     * @see deepnetts.util.FileIO#writeForInference(NeuralNetwork, String)
+     */
+    public void freeze() {
+        layers.forEach(AbstractLayer::freeze);
+        trainer = null;
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new DeepNettsException("Frozen network can be used only for prediction, it cannot be trained");
+        }
+    }
+
     protected void addLayer(AbstractLayer layer) {
         layers.add(layer);
     }
@@ -21,9 +21,12 @@
  */
 package deepnetts.net.layers;
 
+import deepnetts.core.DeepNetts;
 import deepnetts.net.layers.activation.ActivationType;
 import deepnetts.net.train.opt.OptimizerType;
+import deepnetts.util.Parallel;
 import deepnetts.util.Tensor;
+import deepnetts.util.Tensors;
 import java.io.Serializable;
 import deepnetts.net.layers.activation.ActivationFunction;
 import deepnetts.net.train.opt.Optimizer;
@@ -103,6 +106,51 @@ public abstract class AbstractLayer implements Layer, Serializable {
     protected boolean batchMode = false;
     protected int batchSize = 0;
 
+    /**
+     * Run independent parts of layer calculation in parallel on shared pool.
+     * By default set using global multithreaded property.
+     *
+     * @see deepnetts.util.Parallel
+     */
+    protected boolean parallel = Boolean.parseBoolean(DeepNetts.getInstance().getProperty("multithreaded"));
+
+    /**
+     * Outputs and deltas for a whole mini batch of samples, used by batch
+     * forward and backward pass. The fourth dimension is the index of the
+     * sample in the batch, so each sample occupies a consecutive part of values
+     * with the same layout as outputs and deltas.
+     */
+    protected transient Tensor batchOutputs, batchDeltas;
+
+    /**
+     * Number of samples in current mini batch, which can be smaller than the
+     * fourth dimension of batch tensors for the last partial batch.
+     */
+    protected transient int batchSamples;
+
+    /**
+     * Frozen layer has only buffers needed for forward pass.
+     */
+    protected boolean frozen = false;
+
+    /**
+     * If set, init creates weights and biases with zeros instead of random
+     * values, because they are set after init.
+     */
+    protected transient boolean skipRandomInit;
+
+    /**
+     * Approximate number of weights processed by a single block of neurons,
+     * which should fit in cache.
+     */
+    private static final int BLOCK_WEIGHTS = 16 * 1024;
+
+    /**
+     * Neuron blocks are multiples of 16 floats (64 bytes cache line), so
+     * different blocks do not share cache lines of outputs and weights rows.
+     */
+    private static final int BLOCK_ALIGN = 16;
+
     protected int width, height, depth; // layer dimensions - width and height
 
     // biases are used by output, fully connected and convolutional layers
@@ -120,6 +168,18 @@ public abstract class AbstractLayer implements Layer, Serializable {
      */
     public abstract void init();
 
+    /**
+     * Sets whether {@link #init()} initializes weights and biases with random
+     * values. Layers with weights which are set after init, for example read
+     * from file, are created without random values, so random generator is
+     * not used. Should be called before init.
+     *
+     * @param randomInit false to create weights and biases with zeros
+     */
+    public final void setRandomInit(boolean randomInit) {
+        skipRandomInit = !randomInit;
+    }
+
     /**
      * This method should implement forward pass in subclasses
      */
@@ -132,6 +192,45 @@ public abstract class AbstractLayer implements Layer, Serializable {
     @Override
     public abstract void backward();
 
+    /**
+     * Forward pass for all samples in a mini batch, using batch outputs of
+     * previous layer as inputs.
+     *
+     * @see #prepareBatch(int)
+     */
+    public abstract void forwardBatch();
+
+    /**
+     * Backward pass for all samples in a mini batch. Weight changes are summed
+     * the same way as when backward pass is performed for each sample in the
+     * batch separately.
+     */
+    public abstract void backwardBatch();
+
+    /**
+     * Sets the number of samples in current batch, and creates tensors for
+     * batch outputs and deltas if existing ones are too small. Tensors are
+     * never shrunk, so smaller batches reuse the space of larger ones.
+     *
+     * @param size number of samples in a batch
+     */
+    public void prepareBatch(int size) {
+        batchSamples = size;
+        if (batchOutputs != null && batchOutputs.getFourthDim() >= size) return;
+
+        batchOutputs = new Tensor(outputs.getRows(), outputs.getCols(), outputs.getDepth(), size);
+        batchDeltas = frozen ? null : new Tensor(outputs.getRows(), outputs.getCols(), outputs.getDepth(), size);
+    }
+
+    /**
+     * Returns the number of samples in current mini batch.
+     *
+     * @return number of samples in current batch
+     */
+    public final int getBatchSamples() {
+        return batchSamples;
+    }
+
     /**
      * Applies weight changes to current weights Must be diferent for
      * convolutional does nothing for MaxPooling Same for FullyConnected and
@@ -140,6 +239,88 @@ public abstract class AbstractLayer implements Layer, Serializable {
      */
     public abstract void applyWeightChanges();
 
+    /**
+     * Makes this layer use the same weights, biases and previous weight
+     * changes as the specified layer with the same architecture, so changes
+     * applied to one layer are visible in both.
+     * Used by replicas of the same network in data parallel training.
+     *
+     * @param layer layer to share parameters with
+     */
+    public void shareParameters(AbstractLayer layer) {
+        weights = layer.weights;
+        biases = layer.biases;
+        prevDeltaWeights = layer.prevDeltaWeights;
+        prevDeltaBiases = layer.prevDeltaBiases;
+    }
+
+    /**
+     * Adds weight and bias changes accumulated in the specified layer with the
+     * same architecture to changes in this layer, and resets them in the
+     * specified layer.
+     * Used to sum changes from replicas of the same network.
+     *
+     * @param layer layer to take weight changes from
+     */
+    public void mergeDeltaWeights(AbstractLayer layer) {
+        if (deltaWeights != null) {
+            deltaWeights.add(layer.deltaWeights);
+            layer.deltaWeights.fill(0);
+        }
+
+        if (deltaBiases != null) {
+            Tensors.add(deltaBiases, layer.deltaBiases);
+            Tensor.fill(layer.deltaBiases, 0);
+        }
+    }
+
+    /**
+     * Releases deltas, weight changes, gradients and optimizer state, which
+     * are used only for training, and keeps weights, biases and outputs.
+     * Frozen layer can only be used for forward pass.
+     * If called before init, these buffers are not created at all.
+     */
+    public void freeze() {
+        frozen = true;
+        deltas = null;
+        batchDeltas = null;
+        deltaWeights = null;
+        prevDeltaWeights = null;
+        gradients = null;
+        prevGradSqrSum = null;
+        prevBiasSqrSum = null;
+        prevDeltaWeightSqrSum = null;
+        prevDeltaBiasSqrSum = null;
+        deltaBiases = null;
+        prevDeltaBiases = null;
+        optim = null;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Splits neurons in this layer into cache sized blocks and executes
+     * specified task for each block, in parallel if parallel mode is enabled.
+     * Tasks for different blocks must write only to their own neurons.
+     *
+     * @param neurons number of neurons
+     * @param inputs number of inputs (weights) for each neuron
+     * @param task task which accepts range of neurons [from, to)
+     */
+    protected final void forEachNeuronBlock(int neurons, int inputs, Parallel.RangeTask task) {
+        final int blockSize = Math.max(BLOCK_ALIGN, BLOCK_WEIGHTS / Math.max(inputs, 1) / BLOCK_ALIGN * BLOCK_ALIGN);
+
+        if (parallel) {
+            Parallel.forEachBlock(neurons, blockSize, inputs, task);
+        } else {
+            for (int from = 0; from < neurons; from += blockSize) {
+                task.run(from, Math.min(neurons, from + blockSize));
+            }
+        }
+    }
+
     public int getWidth() {
         return width;
     }
@@ -185,6 +366,14 @@ public abstract class AbstractLayer implements Layer, Serializable {
         return outputs;
     }
 
+    public final Tensor getBatchOutputs() {
+        return batchOutputs;
+    }
+
+    public final Tensor getBatchDeltas() {
+        return batchDeltas;
+    }
+
     @Override
     public final Tensor getDeltas() {
         return deltas;
@@ -262,6 +451,14 @@ public abstract class AbstractLayer implements Layer, Serializable {
         this.batchSize = batchSize;
     }
 
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public void setMomentum(float momentum) {
         this.momentum = momentum;
     }
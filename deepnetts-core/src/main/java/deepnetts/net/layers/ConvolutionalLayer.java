@@ -28,7 +28,13 @@ import deepnetts.net.weights.RandomWeights;
 import deepnetts.util.Tensor;
 import java.util.logging.Logger;
 import deepnetts.net.layers.activation.ActivationFunction;
+import deepnetts.net.train.opt.OptimizerType;
+import deepnetts.util.Gemm;
+import deepnetts.util.Im2Col;
+import deepnetts.util.Parallel;
 import deepnetts.util.Tensors;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
 
 
 /**
@@ -82,6 +88,31 @@ public final class ConvolutionalLayer extends AbstractLayer {
 
     int[][][][] maxIdx;
 
+    /**
+     * Calculate convolution as matrix multiplication of filters and input
+     * lowered with im2col. When false, direct convolution loops are used, which
+     * can serve as a reference implementation.
+     */
+    private boolean useIm2Col = true;
+
+    /**
+     * Input lowered to matrix [filterSize x width*height] and all filters packed
+     * into a single matrix [depth x filterSize], used by im2col convolution.
+     */
+    private transient float[] col, filterMatrix;
+
+    /**
+     * Deltas lowered to column matrix [filterSize x width*height] and filter
+     * gradients [depth x filterSize], used by im2col backward pass.
+     */
+    private transient float[] colDeltas, filterGradients;
+
+    /**
+     * Forward pass tasks for channels, created once so that forward pass does
+     * not allocate.
+     */
+    private transient IntConsumer forwardTask, forwardIm2ColTask;
+
 
     private static final Logger LOG = Logger.getLogger(DeepNetts.class.getName());
 
@@ -145,34 +176,40 @@ public final class ConvolutionalLayer extends AbstractLayer {
 
         // init output cells, deltas and derivative buffer
         outputs = new Tensor(height, width, depth);
-        deltas = new Tensor(height, width, depth);
+        if (!frozen) deltas = new Tensor(height, width, depth);
 
         // init filters(weights)
         filterDepth = prevLayer.getDepth();
         filters = new Tensor[depth]; 
-        deltaWeights = new Tensor[depth];
-        prevDeltaWeights = new Tensor[depth];
-        prevGradSums = new Tensor[depth];
+        if (!frozen) {
+            deltaWeights = new Tensor[depth];
+            prevDeltaWeights = new Tensor[depth];
+            prevGradSums = new Tensor[depth];
+        }
 
         int inputCount = (filterWidth * filterHeight + 1) * filterDepth;
 
         for (int ch = 0; ch < filters.length; ch++) {
             filters[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
-            RandomWeights.uniform(filters[ch].getValues(), inputCount); 
+            if (!skipRandomInit) RandomWeights.uniform(filters[ch].getValues(), inputCount);
             //RandomWeights.normal(filters[ch].getValues()); 
 
-            deltaWeights[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
-            prevDeltaWeights[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
-            prevGradSums[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
+            if (!frozen) {
+                deltaWeights[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
+                prevDeltaWeights[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
+                prevGradSums[ch] = new Tensor(filterHeight, filterWidth, filterDepth);
+            }
         }
 
         // and biases              
         biases = new float[depth]; 
-        deltaBiases = new float[depth];
-        prevDeltaBiases = new float[depth];
-        prevBiasSqrSum = new Tensor(depth);
+        if (!frozen) {
+            deltaBiases = new float[depth];
+            prevDeltaBiases = new float[depth];
+            prevBiasSqrSum = new Tensor(depth);
+        }
         //RandomWeights.randomize(biases);        // sometimes the init to 0 for relu 0.1
-        Tensor.fill(biases, 0.1f);        
+        if (!skipRandomInit) Tensor.fill(biases, 0.1f);
     }
 
     /**
@@ -181,8 +218,98 @@ public final class ConvolutionalLayer extends AbstractLayer {
      */
     @Override
     public void forward() {
-        for (int ch = 0; ch < this.depth; ch++) {
-            forwardForChannel(ch);
+        if (useIm2Col) {
+            forwardIm2Col();
+            return;
+        }
+
+        if (forwardTask == null) {
+            forwardTask = this::forwardForChannel;
+        }
+        forEachChannel(forwardTask);
+    }
+
+    /**
+     * Performs forward pass for all channels at once, by lowering input with
+     * im2col and multiplying it with the matrix of all filters.
+     */
+    private void forwardIm2Col() {
+        lowerInputs(inputs.getValues(), 0);
+        packFilters();
+        if (forwardIm2ColTask == null) {
+            forwardIm2ColTask = ch -> forwardIm2ColForChannel(ch, outputs.getValues(), 0);
+        }
+        forEachChannel(forwardIm2ColTask);
+    }
+
+    /**
+     * Calculates single row of output matrix, which corresponds to specified
+     * channel, as product of its filter and lowered inputs.
+     *
+     * @param ch channel to calculate
+     * @param outValues output values
+     * @param outOffset position of the first output value for current sample
+     */
+    private void forwardIm2ColForChannel(int ch, float[] outValues, int outOffset) {
+        final int outSize = width * height;
+        final int filterSize = filterWidth * filterHeight * filterDepth;
+        final int from = outOffset + ch * outSize, to = from + outSize;
+
+        // output row is initialized with bias of its channel
+        Arrays.fill(outValues, from, to, biases[ch]);
+
+        Gemm.sgemm(1, outSize, filterSize, filterMatrix, ch * filterSize, filterSize, col, 0, outSize, outValues, from, outSize);
+
+        // apply activation function
+        for (int i = from; i < to; i++) {
+            outValues[i] = activation.getValue(outValues[i]);
+        }
+    }
+
+    /**
+     * Executes specified task for each channel in this layer, in parallel if
+     * parallel mode is enabled. Channel tasks must write only to their own
+     * channels.
+     *
+     * @param task task which accepts channel index
+     */
+    private void forEachChannel(IntConsumer task) {
+        if (parallel) {
+            Parallel.forEach(depth, (long) width * height * filterWidth * filterHeight * filterDepth, task);
+        } else {
+            for (int ch = 0; ch < depth; ch++) {
+                task.accept(ch);
+            }
+        }
+    }
+
+    /**
+     * Lowers single input sample to column matrix using im2col.
+     *
+     * @param inValues input values
+     * @param inOffset position of the first value of input sample
+     */
+    private void lowerInputs(float[] inValues, int inOffset) {
+        if (col == null) {
+            col = new float[filterWidth * filterHeight * filterDepth * width * height];
+        }
+
+        Im2Col.im2col(inValues, inOffset, inputs.getRows(), inputs.getCols(), filterDepth,
+                      filterHeight, filterWidth, fCenterY, fCenterX, stride, height, width, col);
+    }
+
+    /**
+     * Copies all filters into a single matrix, one filter per row.
+     */
+    private void packFilters() {
+        final int filterSize = filterWidth * filterHeight * filterDepth;
+
+        if (filterMatrix == null) {
+            filterMatrix = new float[depth * filterSize];
+        }
+
+        for (int ch = 0; ch < depth; ch++) {
+            System.arraycopy(filters[ch].getValues(), 0, filterMatrix, ch * filterSize, filterSize);
         }
     }
 
@@ -249,8 +376,10 @@ public final class ConvolutionalLayer extends AbstractLayer {
      */
     private void backwardFromFullyConnected() {
         deltas.fill(0); 
-        for (int ch = 0; ch < this.depth; ch++) {
-            backwardFromFullyConnectedForChannel(ch);
+        forEachChannel(this::backwardFromFullyConnectedForChannel);
+
+        if (useIm2Col) {
+            calculateDeltaWeightsIm2Col();
         }
     }
     
@@ -266,7 +395,9 @@ public final class ConvolutionalLayer extends AbstractLayer {
             }
         } 
 
-        calculateDeltaWeightsForChannel(ch); 
+        if (!useIm2Col) {
+            calculateDeltaWeightsForChannel(ch); 
+        }
     }  
 
     private void backwardFromMaxPooling() {
@@ -274,8 +405,10 @@ public final class ConvolutionalLayer extends AbstractLayer {
         maxIdx = nextPoolLayer.maxIdx; 
         deltas.fill(0);
 
-        for (int ch = 0; ch < this.depth; ch++) {
-            backwardFromMaxPoolingForChannel(ch);
+        forEachChannel(this::backwardFromMaxPoolingForChannel);
+
+        if (useIm2Col) {
+            calculateDeltaWeightsIm2Col();
         }
     }
 
@@ -298,15 +431,99 @@ public final class ConvolutionalLayer extends AbstractLayer {
             }
         } 
 
-        calculateDeltaWeightsForChannel(ch);
+        if (!useIm2Col) {
+            calculateDeltaWeightsForChannel(ch);
+        }
     }
 
     private void backwardFromConvolutional() {
         deltas.fill(0);
 
-        for (int ch = 0; ch < this.depth; ch++) {
-            backwardFromConvolutionalForChannel(ch);
+        if (useIm2Col) {
+            backwardFromConvolutionalIm2Col();
+            return;
+        }
+
+        forEachChannel(this::backwardFromConvolutionalForChannel);
+    }
+
+    /**
+     * Backward pass from next convolutional layer: deltas are propagated through
+     * transposed filters of the next layer, and scattered back to this layer's
+     * outputs with col2im.
+     */
+    private void backwardFromConvolutionalIm2Col() {
+        final ConvolutionalLayer nextConvLayer = (ConvolutionalLayer) nextLayer;
+        nextConvLayer.backpropagateDeltas(deltas);
+
+        final float divisor = nextConvLayer.filterWidth * nextConvLayer.filterHeight * nextConvLayer.filterDepth;
+        final float[] deltaValues = deltas.getValues();
+        final float[] outValues = outputs.getValues();
+
+        for (int i = 0; i < deltaValues.length; i++) {
+            deltaValues[i] = deltaValues[i] * activation.getPrime(outValues[i]) / divisor;
+        }
+
+        calculateDeltaWeightsIm2Col();
+    }
+
+    /**
+     * Propagates deltas of this layer back to the outputs of previous layer, as
+     * transposed filters [filterSize x depth] * deltas [depth x width*height],
+     * scattered back to previous layer's shape using col2im.
+     *
+     * @param prevDeltas tensor with dimensions of previous layer outputs, results are added to its values
+     */
+    void backpropagateDeltas(final Tensor prevDeltas) {
+        packFilters();
+        backpropagateDeltas(deltas.getValues(), 0, prevDeltas.getValues(), 0);
+    }
+
+    /**
+     * Propagates deltas for all samples in a mini batch back to previous layer.
+     *
+     * @param prevDeltas batch deltas of previous layer, results are added to its values
+     */
+    void backpropagateDeltasBatch(final Tensor prevDeltas) {
+        packFilters();
+
+        final float[] deltaValues = batchDeltas.getValues();
+        final float[] prevDeltaValues = prevDeltas.getValues();
+        for (int b = 0; b < batchSamples; b++) {
+            backpropagateDeltas(deltaValues, b * outputs.size(), prevDeltaValues, b * inputs.size());
+        }
+    }
+
+    /**
+     * Propagates deltas of a single sample back to previous layer, using
+     * filters that are already packed.
+     */
+    private void backpropagateDeltas(final float[] deltaValues, final int deltaOffset, final float[] prevDeltaValues, final int prevOffset) {
+        final int outSize = width * height;
+        final int filterSize = filterWidth * filterHeight * filterDepth;
+
+        if (colDeltas == null) {
+            colDeltas = new float[filterSize * outSize];
         }
+
+        // rows of column matrix for each input channel are calculated as separate task
+        final int channelSize = filterWidth * filterHeight;
+        final IntConsumer task = fz -> {
+            final int offset = fz * channelSize * outSize;
+            Arrays.fill(colDeltas, offset, offset + channelSize * outSize, 0);
+            Gemm.sgemmTransA(channelSize, outSize, depth, filterMatrix, fz * channelSize, filterSize, deltaValues, deltaOffset, outSize, colDeltas, offset, outSize);
+        };
+
+        if (parallel) {
+            Parallel.forEach(filterDepth, (long) channelSize * outSize * depth, task);
+        } else {
+            for (int fz = 0; fz < filterDepth; fz++) {
+                task.accept(fz);
+            }
+        }
+
+        Im2Col.col2im(colDeltas, prevDeltaValues, prevOffset, inputs.getRows(), inputs.getCols(), filterDepth,
+                      filterHeight, filterWidth, fCenterY, fCenterX, stride, height, width);
     }
     
     private void backwardFromConvolutionalForChannel(int fz) {
@@ -332,11 +549,18 @@ public final class ConvolutionalLayer extends AbstractLayer {
                                 deltas.add(row, col, fz, nextLayerDelta * nextConvLayer.filters[ndZ].get(fr, fc, fz) * derivative);
                             }
                         }
-                   deltas.div(nextConvLayer.filterWidth*nextConvLayer.filterHeight*nextConvLayer.filterDepth);
                 }
             }
         }    
-        
+
+        // divide accumulated deltas once, same as im2col path
+        final float divisor = nextConvLayer.filterWidth * nextConvLayer.filterHeight * nextConvLayer.filterDepth;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                deltas.set(row, col, fz, deltas.get(row, col, fz) / divisor);
+            }
+        }
+
         calculateDeltaWeightsForChannel(fz);
     }    
 
@@ -402,6 +626,151 @@ public final class ConvolutionalLayer extends AbstractLayer {
         }
     }
 
+    /**
+     * Calculates delta weights for all channels at once. Filter gradients are
+     * calculated as single matrix product deltas [depth x width*height] *
+     * transposed lowered inputs [width*height x filterSize].
+     */
+    private void calculateDeltaWeightsIm2Col() {
+        checkOptimizer();
+
+        lowerInputs(inputs.getValues(), 0);
+        forEachChannel(ch -> {
+            calculateFilterGradients(ch, deltas.getValues(), 0, true);
+            calculateDeltaWeightsIm2ColForChannel(ch, deltas.getValues(), 1);
+        });
+    }
+
+    private void checkOptimizer() {
+        if (optimizerType != OptimizerType.SGD) {
+            throw new DeepNettsException("Optimizer not supported!");
+        }
+
+        if (filterGradients == null) {
+            filterGradients = new float[depth * filterWidth * filterHeight * filterDepth];
+        }
+    }
+
+    /**
+     * Calculates filter gradients for specified channel from single row of
+     * deltas and lowered inputs.
+     *
+     * @param ch channel/depth index
+     * @param deltaValues delta values
+     * @param deltaOffset position of the first delta value for current sample
+     * @param reset true to overwrite, false to add to existing gradients
+     */
+    private void calculateFilterGradients(int ch, float[] deltaValues, int deltaOffset, boolean reset) {
+        final int outSize = width * height;
+        final int filterSize = filterWidth * filterHeight * filterDepth;
+        final int gradOffset = ch * filterSize;
+
+        if (reset) {
+            Arrays.fill(filterGradients, gradOffset, gradOffset + filterSize, 0);
+        }
+        Gemm.sgemmTransB(1, filterSize, outSize, deltaValues, deltaOffset + ch * outSize, outSize, col, 0, outSize, filterGradients, gradOffset, filterSize);
+    }
+
+    /**
+     * Calculates delta weights for specified channel, from filter gradients
+     * summed for the specified number of samples.
+     *
+     * @param ch channel/depth index
+     * @param deltaValues delta values for all samples
+     * @param samples number of samples
+     */
+    private void calculateDeltaWeightsIm2ColForChannel(int ch, float[] deltaValues, int samples) {
+        final int outSize = width * height;
+        final int filterSize = filterWidth * filterHeight * filterDepth;
+        final int gradOffset = ch * filterSize;
+
+        if (!batchMode) {
+            deltaWeights[ch].fill(0);
+            deltaBiases[ch] = 0;
+        }
+
+        final float divisor = width * height;
+        final float[] deltaWeightValues = deltaWeights[ch].getValues();
+        for (int i = 0; i < filterSize; i++) {
+            deltaWeightValues[i] += samples * optim.calculateDeltaWeight(filterGradients[gradOffset + i] / samples) / divisor;
+        }
+
+        for (int s = 0; s < samples; s++) {
+            final int deltaOffset = (s * depth + ch) * outSize;
+            for (int deltaRow = 0; deltaRow < height; deltaRow++) {
+                for (int deltaCol = 0; deltaCol < width; deltaCol++) {
+                    final float deltaBias = optim.calculateDeltaBias(deltaValues[deltaOffset + deltaRow * width + deltaCol], deltaCol);
+                    deltaBiases[ch] /= divisor;
+                    deltaBiases[ch] += deltaBias;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forward pass for a mini batch. Filters are packed once, and each sample
+     * is lowered and multiplied with them.
+     */
+    @Override
+    public void forwardBatch() {
+        final float[] inValues = prevLayer.batchOutputs.getValues();
+        final float[] outValues = batchOutputs.getValues();
+
+        packFilters();
+        for (int b = 0; b < batchSamples; b++) {
+            final int outOffset = b * outputs.size();
+            lowerInputs(inValues, b * inputs.size());
+            forEachChannel(ch -> forwardIm2ColForChannel(ch, outValues, outOffset));
+        }
+    }
+
+    /**
+     * Backward pass for a mini batch, which always uses im2col.
+     */
+    @Override
+    public void backwardBatch() {
+        final float[] deltaValues = batchDeltas.getValues();
+        final float[] outValues = batchOutputs.getValues();
+        final int size = batchSamples * outputs.size();
+        Arrays.fill(deltaValues, 0, size, 0);
+
+        if (nextLayer instanceof FullyConnectedLayer) {
+            ((FullyConnectedLayer) nextLayer).backpropagateDeltasBatch(batchDeltas);
+            for (int i = 0; i < size; i++) {
+                deltaValues[i] *= activation.getPrime(outValues[i]);
+            }
+        } else if (nextLayer instanceof MaxPoolingLayer) {
+            final int[] batchMaxIdx = ((MaxPoolingLayer) nextLayer).batchMaxIdx;
+            final float[] nextDeltas = nextLayer.batchDeltas.getValues();
+            final int nextSize = batchSamples * nextLayer.outputs.size();
+            for (int i = 0; i < nextSize; i++) {
+                final int maxPos = batchMaxIdx[i];
+                deltaValues[maxPos] = nextDeltas[i] * activation.getPrime(outValues[maxPos]);
+            }
+        } else if (nextLayer instanceof ConvolutionalLayer) {
+            final ConvolutionalLayer nextConvLayer = (ConvolutionalLayer) nextLayer;
+            nextConvLayer.backpropagateDeltasBatch(batchDeltas);
+
+            final float divisor = nextConvLayer.filterWidth * nextConvLayer.filterHeight * nextConvLayer.filterDepth;
+            for (int i = 0; i < size; i++) {
+                deltaValues[i] = deltaValues[i] * activation.getPrime(outValues[i]) / divisor;
+            }
+        }
+
+        checkOptimizer();
+        Arrays.fill(filterGradients, 0);
+
+        final float[] inValues = prevLayer.batchOutputs.getValues();
+        final int batch = batchSamples;
+        for (int b = 0; b < batch; b++) {
+            final int deltaOffset = b * outputs.size();
+            lowerInputs(inValues, b * inputs.size());
+            forEachChannel(ch -> calculateFilterGradients(ch, deltaValues, deltaOffset, false));
+        }
+
+        forEachChannel(ch -> calculateDeltaWeightsIm2ColForChannel(ch, deltaValues, batch));
+    }
+
     /**
      * Apply weight changes calculated in backward pass
      */
@@ -435,6 +804,36 @@ public final class ConvolutionalLayer extends AbstractLayer {
 
     }
 
+    @Override
+    public void shareParameters(AbstractLayer layer) {
+        super.shareParameters(layer);
+
+        final ConvolutionalLayer convLayer = (ConvolutionalLayer) layer;
+        filters = convLayer.filters;
+        prevDeltaWeights = convLayer.prevDeltaWeights;
+    }
+
+    @Override
+    public void mergeDeltaWeights(AbstractLayer layer) {
+        super.mergeDeltaWeights(layer);
+
+        final ConvolutionalLayer convLayer = (ConvolutionalLayer) layer;
+        for (int ch = 0; ch < depth; ch++) {
+            deltaWeights[ch].add(convLayer.deltaWeights[ch]);
+            convLayer.deltaWeights[ch].fill(0);
+        }
+    }
+
+    @Override
+    public void freeze() {
+        super.freeze();
+        deltaWeights = null;
+        prevDeltaWeights = null;
+        prevGradSums = null;
+        colDeltas = null;
+        filterGradients = null;
+    }
+
     public Tensor[] getFilters() {
         return filters;
     }
@@ -479,6 +878,24 @@ public final class ConvolutionalLayer extends AbstractLayer {
         return deltaWeights;
     }
 
+    public Tensor[] getFilterPrevDeltaWeights() {
+        return prevDeltaWeights;
+    }
+
+    public boolean getUseIm2Col() {
+        return useIm2Col;
+    }
+
+    /**
+     * Sets whether forward and backward pass should use im2col lowering and
+     * matrix multiplication (default), or direct convolution loops.
+     *
+     * @param useIm2Col true to use im2col, false to use direct convolution
+     */
+    public void setUseIm2Col(boolean useIm2Col) {
+        this.useIm2Col = useIm2Col;
+    }
+
     @Override
     public String toString() {
         return "Convolutional Layer { filter width:" + filterWidth + ", filter height: " + filterHeight + ", channels: " + depth + ", stride: " + stride + ", activation: " + activationType.name() + "}";
@@ -25,6 +25,8 @@ import deepnetts.net.layers.activation.ActivationType;
 import deepnetts.core.DeepNetts;
 import deepnetts.net.layers.activation.ActivationFunction;
 import deepnetts.net.weights.RandomWeights;
+import deepnetts.util.Gemm;
+import deepnetts.util.Parallel;
 import deepnetts.util.Tensor;
 import java.util.Arrays;
 import java.util.logging.Logger;
@@ -44,6 +46,23 @@ public final class FullyConnectedLayer extends AbstractLayer {
 
     private static final Logger LOG = Logger.getLogger(DeepNetts.class.getName());
 
+    /**
+     * Inputs from 3D previous layer flattened in the order of weights.
+     */
+    private transient float[] flatInputs;
+
+    /**
+     * Flattened inputs and deltas from 3D previous layer for all samples in a
+     * mini batch, used by batch forward and backward pass.
+     */
+    private transient float[] flatBatchInputs, flatBatchDeltas;
+
+    /**
+     * Forward pass tasks for neuron blocks, created once so that forward pass
+     * does not allocate.
+     */
+    private transient Parallel.RangeTask forwardTask, forwardFrom3DTask;
+
     /**
      * Creates an instance of fully connected layer with specified width (number
      * of neurons) and sigmoid activation function.
@@ -93,54 +112,66 @@ public final class FullyConnectedLayer extends AbstractLayer {
 
         inputs = prevLayer.outputs;
         outputs = new Tensor(width);
-        deltas = new Tensor(width);
+        if (!frozen) deltas = new Tensor(width);
 
         if (prevLayer instanceof FullyConnectedLayer || (prevLayer instanceof InputLayer && prevLayer.height == 1 && prevLayer.depth == 1)) { // ovo ako je prethodni 1d layer, odnosno ako je prethodni fully connected
             weights = new Tensor(prevLayer.width, width);
-            deltaWeights = new Tensor(prevLayer.width, width);
-            gradients = new Tensor(prevLayer.width, width);
-            prevDeltaWeights = new Tensor(prevLayer.width, width);
-
-            prevGradSqrSum = new Tensor(prevLayer.width, width);
-            prevDeltaWeightSqrSum = new Tensor(prevLayer.width, width);
-            prevBiasSqrSum = new Tensor(width);
-            prevDeltaBiasSqrSum = new Tensor(width);
+            if (!frozen) {
+                deltaWeights = new Tensor(prevLayer.width, width);
+                gradients = new Tensor(prevLayer.width, width);
+                prevDeltaWeights = new Tensor(prevLayer.width, width);
+
+                prevGradSqrSum = new Tensor(prevLayer.width, width);
+                prevDeltaWeightSqrSum = new Tensor(prevLayer.width, width);
+                prevBiasSqrSum = new Tensor(width);
+                prevDeltaBiasSqrSum = new Tensor(width);
+            }
 
-            if (activationType == ActivationType.RELU || activationType == ActivationType.LEAKY_RELU) {
-                RandomWeights.he(weights.getValues(), outputs.size());
-            } else {    // sigmoid tanh
-                RandomWeights.xavier(weights.getValues(), prevLayer.width, width);
+            if (!skipRandomInit) {
+                if (activationType == ActivationType.RELU || activationType == ActivationType.LEAKY_RELU) {
+                    RandomWeights.he(weights.getValues(), outputs.size());
+                } else {    // sigmoid tanh
+                    RandomWeights.xavier(weights.getValues(), prevLayer.width, width);
+                }
             }
 
         } else if ((prevLayer instanceof MaxPoolingLayer) || (prevLayer instanceof ConvolutionalLayer) || (prevLayer instanceof InputLayer)) {
             weights = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
-            deltaWeights = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
-            gradients = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
-            prevDeltaWeights = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
+            if (!frozen) {
+                deltaWeights = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
+                gradients = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
+                prevDeltaWeights = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
 
-            prevGradSqrSum = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
-            prevBiasSqrSum = new Tensor(width);
+                prevGradSqrSum = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width);
+                prevBiasSqrSum = new Tensor(width);
 
-            prevDeltaWeightSqrSum = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width); // ada delta
-            prevDeltaBiasSqrSum = new Tensor(width);
+                prevDeltaWeightSqrSum = new Tensor(prevLayer.width, prevLayer.height, prevLayer.depth, width); // ada delta
+                prevDeltaBiasSqrSum = new Tensor(width);
+            }
 
             int totalInputs = prevLayer.getWidth() * prevLayer.getHeight() * prevLayer.getDepth();
 
-            if (activationType == ActivationType.RELU || activationType == ActivationType.LEAKY_RELU) {
-                RandomWeights.he(weights.getValues(), totalInputs);
-            } else {
-                RandomWeights.xavier(weights.getValues(), totalInputs, width);
+            if (!skipRandomInit) {
+                if (activationType == ActivationType.RELU || activationType == ActivationType.LEAKY_RELU) {
+                    RandomWeights.he(weights.getValues(), totalInputs);
+                } else {
+                    RandomWeights.xavier(weights.getValues(), totalInputs, width);
+                }
             }
         }
 
         biases = new float[width];
-        deltaBiases = new float[width];
-        prevDeltaBiases = new float[width];
+        if (!frozen) {
+            deltaBiases = new float[width];
+            prevDeltaBiases = new float[width];
+        }
 
-        if (activationType == ActivationType.RELU || activationType == ActivationType.LEAKY_RELU) {
-            Tensor.fill(biases, 0.1f);
-        } else {
-            Tensor.fill(biases, 0.1f);
+        if (!skipRandomInit) {
+            if (activationType == ActivationType.RELU || activationType == ActivationType.LEAKY_RELU) {
+                Tensor.fill(biases, 0.1f);
+            } else {
+                Tensor.fill(biases, 0.1f);
+            }
         }
 
     }
@@ -150,34 +181,92 @@ public final class FullyConnectedLayer extends AbstractLayer {
         outputs.copyFrom(biases);
         
         if (prevLayer instanceof FullyConnectedLayer || (prevLayer instanceof InputLayer && prevLayer.height == 1 && prevLayer.depth == 1)) {
-            for (int outCol = 0; outCol < outputs.getCols(); outCol++) {
-                for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
-                    outputs.add(outCol, inputs.get(inCol) * weights.get(inCol, outCol));
-                }
-                outputs.set(outCol, activation.getValue(outputs.get(outCol)));
+            if (forwardTask == null) {
+                forwardTask = this::forwardForBlock;
             }
-            // outputs.apply(activation::getValue);
+            forEachNeuronBlock(width, inputs.getCols(), forwardTask);
         } else if ((prevLayer instanceof MaxPoolingLayer) || (prevLayer instanceof ConvolutionalLayer) || (prevLayer instanceof InputLayer)) { // povezi sve na sve
             forwardFrom3DLayer();
         }
 
     }
 
+    /**
+     * Calculates outputs for the block of neurons [from, to), when previous
+     * layer is 1D. Inputs are iterated in outer loop, so each step reads
+     * consecutive weights from a single row of weight matrix.
+     */
+    private void forwardForBlock(int from, int to) {
+        final float[] inValues = inputs.getValues();
+        final float[] weightValues = weights.getValues();
+        final float[] outValues = outputs.getValues();
+
+        for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
+            final float input = inValues[inCol];
+            final int weightRow = inCol * width;
+            for (int outCol = from; outCol < to; outCol++) {
+                outValues[outCol] += input * weightValues[weightRow + outCol];
+            }
+        }
+
+        for (int outCol = from; outCol < to; outCol++) {
+            outValues[outCol] = activation.getValue(outValues[outCol]);
+        }
+    }
+
     private void forwardFrom3DLayer() {
-        for (int outCol = 0; outCol < outputs.getCols(); outCol++) {
-            forwardFrom3DLayerForCell(outCol);
+        flattenInputs();
+        if (forwardFrom3DTask == null) {
+            forwardFrom3DTask = this::forwardFrom3DLayerForBlock;
         }
+        forEachNeuronBlock(width, inputs.size(), forwardFrom3DTask);
     }
 
-    private void forwardFrom3DLayerForCell(int outCol) {
+    /**
+     * Copies inputs from 3D layer into a flat array, in the same order as
+     * weights of a single neuron are stored [depth][col][row], so forward and
+     * backward pass can iterate over consecutive values.
+     */
+    private void flattenInputs() {
+        if (flatInputs == null) {
+            flatInputs = new float[inputs.size()];
+        }
+
+        flatten(inputs.getValues(), 0, flatInputs, 0);
+    }
+
+    /**
+     * Copies single input from 3D layer layout [depth][row][col] to the order
+     * of weights [depth][col][row].
+     */
+    private void flatten(float[] src, int srcOffset, float[] dst, int dstOffset) {
+        final int rows = inputs.getRows(), cols = inputs.getCols();
+
+        int i = dstOffset;
         for (int inDepth = 0; inDepth < inputs.getDepth(); inDepth++) {
-            for (int inRow = 0; inRow < inputs.getRows(); inRow++) {
-                for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
-                    outputs.add(outCol, inputs.get(inRow, inCol, inDepth) * weights.get(inCol, inRow, inDepth, outCol));
+            for (int inCol = 0; inCol < cols; inCol++) {
+                for (int inRow = 0; inRow < rows; inRow++) {
+                    dst[i++] = src[srcOffset + (inDepth * rows + inRow) * cols + inCol];
                 }
             }
         }
-        outputs.set(outCol, activation.getValue(outputs.get(outCol)));
+    }
+
+    private void forwardFrom3DLayerForBlock(int from, int to) {
+        for (int outCol = from; outCol < to; outCol++) {
+            forwardFrom3DLayerForCell(outCol);
+        }
+    }
+
+    private void forwardFrom3DLayerForCell(int outCol) {
+        final float[] weightValues = weights.getValues();
+        final int weightOffset = outCol * flatInputs.length;
+
+        float sum = outputs.get(outCol);
+        for (int i = 0; i < flatInputs.length; i++) {
+            sum += flatInputs[i] * weightValues[weightOffset + i];
+        }
+        outputs.set(outCol, activation.getValue(sum));
     }
 
     @Override
@@ -187,32 +276,9 @@ public final class FullyConnectedLayer extends AbstractLayer {
             Arrays.fill(deltaBiases, 0);
         }
 
-        deltas.fill(0);
-
-        for (int deltaCol = 0; deltaCol < deltas.getCols(); deltaCol++) {
-            for (int ndCol = 0; ndCol < nextLayer.deltas.getCols(); ndCol++) {
-                deltas.add(deltaCol, nextLayer.deltas.get(ndCol) * nextLayer.weights.get(deltaCol, ndCol));
-            }
-
-            final float delta = deltas.get(deltaCol) * activation.getPrime(outputs.get(deltaCol));
-            deltas.set(deltaCol, delta);
-        }
-
         if ((prevLayer instanceof FullyConnectedLayer)
                 || ((prevLayer instanceof InputLayer) && (prevLayer.height == 1 && prevLayer.depth == 1))) { 
-
-            for (int deltaCol = 0; deltaCol < deltas.getCols(); deltaCol++) { 
-                for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
-                    final float grad = deltas.get(deltaCol) * inputs.get(inCol);
-                    gradients.set(inCol, deltaCol, grad);
-
-                    final float deltaWeight = optim.calculateDeltaWeight(grad, inCol, deltaCol);
-                    deltaWeights.add(inCol, deltaCol, deltaWeight);
-                }
-
-                final float deltaBias = optim.calculateDeltaBias(deltas.get(deltaCol), deltaCol);
-                deltaBiases[deltaCol] += deltaBias;
-            }
+            forEachNeuronBlock(width, Math.max(inputs.getCols(), nextLayer.width), this::backwardForBlock);
         } else if ((prevLayer instanceof InputLayer)
                 || (prevLayer instanceof ConvolutionalLayer)
                 || (prevLayer instanceof MaxPoolingLayer)) {
@@ -221,29 +287,230 @@ public final class FullyConnectedLayer extends AbstractLayer {
         }
     }
 
+    /**
+     * Calculates deltas for the block of neurons [from, to), from deltas and
+     * weights of the next layer.
+     */
+    private void calculateDeltasForBlock(int from, int to) {
+        final float[] nextDeltas = nextLayer.deltas.getValues();
+        final float[] nextWeights = nextLayer.weights.getValues();
+        final int nextWidth = nextLayer.deltas.getCols();
+
+        for (int deltaCol = from; deltaCol < to; deltaCol++) {
+            final int weightRow = deltaCol * nextWidth;
+            float sum = 0;
+            for (int ndCol = 0; ndCol < nextWidth; ndCol++) {
+                sum += nextDeltas[ndCol] * nextWeights[weightRow + ndCol];
+            }
+
+            deltas.set(deltaCol, sum * activation.getPrime(outputs.get(deltaCol)));
+        }
+    }
+
+    /**
+     * Calculates deltas and weight changes for the block of neurons [from, to),
+     * when previous layer is 1D.
+     */
+    private void backwardForBlock(int from, int to) {
+        calculateDeltasForBlock(from, to);
+
+        final float[] inValues = inputs.getValues();
+        final float[] deltaValues = deltas.getValues();
+        final float[] gradientValues = gradients.getValues();
+        final float[] deltaWeightValues = deltaWeights.getValues();
+
+        for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
+            final float input = inValues[inCol];
+            final int weightRow = inCol * width;
+            for (int deltaCol = from; deltaCol < to; deltaCol++) {
+                final float grad = deltaValues[deltaCol] * input;
+                gradientValues[weightRow + deltaCol] = grad;
+                deltaWeightValues[weightRow + deltaCol] += optim.calculateDeltaWeight(grad, inCol, deltaCol);
+            }
+        }
+
+        for (int deltaCol = from; deltaCol < to; deltaCol++) {
+            deltaBiases[deltaCol] += optim.calculateDeltaBias(deltaValues[deltaCol], deltaCol);
+        }
+    }
+
     private void backwardTo3DLayer() {
-        for (int deltaCol = 0; deltaCol < deltas.getCols(); deltaCol++) {
+        flattenInputs();
+        forEachNeuronBlock(width, inputs.size(), this::backwardTo3DLayerForBlock);
+    }
+
+    private void backwardTo3DLayerForBlock(int from, int to) {
+        calculateDeltasForBlock(from, to);
+
+        for (int deltaCol = from; deltaCol < to; deltaCol++) {
             backwardTo3DLayerForCell(deltaCol);
         }
     }
 
     private void backwardTo3DLayerForCell(int deltaCol) {
+        final float delta = deltas.get(deltaCol);
+        final float[] gradientValues = gradients.getValues();
+        final float[] deltaWeightValues = deltaWeights.getValues();
 
+        // weights of this cell are consecutive, in the same order as flattened inputs
+        int i = deltaCol * flatInputs.length, inIdx = 0;
         for (int inDepth = 0; inDepth < inputs.getDepth(); inDepth++) {
             for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
                 for (int inRow = 0; inRow < inputs.getRows(); inRow++) {
-                    final float grad = deltas.get(deltaCol) * inputs.get(inRow, inCol, inDepth);
-                    gradients.set(inCol, inRow, inDepth, deltaCol, grad);
-                    final float deltaWeight = optim.calculateDeltaWeight(grad, inCol, inRow, inDepth, deltaCol);
-                    deltaWeights.add(inCol, inRow, inDepth, deltaCol, deltaWeight);
+                    final float grad = delta * flatInputs[inIdx++];
+                    gradientValues[i] = grad;
+                    deltaWeightValues[i++] += optim.calculateDeltaWeight(grad, inCol, inRow, inDepth, deltaCol);
                 }
             }
         }
 
-        final float deltaBias = optim.calculateDeltaBias(deltas.get(deltaCol), deltaCol);
+        final float deltaBias = optim.calculateDeltaBias(delta, deltaCol);
         deltaBiases[deltaCol] += deltaBias;
     }
 
+    /**
+     * Forward pass for a mini batch, as a single matrix multiplication of
+     * batch inputs [batch x inputs] with weights.
+     */
+    @Override
+    public void forwardBatch() {
+        final int batch = batchSamples;
+        final float[] outValues = batchOutputs.getValues();
+
+        for (int b = 0; b < batch; b++) {
+            System.arraycopy(biases, 0, outValues, b * width, width);
+        }
+
+        if (isPrevLayer1D()) {
+            final int inputCount = inputs.getCols();
+            Gemm.sgemm(batch, width, inputCount, prevLayer.batchOutputs.getValues(), 0, inputCount, weights.getValues(), 0, width, outValues, 0, width);
+        } else {
+            // weights of each neuron are consecutive, so weight matrix is [width x inputs]
+            final int inputCount = inputs.size();
+            flattenBatchInputs();
+            Gemm.sgemmTransB(batch, width, inputCount, flatBatchInputs, 0, inputCount, weights.getValues(), 0, inputCount, outValues, 0, width);
+        }
+
+        for (int i = 0; i < batch * width; i++) {
+            outValues[i] = activation.getValue(outValues[i]);
+        }
+    }
+
+    @Override
+    public void backwardBatch() {
+        if (!batchMode) {
+            deltaWeights.fill(0);
+            Arrays.fill(deltaBiases, 0);
+        }
+
+        final int batch = batchSamples;
+        final int nextWidth = nextLayer.width;
+        final float[] deltaValues = batchDeltas.getValues();
+        final float[] outValues = batchOutputs.getValues();
+
+        // deltas [batch x width] = next layer deltas [batch x next width] * transposed next layer weights
+        Arrays.fill(deltaValues, 0, batch * width, 0);
+        Gemm.sgemmTransB(batch, width, nextWidth, nextLayer.batchDeltas.getValues(), 0, nextWidth, nextLayer.weights.getValues(), 0, nextWidth, deltaValues, 0, width);
+
+        for (int i = 0; i < batch * width; i++) {
+            deltaValues[i] *= activation.getPrime(outValues[i]);
+        }
+
+        // gradients are summed for all samples in batch, and averaged before they are passed to optimizer
+        final float[] gradientValues = gradients.getValues();
+        final float[] deltaWeightValues = deltaWeights.getValues();
+        gradients.fill(0);
+
+        if (isPrevLayer1D()) {
+            final int inputCount = inputs.getCols();
+            Gemm.sgemmTransA(inputCount, width, batch, prevLayer.batchOutputs.getValues(), 0, inputCount, deltaValues, 0, width, gradientValues, 0, width);
+
+            for (int inCol = 0; inCol < inputCount; inCol++) {
+                for (int deltaCol = 0; deltaCol < width; deltaCol++) {
+                    final int i = inCol * width + deltaCol;
+                    final float grad = gradientValues[i] / batch;
+                    gradientValues[i] = grad;
+                    deltaWeightValues[i] += batch * optim.calculateDeltaWeight(grad, inCol, deltaCol);
+                }
+            }
+        } else {
+            final int inputCount = inputs.size();
+            flattenBatchInputs();
+            Gemm.sgemmTransA(width, inputCount, batch, deltaValues, 0, width, flatBatchInputs, 0, inputCount, gradientValues, 0, inputCount);
+
+            int i = 0;
+            for (int deltaCol = 0; deltaCol < width; deltaCol++) {
+                for (int inDepth = 0; inDepth < inputs.getDepth(); inDepth++) {
+                    for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
+                        for (int inRow = 0; inRow < inputs.getRows(); inRow++) {
+                            final float grad = gradientValues[i] / batch;
+                            gradientValues[i] = grad;
+                            deltaWeightValues[i++] += batch * optim.calculateDeltaWeight(grad, inCol, inRow, inDepth, deltaCol);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int deltaCol = 0; deltaCol < width; deltaCol++) {
+            float deltaSum = 0;
+            for (int b = 0; b < batch; b++) {
+                deltaSum += deltaValues[b * width + deltaCol];
+            }
+            deltaBiases[deltaCol] += batch * optim.calculateDeltaBias(deltaSum / batch, deltaCol);
+        }
+    }
+
+    /**
+     * Propagates batch deltas of this layer back to 3D previous layer, as
+     * batch deltas [batch x width] * weights [width x inputs], reordered back
+     * to the layout of previous layer.
+     *
+     * @param prevDeltas batch deltas of previous layer, results are added to its values
+     */
+    void backpropagateDeltasBatch(Tensor prevDeltas) {
+        final int batch = batchSamples;
+        final int inputCount = inputs.size();
+        final int rows = inputs.getRows(), cols = inputs.getCols();
+
+        if (flatBatchDeltas == null || flatBatchDeltas.length < batch * inputCount) {
+            flatBatchDeltas = new float[batchDeltas.getFourthDim() * inputCount];
+        }
+
+        Arrays.fill(flatBatchDeltas, 0, batch * inputCount, 0);
+        Gemm.sgemm(batch, inputCount, width, batchDeltas.getValues(), 0, width, weights.getValues(), 0, inputCount, flatBatchDeltas, 0, inputCount);
+
+        final float[] prevDeltaValues = prevDeltas.getValues();
+        int i = 0;
+        for (int b = 0; b < batch; b++) {
+            final int offset = b * inputCount;
+            for (int inDepth = 0; inDepth < inputs.getDepth(); inDepth++) {
+                for (int inCol = 0; inCol < cols; inCol++) {
+                    for (int inRow = 0; inRow < rows; inRow++) {
+                        prevDeltaValues[offset + (inDepth * rows + inRow) * cols + inCol] += flatBatchDeltas[i++];
+                    }
+                }
+            }
+        }
+    }
+
+    private void flattenBatchInputs() {
+        final Tensor batchInputs = prevLayer.batchOutputs;
+        final int inputCount = inputs.size();
+
+        if (flatBatchInputs == null || flatBatchInputs.length < batchInputs.size()) {
+            flatBatchInputs = new float[batchInputs.size()];
+        }
+
+        for (int b = 0; b < batchSamples; b++) {
+            flatten(batchInputs.getValues(), b * inputCount, flatBatchInputs, b * inputCount);
+        }
+    }
+
+    private boolean isPrevLayer1D() {
+        return prevLayer instanceof FullyConnectedLayer || (prevLayer instanceof InputLayer && prevLayer.height == 1 && prevLayer.depth == 1);
+    }
+
     @Override
     public void applyWeightChanges() {
         if (batchMode) {
@@ -264,6 +531,12 @@ public final class FullyConnectedLayer extends AbstractLayer {
 
     }
 
+    @Override
+    public void freeze() {
+        super.freeze();
+        flatBatchDeltas = null;
+    }
+
     @Override
     public String toString() {
         return "Fully Connected Layer { width:" + width + " activation:" + activationType.name() + "}";
@@ -90,6 +90,32 @@ public class InputLayer extends AbstractLayer {
         inputs.setValues(in.getValues());
     }
 
+    /**
+     * Sets network input for a mini batch of samples.
+     *
+     * @param in input tensor, with sample index in the fourth dimension
+     */
+    public void setInputBatch(Tensor in) {
+        final int size = batchSamples * outputs.size();
+        if (in.size() < size || in.size() % outputs.size() != 0) {
+            throw new IllegalArgumentException("Input batch size does not match input layer dimensions: " + in.size());
+        }
+        System.arraycopy(in.getValues(), 0, batchOutputs.getValues(), 0, size);
+    }
+
+    /**
+     * Creates only batch outputs, since input layer has no deltas.
+     *
+     * @param size number of samples in a batch
+     */
+    @Override
+    public void prepareBatch(int size) {
+        batchSamples = size;
+        if (batchOutputs != null && batchOutputs.getFourthDim() >= size) return;
+
+        batchOutputs = new Tensor(height, width, depth, size);
+    }
+
     /**
      * This method does nothing in input layer
      */
@@ -106,6 +132,22 @@ public class InputLayer extends AbstractLayer {
         throw new IllegalStateException("This method does nothing and should never be called");
     }
 
+    /**
+     * This method does nothing in input layer
+     */
+    @Override
+    public void forwardBatch() {
+        throw new IllegalStateException("This method does nothing and should never be called");
+    }
+
+    /**
+     * This method does nothing in input layer
+     */
+    @Override
+    public void backwardBatch() {
+        throw new IllegalStateException("This method does nothing and should never be called");
+    }
+
     /**
      * This method does nothing in input layer
      */
@@ -24,6 +24,7 @@ package deepnetts.net.layers;
 import deepnetts.core.DeepNetts;
 import deepnetts.net.ConvolutionalNetwork;
 import deepnetts.util.Tensor;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CyclicBarrier;
 import java.util.logging.Logger;
@@ -58,6 +59,12 @@ public final class MaxPoolingLayer extends AbstractLayer {
      */
     int maxIdx[][][][];
 
+    /**
+     * Positions of max inputs for all samples in a mini batch, as indexes of
+     * values in previous layer batch outputs.
+     */
+    transient int[] batchMaxIdx;
+
     private static final Logger LOG = Logger.getLogger(DeepNetts.class.getName());
     
     /**
@@ -85,7 +92,7 @@ public final class MaxPoolingLayer extends AbstractLayer {
         depth = prevLayer.getDepth(); 
 
         outputs = new Tensor(height, width, depth);
-        deltas = new Tensor(height, width,  depth);
+        if (!frozen) deltas = new Tensor(height, width,  depth);
 
         // used in fprop to save idx position of max value
         maxIdx = new int[depth][height][width][2];
@@ -178,6 +185,12 @@ public final class MaxPoolingLayer extends AbstractLayer {
     private void backwardFromConvolutional() {
         deltas.fill(0);
 
+        final ConvolutionalLayer nextConvLayer = (ConvolutionalLayer) nextLayer;
+        if (nextConvLayer.getUseIm2Col()) {
+            nextConvLayer.backpropagateDeltas(deltas);
+            return;
+        }
+
         for (int ch = 0; ch < depth; ch++) {
             backwardFromConvolutionalForChannel(ch);
         }
@@ -212,6 +225,58 @@ public final class MaxPoolingLayer extends AbstractLayer {
     }
 
 
+    /**
+     * Max pooling forward pass for a mini batch. Since samples and their
+     * channels are stored one after another, all of them are processed as
+     * channels in a single loop.
+     */
+    @Override
+    public void forwardBatch() {
+        final float[] inValues = prevLayer.batchOutputs.getValues();
+        final float[] outValues = batchOutputs.getValues();
+        final int inRows = inputs.getRows(), inCols = inputs.getCols();
+        final int channels = batchSamples * depth;
+
+        if (batchMaxIdx == null || batchMaxIdx.length != outValues.length) {
+            batchMaxIdx = new int[outValues.length];
+        }
+
+        int outIdx = 0;
+        for (int ch = 0; ch < channels; ch++) {
+            final int inChannel = ch * inRows * inCols;
+
+            for (int outRow = 0; outRow < height; outRow++) {
+                for (int outCol = 0; outCol < width; outCol++) {
+                    final int inPos = inChannel + outRow * stride * inCols + outCol * stride;
+                    int maxPos = inPos;
+
+                    for (int fr = 0; fr < filterHeight; fr++) {
+                        for (int fc = 0; fc < filterWidth; fc++) {
+                            final int pos = inPos + fr * inCols + fc;
+                            if (inValues[maxPos] < inValues[pos]) {
+                                maxPos = pos;
+                            }
+                        }
+                    }
+
+                    batchMaxIdx[outIdx] = maxPos;
+                    outValues[outIdx++] = inValues[maxPos];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void backwardBatch() {
+        Arrays.fill(batchDeltas.getValues(), 0, batchSamples * outputs.size(), 0);
+
+        if (nextLayer instanceof FullyConnectedLayer) {
+            ((FullyConnectedLayer) nextLayer).backpropagateDeltasBatch(batchDeltas);
+        } else if (nextLayer instanceof ConvolutionalLayer) {
+            ((ConvolutionalLayer) nextLayer).backpropagateDeltasBatch(batchDeltas);
+        }
+    }
+
     /**
      * Does nothing for pooling layer since it does not have weights
      * It just propagates deltas from next layer to previous through connections that had max activation in forward pass
@@ -24,6 +24,8 @@ package deepnetts.net.layers;
 import deepnetts.net.layers.activation.ActivationType;
 import deepnetts.net.loss.LossType;
 import deepnetts.net.weights.RandomWeights;
+import deepnetts.util.Gemm;
+import deepnetts.util.Parallel;
 import deepnetts.util.Tensor;
 import deepnetts.util.Tensors;
 import java.util.Arrays;
@@ -40,6 +42,17 @@ public class OutputLayer extends AbstractLayer {
     protected final String[] labels;
     protected LossType lossType;
 
+    /**
+     * Output errors for all samples in a mini batch.
+     */
+    protected transient Tensor batchOutputErrors;
+
+    /**
+     * Weighted sum task for neuron blocks, created once so that forward pass
+     * does not allocate.
+     */
+    private transient Parallel.RangeTask weightedSumTask;
+
     /**
      * Creates an instance of output layer with specified width (number of outputs)
      * and sigmoid activation function by default.
@@ -111,6 +124,20 @@ public class OutputLayer extends AbstractLayer {
         return outputErrors;
     }
 
+    /**
+     * Sets output errors for all samples in a mini batch, used by batch
+     * backward pass.
+     *
+     * @param batchOutputErrors output errors, with sample index in the fourth dimension
+     */
+    public final void setBatchOutputErrors(final Tensor batchOutputErrors) {
+        this.batchOutputErrors = batchOutputErrors;
+    }
+
+    public final Tensor getBatchOutputErrors() {
+        return batchOutputErrors;
+    }
+
     public final LossType getLossType() {
         return lossType;
     }
@@ -119,24 +146,37 @@ public class OutputLayer extends AbstractLayer {
         this.lossType = lossType;
     }
 
+    @Override
+    public void freeze() {
+        super.freeze();
+        outputErrors = null;
+        batchOutputErrors = null;
+    }
+
     @Override
     public void init() {
         inputs = prevLayer.outputs;
         outputs = new Tensor(width);
-        outputErrors = new float[width];
-        deltas = new Tensor(width);
+        if (!frozen) {
+            outputErrors = new float[width];
+            deltas = new Tensor(width);
+        }
 
         int prevLayerWidth = prevLayer.getWidth();
         weights = new Tensor(prevLayerWidth, width);
-        gradients = new Tensor(prevLayerWidth, width);
-        deltaWeights = new Tensor(prevLayerWidth, width);
-        prevDeltaWeights = new Tensor(prevLayerWidth, width);
-        RandomWeights.xavier(weights.getValues(), prevLayerWidth, width);
-
         biases = new float[width];
-        deltaBiases = new float[width];
-        prevDeltaBiases = new float[width];
-        RandomWeights.randomize(biases);
+        if (!frozen) {
+            gradients = new Tensor(prevLayerWidth, width);
+            deltaWeights = new Tensor(prevLayerWidth, width);
+            prevDeltaWeights = new Tensor(prevLayerWidth, width);
+            deltaBiases = new float[width];
+            prevDeltaBiases = new float[width];
+        }
+
+        if (!skipRandomInit) {
+            RandomWeights.xavier(weights.getValues(), prevLayerWidth, width);
+            RandomWeights.randomize(biases);
+        }
 
     }
 
@@ -148,14 +188,45 @@ public class OutputLayer extends AbstractLayer {
     @Override
     public void forward() {
         outputs.copyFrom(biases);  
+        weightedSum();
 
-        for (int outCol = 0; outCol < outputs.getCols(); outCol++) {  
-            for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
-                outputs.add(outCol, inputs.get(inCol) * weights.get(inCol, outCol));
-            }
+        final float[] outValues = outputs.getValues();
+        for (int outCol = 0; outCol < width; outCol++) {
+            outValues[outCol] = activation.getValue(outValues[outCol]);
         }
+    }
 
-        outputs.apply(activation::getValue); 
+    /**
+     * Adds weighted sum of inputs to outputs of all neurons, which should be
+     * initialized with biases.
+     */
+    protected final void weightedSum() {
+        if (weightedSumTask == null) {
+            weightedSumTask = this::weightedSumForBlock;
+        }
+        forEachNeuronBlock(width, inputs.getCols(), weightedSumTask);
+    }
+
+    /**
+     * Adds weighted sum of inputs to outputs for the block of neurons [from, to).
+     * Inputs are iterated in outer loop, so each step reads consecutive weights
+     * from a single row of weight matrix.
+     *
+     * @param from first neuron in block
+     * @param to end of block (exclusive)
+     */
+    protected final void weightedSumForBlock(int from, int to) {
+        final float[] inValues = inputs.getValues();
+        final float[] weightValues = weights.getValues();
+        final float[] outValues = outputs.getValues();
+
+        for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
+            final float input = inValues[inCol];
+            final int weightRow = inCol * width;
+            for (int outCol = from; outCol < to; outCol++) {
+                outValues[outCol] += input * weightValues[weightRow + outCol];
+            }
+        }
     }
 
     /**
@@ -168,24 +239,131 @@ public class OutputLayer extends AbstractLayer {
             Arrays.fill(deltaBiases, 0);
         }
 
-        for (int deltaCol = 0; deltaCol < deltas.getCols(); deltaCol++) { 
+        forEachNeuronBlock(width, inputs.getCols(), this::backwardForBlock);
+    }
+
+    private void backwardForBlock(int from, int to) {
+        for (int deltaCol = from; deltaCol < to; deltaCol++) { 
             if (lossType == LossType.MEAN_SQUARED_ERROR) {
                 final float delta = outputErrors[deltaCol] * activation.getPrime(outputs.get(deltaCol)); 
                 deltas.set(deltaCol, delta);
             } else if (activationType == ActivationType.SIGMOID && lossType == LossType.CROSS_ENTROPY) { 
                 deltas.set(deltaCol, outputErrors[deltaCol]); 
             } 
+        }
 
-            for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
-               final float grad = deltas.get(deltaCol) * inputs.get(inCol);
-               gradients.set(inCol, deltaCol, grad);
+        calculateDeltaWeightsForBlock(from, to);
+    }
 
-               final float deltaWeight = optim.calculateDeltaWeight(grad, inCol, deltaCol);
-               deltaWeights.add(inCol, deltaCol, deltaWeight); // sum deltaWeight for batch mode
+    /**
+     * Calculates weight and bias changes for the block of neurons [from, to),
+     * using deltas that are already calculated.
+     *
+     * @param from first neuron in block
+     * @param to end of block (exclusive)
+     */
+    protected final void calculateDeltaWeightsForBlock(int from, int to) {
+        final float[] inValues = inputs.getValues();
+        final float[] deltaValues = deltas.getValues();
+        final float[] gradientValues = gradients.getValues();
+        final float[] deltaWeightValues = deltaWeights.getValues();
+
+        for (int inCol = 0; inCol < inputs.getCols(); inCol++) {
+            final float input = inValues[inCol];
+            final int weightRow = inCol * width;
+            for (int deltaCol = from; deltaCol < to; deltaCol++) {
+                final float grad = deltaValues[deltaCol] * input;
+                gradientValues[weightRow + deltaCol] = grad;
+                deltaWeightValues[weightRow + deltaCol] += optim.calculateDeltaWeight(grad, inCol, deltaCol); // sum deltaWeight for batch mode
+            }
+        }
+
+        for (int deltaCol = from; deltaCol < to; deltaCol++) {
+            deltaBiases[deltaCol] += optim.calculateDeltaBias(deltaValues[deltaCol], deltaCol);
+        }
+    }
+
+    @Override
+    public void forwardBatch() {
+        weightedSumBatch();
+
+        final float[] outValues = batchOutputs.getValues();
+        final int size = batchSamples * width;
+        for (int i = 0; i < size; i++) {
+            outValues[i] = activation.getValue(outValues[i]);
+        }
+    }
+
+    /**
+     * Calculates batch outputs before activation, as biases plus batch inputs
+     * [batch x inputs] multiplied with weights [inputs x width].
+     */
+    protected final void weightedSumBatch() {
+        final int batch = batchSamples;
+        final int inputCount = inputs.getCols();
+        final float[] outValues = batchOutputs.getValues();
+
+        for (int b = 0; b < batch; b++) {
+            System.arraycopy(biases, 0, outValues, b * width, width);
+        }
+
+        Gemm.sgemm(batch, width, inputCount, prevLayer.batchOutputs.getValues(), 0, inputCount, weights.getValues(), 0, width, outValues, 0, width);
+    }
+
+    @Override
+    public void backwardBatch() {
+        if (!batchMode) {
+            deltaWeights.fill(0);
+            Arrays.fill(deltaBiases, 0);
+        }
+
+        final float[] errorValues = batchOutputErrors.getValues();
+        final float[] outValues = batchOutputs.getValues();
+        final float[] deltaValues = batchDeltas.getValues();
+        final int size = batchSamples * width;
+
+        if (lossType == LossType.MEAN_SQUARED_ERROR) {
+            for (int i = 0; i < size; i++) {
+                deltaValues[i] = errorValues[i] * activation.getPrime(outValues[i]);
             }
+        } else if (activationType == ActivationType.SIGMOID && lossType == LossType.CROSS_ENTROPY) {
+            System.arraycopy(errorValues, 0, deltaValues, 0, size);
+        }
 
-            final float deltaBias = optim.calculateDeltaBias(deltas.get(deltaCol), deltaCol);
-            deltaBiases[deltaCol] += deltaBias;
+        calculateDeltaWeightsBatch();
+    }
+
+    /**
+     * Calculates weight and bias changes for a mini batch, using batch deltas
+     * that are already calculated. Gradients are summed for all samples as
+     * transposed batch inputs [inputs x batch] * deltas [batch x width], and
+     * averaged before they are passed to optimizer.
+     */
+    protected final void calculateDeltaWeightsBatch() {
+        final int batch = batchSamples;
+        final int inputCount = inputs.getCols();
+        final float[] deltaValues = batchDeltas.getValues();
+        final float[] gradientValues = gradients.getValues();
+        final float[] deltaWeightValues = deltaWeights.getValues();
+
+        gradients.fill(0);
+        Gemm.sgemmTransA(inputCount, width, batch, prevLayer.batchOutputs.getValues(), 0, inputCount, deltaValues, 0, width, gradientValues, 0, width);
+
+        for (int inCol = 0; inCol < inputCount; inCol++) {
+            for (int deltaCol = 0; deltaCol < width; deltaCol++) {
+                final int i = inCol * width + deltaCol;
+                final float grad = gradientValues[i] / batch;
+                gradientValues[i] = grad;
+                deltaWeightValues[i] += batch * optim.calculateDeltaWeight(grad, inCol, deltaCol);
+            }
+        }
+
+        for (int deltaCol = 0; deltaCol < width; deltaCol++) {
+            float deltaSum = 0;
+            for (int b = 0; b < batch; b++) {
+                deltaSum += deltaValues[b * width + deltaCol];
+            }
+            deltaBiases[deltaCol] += batch * optim.calculateDeltaBias(deltaSum / batch, deltaCol);
         }
     }
 
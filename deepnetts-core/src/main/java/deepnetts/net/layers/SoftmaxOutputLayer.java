@@ -47,22 +47,28 @@ public class SoftmaxOutputLayer extends OutputLayer {
     public void init() {
         inputs = prevLayer.outputs;
         outputs = new Tensor(width);
-        outputErrors = new float[width];
-        deltas = new Tensor(width);
+        if (!frozen) {
+            outputErrors = new float[width];
+            deltas = new Tensor(width);
+        }
 
         int prevLayerWidth = prevLayer.getWidth();
         weights = new Tensor(prevLayerWidth, width);
-        deltaWeights = new Tensor(prevLayerWidth, width);
-        gradients = new Tensor(prevLayerWidth, width);
-        prevDeltaWeights = new Tensor(prevLayerWidth, width);
-        RandomWeights.xavier(weights.getValues(), prevLayerWidth, width);
-
         biases = new float[width];
-        deltaBiases = new float[width];
-        prevDeltaBiases = new float[width];
-        //RandomWeights.randomize(biases);
-        //Tensor.fill(biases, 0.1f);
-        RandomWeights.gaussian(biases, 0.1f, 0.05f);
+        if (!frozen) {
+            deltaWeights = new Tensor(prevLayerWidth, width);
+            gradients = new Tensor(prevLayerWidth, width);
+            prevDeltaWeights = new Tensor(prevLayerWidth, width);
+            deltaBiases = new float[width];
+            prevDeltaBiases = new float[width];
+        }
+
+        if (!skipRandomInit) {
+            RandomWeights.xavier(weights.getValues(), prevLayerWidth, width);
+            //RandomWeights.randomize(biases);
+            //Tensor.fill(biases, 0.1f);
+            RandomWeights.gaussian(biases, 0.1f, 0.05f);
+        }
 //        RandomWeights.randomize(biases);
         
     }
@@ -73,14 +79,11 @@ public class SoftmaxOutputLayer extends OutputLayer {
      */
     @Override
     public void forward() {
-        float maxWs = Float.NEGATIVE_INFINITY;
-
-        for (int outCol = 0; outCol < outputs.getCols(); outCol++) {                    
-            outputs.set(outCol, biases[outCol]);                                        
-            for (int inCol = 0; inCol < inputs.getCols(); inCol++) {                    
-                outputs.add(outCol, inputs.get(inCol) * weights.get(inCol, outCol));    
-            }
+        outputs.copyFrom(biases);
+        weightedSum();
 
+        float maxWs = Float.NEGATIVE_INFINITY;
+        for (int outCol = 0; outCol < outputs.getCols(); outCol++) {
             if (outputs.get(outCol) > maxWs) { 
                 maxWs = outputs.get(outCol);
             }
@@ -105,17 +108,48 @@ public class SoftmaxOutputLayer extends OutputLayer {
 
         deltas.copyFrom(outputErrors);
 
-        for (int outCol = 0; outCol < outputs.getCols(); outCol++) { 
-            for (int inCol = 0; inCol < inputs.getCols(); inCol++) { 
-                final float grad = deltas.get(outCol) * inputs.get(inCol); 
-                gradients.set(inCol, outCol, grad); 
-                final float deltaWeight = optim.calculateDeltaWeight(grad, inCol, outCol);   
-                deltaWeights.add(inCol, outCol, deltaWeight); 
+        forEachNeuronBlock(width, inputs.getCols(), this::calculateDeltaWeightsForBlock);
+    }
+
+    /**
+     * Forward pass for a mini batch, applies softmax to outputs of each sample.
+     */
+    @Override
+    public void forwardBatch() {
+        weightedSumBatch();
+
+        final float[] outValues = batchOutputs.getValues();
+        final int size = batchSamples * width;
+        for (int offset = 0; offset < size; offset += width) {
+            float maxWs = Float.NEGATIVE_INFINITY;
+            for (int col = 0; col < width; col++) {
+                if (outValues[offset + col] > maxWs) {
+                    maxWs = outValues[offset + col];
+                }
+            }
+
+            float denSum = 0;
+            for (int col = 0; col < width; col++) {
+                outValues[offset + col] = (float) Math.exp(outValues[offset + col] - maxWs);
+                denSum += outValues[offset + col];
+            }
+
+            for (int col = 0; col < width; col++) {
+                outValues[offset + col] /= denSum;
             }
-            
-            final float deltaBias = optim.calculateDeltaBias(deltas.get(outCol), outCol); 
-            deltaBiases[outCol] += deltaBias;
         }
     }
 
+    @Override
+    public void backwardBatch() {
+        if (!batchMode) {
+            deltaWeights.fill(0);
+            Arrays.fill(deltaBiases, 0);
+        }
+
+        System.arraycopy(batchOutputErrors.getValues(), 0, batchDeltas.getValues(), 0, batchSamples * width);
+
+        calculateDeltaWeightsBatch();
+    }
+
 }
@@ -26,6 +26,7 @@ import deepnetts.net.train.opt.OptimizerType;
 import deepnetts.core.DeepNetts;
 import deepnetts.net.NeuralNetwork;
 import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.InputLayer;
 
 import deepnetts.eval.ClassifierEvaluator;
 import javax.visrec.ml.eval.Evaluator;
@@ -33,16 +34,24 @@ import javax.visrec.ml.eval.EvaluationMetrics;
 import deepnetts.net.ConvolutionalNetwork;
 import deepnetts.net.FeedForwardNetwork;
 import deepnetts.net.loss.LossFunction;
-import deepnetts.util.FileIO;
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.SnapshotWriter;
+import deepnetts.util.Tensor;
+import deepnetts.util.TrainingCheckpoint;
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Random;
 import javax.visrec.ml.data.DataSet;
 import org.apache.logging.log4j.LogManager;
 import java.io.ObjectInputStream;
+import deepnetts.data.ItemOrder;
 import deepnetts.data.MLDataItem;
 
 /**
@@ -96,6 +105,18 @@ public class BackpropagationTrainer implements Trainer, Serializable {
      */
     private int batchSize;
 
+    /**
+     * Set to true to process whole mini batch at once in batch mode, using
+     * batch tensors, instead of feeding samples to network one by one.
+     */
+    private boolean useBatchTensors = false;
+
+    /**
+     * Reusable input and output error tensors for mini batch.
+     */
+    private transient Tensor inputBatch, outputErrorBatch;
+    private transient float[] outputRow;
+
     /**
      * Flag to stop training
      */
@@ -115,6 +136,11 @@ public class BackpropagationTrainer implements Trainer, Serializable {
 
     private float totalTrainingLoss;
 
+    /**
+     * Number of training samples processed per second in the last epoch
+     */
+    private float throughput;
+
     /**
      * Shuffle training set before each epoch during training
      */
@@ -137,6 +163,30 @@ public class BackpropagationTrainer implements Trainer, Serializable {
     private boolean trainingSnapshots = false;
     private int snapshotEpochs = 5;    
     private String snapshotPath = ""; // snapshot path    
+
+    /**
+     * Number of delta snapshots, with only changed weights, between full snapshots.
+     */
+    private int deltaSnapshots = 0;
+
+    /**
+     * Max number of snapshot files to keep, 0 to keep all.
+     */
+    private int maxSnapshots = 0;
+
+    /**
+     * File to which training checkpoint is written during training, or null.
+     */
+    private String trainingCheckpoint;
+    private int trainingCheckpointEpochs = 1;
+
+    /**
+     * Set when training state is restored from checkpoint, so that next
+     * training continues from restored epoch. Order of training set from
+     * checkpoint is restored when training starts.
+     */
+    private transient boolean resumed;
+    private transient int[] resumedOrder;
     
     /**
      * Use early stopping setting.
@@ -233,6 +283,11 @@ public class BackpropagationTrainer implements Trainer, Serializable {
         this.trainingSet = trainingSet;
         neuralNet.setOutputLabels(trainingSet.getTargetNames());
 
+        if (resumedOrder != null) {
+            restoreOrder(trainingSet, resumedOrder);
+            resumedOrder = null;
+        }
+
         int trainingSamplesCount = trainingSet.size();
         stopTraining = false;
 
@@ -253,113 +308,141 @@ public class BackpropagationTrainer implements Trainer, Serializable {
         lossFunction = neuralNet.getLossFunction();
 
         float[] outputError;
-        epoch = 0;
-        totalTrainingLoss = 0;
-        float prevTotalLoss = 0, totalLossChange;
+        if (resumed) {
+            resumed = false;
+            if (epoch >= maxEpochs) {
+                LOGGER.info("Training was already completed in restored checkpoint, epochs completed: " + epoch + "/" + maxEpochs);
+                return;
+            }
+            LOGGER.info("Resuming training after epoch " + epoch);
+        } else {
+            epoch = 0;
+            totalTrainingLoss = 0;
+        }
+        float prevTotalLoss = totalTrainingLoss, totalLossChange;
         long startTraining, endTraining, trainingTime, startEpoch, endEpoch, epochTime;
 
         LOGGER.info("------------------------------------------------------------------------------------------------------------------------------------------------");
         LOGGER.info("TRAINING NEURAL NETWORK");
         LOGGER.info("------------------------------------------------------------------------------------------------------------------------------------------------");
 
-        fireTrainingEvent(TrainingEvent.Type.STARTED);
-
-        startTraining = System.currentTimeMillis();
-        do {
-            epoch++;
-            lossFunction.reset();
-            valLoss=0;
-            trainAccuracy=0;
-            valAccuracy=0;
+        final SnapshotWriter snapshots = trainingSnapshots ? new SnapshotWriter(neuralNet, snapshotPath, deltaSnapshots, maxSnapshots) : null;
 
-            if (shuffle) {  
-                trainingSet.shuffle(); 
-            }
-            int sampleCounter = 0;
+        try {
+            fireTrainingEvent(TrainingEvent.Type.STARTED);
 
-            startEpoch = System.currentTimeMillis();
+            startTraining = System.currentTimeMillis();
+            do {
+                epoch++;
+                lossFunction.reset();
+                valLoss=0;
+                trainAccuracy=0;
+                valAccuracy=0;
 
-            for (MLDataItem dataSetItem : trainingSet) { // for all items in training set
-                sampleCounter++;
-                neuralNet.setInput(dataSetItem.getInput()); 
-                outputError = lossFunction.addPatternError(neuralNet.getOutput(), dataSetItem.getTargetOutput().getValues());
-                neuralNet.setOutputError(outputError); 
-                neuralNet.backward(); 
+                if (shuffle) {  
+                    trainingSet.shuffle(); 
+                }
+                int sampleCounter = 0;
 
-                if (!isBatchMode()) {
-                    neuralNet.applyWeightChanges();
-                } else if (sampleCounter % batchSize == 0) {
-                    neuralNet.applyWeightChanges();
+                startEpoch = System.currentTimeMillis();
 
-                    float miniBatchError = lossFunction.getTotal();
-                    LOGGER.info("Epoch:" + epoch + ", Mini Batch:" + sampleCounter / batchSize + ", Batch Loss:" + miniBatchError);
+                if (isBatchMode() && useBatchTensors) {
+                    trainEpochWithBatchTensors();
+                } else {
+                    for (MLDataItem dataSetItem : trainingSet) { // for all items in training set
+                        sampleCounter++;
+                        neuralNet.setInput(dataSetItem.getInput()); 
+                        outputError = lossFunction.addPatternError(neuralNet.getOutput(), dataSetItem.getTargetOutput().getValues());
+                        neuralNet.setOutputError(outputError); 
+                        neuralNet.backward(); 
+
+                        if (!isBatchMode()) {
+                            neuralNet.applyWeightChanges();
+                        } else if (sampleCounter % batchSize == 0) {
+                            neuralNet.applyWeightChanges();
+
+                            float miniBatchError = lossFunction.getTotal();
+                            LOGGER.info("Epoch:" + epoch + ", Mini Batch:" + sampleCounter / batchSize + ", Batch Loss:" + miniBatchError);
+                        }
+                        fireTrainingEvent(TrainingEvent.Type.ITERATION_FINISHED); // BATCH_FINISHED?
+
+                        if (stopTraining) break; // if training was stoped externaly by calling stop() method
+                    }
                 }
-                fireTrainingEvent(TrainingEvent.Type.ITERATION_FINISHED); // BATCH_FINISHED?
+                boolean epochCompleted = !stopTraining; // checkpoint is not written for interrupted epoch
 
-                if (stopTraining) break; // if training was stoped externaly by calling stop() method
-            }
+               if (regL2!=0) lossFunction.addRegularizationSum(regL2 * neuralNet.getL2Reg()); // 0.00001f
 
-           if (regL2!=0) lossFunction.addRegularizationSum(regL2 * neuralNet.getL2Reg()); // 0.00001f
+                endEpoch = System.currentTimeMillis();
 
-            endEpoch = System.currentTimeMillis();
-
-            if (isBatchMode() && (trainingSamplesCount % batchSize != 0)) {
-                neuralNet.applyWeightChanges();
-            }
+                if (isBatchMode() && (trainingSamplesCount % batchSize != 0)) {
+                    neuralNet.applyWeightChanges();
+                }
 
-            totalTrainingLoss = lossFunction.getTotal(); 
-            totalLossChange = totalTrainingLoss - prevTotalLoss; 
-            prevTotalLoss = totalTrainingLoss;
-            trainAccuracy = calculateAccuracy(this.trainingSet); 
+                totalTrainingLoss = lossFunction.getTotal(); 
+                totalLossChange = totalTrainingLoss - prevTotalLoss; 
+                prevTotalLoss = totalTrainingLoss;
+                trainAccuracy = calculateAccuracy(this.trainingSet); 
             
-            if (validationSet != null) {    
-                prevValLoss = valLoss;
-                valLoss = validationLoss(validationSet);  
-                valAccuracy = calculateAccuracy(validationSet);
-            }
+                if (validationSet != null) {    
+                    prevValLoss = valLoss;
+                    valLoss = validationLoss(validationSet);  
+                    valAccuracy = calculateAccuracy(validationSet);
+                }
 
-            epochTime = endEpoch - startEpoch;
+                epochTime = endEpoch - startEpoch;
+                throughput = trainingSamplesCount * 1000f / Math.max(1, epochTime);
 
-            if (validationSet != null)
-                LOGGER.info("Epoch:" + epoch + ", Time:" + epochTime + "ms, TrainError:" + totalTrainingLoss + ", TrainErrorChange:" + totalLossChange + ", TrainAccuracy: " + trainAccuracy + ", ValError:" + valLoss + ", ValAccuracy: "+valAccuracy);
-            else
-                LOGGER.info( "Epoch:" + epoch + ", Time:" + epochTime + "ms, TrainError:" + totalTrainingLoss + ", TrainErrorChange:" + totalLossChange + ", TrainAccuracy: "+trainAccuracy);
+                if (validationSet != null)
+                    LOGGER.info("Epoch:" + epoch + ", Time:" + epochTime + "ms, TrainError:" + totalTrainingLoss + ", TrainErrorChange:" + totalLossChange + ", TrainAccuracy: " + trainAccuracy + ", ValError:" + valLoss + ", ValAccuracy: "+valAccuracy + ", Throughput: " + throughput + " samples/s");
+                else
+                    LOGGER.info( "Epoch:" + epoch + ", Time:" + epochTime + "ms, TrainError:" + totalTrainingLoss + ", TrainErrorChange:" + totalLossChange + ", TrainAccuracy: "+trainAccuracy + ", Throughput: " + throughput + " samples/s");
 
 
-            if (Float.isNaN(totalTrainingLoss)) {
-                stopTraining = true;
-                LOGGER.info("Trainer was interrupted before completing all Epochs. Epochs completed: " + epoch + "/" + maxEpochs);
-            }
+                if (Float.isNaN(totalTrainingLoss)) {
+                    stopTraining = true;
+                    epochCompleted = false; // keep the last valid checkpoint
+                    LOGGER.info("Trainer was interrupted before completing all Epochs. Epochs completed: " + epoch + "/" + maxEpochs);
+                }
 
-            fireTrainingEvent(TrainingEvent.Type.EPOCH_FINISHED);
+                fireTrainingEvent(TrainingEvent.Type.EPOCH_FINISHED);
 
-            // EARLY STOPPING
-            if (earlyStopping && (epoch > 0 && epoch % checkpointEpochs == 0)) {
-                if (prevCheckpointTestLoss - valLoss < earlyStoppingMinDelta) {
-                    if (earlyStoppingCheckpointCount == earlyStoppingPatience) {
-                        stop(); 
+                // EARLY STOPPING
+                if (earlyStopping && (epoch > 0 && epoch % checkpointEpochs == 0)) {
+                    if (prevCheckpointTestLoss - valLoss < earlyStoppingMinDelta) {
+                        if (earlyStoppingCheckpointCount == earlyStoppingPatience) {
+                            stop(); 
+                        } else {
+                            earlyStoppingCheckpointCount++;    
+                        }
                     } else {
-                        earlyStoppingCheckpointCount++;    
+                        earlyStoppingCheckpointCount = 0; 
                     }
-                } else {
-                    earlyStoppingCheckpointCount = 0; 
-                }
 
-                // save network at this checkpoint since loss if going down
-                prevCheckpointTestLoss = valLoss;
-            }
+                    // save network at this checkpoint since loss if going down
+                    prevCheckpointTestLoss = valLoss;
+                }
 
-            if (trainingSnapshots && (epoch > 0 && epoch % snapshotEpochs == 0)) {
-                try { 
-                    FileIO.writeToFile(neuralNet, snapshotPath + "_epoch_" + epoch + ".dnet");
-                } catch (IOException ex) { 
-                    LOGGER.catching(ex);
-                }                
-            }
+                if (trainingSnapshots && (epoch > 0 && epoch % snapshotEpochs == 0)) {
+                    snapshots.write(epoch); // copies weights and writes them on background thread
+                }
             
-            stopTraining = stopTraining || ((epoch == maxEpochs) || (totalTrainingLoss <= maxError));          
+                stopTraining = stopTraining || ((epoch >= maxEpochs) || (totalTrainingLoss <= maxError));          
+
+                if (trainingCheckpoint != null && epochCompleted && (epoch % trainingCheckpointEpochs == 0 || stopTraining)) {
+                    try {
+                        writeCheckpoint(new File(trainingCheckpoint));
+                    } catch (IOException ex) {
+                        LOGGER.catching(ex);
+                    }
+                }
             
-        } while (!stopTraining); 
+            } while (!stopTraining); 
+        } finally {
+            if (snapshots != null) {
+                snapshots.close(); // wait for snapshots to be written, also when training fails
+            }
+        }
 
         endTraining = System.currentTimeMillis();
         trainingTime = endTraining - startTraining;
@@ -371,6 +454,73 @@ public class BackpropagationTrainer implements Trainer, Serializable {
         fireTrainingEvent(TrainingEvent.Type.STOPPED);
     }
 
+    /**
+     * Runs single training epoch in batch mode, where samples from each mini
+     * batch are processed by network at once, as a single batch tensor.
+     */
+    private void trainEpochWithBatchTensors() {
+        final Iterator<? extends MLDataItem> items = trainingSet.iterator();
+        final List<MLDataItem> batch = new ArrayList<>(batchSize);
+        int batchCounter = 0;
+
+        while (items.hasNext()) {
+            batch.clear();
+            while (items.hasNext() && batch.size() < batchSize) {
+                batch.add(items.next());
+            }
+
+            trainBatch(batch);
+
+            // changes from the last incomplete batch are applied at the end of epoch
+            if (batch.size() == batchSize) {
+                batchCounter++;
+                neuralNet.applyWeightChanges();
+
+                float miniBatchError = lossFunction.getTotal();
+                LOGGER.info("Epoch:" + epoch + ", Mini Batch:" + batchCounter + ", Batch Loss:" + miniBatchError);
+            }
+            fireTrainingEvent(TrainingEvent.Type.ITERATION_FINISHED);
+
+            if (stopTraining) break;
+        }
+    }
+
+    /**
+     * Performs forward and backward pass for all samples in a mini batch.
+     *
+     * @param batch samples in mini batch
+     */
+    private void trainBatch(List<MLDataItem> batch) {
+        final int size = batch.size();
+        final InputLayer inputLayer = neuralNet.getInputLayer();
+        final int outputWidth = neuralNet.getOutputLayer().getWidth();
+
+        if (inputBatch == null || inputBatch.getFourthDim() < size) {
+            inputBatch = new Tensor(inputLayer.getHeight(), inputLayer.getWidth(), inputLayer.getDepth(), size);
+            outputErrorBatch = new Tensor(1, outputWidth, 1, size);
+            outputRow = new float[outputWidth];
+        }
+
+        final int inputSize = inputLayer.getOutputs().size();
+        final float[] inputValues = inputBatch.getValues();
+        for (int b = 0; b < size; b++) {
+            System.arraycopy(batch.get(b).getInput().getValues(), 0, inputValues, b * inputSize, inputSize);
+        }
+
+        neuralNet.setInputBatch(inputBatch, size);
+
+        final float[] outputValues = neuralNet.getOutputBatch().getValues();
+        final float[] errorValues = outputErrorBatch.getValues();
+        for (int b = 0; b < size; b++) {
+            System.arraycopy(outputValues, b * outputWidth, outputRow, 0, outputWidth);
+            final float[] outputError = lossFunction.addPatternError(outputRow, batch.get(b).getTargetOutput().getValues());
+            System.arraycopy(outputError, 0, errorValues, b * outputWidth, outputWidth);
+        }
+
+        neuralNet.setOutputErrorBatch(outputErrorBatch);
+        neuralNet.backwardBatch();
+    }
+
     public long getMaxEpochs() {
         return maxEpochs;
     }
@@ -458,6 +608,22 @@ public class BackpropagationTrainer implements Trainer, Serializable {
         return this;
     }
 
+    public boolean getUseBatchTensors() {
+        return useBatchTensors;
+    }
+
+    /**
+     * Sets whether mini batches should be processed at once, as batch tensors
+     * using matrix-matrix products in all layers. Used only in batch mode.
+     *
+     * @param useBatchTensors true to process whole mini batch at once
+     * @return this trainer
+     */
+    public BackpropagationTrainer setUseBatchTensors(boolean useBatchTensors) {
+        this.useBatchTensors = useBatchTensors;
+        return this;
+    }
+
     public int getBatchSize() {
         return batchSize;
     }
@@ -499,6 +665,15 @@ public class BackpropagationTrainer implements Trainer, Serializable {
     public float getValidationAccuracy() {
         return valAccuracy;
     }
+
+    /**
+     * Returns number of training samples processed per second in the last epoch.
+     *
+     * @return training throughput in samples per second
+     */
+    public float getThroughput() {
+        return throughput;
+    }
     
     
 
@@ -557,6 +732,166 @@ public class BackpropagationTrainer implements Trainer, Serializable {
         this.trainingSnapshots = trainingSnapshots;
     }   
 
+    public int getDeltaSnapshots() {
+        return deltaSnapshots;
+    }
+
+    /**
+     * Sets number of delta snapshots written between full snapshots. Delta
+     * snapshots contain only weights that changed since the last full
+     * snapshot, compressed, and are read from the same directory as full snapshot.
+     *
+     * @param deltaSnapshots number of delta snapshots between full snapshots, 0 to write only full snapshots
+     * @return this trainer
+     * @see SnapshotWriter
+     */
+    public BackpropagationTrainer setDeltaSnapshots(int deltaSnapshots) {
+        if (deltaSnapshots < 0) {
+            throw new IllegalArgumentException("Number of delta snapshots cannot be negative : " + deltaSnapshots);
+        }
+        this.deltaSnapshots = deltaSnapshots;
+        return this;
+    }
+
+    public int getMaxSnapshots() {
+        return maxSnapshots;
+    }
+
+    /**
+     * Sets max number of snapshot files kept during training. The oldest
+     * snapshots are deleted, except full snapshots needed by kept delta snapshots.
+     *
+     * @param maxSnapshots max number of snapshot files, 0 to keep all
+     * @return this trainer
+     */
+    public BackpropagationTrainer setMaxSnapshots(int maxSnapshots) {
+        if (maxSnapshots < 0) {
+            throw new IllegalArgumentException("Max number of snapshots cannot be negative : " + maxSnapshots);
+        }
+        this.maxSnapshots = maxSnapshots;
+        return this;
+    }
+
+    public String getTrainingCheckpoint() {
+        return trainingCheckpoint;
+    }
+
+    /**
+     * Sets file to which training checkpoint is written during training,
+     * which can be used to continue interrupted training with {@link #resume(File)}.
+     * Checkpoint is written after every checkpoint epoch, and when training stops.
+     *
+     * @param fileName checkpoint file name, or null to disable checkpoints
+     * @return this trainer
+     */
+    public BackpropagationTrainer setTrainingCheckpoint(String fileName) {
+        this.trainingCheckpoint = fileName;
+        return this;
+    }
+
+    public int getTrainingCheckpointEpochs() {
+        return trainingCheckpointEpochs;
+    }
+
+    public BackpropagationTrainer setTrainingCheckpointEpochs(int trainingCheckpointEpochs) {
+        if (trainingCheckpointEpochs <= 0) {
+            throw new IllegalArgumentException("Training checkpoint epochs should be greater then zero : " + trainingCheckpointEpochs);
+        }
+        this.trainingCheckpointEpochs = trainingCheckpointEpochs;
+        return this;
+    }
+
+    /**
+     * Writes training checkpoint with network weights, previous weight
+     * changes used by momentum, epoch counter, early stopping counters,
+     * state of the default random generator and order of training set.
+     *
+     * @param file checkpoint file
+     * @throws IOException if file cannot be written
+     * @see TrainingCheckpoint
+     */
+    public void writeCheckpoint(File file) throws IOException {
+        final CheckpointState state = new CheckpointState();
+        state.epoch = epoch;
+        state.earlyStoppingCheckpointCount = earlyStoppingCheckpointCount;
+        state.prevCheckpointTestLoss = prevCheckpointTestLoss;
+        state.totalTrainingLoss = totalTrainingLoss;
+        state.valLoss = valLoss;
+        state.prevValLoss = prevValLoss;
+        state.trainAccuracy = trainAccuracy;
+        state.valAccuracy = valAccuracy;
+        state.random = RandomGenerator.getDefault().getRandom();
+        if (trainingSet instanceof ItemOrder) {
+            state.order = ((ItemOrder) trainingSet).getOrder();
+        }
+
+        TrainingCheckpoint.write(neuralNet, state, file);
+    }
+
+    /**
+     * Restores network weights and training state from checkpoint, so that
+     * next call of train continues after the epoch in which checkpoint was written.
+     * Network should have the same architecture as the network in checkpoint.
+     * Should be called after network and data sets are created, just before
+     * training, since it also restores state of the default random generator.
+     * Order of training set is restored if it implements {@link ItemOrder}.
+     *
+     * @param file checkpoint file written by {@link #writeCheckpoint(File)}
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file is not a valid checkpoint, or network architecture is different
+     */
+    public void resume(File file) throws IOException {
+        final CheckpointState state;
+        try {
+            state = TrainingCheckpoint.restore(neuralNet, file, CheckpointState.class);
+        } catch (ClassNotFoundException ex) {
+            throw new DeepNettsException("Invalid training checkpoint: " + file, ex);
+        }
+
+        epoch = state.epoch;
+        earlyStoppingCheckpointCount = state.earlyStoppingCheckpointCount;
+        prevCheckpointTestLoss = state.prevCheckpointTestLoss;
+        totalTrainingLoss = state.totalTrainingLoss;
+        valLoss = state.valLoss;
+        prevValLoss = state.prevValLoss;
+        trainAccuracy = state.trainAccuracy;
+        valAccuracy = state.valAccuracy;
+        RandomGenerator.getDefault().setRandom(state.random);
+        resumedOrder = state.order;
+        resumed = true;
+
+        LOGGER.info("Restored training checkpoint " + file + " after epoch " + epoch);
+    }
+
+    /**
+     * Restores order of items in training set, if training set has the same items.
+     */
+    private static void restoreOrder(DataSet<?> trainingSet, int[] order) {
+        if (trainingSet instanceof ItemOrder) {
+            try {
+                ((ItemOrder) trainingSet).setOrder(order);
+                return;
+            } catch (IllegalArgumentException ex) {
+                // training set has different items, keep its order
+            }
+        }
+        LOGGER.warn("Order of training set could not be restored from checkpoint, training set has different items or does not support it");
+    }
+
+    /**
+     * State of training algorithm written to training checkpoint.
+     */
+    private static final class CheckpointState implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int epoch;
+        int earlyStoppingCheckpointCount;
+        float prevCheckpointTestLoss;
+        float totalTrainingLoss, valLoss, prevValLoss, trainAccuracy, valAccuracy;
+        Random random;
+        int[] order; // null if training set does not support it
+    }
+
     public int getCheckpointEpochs() {
         return checkpointEpochs;
     }
@@ -638,7 +973,9 @@ public class BackpropagationTrainer implements Trainer, Serializable {
 
     private void readObject(ObjectInputStream aInputStream) throws ClassNotFoundException, IOException 
     {       
+         aInputStream.defaultReadObject();
          listeners = new ArrayList<>(); 
+         eval = new ClassifierEvaluator();
     }    
     
 }
\ No newline at end of file
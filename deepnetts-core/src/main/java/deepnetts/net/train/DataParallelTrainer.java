@@ -0,0 +1,732 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net.train;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.data.MLDataItem;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.InputLayer;
+import deepnetts.net.loss.LossFunction;
+import deepnetts.net.train.opt.OptimizerType;
+import deepnetts.util.Parallel;
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.Tensor;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import javax.visrec.ml.data.DataSet;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Data parallel training of a neural network using multiple threads.
+ *
+ * Since layers keep their outputs, deltas and weight changes, a single network
+ * instance can process only one sample at a time. This trainer creates
+ * replicas of the network which share weights with the original network, but
+ * have their own outputs and deltas. Each mini batch is split between
+ * replicas, which run in parallel on the shared pool, and weight changes from
+ * all replicas are summed using tree reduction and applied once to the shared
+ * weights.
+ *
+ * In asynchronous mode (Hogwild), training set is split between replicas, and
+ * each replica applies weight changes from its own mini batches directly to
+ * the shared weights, without locks or waiting for other replicas. Updates from
+ * different replicas can overwrite each other, which is rare when weight
+ * changes are sparse, and in practice does not prevent convergence while
+ * removing synchronization after each mini batch. Throughput and loss are
+ * logged after each epoch, in the same way as in {@link BackpropagationTrainer},
+ * so both modes can be compared for specific model.
+ *
+ * @see Parallel
+ * @see BackpropagationTrainer
+ * @author Zoran Sevarac <zoran.sevarac@deepnetts.com>
+ */
+public class DataParallelTrainer implements Trainer {
+
+    /**
+     * Maximum training epochs.
+     */
+    private long maxEpochs = 100000L;
+
+    /**
+     * Maximum allowed error. Training will stop once total error has reached
+     * this value .
+     */
+    private float maxError = 0.01f;
+
+    private float learningRate = 0.01f;
+
+    private float momentum = 0;
+
+    private OptimizerType optType = OptimizerType.SGD;
+
+    /**
+     * Size of mini batch, which is split between replicas.
+     */
+    private int batchSize = 32;
+
+    /**
+     * Number of network replicas (parallel workers), by default equals to
+     * parallelism of the shared pool.
+     */
+    private int replicaCount = Parallel.getPool().getParallelism();
+
+    /**
+     * Process samples of each replica at once, as a single batch tensor.
+     */
+    private boolean useBatchTensors = false;
+
+    private boolean shuffle = false;
+
+    /**
+     * Apply weight changes from each replica without synchronization (Hogwild).
+     */
+    private boolean asynchronous = false;
+
+    private volatile boolean stopTraining = false;
+
+    private int epoch;
+
+    private float totalTrainingLoss;
+
+    /**
+     * Loss calculated on validation set after each epoch.
+     */
+    private float valLoss;
+
+    /**
+     * Validation set used for early stopping, optional.
+     */
+    private DataSet<? extends MLDataItem> validationSet;
+
+    /**
+     * Stop training when validation loss stops going down.
+     */
+    private boolean earlyStopping = false;
+
+    /**
+     * Min decrease of validation loss between epochs to continue training.
+     */
+    private float earlyStoppingMinDelta = 0.000001f;
+
+    /**
+     * How many epochs to wait for validation loss to go down before stopping training.
+     */
+    private int earlyStoppingPatience = 2;
+
+    /**
+     * Number of training samples processed per second in the last epoch.
+     */
+    private float throughput;
+
+    /**
+     * Neural network to train, which is also the first replica.
+     */
+    private final NeuralNetwork<?> neuralNet;
+
+    private List<Replica> replicas;
+
+    /**
+     * Order of training samples in asynchronous mode.
+     */
+    private int[] order;
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(DeepNetts.class.getName());
+
+    /**
+     * Creates an instance of data parallel trainer for the specified neural network.
+     *
+     * @param neuralNet neural network to train
+     */
+    public DataParallelTrainer(NeuralNetwork<?> neuralNet) {
+        this.neuralNet = neuralNet;
+    }
+
+    /**
+     * Run training using specified training and validation sets. Validation
+     * set is used to calculate validation loss after each epoch, and for
+     * early stopping.
+     *
+     * @param trainingSet training set
+     * @param validationSet validation set
+     */
+    public void train(DataSet<? extends MLDataItem> trainingSet, DataSet<? extends MLDataItem> validationSet) {
+        this.validationSet = validationSet;
+        train(trainingSet);
+    }
+
+    @Override
+    public void train(DataSet<? extends MLDataItem> trainingSet) {
+        if (trainingSet == null) {
+            throw new IllegalArgumentException("Argument trainingSet cannot be null!");
+        }
+        if (trainingSet.size() == 0) {
+            throw new IllegalArgumentException("Training set cannot be empty!");
+        }
+        if (earlyStopping && validationSet == null) {
+            throw new IllegalStateException("Early stopping requires validation set!");
+        }
+
+        neuralNet.setOutputLabels(trainingSet.getTargetNames());
+        createReplicas();
+        try {
+            trainEpochs(trainingSet);
+        } finally {
+            // replicas keep their own outputs, deltas and buffers, and are not needed after training
+            replicas = null;
+            order = null;
+        }
+    }
+
+    private void trainEpochs(DataSet<? extends MLDataItem> trainingSet) {
+        stopTraining = false;
+        epoch = 0;
+        totalTrainingLoss = 0;
+        float prevTotalLoss = 0, totalLossChange;
+        float prevValLoss = Float.MAX_VALUE;
+        int earlyStoppingCount = 0;
+
+        LOGGER.info("------------------------------------------------------------------------------------------------------------------------------------------------");
+        LOGGER.info("TRAINING NEURAL NETWORK WITH " + replicas.size() + (asynchronous ? " ASYNCHRONOUS" : "") + " REPLICAS");
+        LOGGER.info("------------------------------------------------------------------------------------------------------------------------------------------------");
+
+        final long startTraining = System.currentTimeMillis();
+        do {
+            epoch++;
+            replicas.forEach(Replica::reset);
+
+            if (shuffle && !asynchronous) {
+                trainingSet.shuffle();
+            }
+
+            final long startEpoch = System.currentTimeMillis();
+
+            if (asynchronous) {
+                trainEpochAsync(trainingSet);
+            } else {
+                final Iterator<? extends MLDataItem> items = trainingSet.iterator();
+                final List<MLDataItem> batch = new ArrayList<>(batchSize);
+                while (items.hasNext() && !stopTraining) {
+                    batch.clear();
+                    while (items.hasNext() && batch.size() < batchSize) {
+                        batch.add(items.next());
+                    }
+                    trainBatch(batch);
+                }
+            }
+
+            final long epochTime = System.currentTimeMillis() - startEpoch;
+            throughput = patternCount() * 1000f / Math.max(1, epochTime);
+
+            totalTrainingLoss = totalLoss();
+            totalLossChange = totalTrainingLoss - prevTotalLoss;
+            prevTotalLoss = totalTrainingLoss;
+
+            if (validationSet != null) {
+                valLoss = validationLoss();
+                LOGGER.info("Epoch:" + epoch + ", Time:" + epochTime + "ms, TrainError:" + totalTrainingLoss + ", TrainErrorChange:" + totalLossChange + ", ValError:" + valLoss + ", Throughput: " + throughput + " samples/s");
+            } else {
+                LOGGER.info("Epoch:" + epoch + ", Time:" + epochTime + "ms, TrainError:" + totalTrainingLoss + ", TrainErrorChange:" + totalLossChange + ", Throughput: " + throughput + " samples/s");
+            }
+
+            if (Float.isNaN(totalTrainingLoss)) {
+                stopTraining = true;
+                LOGGER.info("Trainer was interrupted before completing all Epochs. Epochs completed: " + epoch + "/" + maxEpochs);
+            }
+
+            if (earlyStopping) {
+                if (prevValLoss - valLoss < earlyStoppingMinDelta) {
+                    if (earlyStoppingCount == earlyStoppingPatience) {
+                        stopTraining = true;
+                    } else {
+                        earlyStoppingCount++;
+                    }
+                } else {
+                    earlyStoppingCount = 0;
+                }
+                prevValLoss = valLoss;
+            }
+
+            stopTraining = stopTraining || ((epoch == maxEpochs) || (totalTrainingLoss <= maxError));
+        } while (!stopTraining);
+
+        LOGGER.info(System.lineSeparator() + "TRAINING COMPLETED");
+        LOGGER.info("Total Training Time: " + (System.currentTimeMillis() - startTraining) + "ms");
+        LOGGER.info("------------------------------------------------------------------------");
+    }
+
+    /**
+     * Creates replicas of the network which share weights with the trained
+     * network, and configures all of their layers.
+     */
+    private void createReplicas() {
+        replicas = new ArrayList<>(replicaCount);
+        replicas.add(new Replica(neuralNet));
+
+        for (int i = 1; i < replicaCount; i++) {
+            final NeuralNetwork<?> replicaNet = SerializationUtils.clone(neuralNet);
+            for (int l = 0; l < replicaNet.getLayers().size(); l++) {
+                replicaNet.getLayers().get(l).shareParameters(neuralNet.getLayers().get(l));
+            }
+            replicas.add(new Replica(replicaNet));
+        }
+
+        // optimizer is created last, since it can use shared previous weight changes
+        for (Replica replica : replicas) {
+            for (AbstractLayer layer : replica.net.getLayers()) {
+                layer.setLearningRate(learningRate);
+                layer.setMomentum(momentum);
+                layer.setBatchMode(true);
+                layer.setBatchSize(batchSize);
+                layer.setOptimizerType(optType);
+            }
+        }
+    }
+
+    /**
+     * Splits mini batch between replicas, sums their weight changes and
+     * applies them to shared weights.
+     *
+     * @param batch samples in mini batch
+     */
+    private void trainBatch(List<MLDataItem> batch) {
+        final int shardSize = (batch.size() + replicas.size() - 1) / replicas.size();
+
+        Parallel.forEach(replicas.size(), Parallel.getThreshold(), r -> {
+            final int from = Math.min(batch.size(), r * shardSize);
+            final int to = Math.min(batch.size(), from + shardSize);
+            replicas.get(r).train(batch.subList(from, to));
+        });
+
+        reduceDeltaWeights();
+
+        // average weight changes for actual number of samples, last batch can be smaller
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            layer.setBatchSize(batch.size());
+        }
+        neuralNet.applyWeightChanges();
+    }
+
+    /**
+     * Trains one epoch in asynchronous mode. Each replica takes its part of
+     * the training set, and applies weight changes after each of its mini
+     * batches directly to the shared weights.
+     *
+     * @param trainingSet training set
+     */
+    private void trainEpochAsync(DataSet<? extends MLDataItem> trainingSet) {
+        final int size = trainingSet.size();
+        if (order == null || order.length != size) {
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+        }
+        if (shuffle) {
+            shuffleOrder();
+        }
+
+        final int shardSize = (size + replicas.size() - 1) / replicas.size();
+
+        Parallel.forEach(replicas.size(), Parallel.getThreshold(), r -> {
+            final Replica replica = replicas.get(r);
+            final List<MLDataItem> batch = replica.batch;
+            final int shardEnd = Math.min(size, (r + 1) * shardSize);
+
+            for (int from = r * shardSize; from < shardEnd && !stopTraining; from += batchSize) {
+                final int to = Math.min(shardEnd, from + batchSize);
+                batch.clear();
+                for (int i = from; i < to; i++) {
+                    batch.add(trainingSet.get(order[i]));
+                }
+                replica.train(batch);
+
+                for (AbstractLayer layer : replica.net.getLayers()) {
+                    layer.setBatchSize(to - from);
+                }
+                replica.net.applyWeightChanges();
+            }
+        });
+    }
+
+    /**
+     * Shuffles order of samples used in asynchronous mode, so that the
+     * training set itself is not changed or copied (Fisher-Yates).
+     */
+    private void shuffleOrder() {
+        final Random random = RandomGenerator.getDefault().getRandom();
+        for (int i = order.length - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    /**
+     * Sums weight changes from all replicas into the first one (trained
+     * network), using pairwise tree reduction: in each step replica i takes
+     * changes from replica i + stride, and steps run in parallel.
+     */
+    private void reduceDeltaWeights() {
+        for (int stride = 1; stride < replicas.size(); stride *= 2) {
+            final int step = stride;
+            final int pairs = (replicas.size() - step + 2 * step - 1) / (2 * step);
+
+            Parallel.forEach(pairs, Parallel.getThreshold(), p -> {
+                final List<AbstractLayer> target = replicas.get(2 * step * p).net.getLayers();
+                final List<AbstractLayer> source = replicas.get(2 * step * p + step).net.getLayers();
+                for (int l = 1; l < target.size(); l++) {
+                    target.get(l).mergeDeltaWeights(source.get(l));
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns loss of the trained network for validation set.
+     */
+    private float validationLoss() {
+        final LossFunction lossFunction = neuralNet.getLossFunction();
+        lossFunction.reset();
+        return lossFunction.valueFor(neuralNet, validationSet);
+    }
+
+    private int patternCount() {
+        int patternCount = 0;
+        for (Replica replica : replicas) {
+            patternCount += replica.patternCount;
+        }
+        return patternCount;
+    }
+
+    /**
+     * Returns average loss for all samples in epoch, from loss functions of all replicas.
+     */
+    private float totalLoss() {
+        float lossSum = 0;
+        int patternCount = 0;
+
+        for (Replica replica : replicas) {
+            if (replica.patternCount == 0) continue;
+            lossSum += replica.lossFunction.getTotal() * replica.patternCount;
+            patternCount += replica.patternCount;
+        }
+
+        return lossSum / patternCount;
+    }
+
+    public long getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public DataParallelTrainer setMaxEpochs(long maxEpochs) {
+        if (maxEpochs <= 0) {
+            throw new IllegalArgumentException("Max epochs should be greater then zero : " + maxEpochs);
+        }
+        this.maxEpochs = maxEpochs;
+        return this;
+    }
+
+    public float getMaxError() {
+        return maxError;
+    }
+
+    public DataParallelTrainer setMaxError(float maxError) {
+        if (maxError < 0) {
+            throw new IllegalArgumentException("Max error cannot be negative : " + maxError);
+        }
+        this.maxError = maxError;
+        return this;
+    }
+
+    public float getLearningRate() {
+        return learningRate;
+    }
+
+    public DataParallelTrainer setLearningRate(float learningRate) {
+        if (learningRate < 0) {
+            throw new IllegalArgumentException("Learning rate cannot be negative : " + learningRate);
+        }
+        if (learningRate > 1) {
+            throw new IllegalArgumentException("Learning rate cannot be greater then 1 : " + learningRate);
+        }
+        this.learningRate = learningRate;
+        return this;
+    }
+
+    public float getMomentum() {
+        return momentum;
+    }
+
+    public DataParallelTrainer setMomentum(float momentum) {
+        this.momentum = momentum;
+        return this;
+    }
+
+    public OptimizerType getOptimizer() {
+        return optType;
+    }
+
+    public DataParallelTrainer setOptimizer(OptimizerType optimizer) {
+        this.optType = optimizer;
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public DataParallelTrainer setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size should be greater then zero : " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getReplicaCount() {
+        return replicaCount;
+    }
+
+    /**
+     * Sets number of network replicas, which process parts of each mini batch in parallel.
+     *
+     * @param replicaCount number of replicas
+     * @return this trainer
+     */
+    public DataParallelTrainer setReplicaCount(int replicaCount) {
+        if (replicaCount <= 0) {
+            throw new IllegalArgumentException("Replica count should be greater then zero : " + replicaCount);
+        }
+        this.replicaCount = replicaCount;
+        return this;
+    }
+
+    public boolean getUseBatchTensors() {
+        return useBatchTensors;
+    }
+
+    /**
+     * Sets whether each replica should process its part of mini batch at once,
+     * as a single batch tensor.
+     *
+     * @param useBatchTensors true to use batch tensors
+     * @return this trainer
+     */
+    public DataParallelTrainer setUseBatchTensors(boolean useBatchTensors) {
+        this.useBatchTensors = useBatchTensors;
+        return this;
+    }
+
+    public boolean getShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * Sets whether training samples should be shuffled before each epoch. In
+     * asynchronous mode only the order in which samples are read is shuffled,
+     * and the training set is not changed.
+     *
+     * @param shuffle true to shuffle samples
+     * @return this trainer
+     */
+    public DataParallelTrainer setShuffle(boolean shuffle) {
+        this.shuffle = shuffle;
+        return this;
+    }
+
+    public boolean getAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Sets whether replicas should apply their weight changes directly to the
+     * shared weights, without locks and without waiting for other replicas
+     * (Hogwild). Each replica then uses mini batches of the specified batch
+     * size, and batch size 1 gives plain asynchronous stochastic gradient
+     * descent.
+     *
+     * @param asynchronous true for asynchronous training
+     * @return this trainer
+     */
+    public DataParallelTrainer setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+        return this;
+    }
+
+    public DataSet<? extends MLDataItem> getValidationSet() {
+        return validationSet;
+    }
+
+    public DataParallelTrainer setValidationSet(DataSet<? extends MLDataItem> validationSet) {
+        this.validationSet = validationSet;
+        return this;
+    }
+
+    public boolean getEarlyStopping() {
+        return earlyStopping;
+    }
+
+    /**
+     * Sets whether training should stop when validation loss stops going down.
+     * Requires validation set.
+     *
+     * @param earlyStopping true to use early stopping
+     * @return this trainer
+     */
+    public DataParallelTrainer setEarlyStopping(boolean earlyStopping) {
+        this.earlyStopping = earlyStopping;
+        return this;
+    }
+
+    public float getEarlyStoppingMinDelta() {
+        return earlyStoppingMinDelta;
+    }
+
+    public DataParallelTrainer setEarlyStoppingMinDelta(float earlyStoppingMinDelta) {
+        this.earlyStoppingMinDelta = earlyStoppingMinDelta;
+        return this;
+    }
+
+    public int getEarlyStoppingPatience() {
+        return earlyStoppingPatience;
+    }
+
+    public DataParallelTrainer setEarlyStoppingPatience(int earlyStoppingPatience) {
+        if (earlyStoppingPatience < 0) {
+            throw new IllegalArgumentException("Early stopping patience cannot be negative : " + earlyStoppingPatience);
+        }
+        this.earlyStoppingPatience = earlyStoppingPatience;
+        return this;
+    }
+
+    public void stop() {
+        stopTraining = true;
+    }
+
+    public float getTrainingLoss() {
+        return totalTrainingLoss;
+    }
+
+    public float getValidationLoss() {
+        return valLoss;
+    }
+
+    /**
+     * Returns number of training samples processed per second in the last epoch.
+     *
+     * @return training throughput in samples per second
+     */
+    public float getThroughput() {
+        return throughput;
+    }
+
+    public int getCurrentEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Single network replica with its own loss function and reusable batch buffers.
+     */
+    private final class Replica {
+
+        private final NeuralNetwork<?> net;
+        private final LossFunction lossFunction;
+        private int patternCount;
+
+        /**
+         * Samples of current mini batch in asynchronous mode.
+         */
+        private final List<MLDataItem> batch = new ArrayList<>();
+
+        private Tensor inputBatch, outputErrorBatch;
+        private float[] outputRow;
+
+        Replica(NeuralNetwork<?> net) {
+            this.net = net;
+            this.lossFunction = net.getLossFunction();
+        }
+
+        void reset() {
+            lossFunction.reset();
+            patternCount = 0;
+        }
+
+        /**
+         * Performs forward and backward pass for specified samples, and
+         * accumulates weight changes.
+         */
+        void train(List<MLDataItem> samples) {
+            if (samples.isEmpty()) return;
+            patternCount += samples.size();
+
+            if (useBatchTensors) {
+                trainBatch(samples);
+                return;
+            }
+
+            for (MLDataItem item : samples) {
+                net.setInput(item.getInput());
+                final float[] outputError = lossFunction.addPatternError(net.getOutput(), item.getTargetOutput().getValues());
+                net.setOutputError(outputError);
+                net.backward();
+            }
+        }
+
+        private void trainBatch(List<MLDataItem> samples) {
+            final int size = samples.size();
+            final InputLayer inputLayer = net.getInputLayer();
+            final int inputSize = inputLayer.getOutputs().size();
+            final int outputWidth = net.getOutputLayer().getWidth();
+
+            if (inputBatch == null || inputBatch.getFourthDim() < size) {
+                inputBatch = new Tensor(inputLayer.getHeight(), inputLayer.getWidth(), inputLayer.getDepth(), size);
+                outputErrorBatch = new Tensor(1, outputWidth, 1, size);
+                outputRow = new float[outputWidth];
+            }
+
+            final float[] inputValues = inputBatch.getValues();
+            for (int b = 0; b < size; b++) {
+                System.arraycopy(samples.get(b).getInput().getValues(), 0, inputValues, b * inputSize, inputSize);
+            }
+
+            net.setInputBatch(inputBatch, size);
+
+            final float[] outputValues = net.getOutputBatch().getValues();
+            final float[] errorValues = outputErrorBatch.getValues();
+            for (int b = 0; b < size; b++) {
+                System.arraycopy(outputValues, b * outputWidth, outputRow, 0, outputWidth);
+                final float[] outputError = lossFunction.addPatternError(outputRow, samples.get(b).getTargetOutput().getValues());
+                System.arraycopy(outputError, 0, errorValues, b * outputWidth, outputWidth);
+            }
+
+            net.setOutputErrorBatch(outputErrorBatch);
+            net.backwardBatch();
+        }
+    }
+
+}
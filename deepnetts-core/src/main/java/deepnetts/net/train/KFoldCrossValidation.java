@@ -22,6 +22,7 @@
 
 package deepnetts.net.train;
 
+import deepnetts.data.IndexedDataSet;
 import deepnetts.data.TabularDataSet;
 import deepnetts.eval.ClassifierEvaluator;
 import javax.visrec.ml.eval.Evaluator;
@@ -53,12 +54,11 @@ public class KFoldCrossValidation {
 
     public EvaluationMetrics runCrossValidation() {
         List<EvaluationMetrics> measures = new ArrayList<>();
-        DataSet[] folds = (DataSet[]) dataSet.split(splitsNum);
+        DataSet<MLDataItem>[] folds = dataSet.split(splitsNum);
 
         for (int testFoldIdx = 0; testFoldIdx < splitsNum; testFoldIdx++) {
-            DataSet testSet = folds[testFoldIdx];
-            TabularDataSet trainingSet = new TabularDataSet(((TabularDataSet)dataSet).getNumInputs(), ((TabularDataSet)dataSet).getNumOutputs());
-            trainingSet.setColumnNames(((TabularDataSet)dataSet).getColumnNames());
+            DataSet<MLDataItem> testSet = folds[testFoldIdx];
+            DataSet<MLDataItem> trainingSet = emptyView();
             for (int trainFoldIdx = 0; trainFoldIdx < splitsNum; trainFoldIdx++) {
                 if (trainFoldIdx == testFoldIdx) continue;
                 trainingSet.addAll(folds[trainFoldIdx]);
@@ -83,6 +83,19 @@ public class KFoldCrossValidation {
         
     }
 
+    /**
+     * Returns empty view of the same items as data set, so folds are added
+     * to its index without copying items.
+     */
+    private DataSet<MLDataItem> emptyView() {
+        if (dataSet instanceof TabularDataSet) {
+            return ((TabularDataSet<MLDataItem>) dataSet).subSet();
+        } else if (dataSet instanceof IndexedDataSet) {
+            return ((IndexedDataSet) dataSet).subSet();
+        }
+        throw new IllegalArgumentException("Cross validation requires TabularDataSet or IndexedDataSet, found: " + dataSet.getClass().getName());
+    }
+
     public List<NeuralNetwork> getTrainedNetworks() {
         return trainedNetworks;
     }
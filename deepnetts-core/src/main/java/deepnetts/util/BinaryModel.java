@@ -0,0 +1,443 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.NetworkType;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.LayerType;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary neural network file, which contains network architecture and
+ * weights, without training state and Java serialization.
+ *
+ * Architecture is written in header, and when file is read network is created
+ * using builder without random initialization, and its weights and biases are
+ * read from memory mapped file directly into layer arrays, one contiguous block
+ * for each layer. Tensors are backed by heap arrays, so weights are copied once
+ * from mapped file instead of being wrapped, and mapped regions are released
+ * after copying.
+ *
+ * <p>Binary file format (all values are little endian):</p>
+ * <pre>
+ * int    magic number 0x54454E44 ("DNET")
+ * int    format version
+ * int    size of the header in bytes, including padding
+ * int    flags, 1 if network is frozen (since version 2)
+ * string network type, loss type (empty if not set), label (empty if not set)
+ * int    number of output labels (-1 if not set), followed by each label as string
+ * int    number of layers, followed by each layer:
+ *        string layer type, activation type (empty for layers without activation)
+ *        int    width, height, depth, filter width, filter height, stride,
+ *               number of weights and biases
+ *        padding to 64 bytes
+ * float  weights followed by biases of each layer, padded to 64 bytes
+ * </pre>
+ * Strings are written as int length followed by UTF-8 bytes.
+ * Filters of convolutional layer are written one after another.
+ *
+ * @see FileIO
+ * @author Zoran Sevarac
+ */
+final class BinaryModel {
+
+    static final int MAGIC = 0x54454E44;
+    private static final int VERSION = 2;
+
+    /**
+     * Flag for network which is written for inference only, and frozen when read.
+     */
+    private static final int FROZEN = 1;
+    private static final int ALIGNMENT = 64;
+
+    /**
+     * Max number of floats in a single mapped region.
+     */
+    private static final int MAX_MAPPED_FLOATS = 1 << 28;
+
+    private BinaryModel() { }
+
+    /**
+     * Writes architecture and weights of the specified network to file.
+     *
+     * @param neuralNet neural network to write
+     * @param file file to write to
+     * @param frozen true if network read from file should be frozen
+     * @throws IOException if file cannot be written
+     */
+    static void write(NeuralNetwork<?> neuralNet, File file, boolean frozen) throws IOException {
+        write(neuralNet, parameters(neuralNet), file, frozen);
+    }
+
+    /**
+     * Writes architecture of the specified network, and specified weights
+     * and biases to file. Used to write copy of weights taken during training.
+     *
+     * @param neuralNet neural network with architecture to write
+     * @param parameters weights and biases of each layer, as returned by {@link #parameters(NeuralNetwork)}
+     * @param file file to write to
+     * @param frozen true if network read from file should be frozen
+     * @throws IOException if file cannot be written
+     */
+    static void write(NeuralNetwork<?> neuralNet, List<List<float[]>> parameters, File file, boolean frozen) throws IOException {
+        final ByteBuffer header = header(neuralNet, frozen || neuralNet.isFrozen() ? FROZEN : 0);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            writeParameters(channel, parameters);
+        }
+    }
+
+    /**
+     * Writes weights and biases of each layer to channel at its current
+     * position, in blocks padded to 64 bytes.
+     *
+     * @param channel channel to write to
+     * @param parameters weights and biases of each layer
+     * @throws IOException if channel cannot be written
+     */
+    static void writeParameters(FileChannel channel, List<List<float[]>> parameters) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        final FloatBuffer floats = buffer.asFloatBuffer();
+        for (List<float[]> layerParameters : parameters) {
+            long count = 0;
+            for (float[] values : layerParameters) {
+                for (int offset = 0; offset < values.length; ) {
+                    final int length = Math.min(values.length - offset, floats.remaining());
+                    floats.put(values, offset, length);
+                    offset += length;
+                    if (!floats.hasRemaining()) flush(channel, buffer, floats);
+                }
+                count += values.length;
+            }
+            // pad block to alignment
+            final int padding = (int) ((ALIGNMENT - count * Float.BYTES % ALIGNMENT) % ALIGNMENT) / Float.BYTES;
+            for (int i = 0; i < padding; i++) {
+                if (!floats.hasRemaining()) flush(channel, buffer, floats);
+                floats.put(0);
+            }
+        }
+        flush(channel, buffer, floats);
+    }
+
+    /**
+     * Returns arrays with weights and biases of all layers in network.
+     *
+     * @param neuralNet neural network
+     * @return list with weights and biases of each layer
+     * @see LayerSpec#parameters(AbstractLayer)
+     */
+    static List<List<float[]>> parameters(NeuralNetwork<?> neuralNet) {
+        final List<List<float[]>> parameters = new ArrayList<>(neuralNet.getLayers().size());
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            parameters.add(LayerSpec.parameters(layer));
+        }
+        return parameters;
+    }
+
+    private static ByteBuffer header(NeuralNetwork<?> neuralNet, int flags) {
+        final List<Object> fields = new ArrayList<>();
+        fields.add(NetworkType.Of(neuralNet.getClass()).toString());
+        fields.add(neuralNet.getLossFunction() == null ? "" : LossType.of(neuralNet.getLossFunction().getClass()).toString());
+        fields.add(neuralNet.getLabel() == null ? "" : neuralNet.getLabel());
+
+        final String[] labels = neuralNet.getOutputLabels();
+        fields.add(labels == null ? -1 : labels.length);
+        if (labels != null) {
+            for (String label : labels) fields.add(label);
+        }
+
+        fields.add(neuralNet.getLayers().size());
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            final LayerSpec spec = LayerSpec.of(layer);
+            fields.add(spec.type.toString());
+            fields.add(spec.activation == null ? "" : spec.activation.toString());
+            fields.add(spec.width);
+            fields.add(spec.height);
+            fields.add(spec.depth);
+            fields.add(spec.filterWidth);
+            fields.add(spec.filterHeight);
+            fields.add(spec.stride);
+            fields.add(LayerSpec.parameterCount(layer));
+        }
+
+        int size = 4 * Integer.BYTES;
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i) instanceof String) {
+                final byte[] bytes = ((String) fields.get(i)).getBytes(StandardCharsets.UTF_8);
+                fields.set(i, bytes);
+                size += bytes.length;
+            }
+            size += Integer.BYTES;
+        }
+        size = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+
+        final ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(flags);
+        for (Object field : fields) {
+            if (field instanceof byte[]) {
+                header.putInt(((byte[]) field).length).put((byte[]) field);
+            } else {
+                header.putInt((Integer) field);
+            }
+        }
+        ((Buffer) header).clear();
+        return header;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, FloatBuffer floats) throws IOException {
+        ((Buffer) buffer).limit(floats.position() * Float.BYTES);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        ((Buffer) buffer).clear();
+        ((Buffer) floats).clear();
+    }
+
+    /**
+     * Returns true if file starts with magic number of this format.
+     *
+     * @param file file to check
+     * @return true if file is binary network file
+     * @throws IOException if file cannot be read
+     */
+    static boolean isBinaryModel(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) { }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads neural network from binary file written by {@link #write(NeuralNetwork, File, boolean)}.
+     * Network is frozen if it was written for inference.
+     *
+     * @param file binary network file
+     * @return neural network with architecture and weights from file
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file is not a valid network file
+     */
+    static NeuralNetwork<?> read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final Header header = readHeader(channel, file);
+            final NeuralNetwork<?> neuralNet = create(header);
+            readParameters(channel, header.size, parameters(neuralNet), file);
+            return neuralNet;
+        }
+    }
+
+    /**
+     * Architecture of network and size of the header, read from file.
+     */
+    static final class Header {
+        int size, flags;
+        NetworkType networkType;
+        LossType lossType;
+        String label;
+        String[] outputLabels;
+        List<LayerSpec> layers;
+        int[] parameterCounts;
+    }
+
+    /**
+     * Reads header from the beginning of binary network file.
+     *
+     * @param channel channel of the file
+     * @param file file, used in error messages
+     * @return header with network architecture
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file is not a valid network file
+     */
+    static Header readHeader(FileChannel channel, File file) throws IOException {
+        final ByteBuffer fixed = ByteBuffer.allocate(4 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (fixed.hasRemaining() && channel.read(fixed, fixed.position()) > 0) { }
+        ((Buffer) fixed).flip();
+
+        if (fixed.remaining() < 4 * Integer.BYTES || fixed.getInt() != MAGIC) {
+            throw new DeepNettsException("Not a Deep Netts network file: " + file);
+        }
+        final int version = fixed.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new DeepNettsException("Unsupported network file version " + version + " in file " + file);
+        }
+        final Header header = new Header();
+        header.size = fixed.getInt();
+        header.flags = version > 1 ? fixed.getInt() : 0;
+        if (header.size < fixed.position() || header.size > channel.size()) {
+            throw new DeepNettsException("Network file is truncated: " + file);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(header.size - fixed.position()).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining() && channel.read(buffer, fixed.position() + buffer.position()) > 0) { }
+        ((Buffer) buffer).flip();
+
+        header.networkType = NetworkType.valueOf(getString(buffer));
+        final String lossType = getString(buffer);
+        header.lossType = lossType.isEmpty() ? null : LossType.valueOf(lossType);
+        header.label = getString(buffer);
+
+        final int labelCount = buffer.getInt();
+        if (labelCount >= 0) {
+            header.outputLabels = new String[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                header.outputLabels[i] = getString(buffer);
+            }
+        }
+
+        final int layerCount = buffer.getInt();
+        header.layers = new ArrayList<>(layerCount);
+        header.parameterCounts = new int[layerCount];
+        for (int l = 0; l < layerCount; l++) {
+            final LayerSpec layer = new LayerSpec();
+            layer.type = LayerType.valueOf(getString(buffer));
+            final String activation = getString(buffer);
+            layer.activation = activation.isEmpty() ? null : ActivationType.valueOf(activation);
+            layer.width = buffer.getInt();
+            layer.height = buffer.getInt();
+            layer.depth = buffer.getInt();
+            layer.filterWidth = buffer.getInt();
+            layer.filterHeight = buffer.getInt();
+            layer.stride = buffer.getInt();
+            header.parameterCounts[l] = buffer.getInt();
+            header.layers.add(layer);
+        }
+        return header;
+    }
+
+    /**
+     * Creates network with architecture specified in header, using network
+     * builder, with weights and biases which are read from file after that.
+     * Network written for inference is built frozen, without training buffers.
+     */
+    private static NeuralNetwork<?> create(Header header) {
+        final NeuralNetwork<?> neuralNet = LayerSpec.build(header.networkType, header.layers, header.lossType, false, (header.flags & FROZEN) != 0);
+        for (int l = 0; l < header.layers.size(); l++) {
+            if (LayerSpec.parameterCount(neuralNet.getLayers().get(l)) != header.parameterCounts[l]) {
+                throw new DeepNettsException("Number of weights in file does not match architecture in layer " + l);
+            }
+        }
+        neuralNet.setOutputLabels(header.outputLabels);
+        if (!header.label.isEmpty()) neuralNet.setLabel(header.label);
+
+        return neuralNet;
+    }
+
+    /**
+     * Returns number of bytes written by {@link #writeParameters(FileChannel, List)}
+     * for specified weights and biases.
+     *
+     * @param parameters weights and biases of each layer
+     * @return size of padded blocks in bytes
+     */
+    static long parametersSize(List<List<float[]>> parameters) {
+        long size = 0;
+        for (List<float[]> layerParameters : parameters) {
+            for (float[] values : layerParameters) {
+                size += (long) values.length * Float.BYTES;
+            }
+            size = (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        }
+        return size;
+    }
+
+    /**
+     * Reads weights and biases of each layer from channel at specified
+     * position, written by {@link #writeParameters(FileChannel, List)}.
+     *
+     * @param channel channel to read from
+     * @param position position of the first block
+     * @param parameters arrays for weights and biases of each layer
+     * @param file file, used in error messages
+     * @return position after the last block
+     * @throws IOException if file cannot be read
+     * @throws DeepNettsException if file is truncated
+     */
+    static long readParameters(FileChannel channel, long position, List<List<float[]>> parameters, File file) throws IOException {
+        for (List<float[]> layerParameters : parameters) {
+            long count = 0;
+            for (float[] values : layerParameters) {
+                count += values.length;
+            }
+            if (position + count * Float.BYTES > channel.size()) {
+                throw new DeepNettsException("Network file is truncated: " + file);
+            }
+            readFloats(channel, position, count, layerParameters);
+            position += count * Float.BYTES;
+            position = (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+        }
+        return position;
+    }
+
+    /**
+     * Copies block of floats from file at specified position to arrays, one
+     * after another, through memory mapped regions of the file. Each region
+     * is unmapped when its floats are copied.
+     */
+    private static void readFloats(FileChannel channel, long position, long count, List<float[]> arrays) throws IOException {
+        MappedByteBuffer region = null;
+        FloatBuffer floats = null;
+        long mapped = 0;
+        try {
+            for (float[] values : arrays) {
+                for (int offset = 0; offset < values.length; ) {
+                    if (floats == null || !floats.hasRemaining()) {
+                        MappedBuffers.unmap(region);
+                        final long length = Math.min(count - mapped, MAX_MAPPED_FLOATS);
+                        region = channel.map(FileChannel.MapMode.READ_ONLY, position + mapped * Float.BYTES, length * Float.BYTES);
+                        floats = region.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                        mapped += length;
+                    }
+                    final int length = Math.min(values.length - offset, floats.remaining());
+                    floats.get(values, offset, length);
+                    offset += length;
+                }
+            }
+        } finally {
+            MappedBuffers.unmap(region);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,250 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Delta network file, which contains only weights and biases that differ
+ * from a base network file in binary format, compressed.
+ * Network is read from delta file by reading the base file from the same
+ * directory, and replacing changed values.
+ *
+ * <p>Delta file format (all values are big endian):</p>
+ * <pre>
+ * int    magic number 0x444E4454 ("DNDT")
+ * int    format version
+ * string name of the base file, as written by {@link DataOutputStream#writeUTF(String)}
+ * followed by deflate compressed data:
+ * int    number of layers, followed by each layer:
+ *        int number of arrays with weights and biases, followed by each array:
+ *            int  length
+ *            byte encoding, SPARSE or XOR
+ *            SPARSE: int number of changed values, followed by each changed
+ *                    value as int distance from the previous changed value
+ *                    and float value
+ *            XOR:    bits of each value XOR bits of base value, as four byte
+ *                    planes, starting with the highest bytes of all values
+ * </pre>
+ *
+ * <p>Sparse encoding is used when at most half of the values changed, since
+ * it takes 8 bytes per changed value. Otherwise, as after a training epoch
+ * when all weights change by small amounts, XOR words have zero sign,
+ * exponent and high mantissa bits, and byte planes put these zeros together
+ * so that they are compressed well. Delta file is therefore much smaller
+ * than the full snapshot when few weights change, and still smaller after a
+ * training epoch, where the low mantissa bits of changed weights do not
+ * compress.</p>
+ *
+ * @see BinaryModel
+ * @see SnapshotWriter
+ * @author Zoran Sevarac
+ */
+final class DeltaModel {
+
+    static final int MAGIC = 0x444E4454;
+    private static final int VERSION = 2;
+    private static final int SPARSE = 0, XOR = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private DeltaModel() { }
+
+    /**
+     * Writes weights and biases which are different from base to file.
+     *
+     * @param base weights and biases of each layer in base file
+     * @param parameters weights and biases of each layer to write
+     * @param baseName name of the base file, in the same directory
+     * @param file file to write to
+     * @throws IOException if file cannot be written
+     */
+    static void write(List<List<float[]>> base, List<List<float[]>> parameters, String baseName, File file) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(baseName);
+
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(out, deflater, BUFFER_SIZE), BUFFER_SIZE));
+            data.writeInt(parameters.size());
+            for (int l = 0; l < parameters.size(); l++) {
+                final List<float[]> layerParameters = parameters.get(l);
+                data.writeInt(layerParameters.size());
+                for (int a = 0; a < layerParameters.size(); a++) {
+                    final float[] baseValues = base.get(l).get(a);
+                    final float[] values = layerParameters.get(a);
+
+                    int changed = 0;
+                    for (int i = 0; i < values.length; i++) {
+                        if (Float.floatToRawIntBits(values[i]) != Float.floatToRawIntBits(baseValues[i])) changed++;
+                    }
+                    data.writeInt(values.length);
+
+                    if (changed <= values.length / 2) {
+                        data.writeByte(SPARSE);
+                        data.writeInt(changed);
+                        int prev = -1;
+                        for (int i = 0; i < values.length; i++) {
+                            if (Float.floatToRawIntBits(values[i]) != Float.floatToRawIntBits(baseValues[i])) {
+                                data.writeInt(i - prev);
+                                data.writeFloat(values[i]);
+                                prev = i;
+                            }
+                        }
+                    } else {
+                        data.writeByte(XOR);
+                        final byte[] plane = new byte[values.length];
+                        for (int shift = 24; shift >= 0; shift -= 8) {
+                            for (int i = 0; i < values.length; i++) {
+                                plane[i] = (byte) ((Float.floatToRawIntBits(values[i]) ^ Float.floatToRawIntBits(baseValues[i])) >>> shift);
+                            }
+                            data.write(plane);
+                        }
+                    }
+                }
+            }
+            data.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns true if file starts with magic number of this format.
+     *
+     * @param file file to check
+     * @return true if file is delta network file
+     * @throws IOException if file cannot be read
+     */
+    static boolean isDeltaModel(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads neural network from base file, and replaces weights and biases
+     * with changed values from delta file.
+     *
+     * @param file delta network file
+     * @return neural network with weights from delta file
+     * @throws IOException if delta or base file cannot be read
+     * @throws DeepNettsException if file is not a valid delta file, or base file is missing
+     */
+    static NeuralNetwork<?> read(File file) throws IOException {
+        final Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC) {
+                throw new DeepNettsException("Not a Deep Netts delta network file: " + file);
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new DeepNettsException("Unsupported delta network file version " + version + " in file " + file);
+            }
+
+            final File baseFile = new File(file.getAbsoluteFile().getParentFile(), in.readUTF());
+            if (!baseFile.isFile()) {
+                throw new DeepNettsException("Base network file " + baseFile + " of delta file " + file + " not found");
+            }
+            final NeuralNetwork<?> neuralNet = BinaryModel.read(baseFile);
+
+            final DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE), BUFFER_SIZE));
+            final List<AbstractLayer> layers = neuralNet.getLayers();
+            if (data.readInt() != layers.size()) {
+                throw new DeepNettsException("Number of layers in delta file " + file + " does not match base network");
+            }
+            for (AbstractLayer layer : layers) {
+                final List<float[]> layerParameters = LayerSpec.parameters(layer);
+                if (data.readInt() != layerParameters.size()) {
+                    throw new DeepNettsException("Weights in delta file " + file + " do not match base network in layer " + layer);
+                }
+                for (float[] values : layerParameters) {
+                    if (data.readInt() != values.length) {
+                        throw new DeepNettsException("Weights in delta file " + file + " do not match base network in layer " + layer);
+                    }
+                    final int encoding = data.readByte();
+                    if (encoding == SPARSE) {
+                        readSparse(data, values, file);
+                    } else if (encoding == XOR) {
+                        readXor(data, values);
+                    } else {
+                        throw new DeepNettsException("Invalid weight encoding " + encoding + " in delta file " + file);
+                    }
+                }
+            }
+            return neuralNet;
+        } catch (EOFException ex) {
+            throw new DeepNettsException("Delta network file is truncated: " + file, ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void readSparse(DataInputStream data, float[] values, File file) throws IOException {
+        final int changed = data.readInt();
+        if (changed < 0 || changed > values.length) {
+            throw new DeepNettsException("Invalid number of changed weights in delta file " + file);
+        }
+        int index = -1;
+        for (int c = 0; c < changed; c++) {
+            final int distance = data.readInt();
+            if (distance <= 0 || distance >= values.length - index) {
+                throw new DeepNettsException("Invalid weight index in delta file " + file);
+            }
+            index += distance;
+            values[index] = data.readFloat();
+        }
+    }
+
+    private static void readXor(DataInputStream data, float[] values) throws IOException {
+        final int[] bits = new int[values.length];
+        final byte[] plane = new byte[values.length];
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            data.readFully(plane);
+            for (int i = 0; i < values.length; i++) {
+                bits[i] |= (plane[i] & 0xFF) << shift;
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Float.intBitsToFloat(Float.floatToRawIntBits(values[i]) ^ bits[i]);
+        }
+    }
+
+}
@@ -21,35 +21,25 @@
 
 package deepnetts.util;
 
-import deepnetts.net.layers.activation.ActivationType;
-import deepnetts.net.layers.AbstractLayer;
 import deepnetts.net.ConvolutionalNetwork;
 import deepnetts.net.FeedForwardNetwork;
-import deepnetts.net.NetworkType;
-import deepnetts.net.loss.CrossEntropyLoss;
-import deepnetts.net.loss.MeanSquaredErrorLoss;
 import deepnetts.net.NeuralNetwork;
-import deepnetts.net.layers.ConvolutionalLayer;
-import deepnetts.net.layers.FullyConnectedLayer;
-import deepnetts.net.layers.InputLayer;
-import deepnetts.net.layers.LayerType;
-import deepnetts.net.layers.MaxPoolingLayer;
-import deepnetts.net.layers.OutputLayer;
-import deepnetts.net.layers.SoftmaxOutputLayer;
-import deepnetts.net.loss.LossType;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.List;
-import org.json.JSONArray;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import org.json.JSONObject;
 
 /**
@@ -72,6 +62,7 @@ public class FileIO {
      * @param neuralNet neural network to save
      * @param fileName name of the file
      * @throws IOException if something goes wrong
+     * @see #writeToBinaryFile(NeuralNetwork, String)
      */
     public static void writeToFile(NeuralNetwork neuralNet, String fileName) throws IOException {
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
@@ -79,250 +70,171 @@ public class FileIO {
         }
     }
 
+    /**
+     * Writes specified neural network to file with specified name, in binary
+     * format which contains network architecture and weights, without training
+     * state and Java serialization. Files in this format are smaller and read
+     * faster than serialized networks, and both are read by createFromFile.
+     *
+     * @param neuralNet neural network to save
+     * @param fileName name of the file
+     * @throws IOException if something goes wrong
+     * @see BinaryModel
+     */
+    public static void writeToBinaryFile(NeuralNetwork<?> neuralNet, String fileName) throws IOException {
+        BinaryModel.write(neuralNet, new File(fileName), false);
+    }
+
+    /**
+     * Writes specified neural network to file for inference only. Network
+     * read from this file is frozen, and it holds only weights, biases and
+     * activation functions, without buffers used for training.
+     *
+     * @param neuralNet neural network to export
+     * @param fileName name of the file
+     * @throws IOException if something goes wrong
+     * @see NeuralNetwork#freeze()
+     */
+    public static void writeForInference(NeuralNetwork<?> neuralNet, String fileName) throws IOException {
+        BinaryModel.write(neuralNet, new File(fileName), true);
+    }
+
+    /**
+     * Writes specified neural network to JSON file with specified name, with
+     * architecture, weights and biases. JSON is written as a stream, without
+     * creating the whole document in memory.
+     *
+     * @param neuralNet neural network to save
+     * @param fileName name of the file
+     * @throws IOException if something goes wrong
+     */
     public static void writeToFileAsJson(NeuralNetwork neuralNet, String fileName) throws IOException {
-        String jsonStr = toJson(neuralNet);
-        try (PrintWriter pw = new PrintWriter(new File(fileName))) {
-            pw.print(jsonStr);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8))) {
+            JsonModel.write(neuralNet, writer);
         }
     }
 
+    /**
+     * Reads neural network from binary file, or object serialized to file by
+     * {@link #writeToFile(NeuralNetwork, String)}.
+     *
+     * @param <T> type of the object in file
+     * @param fileName name of the file
+     * @param clazz class of the object in file
+     * @return neural network or object from file
+     * @throws IOException if file cannot be read
+     * @throws ClassNotFoundException if class of serialized object is not found
+     */
     public static <T> T createFromFile(String fileName, Class<T> clazz) throws IOException, ClassNotFoundException {
+        final File file = new File(fileName);
+        if (BinaryModel.isBinaryModel(file)) {
+            return clazz.cast(BinaryModel.read(file));
+        }
+        if (DeltaModel.isDeltaModel(file)) {
+            return clazz.cast(DeltaModel.read(file));
+        }
+
         T neuralNet;
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(fileName))) {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
             neuralNet = clazz.cast(ois.readObject()) ;
         }
         return neuralNet;
     }
 
+    /**
+     * Reads neural network from binary file, delta training snapshot, or
+     * network serialized to file by {@link #writeToFile(NeuralNetwork, String)}.
+     *
+     * @param file network file
+     * @return neural network from file
+     * @throws IOException if file cannot be read
+     * @throws ClassNotFoundException if class of serialized network is not found
+     */
     public static NeuralNetwork createFromFile(File file) throws IOException, ClassNotFoundException {
+        if (BinaryModel.isBinaryModel(file)) {
+            return BinaryModel.read(file);
+        }
+        if (DeltaModel.isDeltaModel(file)) {
+            return DeltaModel.read(file);
+        }
+
         NeuralNetwork nnet;
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            nnet = (ConvolutionalNetwork) ois.readObject();
+            nnet = (NeuralNetwork) ois.readObject();
         }
         return nnet;
     }
 
-
     /**
-     * Returns JSON representation of specified neural network object.
-     * TODO: add biases
+     * Reads neural network from file, and freezes it so that it can be used
+     * only for prediction, and uses only memory needed for prediction.
      *
-     * @param nnet
-     * @return
+     * @param file network file
+     * @return frozen neural network from file
+     * @throws IOException if file cannot be read
+     * @throws ClassNotFoundException if class of serialized network is not found
+     * @see NeuralNetwork#freeze()
      */
-    public static String  toJson(NeuralNetwork<?> nnet) {
-        JSONObject json = new JSONObject();
-        JSONArray layers = new JSONArray();
-
-        InputLayer inputLayer= nnet.getInputLayer();
-
-        JSONObject inputLayerJson = new JSONObject();
-        inputLayerJson.put("layerType", LayerType.INPUT.toString());
-        inputLayerJson.put("width", inputLayer.getWidth());
-
-        if (nnet instanceof ConvolutionalNetwork) { // only conv network has this
-            inputLayerJson.put("height", inputLayer.getHeight());
-            inputLayerJson.put("channels", inputLayer.getDepth());
-         }
-        layers.put(inputLayerJson);
-
-        for(AbstractLayer layer : nnet.getLayers()){
-            if (layer instanceof ConvolutionalLayer) {
-                ConvolutionalLayer convLayer = (ConvolutionalLayer)layer;
-                JSONObject convLayerJson = new JSONObject();
-                convLayerJson.put("layerType", LayerType.CONVOLUTIONAL);
-                convLayerJson.put("filterWidth", convLayer.getFilterWidth());
-                convLayerJson.put("filterHeight", convLayer.getFilterHeight());
-                convLayerJson.put("channels", convLayer.getDepth()); // channels
-                convLayerJson.put("stride", convLayer.getStride());
-                convLayerJson.put("activation", convLayer.getActivationType());
-                JSONArray filters = new JSONArray();
-                for(Tensor filter: convLayer.getFilters()) {
-                    filters.put(filter);
-                }
-                //convLayerJson.put("biases", convLayer.getBiases());
-
-                //convLayerJson.put("filters",filters);
-
-                layers.put(convLayerJson);
-            } else if (layer instanceof MaxPoolingLayer) {
-                MaxPoolingLayer maxPooling= (MaxPoolingLayer)layer;
-                JSONObject poolLayerJson = new JSONObject();
-                poolLayerJson.put("layerType", LayerType.MAXPOOLING);
-                poolLayerJson.put("filterWidth", maxPooling.getFilterWidth());
-                poolLayerJson.put("filterHeight", maxPooling.getFilterHeight());
-                poolLayerJson.put("stride", maxPooling.getStride());
-                layers.put(poolLayerJson);
-            } else if (layer instanceof FullyConnectedLayer) {
-                JSONObject fullyConnLayerJson = new JSONObject();
-                fullyConnLayerJson.put("layerType", LayerType.FULLY_CONNECTED);
-                fullyConnLayerJson.put("width", layer.getWidth());
-                fullyConnLayerJson.put("activation", layer.getActivationType());
-                //fullyConnLayerJson.put("weights", layer.getWeights());
-                //fullyConnLayerJson.put("biases", layer.getBiases());
-                layers.put(fullyConnLayerJson);
-            } else if (layer instanceof SoftmaxOutputLayer) {
-                JSONObject outputLayerJson = new JSONObject();
-                outputLayerJson.put("layerType", LayerType.OUTPUT);
-                outputLayerJson.put("width", layer.getWidth());
-                outputLayerJson.put("activation", layer.getActivationType());
-                //outputLayerJson.put("weights", layer.getWeights());
-                //outputLayerJson.put("biases", layer.getBiases());
-                layers.put(outputLayerJson);
-            } else if (layer instanceof OutputLayer) {
-                JSONObject outputLayerJson = new JSONObject();
-                outputLayerJson.put("layerType", LayerType.OUTPUT);
-                outputLayerJson.put("width", layer.getWidth());
-                outputLayerJson.put("activation", layer.getActivationType());
-                //outputLayerJson.put("weights", layer.getWeights());
-                //outputLayerJson.put("biases", layer.getBiases());
-                layers.put(outputLayerJson);
-            }
+    public static NeuralNetwork<?> createForInference(File file) throws IOException, ClassNotFoundException {
+        final NeuralNetwork<?> nnet = createFromFile(file);
+        if (!nnet.isFrozen()) {
+            nnet.freeze();
         }
+        return nnet;
+    }
 
-        json.put("networkType", NetworkType.Of(nnet.getClass()));
-        json.put("layers", layers);
-        json.put("lossFunction", LossType.of(nnet.getLossFunction().getClass()));
 
-        return json.toString();
+    /**
+     * Returns JSON representation of specified neural network, with
+     * architecture, weights and biases.
+     * For large networks use {@link #writeToFileAsJson(NeuralNetwork, String)},
+     * which writes JSON directly to file.
+     *
+     * @param nnet neural network
+     * @return JSON representation of neural network
+     */
+    public static String  toJson(NeuralNetwork<?> nnet) {
+        final StringWriter writer = new StringWriter();
+        try {
+            JsonModel.write(nnet, writer);
+        } catch (IOException ex) { // never thrown by string writer
+            throw new DeepNettsException(ex);
+        }
+        return writer.toString();
     }
 
      public static NeuralNetwork createFromJson(String jsonStr) {
-        JSONObject obj = new JSONObject(jsonStr);
-        return createFromJson(obj);
+        try {
+            return JsonModel.read(new StringReader(jsonStr));
+        } catch (IOException ex) { // never thrown by string reader
+            throw new DeepNettsException(ex);
+        }
      }
 
+    /**
+     * Reads neural network from JSON file, with weights if they are present
+     * in file. File is read as a stream, without reading the whole document
+     * in memory.
+     *
+     * @param file JSON file
+     * @return neural network from file
+     * @throws IOException if file cannot be read
+     */
      public static NeuralNetwork createFromJson(File file) throws FileNotFoundException, IOException {
-         BufferedReader br = new BufferedReader(new FileReader(file));
-         StringBuilder sb = new StringBuilder();
-         String line;
-         while((line = br.readLine()) != null) {
-             sb.append(line).append(System.lineSeparator());
+         try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+             return JsonModel.read(reader);
          }
-         return createFromJson(sb.toString());
      }
 
     public static NeuralNetwork createFromJson(JSONObject jsonObj) {
-       String networkType = jsonObj.getString("networkType");
-
-       if (networkType.equals(NetworkType.FEEDFORWARD.toString())) {
-           return createFeedForwardNetworkFromJson(jsonObj);
-       } else if (networkType.equals(NetworkType.CONVOLUTIONAL.toString())) {
-           return createConvolutionalNetworkFromJson(jsonObj);
-       }
-
-       throw new RuntimeException("Unknown network type: "+networkType);
+        return createFromJson(jsonObj.toString());
     }
 
     public static ConvolutionalNetwork createConvolutionalNetworkFromJson(JSONObject jsonObj) {
-        JSONArray jsonLayers = jsonObj.getJSONArray("layers");
-
-        // switch network type here and use corresponding builder
-        ConvolutionalNetwork.Builder builder = new ConvolutionalNetwork.Builder();
-
-        int width, height, channels, filterWidth, filterHeight, stride;
-        String activation;
-
-        for(Object jsonLayerObject : jsonLayers) {
-            JSONObject layerObj = (JSONObject)jsonLayerObject;
-
-            switch(LayerType.valueOf( layerObj.getString("layerType").toUpperCase() ) ) {
-                case INPUT :
-                        width = layerObj.getInt("width");
-                        height = layerObj.getInt("height");
-                        channels = layerObj.getInt("channels");
-                        builder.addInputLayer(width, height, channels);
-                break;
-                case CONVOLUTIONAL :
-                        filterWidth = layerObj.getInt("filterWidth");
-                        filterHeight = layerObj.getInt("filterHeight");
-                        stride = layerObj.getInt("stride");
-                        channels = layerObj.getInt("channels");
-                        activation = layerObj.getString("activation").toUpperCase();
-
-                        builder.addConvolutionalLayer(filterWidth, filterHeight, channels, stride, ActivationType.valueOf(activation));
-                break;
-                case MAXPOOLING :
-                        filterWidth = layerObj.getInt("filterWidth");
-                        filterHeight = layerObj.getInt("filterHeight");
-                        stride = layerObj.getInt("stride");
-                        builder.addMaxPoolingLayer(filterWidth, filterHeight, stride);
-                break;
-                case FULLY_CONNECTED :
-                        width = layerObj.getInt("width");
-                        activation = layerObj.getString("activation").toUpperCase();
-                        builder.addFullyConnectedLayer(width, ActivationType.valueOf(activation));
-                break;
-                case OUTPUT :
-                        width = layerObj.getInt("width");
-                        activation = layerObj.getString("activation").toUpperCase();
-
-                        if (activation.equals(ActivationType.SIGMOID.toString())) {
-                            builder.addOutputLayer(width, OutputLayer.class);
-                            builder.lossFunction(MeanSquaredErrorLoss.class);
-                        } else if (activation.equals(ActivationType.SOFTMAX.toString())) {
-                            builder.addOutputLayer(width, SoftmaxOutputLayer.class);
-                            builder.lossFunction(CrossEntropyLoss.class);
-                        }
-                break;
-            }
-        }
-
-        // set loss function
-        String lossFunction = jsonObj.getString("lossFunction");
-        builder.lossFunction(LossType.valueOf(lossFunction));
-
-        ConvolutionalNetwork neuralNet = builder.build();
-
-        return neuralNet;
+        return (ConvolutionalNetwork) createFromJson(jsonObj);
     }
 
     public static FeedForwardNetwork createFeedForwardNetworkFromJson(JSONObject jsonObj) {
-        JSONArray jsonLayers = jsonObj.getJSONArray("layers");
-
-        FeedForwardNetwork.Builder builder = new FeedForwardNetwork.Builder();
-
-        List<String> allWeights = new ArrayList<>();
-        List<double[]> allBiases = new ArrayList<>(); // still not implemented
-
-        int width;
-        String activation;
-
-        for(Object jsonLayerObject : jsonLayers) {
-            JSONObject layerObj = (JSONObject)jsonLayerObject;
-
-            switch(LayerType.valueOf( layerObj.getString("layerType").toUpperCase() ) ) {
-                case INPUT :
-                        width = layerObj.getInt("width");
-                        builder.addInputLayer(width);
-                break;
-                case FULLY_CONNECTED :
-                        width = layerObj.getInt("width");
-                        activation = layerObj.getString("activation").toUpperCase();
-                         if (layerObj.has("weights")) {
-                            String weights = layerObj.getString("weights");
-                            allWeights.add(weights);
-                         }
-                        builder.addFullyConnectedLayer(width, ActivationType.valueOf(activation));
-                break;
-                case OUTPUT :
-                        width = layerObj.getInt("width");
-                        activation = layerObj.getString("activation").toUpperCase();
-                        builder.addOutputLayer(width, ActivationType.valueOf(activation));
-                        if (layerObj.has("weights")) {
-                            String weights = layerObj.getString("weights");
-                            allWeights.add(weights);
-                        }
-                break;
-            }
-        }
-
-        // set loss function
-        String lossFunction = jsonObj.getString("lossFunction");
-        builder.lossFunction(LossType.valueOf(lossFunction));
-
-        FeedForwardNetwork neuralNet = builder.build();
-
-        return neuralNet;
+        return (FeedForwardNetwork) createFromJson(jsonObj);
     }
 }
\ No newline at end of file
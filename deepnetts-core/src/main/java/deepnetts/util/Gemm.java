@@ -0,0 +1,246 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+package deepnetts.util;
+
+/**
+ * General matrix multiplication (GEMM) for float matrices stored in row major
+ * order in plain float arrays.
+ *
+ * Matrices are given as array, offset of the first element and leading
+ * dimension (distance between two consecutive rows), so kernels can work
+ * directly on the slices of tensor values without copying.
+ * Multiplication is cache blocked (panels of KC rows and NC columns of the
+ * right hand matrix), and register tiled by unrolling four steps of the inner
+ * dimension, which keeps the innermost loop simple enough for the JIT to
+ * vectorize it.
+ *
+ * @author Zoran Sevarac
+ */
+public final class Gemm {
+
+    /**
+     * Number of rows of the right hand matrix (inner dimension) in one block
+     */
+    private static final int KC = 256;
+
+    /**
+     * Number of columns of the right hand and result matrix in one block
+     */
+    private static final int NC = 1024;
+
+    /**
+     * Prevent instantiation of this class.
+     */
+    private Gemm() { }
+
+    /**
+     * Calculates C += A * B, where A is m x k, B is k x n and C is m x n
+     * matrix.
+     *
+     * @param m number of rows of matrices A and C
+     * @param n number of columns of matrices B and C
+     * @param k number of columns of matrix A and rows of matrix B
+     * @param a values of matrix A
+     * @param aOffset position of the first element of A
+     * @param lda leading dimension (row length) of A
+     * @param b values of matrix B
+     * @param bOffset position of the first element of B
+     * @param ldb leading dimension (row length) of B
+     * @param c values of matrix C, results are added to existing values
+     * @param cOffset position of the first element of C
+     * @param ldc leading dimension (row length) of C
+     */
+    public static void sgemm(final int m, final int n, final int k,
+                             final float[] a, final int aOffset, final int lda,
+                             final float[] b, final int bOffset, final int ldb,
+                             final float[] c, final int cOffset, final int ldc) {
+
+        for (int kb = 0; kb < k; kb += KC) {
+            final int kEnd = Math.min(k, kb + KC);
+
+            for (int nb = 0; nb < n; nb += NC) {
+                final int nEnd = Math.min(n, nb + NC);
+
+                for (int i = 0; i < m; i++) {
+                    final int aRow = aOffset + i * lda;
+                    final int cRow = cOffset + i * ldc;
+                    int p = kb;
+
+                    // four rows of B (and four values of A kept in registers) per pass through C row
+                    for (; p + 3 < kEnd; p += 4) {
+                        final float a0 = a[aRow + p];
+                        final float a1 = a[aRow + p + 1];
+                        final float a2 = a[aRow + p + 2];
+                        final float a3 = a[aRow + p + 3];
+                        final int b0 = bOffset + p * ldb;
+                        final int b1 = b0 + ldb;
+                        final int b2 = b1 + ldb;
+                        final int b3 = b2 + ldb;
+
+                        for (int j = nb; j < nEnd; j++) {
+                            c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+                        }
+                    }
+
+                    // remaining rows of B in this block
+                    for (; p < kEnd; p++) {
+                        final float a0 = a[aRow + p];
+                        final int b0 = bOffset + p * ldb;
+
+                        for (int j = nb; j < nEnd; j++) {
+                            c[cRow + j] += a0 * b[b0 + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates C += A<sup>T</sup> * B, where A is k x m, B is k x n and C is
+     * m x n matrix.
+     *
+     * @param m number of columns of matrix A and rows of matrix C
+     * @param n number of columns of matrices B and C
+     * @param k number of rows of matrices A and B
+     * @param a values of matrix A
+     * @param aOffset position of the first element of A
+     * @param lda leading dimension (row length) of A
+     * @param b values of matrix B
+     * @param bOffset position of the first element of B
+     * @param ldb leading dimension (row length) of B
+     * @param c values of matrix C, results are added to existing values
+     * @param cOffset position of the first element of C
+     * @param ldc leading dimension (row length) of C
+     */
+    public static void sgemmTransA(final int m, final int n, final int k,
+                                   final float[] a, final int aOffset, final int lda,
+                                   final float[] b, final int bOffset, final int ldb,
+                                   final float[] c, final int cOffset, final int ldc) {
+
+        for (int kb = 0; kb < k; kb += KC) {
+            final int kEnd = Math.min(k, kb + KC);
+
+            for (int nb = 0; nb < n; nb += NC) {
+                final int nEnd = Math.min(n, nb + NC);
+
+                for (int i = 0; i < m; i++) {
+                    final int aCol = aOffset + i;
+                    final int cRow = cOffset + i * ldc;
+                    int p = kb;
+
+                    for (; p + 3 < kEnd; p += 4) {
+                        final float a0 = a[aCol + p * lda];
+                        final float a1 = a[aCol + (p + 1) * lda];
+                        final float a2 = a[aCol + (p + 2) * lda];
+                        final float a3 = a[aCol + (p + 3) * lda];
+                        final int b0 = bOffset + p * ldb;
+                        final int b1 = b0 + ldb;
+                        final int b2 = b1 + ldb;
+                        final int b3 = b2 + ldb;
+
+                        for (int j = nb; j < nEnd; j++) {
+                            c[cRow + j] += a0 * b[b0 + j] + a1 * b[b1 + j] + a2 * b[b2 + j] + a3 * b[b3 + j];
+                        }
+                    }
+
+                    for (; p < kEnd; p++) {
+                        final float a0 = a[aCol + p * lda];
+                        final int b0 = bOffset + p * ldb;
+
+                        for (int j = nb; j < nEnd; j++) {
+                            c[cRow + j] += a0 * b[b0 + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates C += A * B<sup>T</sup>, where A is m x k, B is n x k and C is
+     * m x n matrix. Each result is a dot product of one row of A and one row of
+     * B, which are both read sequentially.
+     *
+     * @param m number of rows of matrices A and C
+     * @param n number of rows of matrix B and columns of matrix C
+     * @param k number of columns of matrices A and B
+     * @param a values of matrix A
+     * @param aOffset position of the first element of A
+     * @param lda leading dimension (row length) of A
+     * @param b values of matrix B
+     * @param bOffset position of the first element of B
+     * @param ldb leading dimension (row length) of B
+     * @param c values of matrix C, results are added to existing values
+     * @param cOffset position of the first element of C
+     * @param ldc leading dimension (row length) of C
+     */
+    public static void sgemmTransB(final int m, final int n, final int k,
+                                   final float[] a, final int aOffset, final int lda,
+                                   final float[] b, final int bOffset, final int ldb,
+                                   final float[] c, final int cOffset, final int ldc) {
+
+        for (int kb = 0; kb < k; kb += KC) {
+            final int kEnd = Math.min(k, kb + KC);
+
+            for (int i = 0; i < m; i++) {
+                final int aRow = aOffset + i * lda;
+                final int cRow = cOffset + i * ldc;
+                int j = 0;
+
+                // four rows of B (four dot products) per pass through A row
+                for (; j + 3 < n; j += 4) {
+                    final int b0 = bOffset + j * ldb;
+                    final int b1 = b0 + ldb;
+                    final int b2 = b1 + ldb;
+                    final int b3 = b2 + ldb;
+                    float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+                    for (int p = kb; p < kEnd; p++) {
+                        final float av = a[aRow + p];
+                        s0 += av * b[b0 + p];
+                        s1 += av * b[b1 + p];
+                        s2 += av * b[b2 + p];
+                        s3 += av * b[b3 + p];
+                    }
+
+                    c[cRow + j] += s0;
+                    c[cRow + j + 1] += s1;
+                    c[cRow + j + 2] += s2;
+                    c[cRow + j + 3] += s3;
+                }
+
+                for (; j < n; j++) {
+                    final int b0 = bOffset + j * ldb;
+                    float s0 = 0;
+
+                    for (int p = kb; p < kEnd; p++) {
+                        s0 += a[aRow + p] * b[b0 + p];
+                    }
+
+                    c[cRow + j] += s0;
+                }
+            }
+        }
+    }
+
+}
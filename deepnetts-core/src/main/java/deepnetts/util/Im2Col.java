@@ -0,0 +1,179 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+package deepnetts.util;
+
+/**
+ * Lowering of convolution to matrix multiplication (im2col).
+ *
+ * Input is a 3D tensor in the layout used by {@link Tensor}, [depth][rows][cols].
+ * Each column of the resulting matrix contains all input values covered by
+ * the filter at one output position, and each row corresponds to a single
+ * filter weight, ordered same as values in filter tensors [depth][rows][cols].
+ * Positions that fall outside of the input are zero padded.
+ * Convolution of all channels then becomes a single matrix multiplication of
+ * filters matrix [channels x filterSize] with this matrix.
+ *
+ * @see Gemm
+ * @author Zoran Sevarac
+ */
+public final class Im2Col {
+
+    /**
+     * Prevent instantiation of this class.
+     */
+    private Im2Col() { }
+
+    /**
+     * Copies input values to column matrix.
+     *
+     * @param in input values
+     * @param inOffset position of the first input value
+     * @param inRows input rows (height)
+     * @param inCols input columns (width)
+     * @param depth input depth, which is also filter depth
+     * @param filterHeight filter height
+     * @param filterWidth filter width
+     * @param padTop rows of zero padding above the input, the offset of the filter center
+     * @param padLeft columns of zero padding left of the input, the offset of the filter center
+     * @param stride filter step
+     * @param outRows number of output rows
+     * @param outCols number of output columns
+     * @param col column matrix with (filterHeight * filterWidth * depth) rows and (outRows * outCols) columns
+     */
+    public static void im2col(final float[] in, final int inOffset, final int inRows, final int inCols, final int depth,
+                              final int filterHeight, final int filterWidth, final int padTop, final int padLeft, final int stride,
+                              final int outRows, final int outCols, final float[] col) {
+        final int outSize = outRows * outCols;
+        int colRow = 0;
+
+        for (int fz = 0; fz < depth; fz++) {
+            final int inChannel = inOffset + fz * inRows * inCols;
+
+            for (int fr = 0; fr < filterHeight; fr++) {
+                for (int fc = 0; fc < filterWidth; fc++) {
+                    final int colOffset = colRow * outSize;
+                    // range of output columns which map to valid input columns for this filter column
+                    final int firstCol = firstValid(fc - padLeft, stride);
+                    final int endCol = endValid(fc - padLeft, stride, inCols, outCols);
+
+                    for (int outRow = 0; outRow < outRows; outRow++) {
+                        final int dst = colOffset + outRow * outCols;
+                        final int inRow = outRow * stride + fr - padTop;
+
+                        if (inRow < 0 || inRow >= inRows || firstCol >= endCol) {
+                            fill(col, dst, dst + outCols);
+                            continue;
+                        }
+
+                        fill(col, dst, dst + firstCol);
+                        final int src = inChannel + inRow * inCols + fc - padLeft;
+                        if (stride == 1) {
+                            System.arraycopy(in, src + firstCol, col, dst + firstCol, endCol - firstCol);
+                        } else {
+                            for (int outCol = firstCol; outCol < endCol; outCol++) {
+                                col[dst + outCol] = in[src + outCol * stride];
+                            }
+                        }
+                        fill(col, dst + endCol, dst + outCols);
+                    }
+                    colRow++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reverse of im2col: adds values from column matrix to the corresponding
+     * input positions. Values that correspond to padding are ignored.
+     * Used to propagate deltas from convolution outputs back to its inputs.
+     *
+     * @param col column matrix with (filterHeight * filterWidth * depth) rows and (outRows * outCols) columns
+     * @param in input values, results are added to existing values
+     * @param inOffset position of the first input value
+     * @param inRows input rows (height)
+     * @param inCols input columns (width)
+     * @param depth input depth, which is also filter depth
+     * @param filterHeight filter height
+     * @param filterWidth filter width
+     * @param padTop rows of zero padding above the input, the offset of the filter center
+     * @param padLeft columns of zero padding left of the input, the offset of the filter center
+     * @param stride filter step
+     * @param outRows number of output rows
+     * @param outCols number of output columns
+     */
+    public static void col2im(final float[] col, final float[] in, final int inOffset, final int inRows, final int inCols, final int depth,
+                              final int filterHeight, final int filterWidth, final int padTop, final int padLeft, final int stride,
+                              final int outRows, final int outCols) {
+        final int outSize = outRows * outCols;
+        int colRow = 0;
+
+        for (int fz = 0; fz < depth; fz++) {
+            final int inChannel = inOffset + fz * inRows * inCols;
+
+            for (int fr = 0; fr < filterHeight; fr++) {
+                for (int fc = 0; fc < filterWidth; fc++) {
+                    final int colOffset = colRow * outSize;
+                    final int firstCol = firstValid(fc - padLeft, stride);
+                    final int endCol = endValid(fc - padLeft, stride, inCols, outCols);
+
+                    for (int outRow = 0; outRow < outRows; outRow++) {
+                        final int inRow = outRow * stride + fr - padTop;
+                        if (inRow < 0 || inRow >= inRows) {
+                            continue;
+                        }
+
+                        final int src = colOffset + outRow * outCols;
+                        final int dst = inChannel + inRow * inCols + fc - padLeft;
+                        for (int outCol = firstCol; outCol < endCol; outCol++) {
+                            in[dst + outCol * stride] += col[src + outCol];
+                        }
+                    }
+                    colRow++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns first output position i for which i * stride + shift is not negative.
+     */
+    private static int firstValid(final int shift, final int stride) {
+        if (shift >= 0) return 0;
+        return (-shift + stride - 1) / stride;
+    }
+
+    /**
+     * Returns first output position i (bounded by outSize) for which i * stride + shift is out of input.
+     */
+    private static int endValid(final int shift, final int stride, final int inSize, final int outSize) {
+        final int last = inSize - 1 - shift;   // last valid i * stride
+        if (last < 0) return 0;
+        return Math.min(outSize, last / stride + 1);
+    }
+
+    private static void fill(final float[] arr, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            arr[i] = 0;
+        }
+    }
+
+}
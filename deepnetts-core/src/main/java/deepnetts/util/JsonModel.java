@@ -0,0 +1,491 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.NetworkType;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.LayerType;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JSON representation of neural network, with architecture, weights and
+ * biases, which is written and read as a stream, so large networks do not
+ * need the whole document in memory.
+ *
+ * Document has the same structure as architecture only JSON written by
+ * previous versions, with added weights and biases arrays, and each layer is
+ * written in a separate line, so documents can be compared line by line:
+ * <pre>
+ * {"networkType":"CONVOLUTIONAL","lossFunction":"CROSS_ENTROPY","outputLabels":["a","b"],"layers":[
+ * {"layerType":"INPUT","width":28,"height":28,"channels":1},
+ * {"layerType":"CONVOLUTIONAL","filterWidth":3,"filterHeight":3,"channels":6,"stride":1,"activation":"RELU","filters":[[...],...],"biases":[...]},
+ * {"layerType":"MAXPOOLING","filterWidth":2,"filterHeight":2,"stride":2},
+ * {"layerType":"FULLY_CONNECTED","width":30,"activation":"RELU","weights":[...],"biases":[...]},
+ * {"layerType":"OUTPUT","width":2,"activation":"SOFTMAX","weights":[...],"biases":[...]}
+ * ]}
+ * </pre>
+ * Weights are written in the same order as values of weight tensors, using
+ * the shortest decimal representation which is read back to the same float.
+ * Layers without weights are initialized randomly when read.
+ *
+ * @see FileIO
+ * @author Zoran Sevarac
+ */
+final class JsonModel {
+
+    private JsonModel() { }
+
+    /**
+     * Writes specified network as JSON to the specified writer.
+     *
+     * @param neuralNet neural network to write
+     * @param out writer to write to, which should be buffered
+     * @throws IOException if writing fails
+     */
+    static void write(NeuralNetwork<?> neuralNet, Writer out) throws IOException {
+        out.write("{\"networkType\":");
+        writeString(out, NetworkType.Of(neuralNet.getClass()).toString());
+        if (neuralNet.getLossFunction() != null) {
+            out.write(",\"lossFunction\":");
+            writeString(out, LossType.of(neuralNet.getLossFunction().getClass()).toString());
+        }
+        if (neuralNet.getLabel() != null) {
+            out.write(",\"label\":");
+            writeString(out, neuralNet.getLabel());
+        }
+        if (neuralNet.getOutputLabels() != null) {
+            out.write(",\"outputLabels\":[");
+            final String[] labels = neuralNet.getOutputLabels();
+            for (int i = 0; i < labels.length; i++) {
+                if (i > 0) out.write(',');
+                writeString(out, labels[i]);
+            }
+            out.write(']');
+        }
+
+        out.write(",\"layers\":[");
+        final List<AbstractLayer> layers = neuralNet.getLayers();
+        for (int l = 0; l < layers.size(); l++) {
+            out.write(l == 0 ? "\n" : ",\n");
+            writeLayer(out, layers.get(l));
+        }
+        out.write("\n]}\n");
+        out.flush();
+    }
+
+    private static void writeLayer(Writer out, AbstractLayer layer) throws IOException {
+        final LayerSpec spec = LayerSpec.of(layer);
+        out.write("{\"layerType\":");
+        writeString(out, spec.type.toString());
+
+        switch (spec.type) {
+            case INPUT:
+                writeInt(out, "width", spec.width);
+                writeInt(out, "height", spec.height);
+                writeInt(out, "channels", spec.depth);
+                break;
+            case CONVOLUTIONAL:
+            case MAXPOOLING:
+                writeInt(out, "filterWidth", spec.filterWidth);
+                writeInt(out, "filterHeight", spec.filterHeight);
+                if (spec.type == LayerType.CONVOLUTIONAL) writeInt(out, "channels", spec.depth);
+                writeInt(out, "stride", spec.stride);
+                break;
+            default:
+                writeInt(out, "width", spec.width);
+        }
+
+        if (spec.activation != null) {
+            out.write(",\"activation\":");
+            writeString(out, spec.activation.toString());
+        }
+
+        final List<float[]> parameters = LayerSpec.parameters(layer);
+        if (!parameters.isEmpty()) {
+            final int weightArrays = parameters.size() - 1; // last array are biases
+            if (spec.type == LayerType.CONVOLUTIONAL) {
+                out.write(",\"filters\":[");
+                for (int i = 0; i < weightArrays; i++) {
+                    if (i > 0) out.write(',');
+                    writeFloats(out, parameters.get(i));
+                }
+                out.write(']');
+            } else {
+                out.write(",\"weights\":");
+                writeFloats(out, parameters.get(0));
+            }
+            out.write(",\"biases\":");
+            writeFloats(out, parameters.get(weightArrays));
+        }
+        out.write('}');
+    }
+
+    private static void writeInt(Writer out, String name, int value) throws IOException {
+        out.write(",\"");
+        out.write(name);
+        out.write("\":");
+        out.write(Integer.toString(value));
+    }
+
+    private static void writeFloats(Writer out, float[] values) throws IOException {
+        out.write('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.write(',');
+            if (Float.isFinite(values[i])) {
+                out.write(Float.toString(values[i]));
+            } else {
+                writeString(out, Float.toString(values[i])); // NaN and Infinity are not valid JSON numbers
+            }
+        }
+        out.write(']');
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int) c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Reads network from JSON document written by {@link #write(NeuralNetwork, Writer)},
+     * or architecture only document written by previous versions.
+     *
+     * @param in reader to read from, which should be buffered
+     * @return neural network with architecture and weights from document
+     * @throws IOException if reading fails
+     * @throws DeepNettsException if document is not valid
+     */
+    static NeuralNetwork<?> read(Reader in) throws IOException {
+        final Parser parser = new Parser(in);
+        NetworkType networkType = null;
+        LossType lossType = null;
+        String label = null;
+        String[] outputLabels = null;
+        final List<LayerSpec> layers = new ArrayList<>();
+        final List<List<float[]>> parameters = new ArrayList<>();
+
+        parser.expect('{');
+        for (String key; (key = parser.nextKey()) != null; ) {
+            switch (key) {
+                case "networkType": networkType = NetworkType.valueOf(parser.readString().toUpperCase()); break;
+                case "lossFunction": lossType = LossType.valueOf(parser.readString().toUpperCase()); break;
+                case "label": label = parser.readString(); break;
+                case "outputLabels":
+                    final List<String> labels = new ArrayList<>();
+                    parser.expect('[');
+                    while (parser.hasNext(']')) {
+                        labels.add(parser.readString());
+                    }
+                    outputLabels = labels.toArray(new String[labels.size()]);
+                    break;
+                case "layers":
+                    parser.expect('[');
+                    while (parser.hasNext(']')) {
+                        final List<float[]> layerParameters = new ArrayList<>();
+                        layers.add(readLayer(parser, layerParameters));
+                        parameters.add(layerParameters);
+                    }
+                    break;
+                default: parser.skipValue();
+            }
+        }
+
+        if (networkType == null) {
+            throw new DeepNettsException("Network type is not specified in JSON");
+        }
+
+        // weights are random only if some layer with weights has none in document
+        boolean randomWeights = false;
+        for (int l = 0; l < layers.size(); l++) {
+            final LayerType type = layers.get(l).type;
+            if (type != LayerType.INPUT && type != LayerType.MAXPOOLING && parameters.get(l).isEmpty()) {
+                randomWeights = true;
+            }
+        }
+
+        final NeuralNetwork<?> neuralNet = LayerSpec.build(networkType, layers, lossType, randomWeights, false);
+        for (int l = 0; l < layers.size(); l++) {
+            if (parameters.get(l).isEmpty()) continue; // keep random weights
+
+            final List<float[]> target = LayerSpec.parameters(neuralNet.getLayers().get(l));
+            final List<float[]> source = parameters.get(l);
+            if (target.size() != source.size()) {
+                throw new DeepNettsException("Number of weight arrays in JSON does not match architecture in layer " + l);
+            }
+            for (int i = 0; i < target.size(); i++) {
+                if (target.get(i).length != source.get(i).length) {
+                    throw new DeepNettsException("Number of weights in JSON does not match architecture in layer " + l
+                                                 + ", expected " + target.get(i).length + " but found " + source.get(i).length);
+                }
+                System.arraycopy(source.get(i), 0, target.get(i), 0, source.get(i).length);
+            }
+        }
+        neuralNet.setOutputLabels(outputLabels);
+        if (label != null) neuralNet.setLabel(label);
+
+        return neuralNet;
+    }
+
+    /**
+     * Reads layer architecture, and adds its weights and biases, if present, to the specified list.
+     */
+    private static LayerSpec readLayer(Parser parser, List<float[]> parameters) throws IOException {
+        final LayerSpec layer = new LayerSpec();
+        float[] weights = null, biases = null;
+        List<float[]> filters = null;
+
+        parser.expect('{');
+        for (String key; (key = parser.nextKey()) != null; ) {
+            switch (key) {
+                case "layerType": layer.type = LayerType.valueOf(parser.readString().toUpperCase()); break;
+                case "activation": layer.activation = ActivationType.valueOf(parser.readString().toUpperCase()); break;
+                case "width": layer.width = parser.readInt(); break;
+                case "height": layer.height = parser.readInt(); break;
+                case "channels": layer.depth = parser.readInt(); break;
+                case "filterWidth": layer.filterWidth = parser.readInt(); break;
+                case "filterHeight": layer.filterHeight = parser.readInt(); break;
+                case "stride": layer.stride = parser.readInt(); break;
+                case "weights": weights = parser.readFloats(); break;
+                case "biases": biases = parser.readFloats(); break;
+                case "filters":
+                    filters = new ArrayList<>();
+                    parser.expect('[');
+                    while (parser.hasNext(']')) {
+                        filters.add(parser.readFloats());
+                    }
+                    break;
+                default: parser.skipValue();
+            }
+        }
+
+        if (layer.type == null) {
+            throw new DeepNettsException("Layer type is not specified in JSON");
+        }
+        if (filters != null) parameters.addAll(filters);
+        if (weights != null) parameters.add(weights);
+        if (biases != null) parameters.add(biases);
+        return layer;
+    }
+
+    /**
+     * Minimal pull parser for JSON, which reads values directly from the
+     * reader, and numbers in arrays directly into float arrays.
+     */
+    private static final class Parser {
+
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private int position, limit;
+        private long offset; // number of chars before buffer, for error messages
+        private final StringBuilder token = new StringBuilder();
+
+        Parser(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Returns next char without consuming it, or -1 at the end.
+         */
+        private int peekChar() throws IOException {
+            if (position == limit) {
+                offset += limit;
+                limit = Math.max(in.read(buffer, 0, buffer.length), 0);
+                position = 0;
+                if (limit == 0) return -1;
+            }
+            return buffer[position];
+        }
+
+        /**
+         * Returns next char which is not whitespace without consuming it, or -1 at the end.
+         */
+        int peek() throws IOException {
+            int c;
+            while ((c = peekChar()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                position++;
+            }
+            return c;
+        }
+
+        private char next() throws IOException {
+            if (peek() < 0) throw error("Unexpected end of JSON");
+            return buffer[position++];
+        }
+
+        /**
+         * Returns next char, including whitespace inside strings.
+         */
+        private char nextChar() throws IOException {
+            if (peekChar() < 0) throw error("Unexpected end of JSON");
+            return buffer[position++];
+        }
+
+        void expect(char expected) throws IOException {
+            final char c = next();
+            if (c != expected) throw error("Expected '" + expected + "' but found '" + c + "'");
+        }
+
+        /**
+         * Consumes separator before next element of array or object, or the
+         * closing bracket if there are no more elements.
+         *
+         * @return true if there is next element
+         */
+        boolean hasNext(char close) throws IOException {
+            int c = peek();
+            if (c == ',') {
+                position++;
+                c = peek();
+            }
+            if (c == close) {
+                position++;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the key of next member of object, or null at the end of object.
+         */
+        String nextKey() throws IOException {
+            if (!hasNext('}')) return null;
+            final String key = readString();
+            expect(':');
+            return key;
+        }
+
+        String readString() throws IOException {
+            if (peek() == 'n') {
+                readToken(); // null
+                return null;
+            }
+            expect('"');
+            token.setLength(0);
+            for (char c; (c = nextChar()) != '"'; ) {
+                if (c == '\\') {
+                    c = nextChar();
+                    switch (c) {
+                        case 'b': c = '\b'; break;
+                        case 'f': c = '\f'; break;
+                        case 'n': c = '\n'; break;
+                        case 'r': c = '\r'; break;
+                        case 't': c = '\t'; break;
+                        case 'u':
+                            final char[] hex = {nextChar(), nextChar(), nextChar(), nextChar()};
+                            c = (char) Integer.parseInt(new String(hex), 16);
+                            break;
+                        default: // quote, backslash and slash stand for themselves
+                    }
+                }
+                token.append(c);
+            }
+            return token.toString();
+        }
+
+        /**
+         * Reads number or literal (true, false, null).
+         */
+        private String readToken() throws IOException {
+            token.setLength(0);
+            for (int c = peek(); c >= 0 && c != ',' && c != ']' && c != '}' && !Character.isWhitespace(c); c = peekChar()) {
+                token.append((char) c);
+                position++;
+            }
+            if (token.length() == 0) throw error("Expected value");
+            return token.toString();
+        }
+
+        int readInt() throws IOException {
+            final String value = readToken();
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException ex) {
+                throw error("Expected integer but found " + value);
+            }
+        }
+
+        float readFloat() throws IOException {
+            final String value = peek() == '"' ? readString() : readToken();
+            try {
+                return Float.parseFloat(value);
+            } catch (NumberFormatException ex) {
+                throw error("Expected number but found " + value);
+            }
+        }
+
+        float[] readFloats() throws IOException {
+            float[] values = new float[64];
+            int size = 0;
+            expect('[');
+            while (hasNext(']')) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, values.length * 2);
+                }
+                values[size++] = readFloat();
+            }
+            return Arrays.copyOf(values, size);
+        }
+
+        void skipValue() throws IOException {
+            final int c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{') {
+                position++;
+                while (nextKey() != null) {
+                    skipValue();
+                }
+            } else if (c == '[') {
+                position++;
+                while (hasNext(']')) {
+                    skipValue();
+                }
+            } else {
+                readToken();
+            }
+        }
+
+        private DeepNettsException error(String message) {
+            return new DeepNettsException(message + " at position " + (offset + position) + " in JSON");
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.NetworkType;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.ConvolutionalLayer;
+import deepnetts.net.layers.FullyConnectedLayer;
+import deepnetts.net.layers.InputLayer;
+import deepnetts.net.layers.LayerType;
+import deepnetts.net.layers.MaxPoolingLayer;
+import deepnetts.net.layers.OutputLayer;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Architecture of a single layer in network file, which is used to create
+ * network with the same architecture using network builder, and access to
+ * its weights and biases.
+ *
+ * @see BinaryModel
+ * @see JsonModel
+ * @author Zoran Sevarac
+ */
+final class LayerSpec {
+
+    LayerType type;
+
+    /**
+     * Activation type, null for layers without activation function.
+     */
+    ActivationType activation;
+
+    int width, height = 1, depth = 1;
+
+    /**
+     * Filter dimensions and stride of convolutional and max pooling layers.
+     */
+    int filterWidth, filterHeight, stride;
+
+    /**
+     * Returns architecture of the specified layer.
+     *
+     * @param layer layer of network
+     * @return architecture of layer
+     * @throws DeepNettsException if layer type is not supported
+     */
+    static LayerSpec of(AbstractLayer layer) {
+        final LayerSpec spec = new LayerSpec();
+        spec.type = typeOf(layer);
+        spec.activation = layer.getActivationType();
+        spec.width = layer.getWidth();
+        spec.height = layer.getHeight();
+        spec.depth = layer.getDepth();
+
+        if (layer instanceof ConvolutionalLayer) {
+            spec.filterWidth = ((ConvolutionalLayer) layer).getFilterWidth();
+            spec.filterHeight = ((ConvolutionalLayer) layer).getFilterHeight();
+            spec.stride = ((ConvolutionalLayer) layer).getStride();
+        } else if (layer instanceof MaxPoolingLayer) {
+            spec.filterWidth = ((MaxPoolingLayer) layer).getFilterWidth();
+            spec.filterHeight = ((MaxPoolingLayer) layer).getFilterHeight();
+            spec.stride = ((MaxPoolingLayer) layer).getStride();
+        }
+        return spec;
+    }
+
+    private static LayerType typeOf(AbstractLayer layer) {
+        if (layer instanceof InputLayer) return LayerType.INPUT;
+        if (layer instanceof ConvolutionalLayer) return LayerType.CONVOLUTIONAL;
+        if (layer instanceof MaxPoolingLayer) return LayerType.MAXPOOLING;
+        if (layer instanceof OutputLayer) return LayerType.OUTPUT;
+        if (layer instanceof FullyConnectedLayer) return LayerType.FULLY_CONNECTED;
+
+        throw new DeepNettsException("Layer " + layer.getClass().getName() + " is not supported in network file");
+    }
+
+    /**
+     * Creates network with specified architecture using network builder.
+     * Without random weights, weights and biases of created network are zeros,
+     * and they should be set directly in arrays returned by {@link #parameters(AbstractLayer)}.
+     *
+     * @param networkType type of network
+     * @param layers architecture of all layers, starting from input layer
+     * @param lossType type of loss function, or null if not set
+     * @param randomWeights true to initialize weights with random values
+     * @param frozen true to create frozen network, with only buffers for prediction
+     * @return new network
+     * @throws DeepNettsException if layer type is not supported by network type
+     */
+    static NeuralNetwork<?> build(NetworkType networkType, List<LayerSpec> layers, LossType lossType, boolean randomWeights, boolean frozen) {
+        if (networkType == NetworkType.CONVOLUTIONAL) {
+            final ConvolutionalNetwork.Builder builder = ConvolutionalNetwork.builder().randomWeights(randomWeights).frozen(frozen);
+            for (LayerSpec layer : layers) {
+                switch (layer.type) {
+                    case INPUT: builder.addInputLayer(layer.width, layer.height, layer.depth); break;
+                    case CONVOLUTIONAL: builder.addConvolutionalLayer(layer.filterWidth, layer.filterHeight, layer.depth, layer.stride, layer.activation); break;
+                    case MAXPOOLING: builder.addMaxPoolingLayer(layer.filterWidth, layer.filterHeight, layer.stride); break;
+                    case FULLY_CONNECTED: builder.addFullyConnectedLayer(layer.width, layer.activation); break;
+                    case OUTPUT: builder.addOutputLayer(layer.width, layer.activation); break;
+                }
+            }
+            if (lossType != null) builder.lossFunction(lossType);
+            return builder.build();
+        }
+
+        final FeedForwardNetwork.Builder builder = FeedForwardNetwork.builder().randomWeights(randomWeights).frozen(frozen);
+        for (LayerSpec layer : layers) {
+            switch (layer.type) {
+                case INPUT: builder.addInputLayer(layer.width); break;
+                case FULLY_CONNECTED: builder.addFullyConnectedLayer(layer.width, layer.activation); break;
+                case OUTPUT: builder.addOutputLayer(layer.width, layer.activation); break;
+                default: throw new DeepNettsException("Layer type " + layer.type + " is not supported in feed forward network");
+            }
+        }
+        if (lossType != null) builder.lossFunction(lossType);
+        return builder.build();
+    }
+
+    /**
+     * Returns arrays with weights and biases of the specified layer, which
+     * are written to file one after another. Filters of convolutional layer
+     * are returned one after another.
+     *
+     * @param layer layer of network
+     * @return arrays with weights, followed by array with biases
+     */
+    static List<float[]> parameters(AbstractLayer layer) {
+        final List<float[]> parameters = new ArrayList<>();
+        if (layer instanceof ConvolutionalLayer) {
+            for (Tensor filter : ((ConvolutionalLayer) layer).getFilters()) {
+                parameters.add(filter.getValues());
+            }
+        } else if (layer.getWeights() != null) {
+            parameters.add(layer.getWeights().getValues());
+        }
+        if (layer.getBiases() != null) {
+            parameters.add(layer.getBiases());
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns arrays with weight and bias changes from the previous update of
+     * the specified layer, used by momentum optimizer, in the same order as
+     * {@link #parameters(AbstractLayer)}.
+     *
+     * @param layer layer of network
+     * @return arrays with previous weight changes, followed by array with previous bias changes
+     */
+    static List<float[]> optimizerState(AbstractLayer layer) {
+        final List<float[]> state = new ArrayList<>();
+        if (layer instanceof ConvolutionalLayer) {
+            for (Tensor prevDeltaWeights : ((ConvolutionalLayer) layer).getFilterPrevDeltaWeights()) {
+                state.add(prevDeltaWeights.getValues());
+            }
+        } else if (layer.getPrevDeltaWeights() != null) {
+            state.add(layer.getPrevDeltaWeights().getValues());
+        }
+        if (layer.getPrevDeltaBiases() != null) {
+            state.add(layer.getPrevDeltaBiases());
+        }
+        return state;
+    }
+
+    static int parameterCount(AbstractLayer layer) {
+        long count = 0;
+        for (float[] values : parameters(layer)) {
+            count += values.length;
+        }
+        if (count > Integer.MAX_VALUE) {
+            throw new DeepNettsException("Too many weights in layer " + layer + " for network file");
+        }
+        return (int) count;
+    }
+
+}
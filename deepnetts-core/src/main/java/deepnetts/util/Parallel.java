@@ -0,0 +1,165 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+package deepnetts.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs independent tasks (for example per channel calculations in a layer) on
+ * a shared ForkJoinPool.
+ *
+ * All parallel layers use the same pool, which is the common ForkJoinPool by
+ * default, and can be replaced using {@link #setPool(ForkJoinPool)}.
+ * Small amounts of work are executed sequentially in the calling thread,
+ * since for them scheduling overhead outweighs the gain from parallel execution.
+ *
+ * @author Zoran Sevarac
+ */
+public final class Parallel {
+
+    /**
+     * Pool used to execute parallel tasks.
+     */
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Minimum amount of work (approximate number of multiply-add operations)
+     * for which parallel execution is used, and minimum work per forked task.
+     */
+    private static volatile long threshold = 1 << 15;
+
+    /**
+     * Prevent instantiation of this class.
+     */
+    private Parallel() { }
+
+    /**
+     * Executes task for each index in range [0, count). Tasks must be
+     * independent, and they are executed in parallel only if their total work
+     * is above the threshold and pool has more then one thread.
+     *
+     * @param count number of tasks
+     * @param work approximate amount of work for each task
+     * @param task task to execute, which accepts task index
+     */
+    public static void forEach(final int count, final long work, final IntConsumer task) {
+        final ForkJoinPool currentPool = pool;
+
+        if (count < 2 || currentPool.getParallelism() < 2 || count * work < threshold) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
+            }
+            return;
+        }
+
+        // split to at most few tasks per thread, each with at least threshold work
+        final int minGrain = (int) Math.min(count, (threshold + work - 1) / Math.max(work, 1));
+        final int grain = Math.max(minGrain, count / (currentPool.getParallelism() * 4));
+
+        currentPool.invoke(new RangeAction(0, count, Math.max(grain, 1), task));
+    }
+
+    /**
+     * Splits range [0, count) into blocks of specified size and executes task
+     * for each block, in parallel if total work is above the threshold.
+     *
+     * @param count total number of items
+     * @param blockSize number of items in a single block (last block can be smaller)
+     * @param work approximate amount of work for each item
+     * @param task task to execute, which accepts block range
+     */
+    public static void forEachBlock(final int count, final int blockSize, final long work, final RangeTask task) {
+        final int blocks = (count + blockSize - 1) / blockSize;
+        forEach(blocks, work * blockSize, b -> task.run(b * blockSize, Math.min(count, (b + 1) * blockSize)));
+    }
+
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets pool which is used to execute parallel tasks.
+     *
+     * @param pool fork join pool
+     */
+    public static void setPool(ForkJoinPool pool) {
+        if (pool == null) throw new IllegalArgumentException("Pool cannot be null!");
+        Parallel.pool = pool;
+    }
+
+    public static long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets minimum amount of work for parallel execution, below which all
+     * tasks are executed sequentially.
+     *
+     * @param threshold approximate number of multiply-add operations
+     */
+    public static void setThreshold(long threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("Threshold cannot be negative: " + threshold);
+        Parallel.threshold = threshold;
+    }
+
+    /**
+     * Task which processes range of items [from, to).
+     */
+    @FunctionalInterface
+    public interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Recursively splits index range in halves, until it gets smaller than grain.
+     */
+    private static final class RangeAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, grain;
+        private final IntConsumer task;
+
+        RangeAction(int from, int to, int grain, IntConsumer task) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                for (int i = from; i < to; i++) {
+                    task.accept(i);
+                }
+                return;
+            }
+
+            final int mid = (from + to) >>> 1;
+            invokeAll(new RangeAction(from, mid, grain, task), new RangeAction(mid, to, grain, task));
+        }
+    }
+
+}
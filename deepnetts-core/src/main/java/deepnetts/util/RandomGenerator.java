@@ -21,6 +21,7 @@
 
 package deepnetts.util;
 
+import java.util.Objects;
 import java.util.Random;
 
 /**
@@ -66,6 +67,16 @@ public class RandomGenerator {
     public Random getRandom() {
         return  randomGen;
     }
+
+    /**
+     * Replaces random generator, for example with generator restored from
+     * training checkpoint to continue the same sequence of random numbers.
+     *
+     * @param random random generator to use
+     */
+    public void setRandom(Random random) {
+        this.randomGen = Objects.requireNonNull(random, "Random generator cannot be null!");
+    }
     
 
 }
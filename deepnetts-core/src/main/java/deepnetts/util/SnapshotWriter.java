@@ -0,0 +1,239 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.core.DeepNetts;
+import deepnetts.net.NeuralNetwork;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Writes snapshots of network weights during training on a background thread.
+ *
+ * Weights and biases are copied to a reusable buffer in calling thread, which
+ * continues training while the copy is written to file in binary format.
+ * At most two copies are waiting to be written, and if both are in use,
+ * next snapshot waits for the first to be written.
+ *
+ * Optionally, only weights that changed since the last full snapshot are
+ * written as compressed delta snapshots, between full snapshots. Delta
+ * snapshot is read with {@link FileIO#createFromFile(File)} like the full one,
+ * as long as its full snapshot is in the same directory.
+ *
+ * Number of kept snapshot files can be limited, in which case the oldest
+ * snapshots are deleted, except full snapshots needed by kept delta snapshots.
+ *
+ * @see FileIO#writeToFile(NeuralNetwork, String)
+ * @author Zoran Sevarac
+ */
+public final class SnapshotWriter implements AutoCloseable {
+
+    private static final int MAX_BUFFERS = 2;
+
+    private final NeuralNetwork<?> neuralNet;
+    private final String path;
+    private final int deltaSnapshots;
+    private final int maxSnapshots;
+
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * Copies of weights which are not in use, and number of created copies.
+     */
+    private final BlockingQueue<List<List<float[]>>> freeBuffers = new LinkedBlockingQueue<>();
+    private int buffers;
+
+    // used only by writer thread
+    private List<List<float[]>> base;
+    private File baseFile;
+    private int deltaCount;
+    private final Deque<File[]> kept = new ArrayDeque<>();
+    private final List<File> expired = new ArrayList<>();
+
+    private static final org.apache.logging.log4j.Logger LOGGER = LogManager.getLogger(DeepNetts.class.getName());
+
+    /**
+     * Creates snapshot writer for specified network.
+     * Snapshot files are named path_epoch_N.dnet, and path_epoch_N_delta.dnet
+     * for delta snapshots.
+     *
+     * @param neuralNet network which is trained
+     * @param path path and prefix of snapshot file names
+     * @param deltaSnapshots number of delta snapshots between full snapshots, 0 to write only full snapshots
+     * @param maxSnapshots max number of snapshot files to keep, 0 to keep all
+     */
+    public SnapshotWriter(NeuralNetwork<?> neuralNet, String path, int deltaSnapshots, int maxSnapshots) {
+        if (deltaSnapshots < 0) {
+            throw new IllegalArgumentException("Number of delta snapshots cannot be negative : " + deltaSnapshots);
+        }
+        if (maxSnapshots < 0) {
+            throw new IllegalArgumentException("Max number of snapshots cannot be negative : " + maxSnapshots);
+        }
+
+        this.neuralNet = neuralNet;
+        this.path = path;
+        this.deltaSnapshots = deltaSnapshots;
+        this.maxSnapshots = maxSnapshots;
+
+        writer = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "DeepNetts-SnapshotWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Copies current weights of network, and writes them to snapshot file
+     * for specified epoch on background thread.
+     * Should be called between weight updates.
+     *
+     * @param epoch training epoch
+     * @throws DeepNettsException if thread is interrupted while waiting for previous snapshot
+     */
+    public void write(int epoch) {
+        final List<List<float[]>> snapshot;
+        try {
+            snapshot = takeBuffer();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DeepNettsException("Interrupted while waiting for training snapshot", ex);
+        }
+
+        final List<List<float[]>> parameters = BinaryModel.parameters(neuralNet);
+        for (int l = 0; l < parameters.size(); l++) {
+            for (int a = 0; a < parameters.get(l).size(); a++) {
+                final float[] values = parameters.get(l).get(a);
+                System.arraycopy(values, 0, snapshot.get(l).get(a), 0, values.length);
+            }
+        }
+
+        writer.execute(() -> writeSnapshot(epoch, snapshot));
+    }
+
+    private List<List<float[]>> takeBuffer() throws InterruptedException {
+        final List<List<float[]>> buffer = freeBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (buffers < MAX_BUFFERS) {
+            buffers++;
+            final List<List<float[]>> copy = new ArrayList<>();
+            for (List<float[]> layerParameters : BinaryModel.parameters(neuralNet)) {
+                final List<float[]> layerCopy = new ArrayList<>(layerParameters.size());
+                for (float[] values : layerParameters) {
+                    layerCopy.add(new float[values.length]);
+                }
+                copy.add(layerCopy);
+            }
+            return copy;
+        }
+        return freeBuffers.take();
+    }
+
+    /**
+     * Writes full or delta snapshot, and deletes expired snapshots. Runs on writer thread.
+     */
+    private void writeSnapshot(int epoch, List<List<float[]>> snapshot) {
+        try {
+            final File file;
+            if (base == null || deltaCount == deltaSnapshots) {
+                file = new File(path + "_epoch_" + epoch + ".dnet");
+                BinaryModel.write(neuralNet, snapshot, file, false);
+                deltaCount = 0;
+                if (deltaSnapshots > 0) { // keep copy as base for delta snapshots
+                    if (base != null) freeBuffers.add(base);
+                    base = snapshot;
+                    baseFile = file;
+                    snapshot = null;
+                }
+                retain(file, null);
+            } else {
+                file = new File(path + "_epoch_" + epoch + "_delta.dnet");
+                DeltaModel.write(base, snapshot, baseFile.getName(), file);
+                deltaCount++;
+                retain(file, baseFile);
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.catching(ex);
+        } finally {
+            if (snapshot != null) freeBuffers.add(snapshot);
+        }
+    }
+
+    /**
+     * Adds written snapshot and its base to kept snapshots, and deletes the
+     * oldest snapshots which are not needed any more.
+     */
+    private void retain(File file, File base) {
+        kept.addLast(new File[] {file, base});
+        if (maxSnapshots == 0) return;
+
+        while (kept.size() > maxSnapshots) {
+            expired.add(kept.removeFirst()[0]);
+        }
+
+        final Set<File> needed = new HashSet<>();
+        needed.add(baseFile);
+        for (File[] snapshot : kept) {
+            needed.add(snapshot[0]);
+            needed.add(snapshot[1]);
+        }
+
+        for (Iterator<File> i = expired.iterator(); i.hasNext(); ) {
+            final File expiredFile = i.next();
+            if (!needed.contains(expiredFile)) {
+                if (!expiredFile.delete() && expiredFile.exists()) {
+                    LOGGER.warn("Could not delete training snapshot " + expiredFile);
+                }
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Waits until all snapshots are written, and stops writer thread.
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            while (!writer.awaitTermination(1, TimeUnit.MINUTES)) { }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Training checkpoint file, which contains network weights, optimizer state
+ * and serialized state of the training algorithm, used to resume training.
+ *
+ * Checkpoint starts with network in binary format, so it can also be read
+ * as a network using {@link FileIO#createFromFile(File)}. Checkpoint is first
+ * written to temporary file, which then replaces previous checkpoint, so an
+ * interrupted write does not damage the previous checkpoint.
+ *
+ * <p>Checkpoint file format (all values are little endian):</p>
+ * <pre>
+ * binary network file, as written by {@link FileIO#writeToFile(NeuralNetwork, String)}
+ * float  previous weight and bias changes of each layer (momentum), padded to 64 bytes
+ * bytes  serialized training state
+ * long   position of the previous weight changes
+ * long   position of the training state
+ * int    magic number 0x50434E44 ("DNCP")
+ * </pre>
+ *
+ * @see BinaryModel
+ * @author Zoran Sevarac
+ */
+public final class TrainingCheckpoint {
+
+    private static final int MAGIC = 0x50434E44;
+    private static final int FOOTER_SIZE = 2 * Long.BYTES + Integer.BYTES;
+
+    private TrainingCheckpoint() { }
+
+    /**
+     * Writes network weights, optimizer state and specified training state to file.
+     *
+     * @param neuralNet neural network which is trained
+     * @param state state of the training algorithm
+     * @param file checkpoint file
+     * @throws IOException if file cannot be written
+     * @throws DeepNettsException if network is frozen
+     */
+    public static void write(NeuralNetwork<?> neuralNet, Serializable state, File file) throws IOException {
+        if (neuralNet.isFrozen()) {
+            throw new DeepNettsException("Frozen network has no training state for checkpoint");
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        }
+
+        final File tempFile = new File(file.getPath() + ".tmp");
+        BinaryModel.write(neuralNet, tempFile, false);
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+            final long optimizerPosition = channel.size();
+            channel.position(optimizerPosition);
+            BinaryModel.writeParameters(channel, optimizerState(neuralNet));
+
+            final ByteBuffer buffer = ByteBuffer.allocate(bytes.size() + FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(bytes.toByteArray()).putLong(optimizerPosition).putLong(channel.position()).putInt(MAGIC);
+            ((Buffer) buffer).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores weights and optimizer state of specified network from
+     * checkpoint file, and returns training state. Network should have the
+     * same architecture as the network in checkpoint. Network is not changed
+     * if checkpoint cannot be read.
+     *
+     * @param <T> type of the training state
+     * @param neuralNet neural network to restore
+     * @param file checkpoint file
+     * @param stateClass class of the training state
+     * @return state of the training algorithm
+     * @throws IOException if file cannot be read
+     * @throws ClassNotFoundException if class of training state is not found
+     * @throws DeepNettsException if file is not a valid checkpoint, network architecture is different, or state has different class
+     */
+    public static <T> T restore(NeuralNetwork<?> neuralNet, File file, Class<T> stateClass) throws IOException, ClassNotFoundException {
+        if (neuralNet.isFrozen()) {
+            throw new DeepNettsException("Frozen network cannot be restored from training checkpoint");
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final BinaryModel.Header header = BinaryModel.readHeader(channel, file);
+            final List<AbstractLayer> layers = neuralNet.getLayers();
+            if (header.layers.size() != layers.size()) {
+                throw new DeepNettsException("Number of layers in checkpoint " + file + " does not match network");
+            }
+            for (int l = 0; l < layers.size(); l++) {
+                if (header.layers.get(l).type != LayerSpec.of(layers.get(l)).type || header.parameterCounts[l] != LayerSpec.parameterCount(layers.get(l))) {
+                    throw new DeepNettsException("Architecture in checkpoint " + file + " does not match network in layer " + l);
+                }
+            }
+
+            final long size = channel.size();
+            if (size < header.size + FOOTER_SIZE) {
+                throw new DeepNettsException("Not a training checkpoint: " + file);
+            }
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (footer.hasRemaining() && channel.read(footer, size - FOOTER_SIZE + footer.position()) > 0) { }
+            ((Buffer) footer).flip();
+            final long optimizerPosition = footer.getLong();
+            final long statePosition = footer.getLong();
+            if (footer.getInt() != MAGIC || optimizerPosition < header.size || statePosition > size - FOOTER_SIZE) {
+                throw new DeepNettsException("Not a training checkpoint: " + file);
+            }
+
+            final List<List<float[]>> optimizerState = optimizerState(neuralNet);
+            if (statePosition - optimizerPosition != BinaryModel.parametersSize(optimizerState)) {
+                throw new DeepNettsException("Optimizer state in checkpoint " + file + " does not match network");
+            }
+
+            final ByteBuffer stateBytes = ByteBuffer.allocate((int) (size - FOOTER_SIZE - statePosition));
+            while (stateBytes.hasRemaining() && channel.read(stateBytes, statePosition + stateBytes.position()) > 0) { }
+            final Object state;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(stateBytes.array()))) {
+                state = in.readObject();
+            }
+            if (!stateClass.isInstance(state)) {
+                throw new DeepNettsException("Training checkpoint " + file + " was not written by " + stateClass.getName());
+            }
+
+            BinaryModel.readParameters(channel, header.size, BinaryModel.parameters(neuralNet), file);
+            BinaryModel.readParameters(channel, optimizerPosition, optimizerState, file);
+            return stateClass.cast(state);
+        }
+    }
+
+    private static List<List<float[]>> optimizerState(NeuralNetwork<?> neuralNet) {
+        final List<List<float[]>> state = new ArrayList<>(neuralNet.getLayers().size());
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            state.add(LayerSpec.optimizerState(layer));
+        }
+        return state;
+    }
+
+}
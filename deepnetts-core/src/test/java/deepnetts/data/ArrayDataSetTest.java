@@ -0,0 +1,139 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.eval.ClassifierEvaluator;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import deepnetts.net.train.BackpropagationTrainer;
+import deepnetts.net.train.KFoldCrossValidation;
+import java.util.Arrays;
+import java.util.Random;
+import javax.visrec.ml.eval.EvaluationMetrics;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Checks that array data set views share arrays, and that it can be used
+ * where tabular data sets are used.
+ */
+public class ArrayDataSetTest {
+
+    /**
+     * Creates data set with rows {i, -i, i % 2}, where last value is target output.
+     */
+    static ArrayDataSet createDataSet(int size) {
+        final float[] inputs = new float[size * 2], targets = new float[size];
+        for (int i = 0; i < size; i++) {
+            inputs[i * 2] = i;
+            inputs[i * 2 + 1] = -i;
+            targets[i] = i % 2;
+        }
+        return new ArrayDataSet(2, 1, inputs, targets);
+    }
+
+    @Test
+    public void testItemsReadRowsInDataSetOrder() {
+        final ArrayDataSet dataSet = createDataSet(10);
+        dataSet.shuffle(new Random(1));
+
+        for (int i = 0; i < dataSet.size(); i++) {
+            final int row = dataSet.getRow(i);
+            final MLDataItem item = dataSet.get(i);
+            assertArrayEquals(new float[] {row, -row}, item.getInput().getValues(), 0);
+            assertArrayEquals(new float[] {row % 2}, item.getTargetOutput().getValues(), 0);
+        }
+    }
+
+    @Test
+    public void testSplitPartsShareArraysAndCoverAllRows() {
+        final ArrayDataSet dataSet = createDataSet(10);
+        final ArrayDataSet[] parts = dataSet.split(0.6, 0.4);
+
+        assertEquals(6, parts[0].size());
+        assertEquals(4, parts[1].size());
+        assertSame(dataSet.getInputs(), parts[0].getInputs());
+
+        final int[] rows = new int[10];
+        System.arraycopy(parts[0].getOrder(), 0, rows, 0, 6);
+        System.arraycopy(parts[1].getOrder(), 0, rows, 6, 4);
+        Arrays.sort(rows);
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, rows);
+    }
+
+    @Test
+    public void testAddAllAppendsRowsOfViews() {
+        final ArrayDataSet dataSet = createDataSet(10);
+        final ArrayDataSet merged = dataSet.subSet();
+        merged.addAll(dataSet.subSet(1, 3));
+        merged.addAll(dataSet.subSet(5));
+
+        assertArrayEquals(new int[] {1, 3, 5}, merged.getOrder());
+        assertEquals(5, merged.get(2).getInput().get(0), 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddAllRejectsOtherStorage() {
+        createDataSet(10).addAll(createDataSet(10));
+    }
+
+    @Test
+    public void testTargetNamesWithoutColumnNames() {
+        final ArrayDataSet dataSet = createDataSet(4);
+        assertArrayEquals(new String[] {"out1"}, dataSet.getTargetNames());
+
+        dataSet.setColumnNames(new String[] {"a", "b", "c"});
+        assertArrayEquals(new String[] {"c"}, dataSet.getTargetNames());
+        assertArrayEquals(new String[] {"c"}, dataSet.split(0.5)[0].getTargetNames());
+    }
+
+    @Test
+    public void testKFoldCrossValidation() {
+        final FeedForwardNetwork neuralNet = FeedForwardNetwork.builder()
+                .randomSeed(123)
+                .addInputLayer(2)
+                .addFullyConnectedLayer(4, ActivationType.TANH)
+                .addOutputLayer(1, ActivationType.SIGMOID)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .build();
+        final BackpropagationTrainer trainer = new BackpropagationTrainer(neuralNet);
+        trainer.setMaxEpochs(2);
+
+        final KFoldCrossValidation crossValidation = KFoldCrossValidation.builder()
+                .splitsNum(4)
+                .model(neuralNet)
+                .trainer(trainer)
+                .dataSet(createDataSet(40))
+                .evaluator(new ClassifierEvaluator())
+                .build();
+
+        final EvaluationMetrics metrics = crossValidation.runCrossValidation();
+        assertNotNull(metrics);
+        assertEquals(4, crossValidation.getTrainedNetworks().size());
+    }
+
+}
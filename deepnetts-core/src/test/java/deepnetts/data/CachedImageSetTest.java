@@ -0,0 +1,160 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.visrec.ml.data.DataSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that images read from cache file are the same as written images.
+ */
+public class CachedImageSetTest {
+
+    private static final float DELTA = 1e-6f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ImageSet loadImages(File indexFile) throws IOException {
+        final ImageSet imageSet = new ImageSet(4, 3);
+        imageSet.loadLabels(new File(indexFile.getParentFile(), "labels.txt"));
+        imageSet.loadImages(indexFile);
+        return imageSet;
+    }
+
+    private static void assertSameImages(DataSet<? extends MLDataItem> expected, CachedImageSet actual, float delta) {
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(expected.getTargetNames(), actual.getTargetNames());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getInput().getValues(), actual.get(i).getInput().getValues(), delta);
+            assertArrayEquals(expected.get(i).getTargetOutput().getValues(), actual.get(i).getTargetOutput().getValues(), 0);
+        }
+    }
+
+    @Test
+    public void testFloatCacheRoundTrip() throws IOException {
+        final ImageSet imageSet = loadImages(StreamingImageSetTest.createImages(folder.getRoot(), 5));
+        final File cacheFile = folder.newFile("images.cache");
+
+        CachedImageSet.write(imageSet, cacheFile, CachedImageSet.Format.FLOAT32);
+        assertSameImages(imageSet, CachedImageSet.open(cacheFile), DELTA);
+    }
+
+    @Test
+    public void testByteCacheRoundTrip() throws IOException {
+        final ImageSet imageSet = loadImages(StreamingImageSetTest.createImages(folder.getRoot(), 5));
+        final File cacheFile = folder.newFile("images.cache");
+
+        CachedImageSet.write(imageSet, cacheFile, CachedImageSet.Format.UINT8);
+        assertSameImages(imageSet, CachedImageSet.open(cacheFile), 0.5f / 255);
+    }
+
+    @Test
+    public void testHeaderLargerThanReadBuffer() throws IOException {
+        final File indexFile = StreamingImageSetTest.createImages(folder.getRoot(), 4);
+        final List<String> labels = new ArrayList<>();
+        labels.add("cats");
+        labels.add("dogs");
+        final char[] name = new char[1000];
+        Arrays.fill(name, 'x');
+        for (int i = 0; i < 100; i++) {
+            labels.add(new String(name) + i);
+        }
+        Files.write(new File(folder.getRoot(), "labels.txt").toPath(), labels, StandardCharsets.UTF_8);
+
+        final ImageSet imageSet = loadImages(indexFile);
+        final File cacheFile = folder.newFile("images.cache");
+        CachedImageSet.write(imageSet, cacheFile, CachedImageSet.Format.FLOAT32);
+        assertSameImages(imageSet, CachedImageSet.open(cacheFile), DELTA);
+    }
+
+    @Test
+    public void testWriteReadsStreamingImageSetOnce() throws IOException {
+        final File indexFile = StreamingImageSetTest.createImages(folder.getRoot(), 5);
+        final int[] passes = new int[1];
+        final StreamingImageSet streaming = new StreamingImageSet(4, 3) {
+            @Override
+            public Iterator<ExampleImage> iterator() {
+                passes[0]++;
+                return super.iterator();
+            }
+        };
+        streaming.loadLabels(new File(folder.getRoot(), "labels.txt"));
+        streaming.loadImages(indexFile);
+
+        final File cacheFile = folder.newFile("images.cache");
+        CachedImageSet.write(streaming, cacheFile, CachedImageSet.Format.FLOAT32);
+
+        assertEquals(1, passes[0]);
+        assertSameImages(loadImages(indexFile), CachedImageSet.open(cacheFile), DELTA);
+    }
+
+    @Test
+    public void testInputTensorIsReused() throws IOException {
+        final ImageSet imageSet = loadImages(StreamingImageSetTest.createImages(folder.getRoot(), 3));
+        final File cacheFile = folder.newFile("images.cache");
+        CachedImageSet.write(imageSet, cacheFile, CachedImageSet.Format.FLOAT32);
+
+        final CachedImageSet cached = CachedImageSet.open(cacheFile);
+        assertSame(cached.get(0).getInput(), cached.get(1).getInput());
+        assertArrayEquals(imageSet.get(1).getInput().getValues(), cached.get(1).getInput().getValues(), DELTA);
+    }
+
+    @Test
+    public void testBadFormatInHeaderIsRejected() throws IOException {
+        final ImageSet imageSet = loadImages(StreamingImageSetTest.createImages(folder.getRoot(), 3));
+        final File cacheFile = folder.newFile("images.cache");
+        CachedImageSet.write(imageSet, cacheFile, CachedImageSet.Format.FLOAT32);
+
+        for (int value : new int[] {CachedImageSet.Format.values().length, -1}) {
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+                raf.seek(2 * Integer.BYTES); // format, after magic and version
+                raf.writeInt(Integer.reverseBytes(value)); // file is little endian
+            }
+            try {
+                CachedImageSet.open(cacheFile);
+                fail("Unknown format should be rejected");
+            } catch (DeepNettsException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().startsWith("Image cache file has bad header"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that CSV reader parses the same values as Float.parseFloat, and
+ * accepts the same row formats as line by line reading did.
+ */
+public class CsvReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String content) throws IOException {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadRowsAndColumns() throws IOException {
+        final File file = write("1,2,3\n\n  4.5 , -6e2,0.125\r\n7,8,9");
+
+        assertArrayEquals(new float[] {1, 2, 3, 4.5f, -600, 0.125f, 7, 8, 9}, new CsvReader(file, 3).readRows(), 0);
+
+        final float[][] columns = new CsvReader(file, 3).readColumns();
+        assertArrayEquals(new float[] {1, 4.5f, 7}, columns[0], 0);
+        assertArrayEquals(new float[] {3, 0.125f, 9}, columns[2], 0);
+    }
+
+    @Test
+    public void testTrailingDelimiterIsIgnored() throws IOException {
+        final File file = write("a,b,c,\n1,2,3,\n4,5,6,,\n7,8,9\n");
+
+        final CsvReader reader = new CsvReader(file, 3).setHasColumnNames(true);
+        assertArrayEquals(new float[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, reader.readRows(), 0);
+        assertArrayEquals(new String[] {"a", "b", "c"}, reader.getColumnNames());
+
+        final TabularDataSet<?> dataSet = DataSets.readCsv(file, 2, 1, true, ",");
+        assertEquals(3, dataSet.size());
+        assertArrayEquals(new float[] {4, 5}, dataSet.get(1).getInput().getValues(), 0);
+        assertArrayEquals(new float[] {6}, dataSet.get(1).getTargetOutput().getValues(), 0);
+    }
+
+    @Test
+    public void testWrongNumberOfValuesIsRejected() throws IOException {
+        final File file = write("1,2,3\n4,5,6,7\n");
+        try {
+            new CsvReader(file, 3).readRows();
+            fail("Row with too many values should be rejected");
+        } catch (DeepNettsException ex) {
+            assertEquals("Wrong number of values in the row 2: found 4 expected 3", ex.getMessage());
+        }
+
+        // all chunks are released after failure, and file can be read again
+        Files.write(file.toPath(), "1,2,3\n".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(new float[] {1, 2, 3}, new CsvReader(file, 3).readRows(), 0);
+    }
+
+    @Test(expected = DeepNettsException.class)
+    public void testNonNumericValueIsRejected() throws IOException {
+        new CsvReader(write("1,x,3\n"), 3).readRows();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonAsciiDelimiterIsRejected() throws IOException {
+        new CsvReader(write("1\u00a72\u00a73\n"), 3).setDelimiter('\u00a7');
+    }
+
+    @Test
+    public void testNonAsciiDelimiterIsReadLineByLine() throws IOException {
+        // lines are read with default charset, which has to support the delimiter
+        final String delimiter = "\u00a7";
+        assumeTrue(Charset.defaultCharset().newEncoder().canEncode(delimiter));
+
+        final File file = folder.newFile();
+        Files.write(file.toPath(), ("a" + delimiter + "b" + delimiter + "c\n1" + delimiter + "2" + delimiter + "3\n4" + delimiter + "5" + delimiter + "6\n").getBytes(Charset.defaultCharset()));
+
+        final TabularDataSet<?> dataSet = DataSets.readCsv(file, 2, 1, true, delimiter);
+        assertEquals(2, dataSet.size());
+        assertArrayEquals(new float[] {4, 5}, dataSet.get(1).getInput().getValues(), 0);
+        assertArrayEquals(new float[] {6}, dataSet.get(1).getTargetOutput().getValues(), 0);
+    }
+
+    @Test
+    public void testValuesMatchParseFloat() throws IOException {
+        final Random random = new Random(123);
+        final String[] fields = new String[3000];
+        final StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            switch (i % 5) {
+                case 0: fields[i] = Float.toString(random.nextFloat() * 1000 - 500); break;
+                case 1: fields[i] = Double.toString(random.nextGaussian() * 1e-8); break;
+                case 2: fields[i] = Integer.toString(random.nextInt()); break;
+                case 3: fields[i] = String.format(Locale.ROOT, "%.20f", random.nextDouble()); break;
+                default: fields[i] = random.nextBoolean() ? "1e39" : "NaN"; break;
+            }
+            csv.append(fields[i]).append(i % 3 == 2 ? "\n" : ",");
+        }
+
+        final float[] values = new CsvReader(write(csv.toString()), 3).readRows();
+        for (int i = 0; i < fields.length; i++) {
+            assertEquals(fields[i], Float.floatToIntBits(Float.parseFloat(fields[i])), Float.floatToIntBits(values[i]));
+        }
+    }
+
+}
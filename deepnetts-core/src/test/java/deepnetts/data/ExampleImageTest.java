@@ -0,0 +1,231 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import deepnetts.util.Tensor;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that compact images give the same input as images with float values.
+ */
+public class ExampleImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // random colors, with alpha below 255 for ARGB images
+    static BufferedImage createImage(int width, int height, int type, int seed) {
+        final Random random = new Random(seed);
+        final BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static void assertSameInput(ExampleImage expected, ExampleImage actual) {
+        final Tensor expectedInput = expected.getInput();
+        final Tensor actualInput = actual.getInput();
+        assertEquals(expectedInput.getRows(), actualInput.getRows());
+        assertEquals(expectedInput.getCols(), actualInput.getCols());
+        assertEquals(expectedInput.getDepth(), actualInput.getDepth());
+        assertArrayEquals(expectedInput.getValues(), actualInput.getValues(), 0);
+    }
+
+    /**
+     * Returns planar RGB values the same way as ExampleImage does for image
+     * types which are not read directly, from raster of ARGB image, where
+     * image of other type is drawn to ARGB image first.
+     */
+    private static float[] argbValues(BufferedImage image) {
+        final int width = image.getWidth(), height = image.getHeight();
+        BufferedImage argb = image;
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB) {
+            argb = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            argb.getGraphics().drawImage(image, 0, 0, null);
+        }
+        final Raster raster = argb.getRaster();
+        final float[] values = new float[width * height * 3];
+        int[] pixel = null;
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixel = raster.getPixel(x, y, pixel);
+                for (int c = 0; c < 3; c++) {
+                    values[c * width * height + y * width + x] = pixel[c] / 255.0f;
+                }
+            }
+        }
+        return values;
+    }
+
+    private ImageSet loadImages(File indexFile, boolean compact) throws IOException {
+        final ImageSet imageSet = new ImageSet(4, 3);
+        imageSet.setCompactImages(compact);
+        imageSet.loadLabels(new File(indexFile.getParentFile(), "labels.txt"));
+        imageSet.loadImages(indexFile);
+        return imageSet;
+    }
+
+    @Test
+    public void testCompactInputEqualsFloatInput() {
+        for (int type : new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_USHORT_565_RGB}) {
+            final BufferedImage image = createImage(7, 5, type, type);
+            final ExampleImage floatImage = new ExampleImage(image, "a");
+            final ExampleImage compactImage = new ExampleImage(image, "a", true);
+
+            assertFalse(floatImage.isCompact());
+            assertTrue(compactImage.isCompact());
+            assertSameInput(floatImage, compactImage);
+            assertArrayEquals(floatImage.getRgbVector(), compactImage.getRgbVector(), 0);
+        }
+    }
+
+    @Test
+    public void testCompactInputIsReusedPerThread() throws InterruptedException {
+        final ExampleImage first = new ExampleImage(createImage(7, 5, BufferedImage.TYPE_INT_RGB, 1), "a", true);
+        final ExampleImage second = new ExampleImage(createImage(7, 5, BufferedImage.TYPE_INT_RGB, 2), "a", true);
+        final ExampleImage other = new ExampleImage(createImage(3, 4, BufferedImage.TYPE_INT_RGB, 3), "a", true);
+
+        final Tensor input = first.getInput();
+        assertArrayEquals(first.getRgbVector(), input.getValues(), 0);
+        assertSame(input, second.getInput());
+        assertArrayEquals(second.getRgbVector(), input.getValues(), 0);
+
+        // images of different sizes alternate, so input is resized every time
+        for (int i = 0; i < 3; i++) {
+            final Tensor otherInput = other.getInput();
+            assertEquals(4, otherInput.getRows());
+            assertEquals(3, otherInput.getCols());
+            assertArrayEquals(other.getRgbVector(), otherInput.getValues(), 0);
+
+            final Tensor firstInput = first.getInput();
+            assertEquals(5, firstInput.getRows());
+            assertEquals(7, firstInput.getCols());
+            assertArrayEquals(first.getRgbVector(), firstInput.getValues(), 0);
+            assertSame(firstInput, second.getInput());
+        }
+
+        final Tensor ownInput = first.getInput();
+        final AtomicReference<Tensor> threadInput = new AtomicReference<>();
+        final Thread thread = new Thread(() -> threadInput.set(second.getInput()));
+        thread.start();
+        thread.join();
+
+        assertNotSame(ownInput, threadInput.get());
+        assertArrayEquals(first.getRgbVector(), ownInput.getValues(), 0);
+        assertArrayEquals(second.getRgbVector(), threadInput.get().getValues(), 0);
+    }
+
+    @Test
+    public void testInvertCompactImage() {
+        final BufferedImage image = createImage(6, 4, BufferedImage.TYPE_INT_RGB, 5);
+        final ExampleImage floatImage = new ExampleImage(image, "a");
+        final ExampleImage compactImage = new ExampleImage(image, "a", true);
+        final float[] original = compactImage.getRgbVector();
+
+        floatImage.invert();
+        compactImage.invert();
+        assertArrayEquals(floatImage.getRgbVector(), compactImage.getRgbVector(), 1e-6f);
+
+        compactImage.invert();
+        assertArrayEquals(original, compactImage.getRgbVector(), 0);
+    }
+
+    @Test
+    public void testCompactImageSetSharesTargets() throws IOException {
+        final File indexFile = StreamingImageSetTest.createImages(folder.getRoot(), 6);
+        final ImageSet floatImages = loadImages(indexFile, false);
+        final ImageSet compactImages = loadImages(indexFile, true);
+        final Tensor[] targets = new Tensor[compactImages.getTargetNames().length];
+
+        assertEquals(floatImages.size(), compactImages.size());
+        for (int i = 0; i < compactImages.size(); i++) {
+            final ExampleImage image = compactImages.get(i);
+            assertTrue(image.isCompact());
+            assertSameInput(floatImages.get(i), image);
+            assertArrayEquals(floatImages.get(i).getTargetOutput().getValues(), image.getTargetOutput().getValues(), 0);
+
+            final int labelIdx = image.getLabelIndex();
+            assertEquals(Arrays.asList(compactImages.getTargetNames()).indexOf(image.getLabel()), labelIdx);
+            if (targets[labelIdx] == null) {
+                targets[labelIdx] = image.getTargetOutput();
+            }
+            assertSame(targets[labelIdx], image.getTargetOutput());
+        }
+        assertNotSame(targets[0], targets[1]);
+    }
+
+    @Test
+    public void testDirectlyReadPixelsEqualDrawnPixels() {
+        for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_BYTE_GRAY}) {
+            final BufferedImage image = createImage(9, 6, type, type);
+            final float[] expected = argbValues(image);
+
+            assertArrayEquals("Image type " + type, expected, new ExampleImage(image).getRgbVector(), 1e-6f);
+            assertArrayEquals("Image type " + type, expected, new ExampleImage(image, null, true).getRgbVector(), 1e-6f);
+        }
+    }
+
+    @Test
+    public void testTranslatedRasterIsDrawn() {
+        final BufferedImage image = createImage(9, 6, BufferedImage.TYPE_INT_RGB, 7);
+        final BufferedImage subimage = image.getSubimage(2, 1, 5, 4);
+        final float[] expected = argbValues(subimage);
+
+        assertEquals(expected.length, 5 * 4 * 3);
+        assertArrayEquals(expected, new ExampleImage(subimage).getRgbVector(), 1e-6f);
+        assertArrayEquals(expected, new ExampleImage(subimage, null, true).getRgbVector(), 1e-6f);
+    }
+
+    @Test
+    public void testZeroMeanIsRejectedForCompactImages() throws IOException {
+        final ImageSet imageSet = loadImages(StreamingImageSetTest.createImages(folder.getRoot(), 4), true);
+
+        try {
+            imageSet.zeroMean();
+            fail("Zero mean normalization should be rejected for compact images");
+        } catch (DeepNettsException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("compact images"));
+        }
+    }
+
+}
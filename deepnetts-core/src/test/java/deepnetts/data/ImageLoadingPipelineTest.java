@@ -0,0 +1,151 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that images loaded in parallel are received in index order, that
+ * loading stops with the first error, and that number of loaded images can
+ * be limited.
+ */
+public class ImageLoadingPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ImageSet createImageSet(File indexFile, int threads) {
+        final ImageSet imageSet = new ImageSet(4, 3);
+        imageSet.setDecodeThreads(threads);
+        imageSet.setProcessThreads(threads);
+        imageSet.setMaxImagesInFlight(4);
+        imageSet.loadLabels(new File(indexFile.getParentFile(), "labels.txt"));
+        return imageSet;
+    }
+
+    private void assertLoadingFails(String indexLine, String message) throws IOException {
+        final File indexFile = StreamingImageSetTest.createImages(folder.getRoot(), 6);
+        Files.write(indexFile.toPath(), Arrays.asList("cats" + File.separator + "0.png", indexLine, "dogs" + File.separator + "1.png"), StandardCharsets.UTF_8);
+
+        try {
+            createImageSet(indexFile, 4).loadImages(indexFile);
+            fail("Loading should fail for index line: " + indexLine);
+        } catch (DeepNettsException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testResultsArriveInIndexOrder() throws IOException {
+        final int count = 40;
+        StreamingImageSetTest.createImages(folder.getRoot(), 1);
+        final File image = new File(folder.getRoot(), "cats" + File.separator + "0.png");
+        final int[] next = {0};
+        final List<String> labels = new ArrayList<>();
+
+        // earlier images are processed slower, so they are completed out of order
+        new ImageLoadingPipeline(4, 4, 8).load(
+                () -> next[0] < count ? new ImageLoadingPipeline.Entry(image.getPath(), Integer.toString(next[0]++)) : null,
+                (img, label) -> {
+                    try {
+                        Thread.sleep((count - Integer.parseInt(label)) % 5);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new ExampleImage(img, label);
+                },
+                exImage -> labels.add(exImage.getLabel()));
+
+        assertEquals(count, labels.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.toString(i), labels.get(i));
+        }
+    }
+
+    @Test
+    public void testParallelLoadingMatchesSingleThread() throws IOException {
+        final File indexFile = StreamingImageSetTest.createImages(folder.getRoot(), 20);
+        final ImageSet single = createImageSet(indexFile, 1);
+        single.loadImages(indexFile);
+        final ImageSet parallel = createImageSet(indexFile, 4);
+        parallel.loadImages(indexFile);
+
+        assertEquals(20, parallel.size());
+        for (int i = 0; i < single.size(); i++) {
+            assertEquals(single.get(i).getLabel(), parallel.get(i).getLabel());
+            assertArrayEquals(single.get(i).getInput().getValues(), parallel.get(i).getInput().getValues(), 0);
+        }
+    }
+
+    @Test
+    public void testMissingImageFile() throws IOException {
+        assertLoadingFails("cats" + File.separator + "missing.png", "missing.png");
+    }
+
+    @Test
+    public void testUnsupportedImageFormat() throws IOException {
+        StreamingImageSetTest.createImages(folder.getRoot(), 6);
+        Files.write(new File(folder.getRoot(), "cats" + File.separator + "text.png").toPath(), Arrays.asList("not an image"), StandardCharsets.UTF_8);
+        assertLoadingFails("cats" + File.separator + "text.png", "unsupported format");
+    }
+
+    @Test
+    public void testMalformedIndexLine() throws IOException {
+        assertLoadingFails("cats" + File.separator + "2.png cats extra", "At line 2");
+    }
+
+    @Test
+    public void testLoadNumberOfImages() throws IOException {
+        final File indexFile = StreamingImageSetTest.createImages(folder.getRoot(), 6);
+
+        final ImageSet first = createImageSet(indexFile, 2);
+        first.loadImages(indexFile, 4);
+        assertEquals(4, first.size());
+
+        // more images than in index, and all images in index
+        final ImageSet all = createImageSet(indexFile, 2);
+        all.loadImages(indexFile, 100);
+        assertEquals(6, all.size());
+        final ImageSet exact = createImageSet(indexFile, 2);
+        exact.loadImages(indexFile, 6);
+        assertEquals(6, exact.size());
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(all.get(i).getInput().getValues(), first.get(i).getInput().getValues(), 0);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.visrec.ml.data.DataSet;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that mapped data set reads the same rows which were written, shares
+ * the file with its views, and releases it when closed, after reads which
+ * are in progress.
+ */
+public class MappedDataSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void assertSameRows(DataSet<MLDataItem> expected, DataSet<MLDataItem> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).getInput().getValues(), actual.get(i).getInput().getValues(), 0);
+            assertArrayEquals(expected.get(i).getTargetOutput().getValues(), actual.get(i).getTargetOutput().getValues(), 0);
+        }
+    }
+
+    @Test
+    public void testWriteAndOpenDataSet() throws IOException {
+        final ArrayDataSet arrays = ArrayDataSetTest.createDataSet(50);
+        arrays.setColumnNames(new String[] {"x", "y", "odd"});
+        final File file = folder.newFile();
+        MappedDataSet.write(arrays, file);
+
+        try (MappedDataSet mapped = MappedDataSet.open(file)) {
+            assertEquals(2, mapped.getNumInputs());
+            assertEquals(1, mapped.getNumOutputs());
+            assertArrayEquals(new String[] {"x", "y", "odd"}, mapped.getColumnNames());
+            assertArrayEquals(new String[] {"odd"}, mapped.getTargetNames());
+            assertSameRows(arrays, mapped);
+        }
+    }
+
+    @Test
+    public void testWriteCsvAndOpenDataSet() throws IOException {
+        final File csv = folder.newFile();
+        Files.write(csv.toPath(), "a,b,c\n1,2,3\n4,5,6\n".getBytes(StandardCharsets.UTF_8));
+        final File file = folder.newFile();
+        MappedDataSet.write(new CsvReader(csv, 3).setHasColumnNames(true), 2, file);
+
+        try (MappedDataSet mapped = MappedDataSet.open(file)) {
+            assertArrayEquals(new String[] {"a", "b", "c"}, mapped.getColumnNames());
+            assertEquals(2, mapped.size());
+            assertArrayEquals(new float[] {4, 5}, mapped.get(1).getInput().getValues(), 0);
+            assertArrayEquals(new float[] {6}, mapped.get(1).getTargetOutput().getValues(), 0);
+        }
+    }
+
+    @Test
+    public void testSplitPartsReadRowsInFileOrder() throws IOException {
+        final ArrayDataSet arrays = ArrayDataSetTest.createDataSet(20);
+        final File file = folder.newFile();
+        MappedDataSet.write(arrays, file);
+
+        try (MappedDataSet mapped = MappedDataSet.open(file)) {
+            final MappedDataSet[] parts = mapped.split(0.5, 0.5);
+            assertEquals(10, parts[0].size());
+            assertEquals(10, parts[1].size());
+
+            for (MappedDataSet part : parts) {
+                for (int i = 0; i < part.size(); i++) {
+                    final int row = part.getRow(i);
+                    assertTrue(i == 0 || part.getRow(i - 1) < row);
+                    assertEquals(row, part.get(i).getInput().get(0), 0);
+                }
+            }
+
+            final MappedDataSet merged = parts[0].subSet();
+            merged.addAll(parts[0]);
+            merged.addAll(parts[1]);
+            assertEquals(20, merged.size());
+
+            mapped.shuffle(new Random(1));
+            final MappedDataSet view = mapped.subSet(3);
+            assertEquals(mapped.getRow(3), view.get(0).getInput().get(0), 0);
+        }
+    }
+
+    @Test
+    public void testCloseReleasesFileForAllViews() throws IOException {
+        final File file = folder.newFile();
+        MappedDataSet.write(ArrayDataSetTest.createDataSet(10), file);
+
+        final MappedDataSet mapped = MappedDataSet.open(file);
+        final MappedDataSet part = mapped.split(0.5, 0.5)[0];
+        mapped.close();
+        mapped.close();
+
+        try {
+            part.get(0).getInput();
+            fail("Closed data set should not be readable");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void testCloseWaitsForReadsInOtherThreads() throws Exception {
+        final File file = folder.newFile();
+        MappedDataSet.write(ArrayDataSetTest.createDataSet(1000), file);
+
+        final MappedDataSet mapped = MappedDataSet.open(file);
+        final Thread[] readers = new Thread[4];
+        final CountDownLatch started = new CountDownLatch(readers.length);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        for (int t = 0; t < readers.length; t++) {
+            final MappedDataSet part = mapped.split(0.5, 0.5)[t % 2];
+            readers[t] = new Thread(() -> {
+                started.countDown();
+                try {
+                    while (true) { // reads until data set is closed
+                        for (int i = 0; i < part.size(); i++) {
+                            if (part.get(i).getInput().get(0) != part.getRow(i)) {
+                                throw new AssertionError("Wrong value in row " + part.getRow(i));
+                            }
+                        }
+                    }
+                } catch (IllegalStateException ex) {
+                    // expected after close
+                } catch (Throwable ex) {
+                    error.set(ex);
+                }
+            });
+            readers[t].start();
+        }
+
+        started.await();
+        Thread.sleep(50);
+        mapped.close();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
+
+}
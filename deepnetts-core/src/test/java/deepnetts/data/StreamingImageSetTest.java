@@ -0,0 +1,132 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import deepnetts.util.DeepNettsException;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that streaming image set reads the same index files as image set,
+ * and loads all images in order through the prefetching iterator.
+ */
+public class StreamingImageSetTest {
+
+    private static final float DELTA = 1e-6f;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes small images to label folders, and labels and index files. First
+     * images have labels in the index, others use their folder as label.
+     */
+    static File createImages(File root, int count) throws IOException {
+        final String[] labels = {"cats", "dogs"};
+        Files.write(new File(root, "labels.txt").toPath(), Arrays.asList(labels), StandardCharsets.UTF_8);
+
+        final StringBuilder index = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            final String label = labels[i % 2];
+            final File dir = new File(root, label);
+            dir.mkdirs();
+
+            final BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+            for (int x = 0; x < 4; x++) {
+                for (int y = 0; y < 3; y++) {
+                    image.setRGB(x, y, (i * 40 + x * 20 + y * 10) << 8 | (i * 7 % 256));
+                }
+            }
+            ImageIO.write(image, "png", new File(dir, i + ".png"));
+
+            index.append(label).append(File.separator).append(i).append(".png");
+            if (i < count / 2) {
+                index.append(' ').append(label);
+            }
+            index.append(System.lineSeparator()).append(System.lineSeparator());
+        }
+
+        final File indexFile = new File(root, "index.txt");
+        Files.write(indexFile.toPath(), index.toString().getBytes(StandardCharsets.UTF_8));
+        return indexFile;
+    }
+
+    private StreamingImageSet load(File indexFile) {
+        final StreamingImageSet imageSet = new StreamingImageSet(4, 3);
+        imageSet.loadLabels(new File(indexFile.getParentFile(), "labels.txt"));
+        imageSet.loadImages(indexFile);
+        return imageSet;
+    }
+
+    @Test
+    public void testLoadsSameIndexAsImageSet() throws IOException {
+        final File indexFile = createImages(folder.getRoot(), 6);
+        final StreamingImageSet streaming = load(indexFile);
+
+        final ImageSet imageSet = new ImageSet(4, 3);
+        imageSet.loadLabels(new File(folder.getRoot(), "labels.txt"));
+        imageSet.loadImages(indexFile);
+
+        assertEquals(imageSet.size(), streaming.size());
+        for (int i = 0; i < imageSet.size(); i++) {
+            assertEquals(imageSet.get(i).getLabel(), streaming.get(i).getLabel());
+            assertArrayEquals(imageSet.get(i).getTargetOutput().getValues(), streaming.get(i).getTargetOutput().getValues(), DELTA);
+            assertArrayEquals(imageSet.get(i).getInput().getValues(), streaming.get(i).getInput().getValues(), DELTA);
+        }
+    }
+
+    @Test
+    public void testIteratorLoadsAllImagesInOrder() throws IOException {
+        final StreamingImageSet imageSet = load(createImages(folder.getRoot(), 7));
+        imageSet.setBatchSize(2);
+        imageSet.setPrefetchBatches(1);
+
+        final Iterator<ExampleImage> images = imageSet.iterator();
+        for (int i = 0; i < imageSet.size(); i++) {
+            final ExampleImage image = images.next();
+            assertEquals(imageSet.get(i).getLabel(), image.getLabel());
+            assertArrayEquals(imageSet.get(i).getInput().getValues(), image.getInput().getValues(), DELTA);
+        }
+        assertFalse(images.hasNext());
+    }
+
+    @Test(expected = DeepNettsException.class)
+    public void testImageWithoutFolderAndLabelIsRejected() throws IOException {
+        final File indexFile = createImages(folder.getRoot(), 2);
+        Files.write(indexFile.toPath(), Arrays.asList("0.png"), StandardCharsets.UTF_8);
+        load(indexFile);
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that shuffled and split tabular data sets keep items in index order,
+ * and that their item lists stay mutable.
+ */
+public class TabularDataSetTest {
+
+    static TabularDataSet<TabularDataSet.Item> createDataSet(int size) {
+        final TabularDataSet<TabularDataSet.Item> dataSet = new TabularDataSet<>(1, 1);
+        for (int i = 0; i < size; i++) {
+            dataSet.add(new TabularDataSet.Item(new float[] {i}, new float[] {i % 2}));
+        }
+        return dataSet;
+    }
+
+    @Test
+    public void testIteratorFollowsShuffledOrder() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = createDataSet(20);
+        dataSet.shuffle(new Random(1));
+
+        int i = 0;
+        for (TabularDataSet.Item item : dataSet) {
+            assertSame(dataSet.get(i++), item);
+        }
+        assertEquals(20, i);
+    }
+
+    @Test
+    public void testItemsOfShuffledDataSetAreMutable() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = createDataSet(10);
+        dataSet.shuffle(new Random(1));
+        final List<TabularDataSet.Item> expected = new ArrayList<>();
+        dataSet.forEach(expected::add);
+
+        final List<TabularDataSet.Item> items = dataSet.getItems();
+        assertEquals(expected, items);
+
+        final TabularDataSet.Item added = new TabularDataSet.Item(new float[] {10}, new float[] {0});
+        items.add(added);
+        items.remove(0);
+        assertEquals(10, dataSet.size());
+        assertSame(expected.get(1), dataSet.get(0));
+        assertSame(added, dataSet.get(9));
+    }
+
+    @Test
+    public void testItemsOfPartDoNotChangeOtherParts() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = createDataSet(10);
+        final TabularDataSet<?>[] parts = (TabularDataSet<?>[]) dataSet.split(0.5, 0.5);
+        final Object first = parts[1].get(0);
+
+        parts[0].getItems().clear();
+        assertEquals(0, parts[0].size());
+        assertEquals(5, parts[1].size());
+        assertEquals(10, dataSet.size());
+        assertSame(first, parts[1].get(0));
+
+        final TabularDataSet<TabularDataSet.Item> merged = dataSet.subSet();
+        parts[1].getItems().remove(0);
+        merged.addAll(dataSet.subSet(0, 1));
+        assertEquals(2, merged.size());
+        assertEquals(4, parts[1].size());
+    }
+
+    @Test
+    public void testOrderOfUnshuffledDataSetDoesNotCreateIndex() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = createDataSet(5);
+        final List<TabularDataSet.Item> items = dataSet.getItems();
+
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, dataSet.getOrder());
+        assertSame(items, dataSet.getItems());
+    }
+
+    @Test
+    public void testSetOrder() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = createDataSet(4);
+        final List<TabularDataSet.Item> items = new ArrayList<>(dataSet.getItems());
+        dataSet.setOrder(new int[] {2, 0, 3, 1});
+
+        assertArrayEquals(new int[] {2, 0, 3, 1}, dataSet.getOrder());
+        assertSame(items.get(2), dataSet.get(0));
+        assertSame(items.get(1), dataSet.get(3));
+    }
+
+    @Test
+    public void testSetOrderRejectsOrderWhichIsNotPermutation() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = createDataSet(4);
+        dataSet.shuffle(new Random(1));
+        final int[] order = dataSet.getOrder();
+
+        for (int[] invalid : new int[][] {{0, 1, 2}, {0, 0, 1, 2}, {0, 1, 2, 4}, {-1, 0, 1, 2}}) {
+            try {
+                dataSet.setOrder(invalid);
+                fail("Order which is not a permutation should be rejected");
+            } catch (IllegalArgumentException ex) {
+                assertArrayEquals(order, dataSet.getOrder());
+            }
+        }
+    }
+
+}
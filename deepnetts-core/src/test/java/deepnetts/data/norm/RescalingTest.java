@@ -0,0 +1,103 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.data.norm;
+
+import deepnetts.data.ArrayDataSet;
+import deepnetts.data.ExampleImage;
+import deepnetts.data.MLDataItem;
+import deepnetts.data.MappedDataSet;
+import deepnetts.data.TabularDataSet;
+import deepnetts.util.DeepNettsException;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that rescaling changes stored values, and rejects data sets with
+ * items which are views of values stored elsewhere.
+ */
+public class RescalingTest {
+
+    private static final float[] SHIFT = {1, 2}, SCALE = {2, 4};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ArrayDataSet createDataSet() {
+        return new ArrayDataSet(2, 1, new float[] {1, 2, 3, 6, 5, 10}, new float[] {1, 2, 3});
+    }
+
+    @Test
+    public void testRescaleArrayDataSet() {
+        final ArrayDataSet dataSet = createDataSet();
+        dataSet.shuffle();
+        Rescaling.apply(dataSet, SHIFT, SCALE, new float[] {1}, new float[] {2});
+
+        assertArrayEquals(new float[] {0, 0, 1, 1, 2, 2}, dataSet.getInputs(), 0);
+        assertArrayEquals(new float[] {0, 0.5f, 1}, dataSet.getTargets(), 0);
+    }
+
+    @Test
+    public void testRescaleTabularDataSet() {
+        final TabularDataSet<MLDataItem> dataSet = new TabularDataSet<>(2, 1);
+        dataSet.add(new TabularDataSet.Item(new float[] {3, 6}, new float[] {3}));
+        Rescaling.apply(dataSet, SHIFT, SCALE, null, null);
+
+        assertArrayEquals(new float[] {1, 1}, dataSet.get(0).getInput().getValues(), 0);
+        assertArrayEquals(new float[] {3}, dataSet.get(0).getTargetOutput().getValues(), 0);
+    }
+
+    @Test
+    public void testMappedDataSetIsRejected() throws IOException {
+        final File file = folder.newFile();
+        MappedDataSet.write(createDataSet(), file);
+
+        try (MappedDataSet dataSet = MappedDataSet.open(file)) {
+            Rescaling.apply(dataSet, SHIFT, SCALE, null, null);
+            fail("Mapped data set should be rejected");
+        } catch (DeepNettsException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompactImagesAreRejected() {
+        final TabularDataSet<ExampleImage> dataSet = new TabularDataSet<>(12, 1);
+        dataSet.add(new ExampleImage(new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB), "a", false));
+        dataSet.add(new ExampleImage(new BufferedImage(2, 2, BufferedImage.TYPE_INT_RGB), "a", true));
+
+        final float[] values = dataSet.get(0).getInput().getValues().clone();
+        try {
+            Rescaling.apply(dataSet, new float[12], new float[12], null, null);
+            fail("Compact images should be rejected");
+        } catch (DeepNettsException ex) {
+            assertArrayEquals("no image is rescaled", values, dataSet.get(0).getInput().getValues(), 0);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net;
+
+import deepnetts.util.Tensor;
+import deepnetts.util.TestFixtures;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Checks that batched predictions match predictions of the network for single
+ * samples, for full and partial batches.
+ */
+public class BatchingPredictorTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private static Tensor createInput(int seed) {
+        final float[] values = new float[5];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) Math.sin(seed * 2.3 + i);
+        }
+        return new Tensor(values);
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        final float[] values = new float[buffer.remaining()];
+        buffer.get(values);
+        return values;
+    }
+
+    @Test
+    public void testPredictionsMatchNetwork() throws Exception {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+
+        try (BatchingPredictor predictor = new BatchingPredictor(neuralNet, 4, 10000)) {
+            final List<CompletableFuture<FloatBuffer>> results = new ArrayList<>();
+            // more requests than the max batch size, so the last batch is partial
+            for (int i = 0; i < 10; i++) {
+                results.add(predictor.predict(createInput(i)));
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                final FloatBuffer output = results.get(i).get();
+                assertEquals(3, output.remaining());
+                neuralNet.setInput(createInput(i));
+                assertArrayEquals("request " + i, neuralNet.getOutput(), toArray(output), DELTA);
+            }
+        }
+
+        assertFalse(neuralNet.isFrozen());
+    }
+
+    @Test
+    public void testConcurrentPredictions() throws Exception {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final int threads = 4, requests = 50;
+        final float[][][] outputs = new float[threads][requests][];
+
+        try (BatchingPredictor predictor = new BatchingPredictor(neuralNet, 8, 100)) {
+            final List<Thread> clients = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                final Thread client = new Thread(() -> {
+                    for (int i = 0; i < requests; i++) {
+                        outputs[thread][i] = toArray(predictor.predict(createInput(thread * requests + i)).join());
+                    }
+                });
+                client.start();
+                clients.add(client);
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+        }
+
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < requests; i++) {
+                neuralNet.setInput(createInput(t * requests + i));
+                assertArrayEquals(neuralNet.getOutput(), outputs[t][i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void testIdleWorkerWaitsWithoutTimeout() throws Exception {
+        try (BatchingPredictor predictor = new BatchingPredictor(TestFixtures.createFeedForwardNetwork(), 4, 100)) {
+            predictor.predict(createInput(0)).get();
+
+            Thread worker = null;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("DeepNetts-BatchingPredictor")) worker = thread;
+            }
+            final long end = System.currentTimeMillis() + 5000;
+            while (worker.getState() != Thread.State.WAITING && System.currentTimeMillis() < end) {
+                Thread.sleep(1);
+            }
+            assertEquals(Thread.State.WAITING, worker.getState());
+
+            predictor.close();
+            assertFalse(worker.isAlive());
+        }
+    }
+
+    @Test
+    public void testCloseCompletesQueuedRequests() throws Exception {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final List<CompletableFuture<FloatBuffer>> results = new ArrayList<>();
+        final BatchingPredictor predictor = new BatchingPredictor(neuralNet, 4, 100000);
+        for (int i = 0; i < 6; i++) {
+            results.add(predictor.predict(createInput(i)));
+        }
+        predictor.close();
+
+        for (int i = 0; i < results.size(); i++) {
+            assertTrue(results.get(i).isDone());
+            neuralNet.setInput(createInput(i));
+            assertArrayEquals("request " + i, neuralNet.getOutput(), toArray(results.get(i).get()), DELTA);
+        }
+
+        try {
+            predictor.predict(createInput(0));
+            fail("Closed predictor should reject requests");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net;
+
+import deepnetts.data.TabularDataSet;
+import deepnetts.util.Tensor;
+import deepnetts.util.TestFixtures;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import org.junit.Test;
+
+/**
+ * Checks that inference model gives the same predictions as its source
+ * network from many threads, and that it is not affected by later training
+ * of the network or by changes of the caller's tensors.
+ */
+public class InferenceModelTest {
+
+    private static float[] createInput(int size, int seed) {
+        final float[] values = new float[size];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) Math.sin(seed * 2.3 + i);
+        }
+        return values;
+    }
+
+    private static float[] predict(InferenceModel model, float[] input) {
+        final Tensor output = new Tensor(model.getOutputSize());
+        model.predict(new Tensor(input), output);
+        return output.getValues();
+    }
+
+    @Test
+    public void testConcurrentPredictionsMatchNetwork() throws InterruptedException {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final InferenceModel model = InferenceModel.of(neuralNet);
+        final int threads = 4, requests = 200;
+        final float[][][] outputs = new float[threads][requests][];
+
+        final List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            final Thread client = new Thread(() -> {
+                final Tensor input = new Tensor(model.getInputSize());
+                final Tensor output = new Tensor(model.getOutputSize());
+                for (int i = 0; i < requests; i++) {
+                    System.arraycopy(createInput(5, thread * requests + i), 0, input.getValues(), 0, 5);
+                    model.predict(input, output); // same tensors for all requests of a thread
+                    outputs[thread][i] = output.getValues().clone();
+                }
+            });
+            clients.add(client);
+        }
+        clients.forEach(Thread::start);
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < requests; i++) {
+                assertArrayEquals(neuralNet.predict(createInput(5, t * requests + i)), outputs[t][i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testConvolutionalNetwork() {
+        final ConvolutionalNetwork neuralNet = TestFixtures.createConvolutionalNetwork();
+        final InferenceModel model = InferenceModel.of(neuralNet);
+        final float[] input = createInput(model.getInputSize(), 1);
+
+        final Tensor networkInput = new Tensor(8, 8, 2);
+        System.arraycopy(input, 0, networkInput.getValues(), 0, input.length);
+        neuralNet.setInput(networkInput);
+        assertArrayEquals(neuralNet.getOutput(), predict(model, input), 0);
+    }
+
+    @Test
+    public void testTrainingOfNetworkDoesNotChangeModel() {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final InferenceModel model = InferenceModel.of(neuralNet);
+        final float[] input = createInput(5, 1);
+        final float[] before = predict(model, input);
+
+        final TabularDataSet<TabularDataSet.Item> dataSet = new TabularDataSet<>(5, 3);
+        dataSet.setColumnNames(new String[] {"in1", "in2", "in3", "in4", "in5", "a", "b", "c"});
+        for (int i = 0; i < 30; i++) {
+            final float[] target = new float[3];
+            target[i % 3] = 1;
+            dataSet.add(new TabularDataSet.Item(createInput(5, i), target));
+        }
+        neuralNet.getTrainer().setMaxEpochs(3).setLearningRate(0.5f);
+        neuralNet.getTrainer().train(dataSet);
+
+        assertFalse(Arrays.equals(before, neuralNet.predict(input)));
+        assertArrayEquals(before, predict(model, input), 0);
+        assertFalse(neuralNet.isFrozen());
+    }
+
+    @Test
+    public void testCallerTensorsAreNotAliased() {
+        final InferenceModel model = InferenceModel.of(TestFixtures.createFeedForwardNetwork());
+        final Tensor input = new Tensor(createInput(5, 1));
+        final Tensor output = new Tensor(model.getOutputSize());
+        model.predict(input, output);
+        final float[] expected = output.getValues().clone();
+
+        // changing input after prediction does not change its output
+        final float first = input.getValues()[0];
+        input.getValues()[0] += 1;
+        assertArrayEquals(expected, output.getValues(), 0);
+
+        // next prediction writes to its own output tensor only
+        final Tensor otherOutput = new Tensor(model.getOutputSize());
+        model.predict(input, otherOutput);
+        assertArrayEquals(expected, output.getValues(), 0);
+        assertNotSame(output.getValues(), otherOutput.getValues());
+
+        // changing output does not affect next prediction
+        input.getValues()[0] = first;
+        output.fill(42);
+        model.predict(input, otherOutput);
+        assertArrayEquals(expected, otherOutput.getValues(), 0);
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net.layers;
+
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.util.Tensor;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Checks that the last, smaller batch reuses batch tensors of larger batches
+ * and gives the same results as a batch created for its exact size.
+ */
+public class BatchModeTest {
+
+    private static final float DELTA = 1e-5f;
+
+    private static Tensor createBatch(int capacity, int size, int seed) {
+        final Tensor batch = new Tensor(8, 8, 2, capacity);
+        for (int b = 0; b < size; b++) {
+            final float[] values = ConvolutionalLayerTest.createInput(seed + b).getValues();
+            System.arraycopy(values, 0, batch.getValues(), b * values.length, values.length);
+        }
+        return batch;
+    }
+
+    private static Tensor createErrors(int capacity, int size) {
+        final Tensor errors = new Tensor(1, 2, 1, capacity);
+        for (int i = 0; i < size * 2; i++) {
+            errors.getValues()[i] = (float) Math.cos(i * 1.3);
+        }
+        return errors;
+    }
+
+    private static void trainBatch(ConvolutionalNetwork neuralNet, Tensor inputs, int size, Tensor errors) {
+        neuralNet.setInputBatch(inputs, size);
+        neuralNet.setOutputErrorBatch(errors);
+        neuralNet.backwardBatch();
+        neuralNet.applyWeightChanges();
+    }
+
+    @Test
+    public void testPartialBatchReusesTensors() {
+        final ConvolutionalNetwork neuralNet = ConvolutionalLayerTest.createNetwork(true, 1);
+        neuralNet.setInputBatch(createBatch(4, 4, 0));
+
+        final AbstractLayer outputLayer = neuralNet.getOutputLayer();
+        final Tensor batchOutputs = outputLayer.getBatchOutputs();
+        final Tensor batchDeltas = outputLayer.getBatchDeltas();
+
+        neuralNet.setInputBatch(createBatch(4, 2, 0), 2);
+        assertSame(batchOutputs, outputLayer.getBatchOutputs());
+        assertSame(batchDeltas, outputLayer.getBatchDeltas());
+        assertEquals(2, outputLayer.getBatchSamples());
+    }
+
+    @Test
+    public void testPartialBatchMatchesExactBatch() {
+        final ConvolutionalNetwork partial = ConvolutionalLayerTest.createNetwork(true, 1);
+        final ConvolutionalNetwork exact = ConvolutionalLayerTest.createNetwork(true, 1);
+
+        // fill larger batch tensors with values of a full batch first, which should be ignored later
+        partial.setInputBatch(createBatch(4, 4, 10));
+        partial.setOutputErrorBatch(createErrors(4, 4));
+        partial.backwardBatch();
+
+        trainBatch(partial, createBatch(4, 2, 0), 2, createErrors(4, 2));
+        trainBatch(exact, createBatch(2, 2, 0), 2, createErrors(2, 2));
+
+        assertArrayEquals(exact.getOutputBatch().getValues(), Arrays.copyOf(partial.getOutputBatch().getValues(), 4), DELTA);
+
+        for (int l = 1; l < exact.getLayers().size(); l++) {
+            final AbstractLayer expected = exact.getLayers().get(l);
+            final AbstractLayer actual = partial.getLayers().get(l);
+            final String message = "layer " + l;
+
+            if (actual instanceof ConvolutionalLayer) {
+                final Tensor[] expectedFilters = ((ConvolutionalLayer) expected).getFilters();
+                final Tensor[] actualFilters = ((ConvolutionalLayer) actual).getFilters();
+                for (int ch = 0; ch < actualFilters.length; ch++) {
+                    assertArrayEquals(message, expectedFilters[ch].getValues(), actualFilters[ch].getValues(), DELTA);
+                }
+            } else if (actual.getWeights() != null) {
+                assertArrayEquals(message, expected.getWeights().getValues(), actual.getWeights().getValues(), DELTA);
+            }
+            if (actual.getBiases() != null) {
+                assertArrayEquals(message, expected.getBiases(), actual.getBiases(), DELTA);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net.layers;
+
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import deepnetts.net.train.opt.OptimizerType;
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.Tensor;
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.Test;
+
+/**
+ * Checks that im2col and GEMM in convolutional layer give the same results
+ * as direct convolution.
+ */
+public class ConvolutionalLayerTest {
+
+    private static final float DELTA = 1e-5f;
+
+    /**
+     * Creates network with two convolutional layers, so that all backward
+     * paths of convolutional layer are used.
+     */
+    static ConvolutionalNetwork createNetwork(boolean useIm2Col, int stride) {
+        RandomGenerator.getDefault().initSeed(123);
+        final ConvolutionalNetwork neuralNet = ConvolutionalNetwork.builder()
+                .addInputLayer(8, 8, 2)
+                .addConvolutionalLayer(3, 3, 4, stride, ActivationType.TANH)
+                .addConvolutionalLayer(3, 3, 3, 1, ActivationType.TANH)
+                .addMaxPoolingLayer(2, 2)
+                .addFullyConnectedLayer(6, ActivationType.TANH)
+                .addOutputLayer(2, ActivationType.SOFTMAX)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .build();
+
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            layer.setLearningRate(0.1f);
+            layer.setOptimizerType(OptimizerType.SGD);
+            if (layer instanceof ConvolutionalLayer) {
+                ((ConvolutionalLayer) layer).setUseIm2Col(useIm2Col);
+            }
+        }
+        return neuralNet;
+    }
+
+    static Tensor createInput(int seed) {
+        final Tensor input = new Tensor(8, 8, 2);
+        for (int i = 0; i < input.size(); i++) {
+            input.getValues()[i] = (float) Math.sin(seed * 31 + i * 0.7);
+        }
+        return input;
+    }
+
+    @Test
+    public void testForwardIm2ColMatchesDirectConvolution() {
+        for (int stride = 1; stride <= 2; stride++) {
+            final ConvolutionalNetwork im2col = createNetwork(true, stride);
+            final ConvolutionalNetwork direct = createNetwork(false, stride);
+
+            for (int sample = 0; sample < 3; sample++) {
+                im2col.setInput(createInput(sample));
+                direct.setInput(createInput(sample));
+
+                for (int l = 1; l < im2col.getLayers().size(); l++) {
+                    assertArrayEquals("layer " + l + ", stride " + stride,
+                            direct.getLayers().get(l).getOutputs().getValues(),
+                            im2col.getLayers().get(l).getOutputs().getValues(), DELTA);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBackwardIm2ColMatchesDirectConvolution() {
+        for (int stride = 1; stride <= 2; stride++) {
+            final ConvolutionalNetwork im2col = createNetwork(true, stride);
+            final ConvolutionalNetwork direct = createNetwork(false, stride);
+
+            for (int sample = 0; sample < 3; sample++) {
+                final float[] target = sample % 2 == 0 ? new float[] {1, 0} : new float[] {0, 1};
+                trainSample(im2col, createInput(sample), target);
+                trainSample(direct, createInput(sample), target);
+
+                for (int l = 1; l < im2col.getLayers().size(); l++) {
+                    final AbstractLayer expected = direct.getLayers().get(l);
+                    final AbstractLayer actual = im2col.getLayers().get(l);
+                    final String message = "layer " + l + ", stride " + stride + ", sample " + sample;
+                    assertArrayEquals(message, expected.getDeltas().getValues(), actual.getDeltas().getValues(), DELTA);
+
+                    if (actual instanceof ConvolutionalLayer) {
+                        final Tensor[] expectedFilters = ((ConvolutionalLayer) expected).getFilters();
+                        final Tensor[] actualFilters = ((ConvolutionalLayer) actual).getFilters();
+                        for (int ch = 0; ch < actualFilters.length; ch++) {
+                            assertArrayEquals(message, expectedFilters[ch].getValues(), actualFilters[ch].getValues(), DELTA);
+                        }
+                        assertArrayEquals(message, expected.getBiases(), actual.getBiases(), DELTA);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void trainSample(ConvolutionalNetwork neuralNet, Tensor input, float[] target) {
+        neuralNet.setInput(input);
+        neuralNet.getLossFunction().reset();
+        neuralNet.setOutputError(neuralNet.getLossFunction().addPatternError(neuralNet.getOutput(), target));
+        neuralNet.backward();
+        neuralNet.applyWeightChanges();
+    }
+
+}
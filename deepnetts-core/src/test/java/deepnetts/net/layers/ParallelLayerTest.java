@@ -0,0 +1,217 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net.layers;
+
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+import deepnetts.net.train.opt.OptimizerType;
+import deepnetts.util.Parallel;
+import deepnetts.util.RandomGenerator;
+import deepnetts.util.Tensor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that layers running channels and neuron blocks in parallel on the
+ * shared pool give the same outputs, deltas and weight changes as
+ * sequential layers.
+ */
+public class ParallelLayerTest {
+
+    private static final float DELTA = 1e-6f;
+
+    private ForkJoinPool defaultPool;
+    private long defaultThreshold;
+    private ForkJoinPool pool;
+    private final AtomicInteger workers = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        defaultPool = Parallel.getPool();
+        defaultThreshold = Parallel.getThreshold();
+        // own pool with several threads, so parallel path is used on any machine
+        pool = new ForkJoinPool(4, p -> {
+            workers.incrementAndGet();
+            return ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        }, null, false);
+        Parallel.setPool(pool);
+        Parallel.setThreshold(0);
+    }
+
+    @After
+    public void tearDown() {
+        Parallel.setPool(defaultPool);
+        Parallel.setThreshold(defaultThreshold);
+        pool.shutdown();
+    }
+
+    private static void configure(NeuralNetwork<?> neuralNet, boolean parallel) {
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            layer.setLearningRate(0.1f);
+            layer.setOptimizerType(OptimizerType.SGD);
+        }
+        neuralNet.setParallel(parallel);
+    }
+
+    /**
+     * Network with convolutional layer after input, convolutional layer
+     * and max pooling layer before fully connected layer, and output layer
+     * with many inputs, so all channel and neuron block paths are used.
+     */
+    private static ConvolutionalNetwork createConvolutionalNetwork(boolean useIm2Col) {
+        RandomGenerator.getDefault().initSeed(123);
+        final ConvolutionalNetwork neuralNet = ConvolutionalNetwork.builder()
+                .addInputLayer(12, 12, 2)
+                .addConvolutionalLayer(3, 3, 4, ActivationType.TANH)
+                .addConvolutionalLayer(3, 3, 6, ActivationType.TANH)
+                .addMaxPoolingLayer(2, 2)
+                .addFullyConnectedLayer(1024, ActivationType.TANH)
+                .addOutputLayer(32, ActivationType.SOFTMAX)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .build();
+        for (AbstractLayer layer : neuralNet.getLayers()) {
+            if (layer instanceof ConvolutionalLayer) {
+                ((ConvolutionalLayer) layer).setUseIm2Col(useIm2Col);
+            }
+        }
+        return neuralNet;
+    }
+
+    /**
+     * Network with fully connected layer directly after convolutional layer.
+     */
+    private static ConvolutionalNetwork createConvolutionalToFullyConnectedNetwork() {
+        RandomGenerator.getDefault().initSeed(123);
+        return ConvolutionalNetwork.builder()
+                .addInputLayer(12, 12, 2)
+                .addConvolutionalLayer(3, 3, 6, ActivationType.RELU)
+                .addFullyConnectedLayer(64, ActivationType.TANH)
+                .addOutputLayer(2, ActivationType.SIGMOID)
+                .lossFunction(LossType.MEAN_SQUARED_ERROR)
+                .build();
+    }
+
+    /**
+     * Feed forward network with enough inputs per neuron in hidden and output
+     * layers to split them into several neuron blocks.
+     */
+    private static FeedForwardNetwork createFeedForwardNetwork(ActivationType outputActivation, LossType lossType) {
+        return FeedForwardNetwork.builder()
+                .randomSeed(123)
+                .addInputLayer(300)
+                .addFullyConnectedLayer(1024, ActivationType.TANH)
+                .addFullyConnectedLayer(48, ActivationType.RELU)
+                .addOutputLayer(40, outputActivation)
+                .lossFunction(lossType)
+                .build();
+    }
+
+    private static Tensor createInput(AbstractLayer inputLayer, int seed) {
+        final Tensor input = new Tensor(inputLayer.getHeight(), inputLayer.getWidth(), inputLayer.getDepth());
+        for (int i = 0; i < input.size(); i++) {
+            input.getValues()[i] = (float) Math.sin(seed * 31 + i * 0.7);
+        }
+        return input;
+    }
+
+    private static float[] createTarget(int width, int seed) {
+        final float[] target = new float[width];
+        target[seed % width] = 1;
+        return target;
+    }
+
+    private static void forwardAndBackward(NeuralNetwork<?> neuralNet, Tensor input, float[] target) {
+        neuralNet.setInput(input);
+        neuralNet.getLossFunction().reset();
+        neuralNet.setOutputError(neuralNet.getLossFunction().addPatternError(neuralNet.getOutput(), target));
+        neuralNet.backward();
+    }
+
+    /**
+     * Trains two networks on the same samples, sequential and parallel one,
+     * and compares outputs, deltas and weight changes of all layers after
+     * each sample.
+     */
+    private void assertParallelMatchesSequential(Supplier<? extends NeuralNetwork<?>> factory) {
+        final NeuralNetwork<?> sequential = factory.get();
+        final NeuralNetwork<?> parallel = factory.get();
+        configure(sequential, false);
+        configure(parallel, true);
+        final int outputs = sequential.getOutputLayer().getWidth();
+
+        for (int sample = 0; sample < 3; sample++) {
+            final Tensor input = createInput(sequential.getInputLayer(), sample);
+            final float[] target = createTarget(outputs, sample);
+            forwardAndBackward(sequential, input, target);
+            forwardAndBackward(parallel, input, target);
+
+            for (int l = 1; l < sequential.getLayers().size(); l++) {
+                final AbstractLayer expected = sequential.getLayers().get(l);
+                final AbstractLayer actual = parallel.getLayers().get(l);
+                final String message = "layer " + l + ", sample " + sample;
+                assertArrayEquals(message, expected.getOutputs().getValues(), actual.getOutputs().getValues(), DELTA);
+                assertArrayEquals(message, expected.getDeltas().getValues(), actual.getDeltas().getValues(), DELTA);
+                if (expected instanceof ConvolutionalLayer) {
+                    final Tensor[] expectedDeltaWeights = ((ConvolutionalLayer) expected).getFilterDeltaWeights();
+                    final Tensor[] actualDeltaWeights = ((ConvolutionalLayer) actual).getFilterDeltaWeights();
+                    for (int ch = 0; ch < expectedDeltaWeights.length; ch++) {
+                        assertArrayEquals(message, expectedDeltaWeights[ch].getValues(), actualDeltaWeights[ch].getValues(), DELTA);
+                    }
+                } else if (expected.getDeltaWeights() != null) {
+                    assertArrayEquals(message, expected.getDeltaWeights().getValues(), actual.getDeltaWeights().getValues(), DELTA);
+                }
+                if (expected.getDeltaBiases() != null) {
+                    assertArrayEquals(message, expected.getDeltaBiases(), actual.getDeltaBiases(), DELTA);
+                }
+            }
+
+            sequential.applyWeightChanges();
+            parallel.applyWeightChanges();
+        }
+        assertTrue("Parallel layers should run tasks on the pool", workers.get() > 0);
+    }
+
+    @Test
+    public void testConvolutionalChannelsInParallel() {
+        assertParallelMatchesSequential(() -> createConvolutionalNetwork(true));
+        assertParallelMatchesSequential(() -> createConvolutionalNetwork(false));
+        assertParallelMatchesSequential(ParallelLayerTest::createConvolutionalToFullyConnectedNetwork);
+    }
+
+    @Test
+    public void testNeuronBlocksInParallel() {
+        assertParallelMatchesSequential(() -> createFeedForwardNetwork(ActivationType.SOFTMAX, LossType.CROSS_ENTROPY));
+        assertParallelMatchesSequential(() -> createFeedForwardNetwork(ActivationType.SIGMOID, LossType.MEAN_SQUARED_ERROR));
+    }
+
+}
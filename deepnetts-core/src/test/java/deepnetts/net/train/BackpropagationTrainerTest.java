@@ -0,0 +1,75 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net.train;
+
+import deepnetts.data.TabularDataSet;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.util.TestFixtures;
+import java.io.File;
+import java.io.IOException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that training resumed from checkpoint gives the same weights as
+ * training which was not interrupted.
+ */
+public class BackpropagationTrainerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static BackpropagationTrainer createTrainer(FeedForwardNetwork neuralNet, int maxEpochs) {
+        final BackpropagationTrainer trainer = neuralNet.getTrainer();
+        trainer.setLearningRate(0.1f).setMomentum(0.5f).setMaxError(0).setMaxEpochs(maxEpochs);
+        trainer.setShuffle(true);
+        return trainer;
+    }
+
+    @Test
+    public void testResumedTrainingGivesSameWeights() throws IOException {
+        final FeedForwardNetwork expected = TestFixtures.createBinaryClassifier(4, 8);
+        createTrainer(expected, 4).train(TestFixtures.createBinaryDataSet(4, 60, 1));
+
+        final File checkpoint = folder.newFile();
+        final FeedForwardNetwork interrupted = TestFixtures.createBinaryClassifier(4, 8);
+        createTrainer(interrupted, 2).setTrainingCheckpoint(checkpoint.getPath())
+                                     .train(TestFixtures.createBinaryDataSet(4, 60, 1));
+
+        final FeedForwardNetwork resumed = TestFixtures.createBinaryClassifier(4, 8); // uses random generator again
+        final TabularDataSet<TabularDataSet.Item> trainingSet = TestFixtures.createBinaryDataSet(4, 60, 1);
+        final BackpropagationTrainer trainer = createTrainer(resumed, 4);
+        trainer.resume(checkpoint);
+        trainer.train(trainingSet);
+
+        assertEquals(4, trainer.getCurrentEpoch());
+        for (int l = 1; l < expected.getLayers().size(); l++) {
+            assertArrayEquals(expected.getLayers().get(l).getWeights().getValues(), resumed.getLayers().get(l).getWeights().getValues(), 0);
+            assertArrayEquals(expected.getLayers().get(l).getBiases(), resumed.getLayers().get(l).getBiases(), 0);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.net.train;
+
+import deepnetts.data.TabularDataSet;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.util.TestFixtures;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Checks that data parallel training gives the same weights regardless of the
+ * number of replicas, and that validation and early stopping are used.
+ */
+public class DataParallelTrainerTest {
+
+    private static final float DELTA = 1e-4f;
+
+    private static FeedForwardNetwork train(int replicas, boolean useBatchTensors) {
+        final FeedForwardNetwork neuralNet = TestFixtures.createBinaryClassifier(4, 8);
+        new DataParallelTrainer(neuralNet)
+                .setReplicaCount(replicas)
+                .setUseBatchTensors(useBatchTensors)
+                .setBatchSize(8)
+                .setLearningRate(0.1f)
+                .setMaxError(0)
+                .setMaxEpochs(5)
+                .train(TestFixtures.createBinaryDataSet(4, 30, 0));
+        return neuralNet;
+    }
+
+    private static void assertSameWeights(FeedForwardNetwork expected, FeedForwardNetwork actual) {
+        for (int l = 1; l < expected.getLayers().size(); l++) {
+            final AbstractLayer expectedLayer = expected.getLayers().get(l);
+            final AbstractLayer actualLayer = actual.getLayers().get(l);
+            assertArrayEquals("layer " + l, expectedLayer.getWeights().getValues(), actualLayer.getWeights().getValues(), DELTA);
+            assertArrayEquals("layer " + l, expectedLayer.getBiases(), actualLayer.getBiases(), DELTA);
+        }
+    }
+
+    @Test
+    public void testReplicasGiveSameWeightsAsSingleReplica() {
+        final FeedForwardNetwork single = train(1, false);
+        assertSameWeights(single, train(3, false));
+        assertSameWeights(single, train(4, false));
+    }
+
+    @Test
+    public void testBatchTensorsGiveSameWeights() {
+        assertSameWeights(train(3, false), train(3, true));
+    }
+
+    @Test
+    public void testAsynchronousTrainingReducesLoss() {
+        final FeedForwardNetwork neuralNet = TestFixtures.createBinaryClassifier(4, 8);
+        final TabularDataSet<TabularDataSet.Item> dataSet = TestFixtures.createBinaryDataSet(4, 200, 0);
+        final float initialLoss = neuralNet.getLossFunction().valueFor(neuralNet, dataSet);
+
+        final DataParallelTrainer trainer = new DataParallelTrainer(neuralNet)
+                .setReplicaCount(4)
+                .setAsynchronous(true)
+                .setShuffle(true)
+                .setBatchSize(4)
+                .setLearningRate(0.1f)
+                .setMaxError(0)
+                .setMaxEpochs(20);
+        trainer.train(dataSet);
+
+        assertTrue(trainer.getTrainingLoss() < initialLoss);
+    }
+
+    @Test
+    public void testAsynchronousShuffleKeepsTrainingSetOrder() {
+        final TabularDataSet<TabularDataSet.Item> dataSet = TestFixtures.createBinaryDataSet(4, 50, 0);
+        final List<TabularDataSet.Item> items = new ArrayList<>(dataSet.getItems());
+
+        new DataParallelTrainer(TestFixtures.createBinaryClassifier(4, 8))
+                .setReplicaCount(3)
+                .setAsynchronous(true)
+                .setShuffle(true)
+                .setMaxError(0)
+                .setMaxEpochs(3)
+                .train(dataSet);
+
+        for (int i = 0; i < items.size(); i++) {
+            assertSame(items.get(i), dataSet.get(i));
+        }
+    }
+
+    @Test
+    public void testEarlyStoppingUsesValidationSet() {
+        final DataParallelTrainer trainer = new DataParallelTrainer(TestFixtures.createBinaryClassifier(4, 8))
+                .setReplicaCount(2)
+                .setMaxError(0)
+                .setMaxEpochs(100)
+                .setEarlyStopping(true)
+                .setEarlyStoppingPatience(0)
+                .setEarlyStoppingMinDelta(1);
+        trainer.train(TestFixtures.createBinaryDataSet(4, 20, 0), TestFixtures.createBinaryDataSet(4, 10, 100));
+
+        // validation loss of the first epoch is always an improvement
+        assertEquals(2, trainer.getCurrentEpoch());
+        assertTrue(trainer.getValidationLoss() > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEarlyStoppingWithoutValidationSetIsRejected() {
+        new DataParallelTrainer(TestFixtures.createBinaryClassifier(4, 8))
+                .setEarlyStopping(true)
+                .train(TestFixtures.createBinaryDataSet(4, 20, 0));
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.layers.AbstractLayer;
+import deepnetts.net.layers.InputLayer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that networks written to binary file are read with the same
+ * architecture, weights and outputs, without using random generator.
+ */
+public class BinaryModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static Tensor createInput(NeuralNetwork<?> neuralNet) {
+        final AbstractLayer input = neuralNet.getInputLayer();
+        final Tensor tensor = new Tensor(input.getHeight(), input.getWidth(), input.getDepth());
+        final Random random = new Random(7);
+        for (int i = 0; i < tensor.size(); i++) {
+            tensor.getValues()[i] = random.nextFloat() - 0.5f;
+        }
+        return tensor;
+    }
+
+    static float[] output(NeuralNetwork<?> neuralNet, Tensor input) {
+        neuralNet.setInput(input);
+        neuralNet.forward();
+        return neuralNet.getOutput().clone();
+    }
+
+    static void assertSameNetwork(NeuralNetwork<?> expected, NeuralNetwork<?> actual) {
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getLayers().size(), actual.getLayers().size());
+        for (int l = 0; l < expected.getLayers().size(); l++) {
+            final List<float[]> expectedParameters = LayerSpec.parameters(expected.getLayers().get(l));
+            final List<float[]> actualParameters = LayerSpec.parameters(actual.getLayers().get(l));
+            assertEquals(expectedParameters.size(), actualParameters.size());
+            for (int i = 0; i < expectedParameters.size(); i++) {
+                assertArrayEquals("layer " + l, expectedParameters.get(i), actualParameters.get(i), 0);
+            }
+        }
+        final Tensor input = createInput(expected);
+        assertArrayEquals(output(expected, input), output(actual, input), 0);
+    }
+
+    private NeuralNetwork<?> writeAndRead(NeuralNetwork<?> neuralNet) throws IOException, ClassNotFoundException {
+        final File file = folder.newFile();
+        FileIO.writeToBinaryFile(neuralNet, file.getPath());
+        assertTrue(BinaryModel.isBinaryModel(file));
+        return FileIO.createFromFile(file);
+    }
+
+    @Test
+    public void testFeedForwardNetworkRoundTrip() throws IOException, ClassNotFoundException {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final NeuralNetwork<?> read = writeAndRead(neuralNet);
+
+        assertSameNetwork(neuralNet, read);
+        assertArrayEquals(new String[] {"a", "b", "c"}, read.getOutputLabels());
+        assertEquals("feed forward", read.getLabel());
+        assertEquals(neuralNet.getLossFunction().getClass(), read.getLossFunction().getClass());
+        assertFalse(read.isFrozen());
+    }
+
+    @Test
+    public void testConvolutionalNetworkRoundTrip() throws IOException, ClassNotFoundException {
+        final ConvolutionalNetwork neuralNet = TestFixtures.createConvolutionalNetwork();
+        assertSameNetwork(neuralNet, writeAndRead(neuralNet));
+    }
+
+    @Test
+    public void testReadDoesNotUseRandomGenerator() throws IOException, ClassNotFoundException {
+        final File file = folder.newFile();
+        FileIO.writeToBinaryFile(TestFixtures.createConvolutionalNetwork(), file.getPath());
+
+        RandomGenerator.getDefault().initSeed(42);
+        FileIO.createFromFile(file);
+        final int next = RandomGenerator.getDefault().nextInt();
+
+        RandomGenerator.getDefault().initSeed(42);
+        assertEquals(next, RandomGenerator.getDefault().nextInt());
+    }
+
+    @Test
+    public void testNetworkForInferenceIsBuiltFrozen() throws IOException, ClassNotFoundException {
+        for (NeuralNetwork<?> neuralNet : Arrays.asList(TestFixtures.createFeedForwardNetwork(), TestFixtures.createConvolutionalNetwork())) {
+            final File file = folder.newFile();
+            FileIO.writeForInference(neuralNet, file.getPath());
+            final NeuralNetwork<?> read = FileIO.createFromFile(file);
+
+            assertTrue(read.isFrozen());
+            for (AbstractLayer layer : read.getLayers()) {
+                assertTrue(layer.isFrozen());
+                if (layer instanceof InputLayer) continue;
+                assertNull(layer.getDeltas());
+                assertNull(layer.getDeltaWeights());
+                assertNull(layer.getPrevDeltaWeights());
+                assertNull(layer.getGradients());
+                assertNull(layer.getDeltaBiases());
+                assertNull(layer.getPrevDeltaBiases());
+            }
+            assertSameNetwork(neuralNet, read);
+        }
+    }
+
+    @Test
+    public void testWriteToFileKeepsSerializedFormat() throws IOException, ClassNotFoundException {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final File file = folder.newFile();
+        FileIO.writeToFile(neuralNet, file.getPath());
+
+        assertFalse(BinaryModel.isBinaryModel(file));
+        assertSameNetwork(neuralNet, FileIO.createFromFile(file.getPath(), FeedForwardNetwork.class));
+    }
+
+    @Test
+    public void testTruncatedFileIsRejected() throws IOException {
+        final File file = folder.newFile();
+        FileIO.writeToBinaryFile(TestFixtures.createFeedForwardNetwork(), file.getPath());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 64);
+        }
+
+        try {
+            FileIO.createFromFile(file);
+            fail("Truncated file should be rejected");
+        } catch (DeepNettsException | ClassNotFoundException ex) {
+            // expected
+        }
+    }
+
+}
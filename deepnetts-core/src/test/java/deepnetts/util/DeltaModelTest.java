@@ -0,0 +1,152 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.NeuralNetwork;
+import deepnetts.net.train.BackpropagationTrainer;
+import deepnetts.net.train.TrainingEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that delta snapshots are read with the same weights as the network
+ * they were written from, and that they are smaller than full snapshots.
+ */
+public class DeltaModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FeedForwardNetwork createNetwork() {
+        return TestFixtures.createBinaryClassifier(16, 64);
+    }
+
+    private static List<List<float[]>> copy(List<List<float[]>> parameters) {
+        final List<List<float[]>> copy = new ArrayList<>();
+        for (List<float[]> layerParameters : parameters) {
+            final List<float[]> layerCopy = new ArrayList<>();
+            for (float[] values : layerParameters) {
+                layerCopy.add(values.clone());
+            }
+            copy.add(layerCopy);
+        }
+        return copy;
+    }
+
+    private static void assertSameWeights(NeuralNetwork<?> expected, NeuralNetwork<?> actual) {
+        final List<List<float[]>> expectedParameters = BinaryModel.parameters(expected);
+        final List<List<float[]>> actualParameters = BinaryModel.parameters(actual);
+        for (int l = 0; l < expectedParameters.size(); l++) {
+            for (int a = 0; a < expectedParameters.get(l).size(); a++) {
+                assertArrayEquals(expectedParameters.get(l).get(a), actualParameters.get(l).get(a), 0);
+            }
+        }
+    }
+
+    private BackpropagationTrainer createTrainer(FeedForwardNetwork neuralNet, File dir) {
+        final BackpropagationTrainer trainer = neuralNet.getTrainer();
+        trainer.setLearningRate(0.1f).setMaxError(0).setMaxEpochs(2).setSnapshotPath(new File(dir, "net").getPath());
+        trainer.setTrainingSnapshots(true);
+        trainer.setSnapshotEpochs(1);
+        trainer.setDeltaSnapshots(1);
+        return trainer;
+    }
+
+    @Test
+    public void testSparseChangesRoundTrip() throws IOException {
+        final FeedForwardNetwork neuralNet = createNetwork();
+        final List<List<float[]>> base = copy(BinaryModel.parameters(neuralNet));
+        final File baseFile = folder.newFile("base.dnet");
+        BinaryModel.write(neuralNet, base, baseFile, false);
+
+        final float[] weights = neuralNet.getLayers().get(1).getWeights().getValues();
+        weights[0] += 1;
+        weights[weights.length - 1] = -0f;
+        neuralNet.getLayers().get(2).getBiases()[0] += 0.5f;
+
+        final File deltaFile = folder.newFile("delta.dnet");
+        DeltaModel.write(base, BinaryModel.parameters(neuralNet), baseFile.getName(), deltaFile);
+
+        assertTrue(DeltaModel.isDeltaModel(deltaFile));
+        assertSameWeights(neuralNet, DeltaModel.read(deltaFile));
+        assertTrue(deltaFile.length() < 100);
+    }
+
+    @Test
+    public void testDeltaAfterTrainingEpochIsSmallerThanFullSnapshot() throws IOException, ClassNotFoundException {
+        final FeedForwardNetwork neuralNet = createNetwork();
+        final File dir = folder.newFolder();
+        createTrainer(neuralNet, dir).train(TestFixtures.createBinaryDataSet(16, 200, 0));
+
+        final File full = new File(dir, "net_epoch_1.dnet");
+        final File delta = new File(dir, "net_epoch_2_delta.dnet");
+        assertTrue(full.isFile());
+        assertTrue(delta.isFile());
+        assertTrue("Delta snapshot has " + delta.length() + " bytes, full snapshot " + full.length(),
+                   delta.length() < full.length());
+
+        assertSameWeights(neuralNet, FileIO.createFromFile(delta));
+    }
+
+    @Test
+    public void testSnapshotsAreWrittenWhenTrainingFails() throws IOException, ClassNotFoundException {
+        final FeedForwardNetwork neuralNet = createNetwork();
+        final File dir = folder.newFolder();
+        final BackpropagationTrainer trainer = createTrainer(neuralNet, dir);
+        final List<List<float[]>> firstEpoch = new ArrayList<>();
+        trainer.addListener(event -> {
+            if (event.getType() != TrainingEvent.Type.EPOCH_FINISHED) return;
+            if (firstEpoch.isEmpty()) {
+                firstEpoch.addAll(copy(BinaryModel.parameters(neuralNet)));
+            } else {
+                throw new IllegalStateException("Training failed");
+            }
+        });
+
+        try {
+            trainer.train(TestFixtures.createBinaryDataSet(16, 50, 0));
+            fail("Exception from listener should stop training");
+        } catch (IllegalStateException ex) {
+            assertEquals("Training failed", ex.getMessage());
+        }
+
+        final NeuralNetwork<?> snapshot = FileIO.createFromFile(new File(dir, "net_epoch_1.dnet"));
+        final List<List<float[]>> parameters = BinaryModel.parameters(snapshot);
+        for (int l = 0; l < parameters.size(); l++) {
+            for (int a = 0; a < parameters.get(l).size(); a++) {
+                assertArrayEquals(firstEpoch.get(l).get(a), parameters.get(l).get(a), 0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.NeuralNetwork;
+import java.io.File;
+import java.io.IOException;
+import org.json.JSONObject;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that networks written as JSON are read with the same architecture,
+ * weights and outputs.
+ */
+public class JsonModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFeedForwardNetworkRoundTrip() {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final NeuralNetwork<?> read = FileIO.createFromJson(FileIO.toJson(neuralNet));
+
+        BinaryModelTest.assertSameNetwork(neuralNet, read);
+        assertArrayEquals(new String[] {"a", "b", "c"}, read.getOutputLabels());
+        assertEquals("feed forward", read.getLabel());
+        assertEquals(neuralNet.getLossFunction().getClass(), read.getLossFunction().getClass());
+    }
+
+    @Test
+    public void testConvolutionalNetworkRoundTrip() {
+        final ConvolutionalNetwork neuralNet = TestFixtures.createConvolutionalNetwork();
+        BinaryModelTest.assertSameNetwork(neuralNet, FileIO.createFromJson(FileIO.toJson(neuralNet)));
+    }
+
+    @Test
+    public void testFileRoundTrip() throws IOException {
+        final ConvolutionalNetwork neuralNet = TestFixtures.createConvolutionalNetwork();
+        final File file = folder.newFile();
+        FileIO.writeToFileAsJson(neuralNet, file.getPath());
+
+        BinaryModelTest.assertSameNetwork(neuralNet, FileIO.createFromJson(file));
+    }
+
+    @Test
+    public void testJsonObjectRoundTrip() {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        final JSONObject json = new JSONObject(FileIO.toJson(neuralNet));
+
+        BinaryModelTest.assertSameNetwork(neuralNet, FileIO.createFeedForwardNetworkFromJson(json));
+    }
+
+    @Test
+    public void testLabelsWithSpecialCharacters() {
+        final FeedForwardNetwork neuralNet = TestFixtures.createFeedForwardNetwork();
+        neuralNet.setOutputLabels("quote \"a\"", "back\\slash", "line\nbreak \u0161");
+        neuralNet.setLabel("{label: [1, 2]}");
+
+        final NeuralNetwork<?> read = FileIO.createFromJson(FileIO.toJson(neuralNet));
+        assertArrayEquals(neuralNet.getOutputLabels(), read.getOutputLabels());
+        assertEquals(neuralNet.getLabel(), read.getLabel());
+    }
+
+    @Test
+    public void testArchitectureWithoutWeights() {
+        final String json = "{\"networkType\":\"FEEDFORWARD\",\"lossFunction\":\"MEAN_SQUARED_ERROR\",\"layers\":["
+                          + "{\"layerType\":\"INPUT\",\"width\":3},"
+                          + "{\"layerType\":\"FULLY_CONNECTED\",\"width\":4,\"activation\":\"TANH\"},"
+                          + "{\"layerType\":\"OUTPUT\",\"width\":1,\"activation\":\"SIGMOID\"}]}";
+        final NeuralNetwork<?> read = FileIO.createFromJson(json);
+
+        assertEquals(3, read.getLayers().size());
+        assertEquals(12, read.getLayers().get(1).getWeights().size());
+        boolean random = false;
+        for (float weight : read.getLayers().get(1).getWeights().getValues()) {
+            random |= weight != 0;
+        }
+        assertTrue("Layers without weights in JSON should get random weights", random);
+    }
+
+    @Test
+    public void testWrongNumberOfWeightsIsRejected() {
+        final String json = FileIO.toJson(TestFixtures.createFeedForwardNetwork())
+                                  .replaceFirst("\"width\":7", "\"width\":6");
+        try {
+            FileIO.createFromJson(json);
+            fail("Weights which do not match architecture should be rejected");
+        } catch (DeepNettsException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ *  DeepNetts is pure Java Deep Learning Library with support for Backpropagation
+ *  based learning and image recognition.
+ *
+ *  Copyright (C) 2017  Zoran Sevarac <sevarac@gmail.com>
+ *
+ * This file is part of DeepNetts.
+ *
+ * DeepNetts is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * this program. If not, see <https://www.gnu.org/licenses/>.package
+ * deepnetts.core;
+ */
+
+package deepnetts.util;
+
+import deepnetts.data.TabularDataSet;
+import deepnetts.net.ConvolutionalNetwork;
+import deepnetts.net.FeedForwardNetwork;
+import deepnetts.net.layers.activation.ActivationType;
+import deepnetts.net.loss.LossType;
+
+/**
+ * Small networks and data sets shared by tests. Networks are created with a
+ * fixed random seed, so each call returns a network with the same weights.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() { }
+
+    /**
+     * Creates feed forward classifier with 5 inputs, 7 hidden neurons and 3
+     * labeled outputs.
+     *
+     * @return new feed forward network
+     */
+    public static FeedForwardNetwork createFeedForwardNetwork() {
+        final FeedForwardNetwork neuralNet = FeedForwardNetwork.builder()
+                .randomSeed(123)
+                .addInputLayer(5)
+                .addFullyConnectedLayer(7, ActivationType.TANH)
+                .addOutputLayer(3, ActivationType.SOFTMAX)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .build();
+        neuralNet.setOutputLabels("a", "b", "c");
+        neuralNet.setLabel("feed forward");
+        return neuralNet;
+    }
+
+    /**
+     * Creates convolutional classifier for 8x8 inputs with 2 channels, with
+     * convolutional, max pooling and fully connected layer.
+     *
+     * @return new convolutional network
+     */
+    public static ConvolutionalNetwork createConvolutionalNetwork() {
+        return ConvolutionalNetwork.builder()
+                .randomSeed(123)
+                .addInputLayer(8, 8, 2)
+                .addConvolutionalLayer(3, 3, 3, ActivationType.RELU)
+                .addMaxPoolingLayer(2, 2, 2)
+                .addFullyConnectedLayer(6, ActivationType.RELU)
+                .addOutputLayer(2, ActivationType.SOFTMAX)
+                .lossFunction(LossType.CROSS_ENTROPY)
+                .build();
+    }
+
+    /**
+     * Creates feed forward network with one hidden layer and single sigmoid
+     * output, for data sets created with createBinaryDataSet.
+     *
+     * @param numInputs number of inputs
+     * @param numHidden number of hidden neurons
+     * @return new feed forward network
+     */
+    public static FeedForwardNetwork createBinaryClassifier(int numInputs, int numHidden) {
+        return FeedForwardNetwork.builder()
+                .randomSeed(123)
+                .addInputLayer(numInputs)
+                .addFullyConnectedLayer(numHidden, ActivationType.TANH)
+                .addOutputLayer(1, ActivationType.SIGMOID)
+                .lossFunction(LossType.MEAN_SQUARED_ERROR)
+                .build();
+    }
+
+    /**
+     * Creates data set where target is 1 when sum of inputs is positive.
+     * Data sets with different seeds contain different rows.
+     *
+     * @param numInputs number of inputs
+     * @param size number of rows
+     * @param seed first row of generated sequence
+     * @return new data set
+     */
+    public static TabularDataSet<TabularDataSet.Item> createBinaryDataSet(int numInputs, int size, int seed) {
+        final TabularDataSet<TabularDataSet.Item> dataSet = new TabularDataSet<>(numInputs, 1);
+        final String[] columnNames = new String[numInputs + 1];
+        for (int j = 0; j < numInputs; j++) {
+            columnNames[j] = "x" + (j + 1);
+        }
+        columnNames[numInputs] = "target";
+        dataSet.setColumnNames(columnNames);
+
+        for (int i = 0; i < size; i++) {
+            final float[] in = new float[numInputs];
+            float sum = 0;
+            for (int j = 0; j < in.length; j++) {
+                in[j] = (float) Math.sin((seed + i) * 4.1 + j * 1.7);
+                sum += in[j];
+            }
+            dataSet.add(new TabularDataSet.Item(in, new float[] {sum > 0 ? 1 : 0}));
+        }
+        return dataSet;
+    }
+
+}